@@ -1,6 +1,7 @@
 package org.esa.beam.globalbedo.inversion;
 
 import Jama.Matrix;
+import org.esa.beam.globalbedo.inversion.util.AccumulatorLayout;
 
 /**
  * Container object holding the M, V, E estimation matrices and mask value
@@ -26,7 +27,7 @@ public class Accumulator {
      * Returns an accumulator object built from matrix array of a full accumulator product to be used
      * for inversion in {@link InversionOp}}.
      *
-     * @param sumMatrices - array holding M, V, E, mask
+     * @param sumMatrices - array holding M, V, E, mask (packed layout, see {@link AccumulatorLayout})
      * @param x - pixel_x
      * @param y - pixel_y
      *
@@ -41,8 +42,10 @@ public class Accumulator {
 
         int index = 0;
         for (int i = 0; i < 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            for (int j = 0; j < 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; j++) {
-                M.set(i, j, sumMatrices[index++][x][y]);
+            for (int j = i; j < 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; j++) {
+                M.set(i, j, sumMatrices[index][x][y]);
+                M.set(j, i, sumMatrices[index][x][y]);
+                index++;
             }
         }
         for (int i = 0; i < 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
@@ -40,6 +40,12 @@ public class AlbedoInversionConstants {
 
     public static final String PRIOR_NSAMPLES_NAME =  "N samples";
     public static final String PRIOR_MASK_NAME =  "Mask";
+    // defaults of the prior band parameters of InversionOp and MergeBrdfOp (latest prior version)
+    public static final String PRIOR_MEAN_BAND_NAME_PREFIX = "MEAN:_BAND_";
+    public static final String PRIOR_SD_BAND_NAME_PREFIX = "SD:_BAND_";
+    public static final int PRIOR_BAND_START_INDEX = 7;
+    public static final String PRIOR_WEIGHTED_NSAMPLES_NAME = "Weighted_number_of_samples";
+    public static final String PRIOR_LAND_MASK_NAME = "land_mask";
 
     public static final String INV_ENTROPY_BAND_NAME = "Entropy";
     public static final String INV_REL_ENTROPY_BAND_NAME = "Relative_Entropy";
@@ -60,7 +66,7 @@ public class AlbedoInversionConstants {
     public static final int NUM_BBDR_WAVE_BANDS = 3;
     public static final int NUM_ALBEDO_PARAMETERS = 3;  // f0, f1, f2
 
-    public static final int NUM_ACCUMULATOR_BANDS = 92;
+    public static final int NUM_ACCUMULATOR_BANDS = 56;  // packed: 45 M (upper triangle), 9 V, E, mask
 
     public static final int MODIS_TILE_WIDTH = 1200;
     public static final int MODIS_TILE_HEIGHT = 1200;
@@ -72,9 +78,13 @@ public class AlbedoInversionConstants {
 
     public static final double MODIS_SIN_PROJECTION_PIXEL_SIZE_X = 926.6254330558;
     public static final double MODIS_SIN_PROJECTION_PIXEL_SIZE_Y = 926.6254330558;
+    public static final double MODIS_SIN_PROJECTION_EARTH_RADIUS = 6371007.181;
 
     public static final double SEAICE_PST_PIXEL_SIZE_X = 1000.0;
     public static final double SEAICE_PST_PIXEL_SIZE_Y = 1000.0;
+    // map coordinates of the reference pixel in the PST reprojection of the BBDR products
+    public static final double SEAICE_PST_REFERENCE_EASTING = 89.999999999;
+    public static final double SEAICE_PST_REFERENCE_NORTHING = 0.0;
 
 //    public static final double UPPER_LEFT_TILE_UPPER_LEFT_X = -20015109.354;
 //    public static final double UPPER_LEFT_TILE_UPPER_LEFT_Y = 10007554.677;
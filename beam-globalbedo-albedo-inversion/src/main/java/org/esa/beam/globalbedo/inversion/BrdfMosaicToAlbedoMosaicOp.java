@@ -89,6 +89,9 @@ public class BrdfMosaicToAlbedoMosaicOp extends PixelOperator {
     @Parameter(description = "doy")
     private int doy;
 
+    // SZA at local noon per row, if the latitude depends on the row only
+    private double[] szaPerRow;
+
     @Override
     protected void computePixel(int x, int y, Sample[] sourceSamples, WritableSample[] targetSamples) {
 
@@ -105,9 +108,14 @@ public class BrdfMosaicToAlbedoMosaicOp extends PixelOperator {
         Uncertainties = U^T C^-1 U , U is stored as a 1X9 vector (transpose), so, actually U^T is the regulat 9x1 vector
         */
 
-        final PixelPos pixelPos = new PixelPos(x, y);
-        final GeoPos geoPos = brdfMergedProduct.getGeoCoding().getGeoPos(pixelPos, null);
-        final double SZAdeg = AlbedoInversionUtils.computeSza(geoPos, doy);
+        double SZAdeg;
+        if (szaPerRow != null) {
+            SZAdeg = szaPerRow[y];
+        } else {
+            final PixelPos pixelPos = new PixelPos(x, y);
+            final GeoPos geoPos = brdfMergedProduct.getGeoCoding().getGeoPos(pixelPos, null);
+            SZAdeg = AlbedoInversionUtils.computeSza(geoPos, doy);
+        }
         final double SZA = SZAdeg * MathUtils.DTOR;
 
         final Matrix C = getCMatrixFromInversionProduct(sourceSamples);
@@ -320,6 +328,8 @@ public class BrdfMosaicToAlbedoMosaicOp extends PixelOperator {
 
     @Override
     protected void configureSourceSamples(SampleConfigurer configurator) throws OperatorException {
+        szaPerRow = AlbedoInversionUtils.computeSzaPerRow(brdfMergedProduct, doy);
+
         // merged BRDF product...
         parameterBandNames = IOUtils.getInversionParameterBandNames();
         for (int i = 0; i < 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
@@ -1,23 +1,31 @@
 package org.esa.beam.globalbedo.inversion;
 
-import Jama.LUDecomposition;
-import Jama.Matrix;
+import com.bc.ceres.core.ProgressMonitor;
 import org.esa.beam.framework.datamodel.*;
+import org.esa.beam.framework.gpf.Operator;
 import org.esa.beam.framework.gpf.OperatorException;
 import org.esa.beam.framework.gpf.OperatorSpi;
+import org.esa.beam.framework.gpf.Tile;
 import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
 import org.esa.beam.framework.gpf.annotations.Parameter;
 import org.esa.beam.framework.gpf.annotations.SourceProduct;
-import org.esa.beam.framework.gpf.pointop.*;
 import org.esa.beam.globalbedo.inversion.util.AlbedoInversionUtils;
 import org.esa.beam.globalbedo.inversion.util.IOUtils;
+import org.esa.beam.globalbedo.inversion.util.PackedCovariance;
+import org.esa.beam.globalbedo.inversion.util.SymmetricMatrixSolver;
+import org.esa.beam.util.ProductUtils;
 import org.esa.beam.util.math.MathUtils;
 
-import static java.lang.Math.pow;
+import java.awt.Rectangle;
+import java.util.Map;
 
 /**
  * Operator for retrieval of albedo from BRDF model parameters.
  * The breadboard file is 'Albedo.py' provided by Gerardo Lopez Saldana.
+ * <p/>
+ * The tiles are computed row by row: the source samples of a row are read once into primitive arrays, and the
+ * uncertainties are evaluated directly on the 45 packed covariance terms (see {@link PackedCovariance}) instead of
+ * on Jama matrices per pixel. The results are bit-identical to the former Jama implementation.
  *
  * @author Olaf Danne
  * @version $Revision: $ $Date:  $
@@ -27,57 +35,23 @@ import static java.lang.Math.pow;
         authors = "Olaf Danne",
         version = "1.0",
         copyright = "(C) 2011 by Brockmann Consult")
-public class BrdfToAlbedoOp extends PixelOperator {
-
-    // source samples:
-    private static final int[] SRC_PARAMETERS = new int[3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-
-    private String[] parameterBandNames = new String[3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-
-    private String[][] uncertaintyBandNames = new String[3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS]
-            [3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-
-
-    // this offset is the number of UR matrix elements + diagonale. Should be 45 for 9x9 matrix...
-    private static final int urMatrixOffset = ((int) pow(3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS, 2.0)
-            + 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS) / 2;
-
-    private static final int[] SRC_UNCERTAINTIES = new int[urMatrixOffset];
-
-    private static final int SRC_ENTROPY = 0;
-    private static final int SRC_REL_ENTROPY = 1;
-    private static final int SRC_WEIGHTED_NUM_SAMPLES = 2;
-    private static final int SRC_DAYS_CLOSEST_SAMPLE = 3;
-    private static final int SRC_GOODNESS_OF_FIT = 4;
-    private static final int SRC_PROPORTION_NSAMPLE = 5;
-
-    private String[] dhrBandNames = new String[AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-    private String[] bhrBandNames = new String[AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-    private String[] dhrAlphaBandNames = new String[AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-    private String[] bhrAlphaBandNames = new String[AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-    private String[] dhrSigmaBandNames = new String[AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-    private String[] bhrSigmaBandNames = new String[AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-
-    private String relEntropyBandName;
-    private String weightedNumberOfSamplesBandName;
-    private String goodnessOfFitBandName;
-    private String snowFractionBandName;
-    private String dataMaskBandName;
-    private String szaBandName;
-
-    private static final int[] TRG_DHR = new int[AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-    private static final int[] TRG_DHR_ALPHA = new int[AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-    private static final int[] TRG_BHR = new int[AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-    private static final int[] TRG_BHR_ALPHA = new int[AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-    private static final int[] TRG_SIGMA_DHR = new int[AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-    private static final int[] TRG_SIGMA_BHR = new int[AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-    private static final int TRG_WEIGHTED_NUM_SAMPLES = 0;
-    private static final int TRG_REL_ENTROPY = 1;
-    private static final int TRG_GOODNESS_OF_FIT = 2;
-    private static final int TRG_SNOW_FRACTION = 3;
-    private static final int TRG_DATA_MASK = 4;
-    private static final int TRG_SZA = 5;
+public class BrdfToAlbedoOp extends Operator {
 
+    private static final int NUM_BANDS = AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS;
+    private static final int NUM_PARAMETERS = AlbedoInversionConstants.NUM_ALBEDO_PARAMETERS;
+
+    // source rasters:
+    private static final int SRC_PARAMETERS = 0;
+    private static final int SRC_UNCERTAINTIES = SRC_PARAMETERS + NUM_BANDS * NUM_PARAMETERS;
+    private static final int SRC_ENTROPY = SRC_UNCERTAINTIES + PackedCovariance.NUM_TERMS;
+    private static final int SRC_REL_ENTROPY = SRC_ENTROPY + 1;
+    private static final int SRC_WEIGHTED_NUM_SAMPLES = SRC_ENTROPY + 2;
+    private static final int SRC_GOODNESS_OF_FIT = SRC_ENTROPY + 3;
+    private static final int SRC_PROPORTION_NSAMPLE = SRC_ENTROPY + 4;
+    private static final int NUM_SOURCE_RASTERS = SRC_ENTROPY + 5;
+
+    // white-sky polynomial coefficients of f0, f1, f2
+    private static final double[] K_BHR = {1.0, 0.189184, -1.377622};
 
     @SourceProduct(description = "BRDF merged product")
     private Product brdfMergedProduct;
@@ -88,8 +62,52 @@ public class BrdfToAlbedoOp extends PixelOperator {
     @Parameter(defaultValue = "false", description = "Computation for seaice mode (polar tiles)")
     private boolean computeSeaice;
 
+    @Parameter(description = "MODIS tile, e.g. h18v04 (SZA is derived from the geocoding if not set)")
+    private String tile;
+
+    // SZA at local noon per row, if the latitude depends on the row only
+    private double[] szaPerRow;
+
+    private RasterDataNode[] sourceRasters;
+
+    private Band[] dhrBands;
+    private Band[] dhrAlphaBands;
+    private Band[] dhrSigmaBands;
+    private Band[] bhrBands;
+    private Band[] bhrAlphaBands;
+    private Band[] bhrSigmaBands;
+    private Band weightedNumberOfSamplesBand;
+    private Band relEntropyBand;
+    private Band goodnessOfFitBand;
+    private Band snowFractionBand;
+    private Band dataMaskBand;
+    private Band szaBand;
+
     @Override
-    protected void computePixel(int x, int y, Sample[] sourceSamples, WritableSample[] targetSamples) {
+    public void initialize() throws OperatorException {
+        if (!computeSeaice && tile != null && tile.matches("h\\d{2}v\\d{2}")) {
+            szaPerRow = AlbedoInversionUtils.computeModisTileSzaPerRow(tile, brdfMergedProduct.getSceneRasterHeight(),
+                                                                       doy);
+        } else {
+            szaPerRow = AlbedoInversionUtils.computeSzaPerRow(brdfMergedProduct, doy);
+        }
+
+        configureSourceRasters();
+
+        final int width = brdfMergedProduct.getSceneRasterWidth();
+        final int height = brdfMergedProduct.getSceneRasterHeight();
+        Product targetProduct = new Product(getId(), getClass().getName(), width, height);
+        ProductUtils.copyGeoCoding(brdfMergedProduct, targetProduct);
+        targetProduct.setStartTime(brdfMergedProduct.getStartTime());
+        targetProduct.setEndTime(brdfMergedProduct.getEndTime());
+        targetProduct.setPreferredTileSize(brdfMergedProduct.getPreferredTileSize());
+        configureTargetBands(targetProduct);
+        setTargetProduct(targetProduct);
+    }
+
+    @Override
+    public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle targetRectangle, ProgressMonitor pm)
+            throws OperatorException {
 
         /*
         Get Albedo based on model:
@@ -104,451 +122,202 @@ public class BrdfToAlbedoOp extends PixelOperator {
         Uncertainties = U^T C^-1 U , U is stored as a 1X9 vector (transpose), so, actually U^T is the regulat 9x1 vector
         */
 
-        final PixelPos pixelPos = new PixelPos(x, y);
-        final GeoPos geoPos = brdfMergedProduct.getGeoCoding().getGeoPos(pixelPos, null);
-        final double SZAdeg = AlbedoInversionUtils.computeSza(geoPos, doy);
-        final double SZA = SZAdeg * MathUtils.DTOR;
-
-        final Matrix C = getCMatrixFromInversionProduct(sourceSamples);
-
-        Matrix[] sigmaBHR = new Matrix[AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-        Matrix[] sigmaDHR = new Matrix[AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-
-        for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            sigmaBHR[i] = new Matrix(1, 1, Double.NaN);
-            sigmaDHR[i] = new Matrix(1, 1, Double.NaN);
-        }
+        final Tile[] sourceTiles = new Tile[NUM_SOURCE_RASTERS];
+        for (int i = 0; i < NUM_SOURCE_RASTERS; i++) {
+            sourceTiles[i] = getSourceTile(sourceRasters[i], targetRectangle);
+        }
+
+        final int width = targetRectangle.width;
+        final double[][] rowSamples = new double[NUM_SOURCE_RASTERS][width];
+        final double[] c = new double[PackedCovariance.NUM_TERMS];
+        final double[] cMatrix = new double[PackedCovariance.N * PackedCovariance.N];
+        final SymmetricMatrixSolver solver = new SymmetricMatrixSolver(PackedCovariance.N);
+        final double[] kDHR = new double[NUM_PARAMETERS];
+        kDHR[0] = 1.0;
+
+        for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
+            for (int i = 0; i < NUM_SOURCE_RASTERS; i++) {
+                final Tile sourceTile = sourceTiles[i];
+                final double[] samples = rowSamples[i];
+                for (int x = targetRectangle.x; x < targetRectangle.x + width; x++) {
+                    samples[x - targetRectangle.x] = sourceTile.getSampleDouble(x, y);
+                }
+            }
 
-        Matrix uWsaVis = new Matrix(1, 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS);
-        Matrix uWsaNir = new Matrix(1, 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS);
-        Matrix uWsaSw = new Matrix(1, 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS);
+            for (int x = targetRectangle.x; x < targetRectangle.x + width; x++) {
+                final int ix = x - targetRectangle.x;
 
-        uWsaVis.set(0, 0, 1.0);
-        uWsaVis.set(0, 1, 0.189184);
-        uWsaVis.set(0, 2, -1.377622);
-        for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            uWsaNir.set(0, i + 3, uWsaVis.get(0, i));
-            uWsaSw.set(0, i + 6, uWsaVis.get(0, i));
-        }
+                final double SZAdeg = getSza(x, y);
+                final double SZA = SZAdeg * MathUtils.DTOR;
+                kDHR[1] = -0.007574 + (-0.070887 * Math.pow(SZA, 2.0)) + (0.307588 * Math.pow(SZA, 3.0));
+                kDHR[2] = -1.284909 + (-0.166314 * Math.pow(SZA, 2.0)) + (0.041840 * Math.pow(SZA, 3.0));
 
-        // # Calculate uncertainties...
-        // Breadboard uses relative entropy as maskRelEntropy here
-        // but write entropy as Mask in output product!! see BB, GetInversion
-        double maskRelEntropy = sourceSamples[SRC_PARAMETERS.length + SRC_UNCERTAINTIES.length + SRC_REL_ENTROPY].getDouble();
-        maskRelEntropy = Math.exp(maskRelEntropy / 9.0);
-        if (maskRelEntropy > 0.0) {
-            final LUDecomposition cLUD = new LUDecomposition(C.transpose());
-            if (cLUD.isNonsingular()) {
-                // # Calculate White-Sky sigma
-                sigmaBHR[0] = uWsaVis.times(C.transpose()).times(uWsaVis.transpose());
-                sigmaBHR[1] = uWsaNir.times(C.transpose()).times(uWsaNir.transpose());
-                sigmaBHR[2] = uWsaSw.times(C.transpose()).times(uWsaSw.transpose());
-
-                // # Calculate Black-Sky sigma
-                Matrix uBsaVis = new Matrix(1, 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS);
-                Matrix uBsaNir = new Matrix(1, 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS);
-                Matrix uBsaSw = new Matrix(1, 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS);
-
-                final double[] uBsaArray = new double[]{
-                        1.0,
-                        -0.007574 + (-0.070887 * Math.pow(SZA, 2.0)) + (0.307588 * Math.pow(SZA, 3.0)),
-                        -1.284909 + (-0.166314 * Math.pow(SZA, 2.0)) + (0.041840 * Math.pow(SZA, 3.0))
-                };
-
-                for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-                    uBsaVis.set(0, i, uBsaArray[i]);
-                    uBsaNir.set(0, i + 3, uBsaArray[i]);
-                    uBsaSw.set(0, i + 6, uBsaArray[i]);
+                for (int i = 0; i < PackedCovariance.NUM_TERMS; i++) {
+                    c[i] = rowSamples[SRC_UNCERTAINTIES + i][ix];
                 }
-
-                sigmaDHR[0] = uBsaVis.times(C.transpose()).times(uBsaVis.transpose());
-                sigmaDHR[1] = uBsaNir.times(C.transpose()).times(uBsaNir.transpose());
-                sigmaDHR[2] = uBsaSw.times(C.transpose()).times(uBsaSw.transpose());
-            } else {
-                for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-                    sigmaBHR[i].set(0, 0, Double.NaN);
-                    sigmaDHR[i].set(0, 0, Double.NaN);
+                // the Jama products gave NaN for any non-finite element of C, keep that
+                final boolean finite = PackedCovariance.isFinite(c);
+
+                // # Calculate uncertainties...
+                // Breadboard uses relative entropy as maskRelEntropy here
+                // but write entropy as Mask in output product!! see BB, GetInversion
+                final double maskRelEntropy = Math.exp(rowSamples[SRC_REL_ENTROPY][ix] / 9.0);
+                boolean computeSigmas = false;
+                if (maskRelEntropy > 0.0) {
+                    PackedCovariance.unpack(c, cMatrix);
+                    computeSigmas = solver.decomposeWithLU(cMatrix);
                 }
-            }
-        }
-
-        // Calculate Black-Sky Albedo...
-        final int numParams = AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS * AlbedoInversionConstants.NUM_ALBEDO_PARAMETERS;
-        double[] fParams = new double[numParams];
-        for (int i = 0; i < numParams; i++) {
-            fParams[i] = sourceSamples[i].getDouble();
-        }
 
-        double[] DHR = new double[AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-        for (int i = 0; i < DHR.length; i++) {
-            DHR[i] = fParams[(3 * i)] +
-                    fParams[1 + 3 * i] * (-0.007574 + (-0.070887 * Math.pow(SZA,
-                            2.0)) + (0.307588 * Math.pow(
-                            SZA,
-                            3.0))) +
-                    fParams[2 + 3 * i] * (-1.284909 + (-0.166314 * Math.pow(SZA,
-                            2.0)) + (0.041840 * Math.pow(
-                            SZA,
-                            3.0)));
-        }
+                for (int i = 0; i < NUM_BANDS; i++) {
+                    final double f0 = rowSamples[SRC_PARAMETERS + NUM_PARAMETERS * i][ix];
+                    final double f1 = rowSamples[SRC_PARAMETERS + NUM_PARAMETERS * i + 1][ix];
+                    final double f2 = rowSamples[SRC_PARAMETERS + NUM_PARAMETERS * i + 2][ix];
+
+                    // Black-Sky and White-Sky Albedo
+                    targetTiles.get(dhrBands[i]).setSample(x, y, f0 + f1 * kDHR[1] + f2 * kDHR[2]);
+                    targetTiles.get(bhrBands[i]).setSample(x, y, f0 + (f1 * K_BHR[1]) + (f2 * K_BHR[2]));
+
+                    // # Cap uncertainties and calculate sqrt
+                    double sigmaDHR = Double.NaN;
+                    double sigmaBHR = Double.NaN;
+                    if (computeSigmas) {
+                        sigmaDHR = getForm(c, finite, i, i, kDHR);
+                        sigmaBHR = getForm(c, finite, i, i, K_BHR);
+                    }
+                    targetTiles.get(dhrSigmaBands[i]).setSample(x, y, capSigma(sigmaDHR));
+                    targetTiles.get(bhrSigmaBands[i]).setSample(x, y, capSigma(sigmaBHR));
+                }
 
-        // # Calculate White-Sky Albedo...
-        double[] BHR = new double[AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-        BHR[0] = fParams[(3 * 0)] +
-                (fParams[1 + 3 * 0] * uWsaVis.get(0, 1 + 3 * 0)) +
-                (fParams[2 + 3 * 0] * uWsaVis.get(0, 2 + 3 * 0));
-        BHR[1] = fParams[(3 * 1)] +
-                (fParams[1 + 3 * 1] * uWsaNir.get(0, 1 + 3 * 1)) +
-                (fParams[2 + 3 * 1] * uWsaNir.get(0, 2 + 3 * 1));
-        BHR[2] = fParams[(3 * 2)] +
-                (fParams[1 + 3 * 2] * uWsaSw.get(0, 1 + 3 * 2)) +
-                (fParams[2 + 3 * 2] * uWsaSw.get(0, 2 + 3 * 2));
-
-        double[] alphaDHR = null;
-        double[] alphaBHR = null;
-        if (!computeSeaice) {
-            // calculate alpha terms
-            alphaDHR = computeAlphaDHR(SZA, C); // bsa = DHR
-            alphaBHR = computeAlphaBHR(C);      // wsa = BHR
-        }
+                if (!computeSeaice) {
+                    // calculate alpha terms
+                    setAlphaSamples(targetTiles, dhrAlphaBands, x, y, c, finite, kDHR); // bsa = DHR
+                    setAlphaSamples(targetTiles, bhrAlphaBands, x, y, c, finite, K_BHR); // wsa = BHR
+                }
 
-        // # Cap uncertainties and calculate sqrt
-        for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            final double wsa = sigmaBHR[i].get(0, 0);
-            if (!Double.isNaN(wsa)) {
-                sigmaBHR[i].set(0, 0, Math.min(1.0, Math.sqrt(wsa)));
-            }
-            final double bsa = sigmaDHR[i].get(0, 0);
-            if (!Double.isNaN(bsa)) {
-                sigmaDHR[i].set(0, 0, Math.min(1.0, Math.sqrt(bsa)));
+                double relEntropy = rowSamples[SRC_REL_ENTROPY][ix];
+                if (!Double.isNaN(relEntropy)) {
+                    relEntropy = Math.exp(relEntropy / 9.0);
+                }
+                final double entropy = rowSamples[SRC_ENTROPY][ix];
+                final double maskEntropy = (entropy != 0.0) ? 1.0 : 0.0;
+
+                targetTiles.get(weightedNumberOfSamplesBand).setSample(x, y, rowSamples[SRC_WEIGHTED_NUM_SAMPLES][ix]);
+                targetTiles.get(relEntropyBand).setSample(x, y, relEntropy);
+                targetTiles.get(goodnessOfFitBand).setSample(x, y, rowSamples[SRC_GOODNESS_OF_FIT][ix]);
+                targetTiles.get(snowFractionBand).setSample(x, y, rowSamples[SRC_PROPORTION_NSAMPLE][ix]);
+                targetTiles.get(dataMaskBand).setSample(x, y, maskEntropy);
+                targetTiles.get(szaBand).setSample(x, y, SZAdeg);
             }
+            checkForCancellation();
         }
-
-        double relEntropy = sourceSamples[SRC_PARAMETERS.length + SRC_UNCERTAINTIES.length + SRC_REL_ENTROPY].getDouble();
-        if (!Double.isNaN(relEntropy)) {
-            relEntropy = Math.exp(relEntropy / 9.0);
-        }
-
-        // write results to target product...
-        final double weightedNumberOfSamples = sourceSamples[SRC_PARAMETERS.length + SRC_UNCERTAINTIES.length + SRC_WEIGHTED_NUM_SAMPLES].getDouble();
-        final double goodnessOfFit = sourceSamples[SRC_PARAMETERS.length + SRC_UNCERTAINTIES.length + SRC_GOODNESS_OF_FIT].getDouble();
-        final double snowFraction = sourceSamples[SRC_PARAMETERS.length + SRC_UNCERTAINTIES.length + SRC_PROPORTION_NSAMPLE].getDouble();
-        final double entropy = sourceSamples[SRC_PARAMETERS.length + SRC_UNCERTAINTIES.length + SRC_ENTROPY].getDouble();
-        final double maskEntropy = (entropy != 0.0) ? 1.0 : 0.0;
-        AlbedoResult result = new AlbedoResult(DHR, alphaDHR, sigmaDHR,
-                BHR, alphaBHR, sigmaBHR,
-                weightedNumberOfSamples, relEntropy, goodnessOfFit, snowFraction,
-                maskEntropy, SZAdeg);
-
-        fillTargetSamples(targetSamples, result);
     }
 
-    @Override
-    protected void configureTargetProduct(ProductConfigurer productConfigurer) {
-        super.configureTargetProduct(productConfigurer);
-        final Product targetProduct = productConfigurer.getTargetProduct();
-
-        dhrBandNames = IOUtils.getAlbedoDhrBandNames();
-        for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            Band band = targetProduct.addBand(dhrBandNames[i], ProductData.TYPE_FLOAT32);
-            band.setNoDataValue(Float.NaN);
-            band.setNoDataValueUsed(true);
-        }
-
-        if (!computeSeaice) {
-            dhrAlphaBandNames = IOUtils.getAlbedoDhrAlphaBandNames();
-            for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-                Band band = targetProduct.addBand(dhrAlphaBandNames[i], ProductData.TYPE_FLOAT32);
-                band.setNoDataValue(Float.NaN);
-                band.setNoDataValueUsed(true);
-            }
-        }
-
-        dhrSigmaBandNames = IOUtils.getAlbedoDhrSigmaBandNames();
-        for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            Band band = targetProduct.addBand(dhrSigmaBandNames[i], ProductData.TYPE_FLOAT32);
-            band.setNoDataValue(Float.NaN);
-            band.setNoDataValueUsed(true);
-        }
-
-        bhrBandNames = IOUtils.getAlbedoBhrBandNames();
-        for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            Band band = targetProduct.addBand(bhrBandNames[i], ProductData.TYPE_FLOAT32);
-            band.setNoDataValue(Float.NaN);
-            band.setNoDataValueUsed(true);
-        }
-
-        if (!computeSeaice) {
-            bhrAlphaBandNames = IOUtils.getAlbedoBhrAlphaBandNames();
-            for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-                Band band = targetProduct.addBand(bhrAlphaBandNames[i], ProductData.TYPE_FLOAT32);
-                band.setNoDataValue(Float.NaN);
-                band.setNoDataValueUsed(true);
-            }
+    private double getSza(int x, int y) {
+        if (szaPerRow != null) {
+            return szaPerRow[y];
         }
+        final PixelPos pixelPos = new PixelPos(x, y);
+        final GeoPos geoPos = brdfMergedProduct.getGeoCoding().getGeoPos(pixelPos, null);
+        return AlbedoInversionUtils.computeSza(geoPos, doy);
+    }
 
-        bhrSigmaBandNames = IOUtils.getAlbedoBhrSigmaBandNames();
-        for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            Band band = targetProduct.addBand(bhrSigmaBandNames[i], ProductData.TYPE_FLOAT32);
-            band.setNoDataValue(Float.NaN);
-            band.setNoDataValueUsed(true);
-        }
+    private static double getForm(double[] c, boolean finite, int a, int b, double[] k) {
+        return finite ? PackedCovariance.getBlockForm(c, a, b, k) : PackedCovariance.getFullForm(c, a, b, k);
+    }
 
-        weightedNumberOfSamplesBandName = AlbedoInversionConstants.INV_WEIGHTED_NUMBER_OF_SAMPLES_BAND_NAME;
-        Band weightedNumberOfSamplesBand = targetProduct.addBand(weightedNumberOfSamplesBandName,
-                ProductData.TYPE_FLOAT32);
-        weightedNumberOfSamplesBand.setNoDataValue(Float.NaN);
-        weightedNumberOfSamplesBand.setNoDataValueUsed(true);
-
-        relEntropyBandName = AlbedoInversionConstants.INV_REL_ENTROPY_BAND_NAME;
-        Band relEntropyBand = targetProduct.addBand(relEntropyBandName, ProductData.TYPE_FLOAT32);
-        relEntropyBand.setNoDataValue(Float.NaN);
-        relEntropyBand.setNoDataValueUsed(true);
-
-        goodnessOfFitBandName = AlbedoInversionConstants.INV_GOODNESS_OF_FIT_BAND_NAME;
-        Band goodnessOfFitBand = targetProduct.addBand(goodnessOfFitBandName, ProductData.TYPE_FLOAT32);
-        goodnessOfFitBand.setNoDataValue(Float.NaN);
-        goodnessOfFitBand.setNoDataValueUsed(true);
-
-        snowFractionBandName = AlbedoInversionConstants.ALB_SNOW_FRACTION_BAND_NAME;
-        Band snowFractionBand = targetProduct.addBand(snowFractionBandName, ProductData.TYPE_FLOAT32);
-        snowFractionBand.setNoDataValue(Float.NaN);
-        snowFractionBand.setNoDataValueUsed(true);
-
-        dataMaskBandName = AlbedoInversionConstants.ALB_DATA_MASK_BAND_NAME;
-        Band dataMaskBand = targetProduct.addBand(dataMaskBandName, ProductData.TYPE_FLOAT32);
-        dataMaskBand.setNoDataValue(Float.NaN);
-        dataMaskBand.setNoDataValueUsed(true);
-
-        szaBandName = AlbedoInversionConstants.ALB_SZA_BAND_NAME;
-        Band szaBand = targetProduct.addBand(szaBandName, ProductData.TYPE_FLOAT32);
-        szaBand.setNoDataValue(Float.NaN);
-        szaBand.setNoDataValueUsed(true);
+    private static double capSigma(double sigma) {
+        return Double.isNaN(sigma) ? sigma : Math.min(1.0, Math.sqrt(sigma));
+    }
 
-        if (computeSeaice) {
-            for (Band b : targetProduct.getBands()) {
-                b.setValidPixelExpression(AlbedoInversionConstants.SEAICE_ALBEDO_VALID_PIXEL_EXPRESSION);
-            }
-        }
+    private static void setAlphaSamples(Map<Band, Tile> targetTiles, Band[] alphaBands, int x, int y,
+                                        double[] c, boolean finite, double[] k) {
+        final double c00 = getForm(c, finite, 0, 0, k);
+        final double c11 = getForm(c, finite, 1, 1, k);
+        final double c22 = getForm(c, finite, 2, 2, k);
+        final double c01 = getForm(c, finite, 0, 1, k);
+        final double c02 = getForm(c, finite, 0, 2, k);
+        final double c12 = getForm(c, finite, 1, 2, k);
+
+        targetTiles.get(alphaBands[0]).setSample(x, y, (float) (c01 / Math.sqrt(c00 * c11)));
+        targetTiles.get(alphaBands[1]).setSample(x, y, (float) (c02 / Math.sqrt(c00 * c22)));
+        targetTiles.get(alphaBands[2]).setSample(x, y, (float) (c12 / Math.sqrt(c11 * c22)));
     }
 
-    @Override
-    protected void configureSourceSamples(SampleConfigurer configurator) throws OperatorException {
+    private void configureSourceRasters() {
         // merged BRDF product...
-        parameterBandNames = IOUtils.getInversionParameterBandNames();
-        for (int i = 0; i < 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            SRC_PARAMETERS[i] = i;
-            configurator.defineSample(SRC_PARAMETERS[i], parameterBandNames[i], brdfMergedProduct);
+        sourceRasters = new RasterDataNode[NUM_SOURCE_RASTERS];
+        final String[] parameterBandNames = IOUtils.getInversionParameterBandNames();
+        for (int i = 0; i < NUM_BANDS * NUM_PARAMETERS; i++) {
+            sourceRasters[SRC_PARAMETERS + i] = getSourceBand(parameterBandNames[i]);
         }
 
         int index = 0;
-        uncertaintyBandNames = IOUtils.getInversionUncertaintyBandNames();
-        for (int i = 0; i < 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            for (int j = i; j < 3 * AlbedoInversionConstants.NUM_ALBEDO_PARAMETERS; j++) {
-                SRC_UNCERTAINTIES[index] = index;
-                configurator.defineSample(SRC_PARAMETERS.length + SRC_UNCERTAINTIES[index],
-                        uncertaintyBandNames[i][j], brdfMergedProduct);
+        final String[][] uncertaintyBandNames = IOUtils.getInversionUncertaintyBandNames();
+        for (int i = 0; i < PackedCovariance.N; i++) {
+            for (int j = i; j < PackedCovariance.N; j++) {
+                sourceRasters[SRC_UNCERTAINTIES + index] = getSourceBand(uncertaintyBandNames[i][j]);
                 index++;
             }
         }
 
-        String entropyBandName = AlbedoInversionConstants.INV_ENTROPY_BAND_NAME;
-        configurator.defineSample(SRC_PARAMETERS.length + SRC_UNCERTAINTIES.length + SRC_ENTROPY,
-                entropyBandName, brdfMergedProduct);
-        relEntropyBandName = AlbedoInversionConstants.INV_REL_ENTROPY_BAND_NAME;
-        configurator.defineSample(SRC_PARAMETERS.length + SRC_UNCERTAINTIES.length + SRC_REL_ENTROPY,
-                relEntropyBandName, brdfMergedProduct);
-        weightedNumberOfSamplesBandName = AlbedoInversionConstants.INV_WEIGHTED_NUMBER_OF_SAMPLES_BAND_NAME;
-        configurator.defineSample(
-                SRC_PARAMETERS.length + SRC_UNCERTAINTIES.length + SRC_WEIGHTED_NUM_SAMPLES,
-                weightedNumberOfSamplesBandName, brdfMergedProduct);
-        String daysToTheClosestSampleBandName = AlbedoInversionConstants.ACC_DAYS_TO_THE_CLOSEST_SAMPLE_BAND_NAME;
-        configurator.defineSample(
-                SRC_PARAMETERS.length + SRC_UNCERTAINTIES.length + SRC_DAYS_CLOSEST_SAMPLE,
-                AlbedoInversionConstants.ACC_DAYS_TO_THE_CLOSEST_SAMPLE_BAND_NAME, brdfMergedProduct);
-        goodnessOfFitBandName = AlbedoInversionConstants.INV_GOODNESS_OF_FIT_BAND_NAME;
-        configurator.defineSample(SRC_PARAMETERS.length + SRC_UNCERTAINTIES.length + SRC_GOODNESS_OF_FIT,
-                goodnessOfFitBandName, brdfMergedProduct);
-        String proportionNsamplesBandName = AlbedoInversionConstants.MERGE_PROPORTION_NSAMPLES_BAND_NAME;
-        configurator.defineSample(SRC_PARAMETERS.length + SRC_UNCERTAINTIES.length + SRC_PROPORTION_NSAMPLE,
-                proportionNsamplesBandName, brdfMergedProduct);
-
+        sourceRasters[SRC_ENTROPY] = getSourceBand(AlbedoInversionConstants.INV_ENTROPY_BAND_NAME);
+        sourceRasters[SRC_REL_ENTROPY] = getSourceBand(AlbedoInversionConstants.INV_REL_ENTROPY_BAND_NAME);
+        sourceRasters[SRC_WEIGHTED_NUM_SAMPLES] =
+                getSourceBand(AlbedoInversionConstants.INV_WEIGHTED_NUMBER_OF_SAMPLES_BAND_NAME);
+        sourceRasters[SRC_GOODNESS_OF_FIT] = getSourceBand(AlbedoInversionConstants.INV_GOODNESS_OF_FIT_BAND_NAME);
+        sourceRasters[SRC_PROPORTION_NSAMPLE] =
+                getSourceBand(AlbedoInversionConstants.MERGE_PROPORTION_NSAMPLES_BAND_NAME);
     }
 
-    @Override
-    protected void configureTargetSamples(SampleConfigurer configurator) throws OperatorException {
-        int index = 0;
-        for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            TRG_DHR[i] = index;
-            configurator.defineSample(TRG_DHR[i], dhrBandNames[i]);
-            index++;
-        }
-
-        if (!computeSeaice) {
-            for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-                TRG_DHR_ALPHA[i] = index;
-                configurator.defineSample(TRG_DHR_ALPHA[i], dhrAlphaBandNames[i]);
-                index++;
-            }
-        }
-
-        for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            TRG_BHR[i] = index;
-            configurator.defineSample(TRG_BHR[i], bhrBandNames[i]);
-            index++;
-        }
-
-        if (!computeSeaice) {
-            for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-                TRG_BHR_ALPHA[i] = index;
-                configurator.defineSample(TRG_BHR_ALPHA[i], bhrAlphaBandNames[i]);
-                index++;
-            }
-        }
-
-        for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            TRG_SIGMA_DHR[i] = index;
-            configurator.defineSample(TRG_SIGMA_DHR[i], dhrSigmaBandNames[i]);
-            index++;
-        }
-
-        for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            TRG_SIGMA_BHR[i] = index;
-            configurator.defineSample(TRG_SIGMA_BHR[i], bhrSigmaBandNames[i]);
-            index++;
-        }
-
-        configurator.defineSample(index++, weightedNumberOfSamplesBandName);
-        configurator.defineSample(index++, relEntropyBandName);
-        configurator.defineSample(index++, goodnessOfFitBandName);
-        configurator.defineSample(index++, snowFractionBandName);
-        configurator.defineSample(index++, dataMaskBandName);
-        configurator.defineSample(index++, szaBandName);
-    }
-
-
-    private double[] computeAlphaDHR(double SZA, Matrix c) {
-        double[] alphaDHR = new double[AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-
-        double[] kDHR = new double[]{
-                1.0,
-                -0.007574 + (-0.070887 * Math.pow(SZA, 2.0)) + (0.307588 * Math.pow(SZA, 3.0)),
-                -1.284909 + (-0.166314 * Math.pow(SZA, 2.0)) + (0.041840 * Math.pow(SZA, 3.0))};
-
-        Matrix mDHR = new Matrix(3, 9, 0.0);
-
-        for (int a = 0; a < 3; a++) {
-            mDHR.set(a, (a * 3), kDHR[0]);
-            mDHR.set(a, (a * 3) + 1, kDHR[1]);
-            mDHR.set(a, (a * 3) + 2, kDHR[2]);
-        }
-
-        Matrix cDHR = mDHR.times(c.transpose()).times(mDHR.transpose());
-
-        alphaDHR[0] = (float) (cDHR.get(0, 1) / Math.sqrt(cDHR.get(0, 0) * cDHR.get(1, 1)));
-        alphaDHR[1] = (float) (cDHR.get(0, 2) / Math.sqrt(cDHR.get(0, 0) * cDHR.get(2, 2)));
-        alphaDHR[2] = (float) (cDHR.get(1, 2) / Math.sqrt(cDHR.get(1, 1) * cDHR.get(2, 2)));
-
-        return alphaDHR;
-    }
-
-    private double[] computeAlphaBHR(Matrix c) {
-        double[] alphaBHR = new double[AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-
-        final double kBHR[] = {1, 0.189184, -1.377622};
-        Matrix mBHR = new Matrix(3, 9, 0.0);
-        for (int a = 0; a < 3; a++) {
-            mBHR.set(a, (a * 3), kBHR[0]);
-            mBHR.set(a, (a * 3) + 1, kBHR[1]);
-            mBHR.set(a, (a * 3) + 2, kBHR[2]);
+    private Band getSourceBand(String bandName) {
+        final Band band = brdfMergedProduct.getBand(bandName);
+        if (band == null) {
+            throw new OperatorException("Band '" + bandName + "' not found in BRDF merged product.");
         }
-
-        Matrix cBHR = mBHR.times(c.transpose()).times(mBHR.transpose());
-
-        alphaBHR[0] = (float) (cBHR.get(0, 1) / Math.sqrt(cBHR.get(0, 0) * cBHR.get(1, 1)));
-        alphaBHR[1] = (float) (cBHR.get(0, 2) / Math.sqrt(cBHR.get(0, 0) * cBHR.get(2, 2)));
-        alphaBHR[2] = (float) (cBHR.get(1, 2) / Math.sqrt(cBHR.get(1, 1) * cBHR.get(2, 2)));
-
-        return alphaBHR;
+        return band;
     }
 
-    private void fillTargetSamples(WritableSample[] targetSamples, AlbedoResult result) {
-        // DHR (black sky albedo)
-        for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            targetSamples[TRG_DHR[i]].set(result.getBsa()[i]);
-        }
-
+    private void configureTargetBands(Product targetProduct) {
+        dhrBands = addBands(targetProduct, IOUtils.getAlbedoDhrBandNames());
         if (!computeSeaice) {
-            // DHR_ALPHA (black sky albedo)
-            for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-                targetSamples[TRG_DHR_ALPHA[i]].set(result.getBsaAlpha()[i]);
-            }
+            dhrAlphaBands = addBands(targetProduct, IOUtils.getAlbedoDhrAlphaBandNames());
         }
-
-        // DHR_sigma (black sky albedo uncertainty)
-        for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            targetSamples[TRG_SIGMA_DHR[i]].set(result.getBsaSigma()[i].get(0, 0));
+        dhrSigmaBands = addBands(targetProduct, IOUtils.getAlbedoDhrSigmaBandNames());
+        bhrBands = addBands(targetProduct, IOUtils.getAlbedoBhrBandNames());
+        if (!computeSeaice) {
+            bhrAlphaBands = addBands(targetProduct, IOUtils.getAlbedoBhrAlphaBandNames());
         }
+        bhrSigmaBands = addBands(targetProduct, IOUtils.getAlbedoBhrSigmaBandNames());
 
-        // BHR (white sky albedo)
-        for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            targetSamples[TRG_BHR[i]].set(result.getWsa()[i]);
-        }
+        weightedNumberOfSamplesBand =
+                addBand(targetProduct, AlbedoInversionConstants.INV_WEIGHTED_NUMBER_OF_SAMPLES_BAND_NAME);
+        relEntropyBand = addBand(targetProduct, AlbedoInversionConstants.INV_REL_ENTROPY_BAND_NAME);
+        goodnessOfFitBand = addBand(targetProduct, AlbedoInversionConstants.INV_GOODNESS_OF_FIT_BAND_NAME);
+        snowFractionBand = addBand(targetProduct, AlbedoInversionConstants.ALB_SNOW_FRACTION_BAND_NAME);
+        dataMaskBand = addBand(targetProduct, AlbedoInversionConstants.ALB_DATA_MASK_BAND_NAME);
+        szaBand = addBand(targetProduct, AlbedoInversionConstants.ALB_SZA_BAND_NAME);
 
-        if (!computeSeaice) {
-            // BHR_ALPHA (white sky albedo)
-            for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-                targetSamples[TRG_BHR_ALPHA[i]].set(result.getWsaAlpha()[i]);
+        if (computeSeaice) {
+            for (Band b : targetProduct.getBands()) {
+                b.setValidPixelExpression(AlbedoInversionConstants.SEAICE_ALBEDO_VALID_PIXEL_EXPRESSION);
             }
         }
-
-        // BHR_sigma (white sky albedo uncertainty)
-        for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            targetSamples[TRG_SIGMA_BHR[i]].set(result.getWsaSigma()[i].get(0, 0));
-        }
-
-        int index = 6 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS;
-        targetSamples[index + TRG_WEIGHTED_NUM_SAMPLES].set(result.getWeightedNumberOfSamples());
-        targetSamples[index + TRG_REL_ENTROPY].set(result.getRelEntropy());
-        targetSamples[index + TRG_GOODNESS_OF_FIT].set(result.getGoodnessOfFit());
-        targetSamples[index + TRG_SNOW_FRACTION].set(result.getSnowFraction());
-        targetSamples[index + TRG_DATA_MASK].set(result.getDataMask());
-        targetSamples[index + TRG_SZA].set(result.getSza());
     }
 
-    private Matrix getCMatrixFromInversionProduct(Sample[] sourceSamples) {
-        Matrix C = new Matrix(3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS,
-                3 * AlbedoInversionConstants.NUM_ALBEDO_PARAMETERS);
-        double[] cTmp = new double[SRC_UNCERTAINTIES.length];
-
-        int index = 0;
-        final int n = AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS;
-        for (int i = 0; i < SRC_UNCERTAINTIES.length; i++) {
-            final double sampleUncertainty = sourceSamples[SRC_PARAMETERS.length + index].getDouble();
-            cTmp[i] = sampleUncertainty;
-            index++;
-        }
-
-        int index1;
-        int index2 = 0;
-        for (int k = n; k > 0; k--) {
-            if (k == n) {
-                index1 = n;
-                index2 = 2 * index1 - 1;
-            } else {
-                index1 = index2 + 1;
-                index2 = index2 + k;
-            }
-
-            for (int i = 0; i < k; i++) {
-                C.set(n - k, n - k + i, cTmp[index1 - n + i]);
-                C.set(n - k + i, n - k, cTmp[index1 - n + i]);
-            }
+    private static Band[] addBands(Product targetProduct, String[] bandNames) {
+        Band[] bands = new Band[bandNames.length];
+        for (int i = 0; i < bandNames.length; i++) {
+            bands[i] = addBand(targetProduct, bandNames[i]);
         }
-
-        return C;
+        return bands;
     }
 
+    private static Band addBand(Product targetProduct, String bandName) {
+        Band band = targetProduct.addBand(bandName, ProductData.TYPE_FLOAT32);
+        band.setNoDataValue(Float.NaN);
+        band.setNoDataValueUsed(true);
+        return band;
+    }
 
     public static class Spi extends OperatorSpi {
 
@@ -1,25 +1,39 @@
 package org.esa.beam.globalbedo.inversion;
 
-import Jama.Matrix;
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.framework.datamodel.Band;
 import org.esa.beam.framework.datamodel.Product;
 import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.framework.datamodel.RasterDataNode;
+import org.esa.beam.framework.gpf.Operator;
 import org.esa.beam.framework.gpf.OperatorException;
 import org.esa.beam.framework.gpf.OperatorSpi;
+import org.esa.beam.framework.gpf.Tile;
 import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
 import org.esa.beam.framework.gpf.annotations.Parameter;
 import org.esa.beam.framework.gpf.annotations.SourceProducts;
-import org.esa.beam.framework.gpf.pointop.*;
+import org.esa.beam.globalbedo.inversion.util.AccumulatorFileHeader;
+import org.esa.beam.globalbedo.inversion.util.AccumulatorLayout;
 import org.esa.beam.globalbedo.inversion.util.AlbedoInversionUtils;
-import org.esa.beam.globalbedo.inversion.util.IOUtils;
+import org.esa.beam.globalbedo.inversion.util.BbdrObservation;
+import org.esa.beam.globalbedo.inversion.util.ConcurrentAccumulatorWriter;
 import org.esa.beam.util.ProductUtils;
 import org.esa.beam.util.logging.BeamLogManager;
 
+import java.awt.Rectangle;
 import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.logging.Level;
 
 /**
- * Pixel operator implementing the daily accumulation part of python breadboard.
+ * Operator implementing the daily accumulation part of python breadboard.
  * For performance reasons, the daily accumulations are written to simple binary files and NOT saved as Dimap products.
+ * The tiles are computed with computeTileStack and written to the binary file as they are finished
+ * (see {@link ConcurrentAccumulatorWriter}), so the tiles can be computed in parallel and no accumulator
+ * array is held in heap.
+ * The matrices of the single observations are computed on primitive arrays (see {@link BbdrObservation}).
  * The breadboard file is 'AlbedoInversionDailyAccumulator.py' provided by Gerardo Lopez Saldana.
  *
  * @author Olaf Danne
@@ -31,7 +45,7 @@ import java.util.logging.Level;
         authors = "Olaf Danne",
         version = "1.0",
         copyright = "(C) 2011 by Brockmann Consult")
-public class DailyAccumulationOp extends PixelOperator {
+public class DailyAccumulationOp extends Operator {
 
     private static final int SRC_BB_NIR = 1;
     private static final int SRC_BB_SW = 2;
@@ -58,16 +72,6 @@ public class DailyAccumulationOp extends PixelOperator {
     private static final int SRC_LAND_MASK = 23;
     private static final int SRC_SEAICE_MASK = 24;
 
-    private static final int[][] TRG_M =
-            new int[3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS]
-                    [3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-
-    private static final int[] TRG_V =
-            new int[3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-
-    private static final int TRG_E = 90;
-    private static final int TRG_MASK = 91;
-
     private static final int sourceSampleOffset = 100;  // this value must be >= number of bands in a source product
 
     @SourceProducts(description = "BBDR source product")
@@ -86,335 +90,327 @@ public class DailyAccumulationOp extends PixelOperator {
     @Parameter(description = "Daily accumulator binary file")
     private File dailyAccumulatorBinaryFile;
 
+    @Parameter(defaultValue = "0", description = "Year (written to the accumulator file header)")
+    private int year;
 
-    private float[][][] resultArray;
+    @Parameter(defaultValue = "0", description = "Day of year (written to the accumulator file header)")
+    private int doy;
 
-    private int numPixelsProcessed = 0;
+    @Parameter(defaultValue = "false", description = "Write the accumulator file with deflated blocks")
+    private boolean compressAccumulator;
 
-    @Override
-    protected void configureSourceSamples(SampleConfigurer configurator) {
 
-        for (int i = 0; i < sourceProducts.length; i++) {
-            Product sourceProduct = sourceProducts[i];
+    private RasterDataNode[] sourceRasters;
 
-            if (sourceProduct.getPreferredTileSize() == null) {
-                sourceProduct.setPreferredTileSize(sourceProduct.getSceneRasterWidth(), 45);
-            }
+    private SourceProductPlan[] sourceProductPlans;
 
-            configurator.defineSample(sourceSampleOffset * i, AlbedoInversionConstants.BBDR_BB_VIS_NAME,
-                    sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_BB_NIR, AlbedoInversionConstants.BBDR_BB_NIR_NAME,
-                    sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_BB_SW, AlbedoInversionConstants.BBDR_BB_SW_NAME,
-                    sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_SIG_BB_VIS_VIS,
-                    AlbedoInversionConstants.BBDR_SIG_BB_VIS_VIS_NAME, sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_SIG_BB_VIS_NIR,
-                    AlbedoInversionConstants.BBDR_SIG_BB_VIS_NIR_NAME, sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_SIG_BB_VIS_SW,
-                    AlbedoInversionConstants.BBDR_SIG_BB_VIS_SW_NAME, sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_SIG_BB_NIR_NIR,
-                    AlbedoInversionConstants.BBDR_SIG_BB_NIR_NIR_NAME, sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_SIG_BB_NIR_SW,
-                    AlbedoInversionConstants.BBDR_SIG_BB_NIR_SW_NAME, sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_SIG_BB_SW_SW,
-                    AlbedoInversionConstants.BBDR_SIG_BB_SW_SW_NAME, sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_KVOL_BRDF_VIS,
-                    AlbedoInversionConstants.BBDR_KVOL_BRDF_VIS_NAME, sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_KVOL_BRDF_NIR,
-                    AlbedoInversionConstants.BBDR_KVOL_BRDF_NIR_NAME, sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_KVOL_BRDF_SW,
-                    AlbedoInversionConstants.BBDR_KVOL_BRDF_SW_NAME, sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_KGEO_BRDF_VIS,
-                    AlbedoInversionConstants.BBDR_KGEO_BRDF_VIS_NAME, sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_KGEO_BRDF_NIR,
-                    AlbedoInversionConstants.BBDR_KGEO_BRDF_NIR_NAME, sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_KGEO_BRDF_SW,
-                    AlbedoInversionConstants.BBDR_KGEO_BRDF_SW_NAME, sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_AOD550, AlbedoInversionConstants.BBDR_AOD550_NAME,
-                    sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_NDVI, AlbedoInversionConstants.BBDR_NDVI_NAME,
-                    sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_SIG_NDVI,
-                    AlbedoInversionConstants.BBDR_SIG_NDVI_NAME, sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_VZA, AlbedoInversionConstants.BBDR_VZA_NAME,
-                    sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_SZA, AlbedoInversionConstants.BBDR_SZA_NAME,
-                    sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_RAA, AlbedoInversionConstants.BBDR_RAA_NAME,
-                    sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_DEM, AlbedoInversionConstants.BBDR_DEM_NAME,
-                    sourceProduct);
-            configurator.defineSample((sourceSampleOffset * i) + SRC_SNOW_MASK,
-                    AlbedoInversionConstants.BBDR_SNOW_MASK_NAME, sourceProduct);
-
-            // get land mask (sensor dependent)
-            AlbedoInversionUtils.setLandMaskSourceSample(configurator, (sourceSampleOffset * i) + SRC_LAND_MASK,
-                    sourceProduct, computeSeaice);
-            if (computeSeaice) {
-                AlbedoInversionUtils.setSeaiceMaskSourceSample(configurator, (sourceSampleOffset * i) + SRC_SEAICE_MASK,
-                        sourceProduct);
-            }
-        }
-    }
+    private ConcurrentAccumulatorWriter accumulatorWriter;
 
     @Override
-    protected void configureTargetProduct(ProductConfigurer productConfigurer) throws OperatorException {
-        super.configureTargetProduct(productConfigurer);
+    public void initialize() throws OperatorException {
+        final int width = sourceProducts[0].getSceneRasterWidth();
+        final int height = sourceProducts[0].getSceneRasterHeight();
 
-        final Product targetProduct = productConfigurer.getTargetProduct();
+        configureSourceRasters();
+
+        Product targetProduct = new Product(getId(), getClass().getName(), width, height);
         ProductUtils.copyGeoCoding(sourceProducts[0], targetProduct);
+        targetProduct.setPreferredTileSize(sourceProducts[0].getPreferredTileSize());
 
         // the target product is not really needed later on, but
-        // we need one target band to make sure that computePixel is processed
-        // and the binary outout is written after all 1200x1200 pixels are done
-
-        final String maskBandName = AlbedoInversionConstants.ACC_MASK_NAME;
-        targetProduct.addBand(maskBandName, ProductData.TYPE_INT8);
-
-        if (computeSeaice) {
-            resultArray = new float[AlbedoInversionConstants.NUM_ACCUMULATOR_BANDS]
-                    [AlbedoInversionConstants.SEAICE_TILE_WIDTH]
-                    [AlbedoInversionConstants.SEAICE_TILE_HEIGHT];
-        } else {
-            resultArray = new float[AlbedoInversionConstants.NUM_ACCUMULATOR_BANDS]
-                    [AlbedoInversionConstants.MODIS_TILE_WIDTH]
-                    [AlbedoInversionConstants.MODIS_TILE_HEIGHT];
+        // we need one target band to make sure that the tiles are computed
+        // and the binary output is written after all 1200x1200 pixels are done
+        targetProduct.addBand(AlbedoInversionConstants.ACC_MASK_NAME, ProductData.TYPE_INT8);
+        setTargetProduct(targetProduct);
+
+        final AccumulatorFileHeader header =
+                AccumulatorFileHeader.create(width, height, AlbedoInversionConstants.NUM_ACCUMULATOR_BANDS, year, doy,
+                                             AccumulatorFileHeader.DEFAULT_LINES_PER_BLOCK);
+        try {
+            accumulatorWriter = new ConcurrentAccumulatorWriter(dailyAccumulatorBinaryFile, header,
+                                                                compressAccumulator);
+        } catch (IOException e) {
+            throw new OperatorException("Cannot create daily accumulator file " +
+                                                dailyAccumulatorBinaryFile.getPath() + ": " + e.getMessage());
         }
     }
 
     @Override
-    protected void configureTargetSamples(SampleConfigurer configurator) {
-        for (int i = 0; i < 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            for (int j = 0; j < 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; j++) {
-                TRG_M[i][j] = 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS * i + j;
+    public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle targetRectangle, ProgressMonitor pm)
+            throws OperatorException {
+
+        final Tile[] sourceTiles = new Tile[sourceRasters.length];
+        for (int i = 0; i < sourceRasters.length; i++) {
+            if (sourceRasters[i] != null) {
+                sourceTiles[i] = getSourceTile(sourceRasters[i], targetRectangle);
             }
         }
-        for (int i = 0; i < 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            TRG_V[i] = 3 * 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS + i;
+        final Tile maskTile = targetTiles.get(getTargetProduct().getBand(AlbedoInversionConstants.ACC_MASK_NAME));
+        final double[] sourceValues = new double[sourceRasters.length];
+        final AccumulationWorkspace ws = new AccumulationWorkspace();
+
+        for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
+            for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
+                for (int i = 0; i < sourceTiles.length; i++) {
+                    if (sourceTiles[i] != null) {
+                        sourceValues[i] = sourceTiles[i].getSampleDouble(x, y);
+                    }
+                }
+                computeAccumulator(sourceValues, ws);
+                maskTile.setSample(x, y, ws.sums[AccumulatorLayout.MASK_INDEX]);
+                writeAccumulator(ws.sums, x, y);
+            }
+            checkForCancellation();
         }
-        configurator.defineSample(TRG_MASK, AlbedoInversionConstants.ACC_MASK_NAME);
-    }
-
-    @Override
-    protected void computePixel(int x, int y, Sample[] sourceSamples,
-                                WritableSample[] targetSamples) {
 
-        Matrix M = new Matrix(3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS,
-                3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS);
-        Matrix V = new Matrix(3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS, 1);
-        Matrix E = new Matrix(1, 1);
-        double mask = 0.0;
-
-        // accumulate the matrices from the single products...
-        for (int i = 0; i < sourceProducts.length; i++) {
-            final Accumulator accumulator = getMatricesPerBBDRDataset(sourceSamples, i);
-            M.plusEquals(accumulator.getM());
-            V.plusEquals(accumulator.getV());
-            E.plusEquals(accumulator.getE());
-            mask += accumulator.getMask();
+        try {
+            if (accumulatorWriter.commit(targetRectangle)) {
+                BeamLogManager.getSystemLogger().log(Level.INFO, "all pixels processed - accumulator file " +
+                        dailyAccumulatorBinaryFile.getPath() + " written.");
+            }
+        } catch (IOException e) {
+            throw new OperatorException("Cannot write daily accumulator file " +
+                                                dailyAccumulatorBinaryFile.getPath() + ": " + e.getMessage());
         }
+    }
 
-        // fill target samples...
-        Accumulator accumulator = new Accumulator(M, V, E, mask);
-        fillTargetSamples(targetSamples, accumulator);
-
-        // we want to write binary files for performance reasons...
-        // the following code only works correctly if we have EXACTLY ONE target band
-        // todo: try to find something better...
-        fillBinaryResultArray(accumulator, x, y);
-        numPixelsProcessed++;
-        if (numPixelsProcessed == sourceProducts[0].getSceneRasterWidth() *
-                sourceProducts[0].getSceneRasterHeight()) {
-            BeamLogManager.getSystemLogger().log(Level.INFO,
-                    "all pixels processed (" + numPixelsProcessed +
-                            ") - writing accumulator result array...");
-            IOUtils.writeFloatArrayToFile(dailyAccumulatorBinaryFile, resultArray);
-            BeamLogManager.getSystemLogger().log(Level.INFO, "accumulator result array written.");
+    @Override
+    public void dispose() {
+        if (accumulatorWriter != null) {
+            accumulatorWriter.close();
         }
+        super.dispose();
     }
 
-    private Accumulator getMatricesPerBBDRDataset(Sample[] sourceSamples, int sourceProductIndex) {
+    private void configureSourceRasters() {
+        sourceRasters = new RasterDataNode[sourceSampleOffset * sourceProducts.length];
+        sourceProductPlans = new SourceProductPlan[sourceProducts.length];
+        for (int i = 0; i < sourceProducts.length; i++) {
+            Product sourceProduct = sourceProducts[i];
+            sourceProductPlans[i] = new SourceProductPlan(sourceProduct, sourceSampleOffset * i,
+                                                          computeSnow, computeSeaice);
 
-        if (computeSeaice) {
-            // do not consider land pixels, non-snowfilter pixels, pixels with BBDR == 0.0 or -9999.0, SD == 0.0
-            if (isSeaiceFilter(sourceSamples, sourceProductIndex) ||
-                    isBBDRFilter(sourceSamples, sourceProductIndex) ||
-                    isSDFilter(sourceSamples, sourceProductIndex)) {
-                return getZeroAccumulator();
+            if (sourceProduct.getPreferredTileSize() == null) {
+                sourceProduct.setPreferredTileSize(sourceProduct.getSceneRasterWidth(), 45);
             }
-        } else if (isLandFilter(sourceSamples, sourceProductIndex) || isSnowFilter(sourceSamples, sourceProductIndex) ||
-                isBBDRFilter(sourceSamples, sourceProductIndex) || isSDFilter(sourceSamples, sourceProductIndex)) {
-            // do not consider non-land pixels, non-snowfilter pixels, pixels with BBDR == 0.0 or -9999.0, SD == 0.0
-            return getZeroAccumulator();
-        }
 
-        // get kernels...
-        Matrix kernels = getKernels(sourceSamples, sourceProductIndex);
-
-        // compute C matrix...
-        final double[] correlation = getCorrelation(sourceSamples, sourceProductIndex);
-        final double[] SD = getSD(sourceSamples, sourceProductIndex);
-        Matrix C = new Matrix(
-                AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS, 1);
-        Matrix thisC = new Matrix(AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS,
-                AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS);
-
-        int count = 0;
-        int cCount = 0;
-        for (int j = 0; j < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; j++) {
-            for (int k = j + 1; k < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; k++) {
-                if (k == j + 1) {
-                    cCount++;
-                }
-                C.set(cCount, 0, correlation[count] * SD[j] * SD[k]);
-                count++;
-                cCount++;
+            final int offset = sourceSampleOffset * i;
+            sourceRasters[offset] = getSourceRaster(sourceProduct, AlbedoInversionConstants.BBDR_BB_VIS_NAME);
+            sourceRasters[offset + SRC_BB_NIR] = getSourceRaster(sourceProduct, AlbedoInversionConstants.BBDR_BB_NIR_NAME);
+            sourceRasters[offset + SRC_BB_SW] = getSourceRaster(sourceProduct, AlbedoInversionConstants.BBDR_BB_SW_NAME);
+            sourceRasters[offset + SRC_SIG_BB_VIS_VIS] =
+                    getSourceRaster(sourceProduct, AlbedoInversionConstants.BBDR_SIG_BB_VIS_VIS_NAME);
+            sourceRasters[offset + SRC_SIG_BB_VIS_NIR] =
+                    getSourceRaster(sourceProduct, AlbedoInversionConstants.BBDR_SIG_BB_VIS_NIR_NAME);
+            sourceRasters[offset + SRC_SIG_BB_VIS_SW] =
+                    getSourceRaster(sourceProduct, AlbedoInversionConstants.BBDR_SIG_BB_VIS_SW_NAME);
+            sourceRasters[offset + SRC_SIG_BB_NIR_NIR] =
+                    getSourceRaster(sourceProduct, AlbedoInversionConstants.BBDR_SIG_BB_NIR_NIR_NAME);
+            sourceRasters[offset + SRC_SIG_BB_NIR_SW] =
+                    getSourceRaster(sourceProduct, AlbedoInversionConstants.BBDR_SIG_BB_NIR_SW_NAME);
+            sourceRasters[offset + SRC_SIG_BB_SW_SW] =
+                    getSourceRaster(sourceProduct, AlbedoInversionConstants.BBDR_SIG_BB_SW_SW_NAME);
+            sourceRasters[offset + SRC_KVOL_BRDF_VIS] =
+                    getSourceRaster(sourceProduct, AlbedoInversionConstants.BBDR_KVOL_BRDF_VIS_NAME);
+            sourceRasters[offset + SRC_KVOL_BRDF_NIR] =
+                    getSourceRaster(sourceProduct, AlbedoInversionConstants.BBDR_KVOL_BRDF_NIR_NAME);
+            sourceRasters[offset + SRC_KVOL_BRDF_SW] =
+                    getSourceRaster(sourceProduct, AlbedoInversionConstants.BBDR_KVOL_BRDF_SW_NAME);
+            sourceRasters[offset + SRC_KGEO_BRDF_VIS] =
+                    getSourceRaster(sourceProduct, AlbedoInversionConstants.BBDR_KGEO_BRDF_VIS_NAME);
+            sourceRasters[offset + SRC_KGEO_BRDF_NIR] =
+                    getSourceRaster(sourceProduct, AlbedoInversionConstants.BBDR_KGEO_BRDF_NIR_NAME);
+            sourceRasters[offset + SRC_KGEO_BRDF_SW] =
+                    getSourceRaster(sourceProduct, AlbedoInversionConstants.BBDR_KGEO_BRDF_SW_NAME);
+            // AOD, NDVI and angles are not needed by the accumulation
+            sourceRasters[offset + SRC_SNOW_MASK] =
+                    getSourceRaster(sourceProduct, AlbedoInversionConstants.BBDR_SNOW_MASK_NAME);
+
+            // get land mask (sensor dependent)
+            sourceRasters[offset + SRC_LAND_MASK] =
+                    AlbedoInversionUtils.getLandMaskSourceRaster(sourceProduct, computeSeaice);
+            if (computeSeaice) {
+                sourceRasters[offset + SRC_SEAICE_MASK] =
+                        AlbedoInversionUtils.getSeaiceMaskSourceRaster(sourceProduct);
             }
         }
+    }
 
-        cCount = 0;
-        for (int j = 0; j < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; j++) {
-            C.set(cCount, 0, SD[j] * SD[j]);
-            cCount = cCount + AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS - j;
+    private static RasterDataNode getSourceRaster(Product sourceProduct, String name) {
+        final RasterDataNode raster = sourceProduct.getRasterDataNode(name);
+        if (raster == null) {
+            throw new OperatorException("Band '" + name + "' not found in source product " + sourceProduct.getName());
         }
+        return raster;
+    }
+
+    private void computeAccumulator(double[] sourceValues, AccumulationWorkspace ws) {
+        final double[] sums = ws.sums;
+        Arrays.fill(sums, 0.0);
 
-        count = 0;
-        for (int j = 0; j < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; j++) {
-            for (int k = j; k < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; k++) {
-                thisC.set(j, k, C.get(count, 0));
-                thisC.set(k, j, thisC.get(j, k));
-                count++;
+        // accumulate the matrices from the single products...
+        for (SourceProductPlan plan : sourceProductPlans) {
+            if (!plan.isValid(sourceValues)) {
+                // a filtered product contributes zero matrices
+                continue;
+            }
+            final int offset = plan.offset;
+
+            // compute C matrix...
+            getSD(sourceValues, offset, ws.sd);
+            getCorrelation(sourceValues, offset, ws.correlation);
+            BbdrObservation.getCovariance(ws.sd, ws.correlation, ws.c);
+            if (!BbdrObservation.invert(ws.c, ws.inverseC)) {
+                throw new OperatorException("Singular BBDR covariance matrix in source product " +
+                                                    sourceProducts[offset / sourceSampleOffset].getName());
             }
-        }
 
-        // compute M, V, E matrices...
-        final Matrix bbdr = getBBDR(sourceSamples, sourceProductIndex);
-        final Matrix inverseC = thisC.inverse();
-        final Matrix M = (kernels.transpose().times(inverseC)).times(kernels);
-        final Matrix inverseCDiagFlat = AlbedoInversionUtils.getRectangularDiagonalMatrix(inverseC);
-        final Matrix kernelTimesInvCDiag = kernels.transpose().times(inverseCDiagFlat);
-        final Matrix V = kernelTimesInvCDiag.times(bbdr);
-        final Matrix E = (bbdr.transpose().times(inverseC)).times(bbdr);
-
-        // return result
-        return new Accumulator(M, V, E, 1);
+            // compute M, V, E matrices...
+            getKernels(sourceValues, offset, ws.kernels);
+            getBBDR(sourceValues, offset, ws.bbdr);
+            BbdrObservation.accumulate(ws.inverseC, ws.kernels, ws.bbdr, sums);
+            sums[AccumulatorLayout.MASK_INDEX] += 1.0;
+        }
     }
 
-    private Accumulator getZeroAccumulator() {
-        final Matrix zeroM = new Matrix(3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS,
-                3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS);
-        final Matrix zeroV = new Matrix(3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS, 1);
-        final Matrix zeroE = new Matrix(1, 1);
+    private static void getBBDR(double[] sourceValues, int offset, double[] bbdr) {
+        bbdr[0] = sourceValues[offset];
+        bbdr[1] = sourceValues[offset + SRC_BB_NIR];
+        bbdr[2] = sourceValues[offset + SRC_BB_SW];
+    }
 
-        return new Accumulator(zeroM, zeroV, zeroE, 0);
+    private static void getSD(double[] sourceValues, int offset, double[] sd) {
+        sd[0] = sourceValues[offset + SRC_SIG_BB_VIS_VIS];
+        sd[1] = sourceValues[offset + SRC_SIG_BB_NIR_NIR];
+        sd[2] = sourceValues[offset + SRC_SIG_BB_SW_SW];
     }
 
-    private Matrix getBBDR(Sample[] sourceSamples, int sourceProductIndex) {
-        Matrix bbdr = new Matrix(AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS, 1);
-        final double bbVis = sourceSamples[sourceProductIndex * sourceSampleOffset].getDouble();
-        bbdr.set(0, 0, bbVis);
-        final double bbNir = sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_BB_NIR].getDouble();
-        bbdr.set(1, 0, bbNir);
-        final double bbSw = sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_BB_SW].getDouble();
-        bbdr.set(2, 0, bbSw);
-        return bbdr;
+    private static void getCorrelation(double[] sourceValues, int offset, double[] correlation) {
+        correlation[0] = sourceValues[offset + SRC_SIG_BB_VIS_NIR];
+        correlation[1] = sourceValues[offset + SRC_SIG_BB_VIS_SW];
+        correlation[2] = sourceValues[offset + SRC_SIG_BB_NIR_SW];
     }
 
-    private double[] getSD(Sample[] sourceSamples, int sourceProductIndex) {
-        double[] SD = new double[3];
-        SD[0] = sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_SIG_BB_VIS_VIS].getDouble();
-        SD[1] = sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_SIG_BB_NIR_NIR].getDouble();
-        SD[2] = sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_SIG_BB_SW_SW].getDouble();
-        return SD;
+    private void writeAccumulator(double[] sums, int x, int y) {
+        // M is symmetric, only the upper triangle is held in the sums (packed layout)
+        for (int i = 0; i < AccumulatorLayout.NUM_BANDS; i++) {
+            accumulatorWriter.setValue(i, x, y, (float) sums[i]);
+        }
     }
 
-    private double[] getCorrelation(Sample[] sourceSamples, int sourceProductIndex) {
-        double[] correlation = new double[AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS];
-        correlation[0] = sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_SIG_BB_VIS_NIR].getDouble();
-        correlation[1] = sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_SIG_BB_VIS_SW].getDouble();
-        correlation[2] = sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_SIG_BB_NIR_SW].getDouble();
-        return correlation;
+    private static void getKernels(double[] sourceValues, int offset, double[] kernels) {
+        // non-zero terms of the 3x9 kernel matrix: (1, kvol, kgeo) in the row of each broad band
+        kernels[0] = 1.0;
+        kernels[3] = 1.0;
+        kernels[6] = 1.0;
+        kernels[1] = sourceValues[offset + SRC_KVOL_BRDF_VIS];
+        kernels[4] = sourceValues[offset + SRC_KVOL_BRDF_NIR];
+        kernels[7] = sourceValues[offset + SRC_KVOL_BRDF_SW];
+        kernels[2] = sourceValues[offset + SRC_KGEO_BRDF_VIS];
+        kernels[5] = sourceValues[offset + SRC_KGEO_BRDF_NIR];
+        kernels[8] = sourceValues[offset + SRC_KGEO_BRDF_SW];
     }
 
-    private void fillTargetSamples(WritableSample[] targetSamples, Accumulator accumulator) {
-        // just ONE target band...  !!!
-        targetSamples[TRG_MASK].set(accumulator.getMask());
+    /**
+     * Per-tile primitive arrays for the pixel accumulation, so that no matrix objects are allocated per
+     * pixel and observation.
+     */
+    private static class AccumulationWorkspace {
+        final double[] sums = new double[AccumulatorLayout.NUM_BANDS];
+        final double[] sd = new double[BbdrObservation.NUM_BANDS];
+        final double[] correlation = new double[BbdrObservation.NUM_BANDS];
+        final double[] c = new double[BbdrObservation.NUM_COVARIANCE_TERMS];
+        final double[] inverseC = new double[BbdrObservation.NUM_COVARIANCE_TERMS];
+        final double[] kernels = new double[AccumulatorLayout.N];
+        final double[] bbdr = new double[BbdrObservation.NUM_BANDS];
     }
 
-    private void fillBinaryResultArray(Accumulator accumulator, int x, int y) {
-        for (int i = 0; i < 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            for (int j = 0; j < 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; j++) {
-                resultArray[TRG_M[i][j]][x][y] = (float) accumulator.getM().get(i, j);
+    /**
+     * Preprocessing plan of a BBDR source product, built once in initialize(): the sensor dependent land mask
+     * decoding and the sample indices are resolved here, so the per pixel filtering is plain arithmetic.
+     */
+    private static final class SourceProductPlan {
+
+        private static final int LAND_MASK_NONE = 0;
+        private static final int LAND_MASK_BOOLEAN = 1;   // MERIS, AATSR: land mask expression band
+        private static final int LAND_MASK_VGT_SM = 2;    // VGT: land bit in status mask
+
+        private static final int VGT_SM_LAND_BIT = 8;
+
+        private static final double BBDR_INVALID_ZERO = 0.0;
+        private static final double BBDR_INVALID_FILL = 9999.0;
+
+        private final int offset;
+        private final int landMaskType;
+        private final boolean computeSnow;
+        private final boolean computeSeaice;
+
+        private SourceProductPlan(Product sourceProduct, int offset, boolean computeSnow, boolean computeSeaice) {
+            this.offset = offset;
+            this.computeSnow = computeSnow;
+            this.computeSeaice = computeSeaice;
+            if (isSensor(sourceProduct, "MER") || isSensor(sourceProduct, "ATS")) {
+                landMaskType = LAND_MASK_BOOLEAN;
+            } else if (isSensor(sourceProduct, "VGT")) {
+                landMaskType = LAND_MASK_VGT_SM;
+            } else {
+                landMaskType = LAND_MASK_NONE;
             }
         }
-        for (int i = 0; i < 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            resultArray[TRG_V[i]][x][y] = (float) accumulator.getV().get(i, 0);
-        }
-        resultArray[TRG_E][x][y] = (float) accumulator.getE().get(0, 0);
-        resultArray[TRG_MASK][x][y] = (float) accumulator.getMask();
-    }
-
-
-    private Matrix getKernels(Sample[] sourceSamples, int sourceProductIndex) {
-        Matrix kernels = new Matrix(AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS,
-                3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS);
 
-        kernels.set(0, 0, 1.0);
-        kernels.set(1, 3, 1.0);
-        kernels.set(2, 6, 1.0);
-        kernels.set(0, 1, sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_KVOL_BRDF_VIS].getDouble());
-        kernels.set(1, 4, sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_KVOL_BRDF_NIR].getDouble());
-        kernels.set(2, 7, sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_KVOL_BRDF_SW].getDouble());
-        kernels.set(0, 2, sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_KGEO_BRDF_VIS].getDouble());
-        kernels.set(1, 5, sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_KGEO_BRDF_NIR].getDouble());
-        kernels.set(2, 8, sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_KGEO_BRDF_SW].getDouble());
-
-        return kernels;
-    }
+        private static boolean isSensor(Product sourceProduct, String prefix) {
+            return sourceProduct.getProductType().startsWith(prefix) || sourceProduct.getName().startsWith(prefix);
+        }
 
-    private boolean isLandFilter(Sample[] sourceSamples, int sourceProductIndex) {
-        if (sourceProducts[sourceProductIndex].getProductType().startsWith("MER") ||
-                sourceProducts[sourceProductIndex].getName().startsWith("MER") ||
-                sourceProducts[sourceProductIndex].getProductType().startsWith("ATS") ||
-                sourceProducts[sourceProductIndex].getName().startsWith("ATS")) {
-            if (!sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_LAND_MASK].getBoolean()) {
-                return true;
+        /**
+         * @param sourceValues - the source values of the pixel
+         * @return boolean - false if the pixel of this product must not be considered
+         */
+        private boolean isValid(double[] sourceValues) {
+            if (computeSeaice) {
+                // do not consider land pixels, pixels with BBDR == 0.0 or -9999.0, SD == 0.0
+                return !isSeaiceFilter(sourceValues) && !isBBDRFilter(sourceValues) && !isSDFilter(sourceValues);
             }
-        } else if (sourceProducts[sourceProductIndex].getProductType().startsWith("VGT") ||
-                sourceProducts[sourceProductIndex].getName().startsWith("VGT")) {
-            if ((sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_LAND_MASK].getInt() & 8) == 0) {
-                return true;
+            // do not consider non-land pixels, non-snowfilter pixels, pixels with BBDR == 0.0 or -9999.0, SD == 0.0
+            return !isLandFilter(sourceValues) && !isSnowFilter(sourceValues) &&
+                    !isBBDRFilter(sourceValues) && !isSDFilter(sourceValues);
+        }
+
+        private boolean isLandFilter(double[] sourceValues) {
+            switch (landMaskType) {
+                case LAND_MASK_BOOLEAN:
+                    return sourceValues[offset + SRC_LAND_MASK] == 0.0;
+                case LAND_MASK_VGT_SM:
+                    return ((int) sourceValues[offset + SRC_LAND_MASK] & VGT_SM_LAND_BIT) == 0;
+                default:
+                    return false;
             }
         }
-        return false;
-    }
 
-    private boolean isSnowFilter(Sample[] sourceSamples, int sourceProductIndex) {
-        return ((computeSnow && !(sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_SNOW_MASK].getInt() == 1)) ||
-                (!computeSnow && (sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_SNOW_MASK].getInt() == 1)));
-    }
+        private boolean isSnowFilter(double[] sourceValues) {
+            final boolean isSnow = (int) sourceValues[offset + SRC_SNOW_MASK] == 1;
+            return computeSnow != isSnow;
+        }
 
-    private boolean isSeaiceFilter(Sample[] sourceSamples, int sourceProductIndex) {
-        return !sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_SEAICE_MASK].getBoolean();
-    }
+        private boolean isSeaiceFilter(double[] sourceValues) {
+            return sourceValues[offset + SRC_SEAICE_MASK] == 0.0;
+        }
 
-    private boolean isBBDRFilter(Sample[] sourceSamples, int sourceProductIndex) {
-        return (sourceSamples[sourceProductIndex * sourceSampleOffset].getDouble() == 0.0 ||
-                Double.isNaN(sourceSamples[sourceProductIndex * sourceSampleOffset].getDouble()) ||
-                sourceSamples[sourceProductIndex * sourceSampleOffset].getDouble() == 9999.0 ||
-                sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_BB_NIR].getDouble() == 0.0 ||
-                Double.isNaN(sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_BB_NIR].getDouble()) ||
-                sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_BB_NIR].getDouble() == 9999.0 ||
-                sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_BB_SW].getDouble() == 0.0 ||
-                Double.isNaN(sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_BB_SW].getDouble()) ||
-                sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_BB_SW].getDouble() == 9999.0);
-    }
+        private boolean isBBDRFilter(double[] sourceValues) {
+            return isInvalidBBDR(sourceValues[offset]) ||
+                    isInvalidBBDR(sourceValues[offset + SRC_BB_NIR]) ||
+                    isInvalidBBDR(sourceValues[offset + SRC_BB_SW]);
+        }
+
+        private static boolean isInvalidBBDR(double bbdr) {
+            return bbdr == BBDR_INVALID_ZERO || Double.isNaN(bbdr) || bbdr == BBDR_INVALID_FILL;
+        }
 
-    private boolean isSDFilter(Sample[] sourceSamples, int sourceProductIndex) {
-        return (sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_SIG_BB_VIS_VIS].getDouble() == 0.0 &&
-                sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_SIG_BB_NIR_NIR].getDouble() == 0.0 &&
-                sourceSamples[sourceProductIndex * sourceSampleOffset + SRC_SIG_BB_SW_SW].getDouble() == 0.0);
+        private boolean isSDFilter(double[] sourceValues) {
+            return (sourceValues[offset + SRC_SIG_BB_VIS_VIS] == 0.0 &&
+                    sourceValues[offset + SRC_SIG_BB_NIR_NIR] == 0.0 &&
+                    sourceValues[offset + SRC_SIG_BB_SW_SW] == 0.0);
+        }
     }
 
     public static class Spi extends OperatorSpi {
@@ -1,8 +1,8 @@
 package org.esa.beam.globalbedo.inversion;
 
 /**
- * Class representing a 'full' 8-day accumulator, holding M, V, E (sumMatrices) and
- * daysToTheClosestSample.
+ * Class representing a 'full' 8-day accumulator, holding M, V, E, mask (sumMatrices, in packed layout,
+ * see {@link org.esa.beam.globalbedo.inversion.util.AccumulatorLayout}) and daysToTheClosestSample.
  * This class is not yet used, but should be used later as output from 'GlobAlbedoFullAccumulation'
  * and as input for Inversion (instead of reading the daily accumulators multiple times and
  * doing the accumulation there)
@@ -105,7 +105,8 @@ public class GlobalbedoLevel3Albedo extends Operator {
             logger.log(Level.ALL, "Searching for SNOW prior file in directory: '" + priorDir + "'...");
 
             try {
-                priorProduct = IOUtils.getPriorProduct(priorDir, priorFileNamePrefix, doy, true);
+                priorProduct = IOUtils.getPriorProduct(priorDir, priorFileNamePrefix, doy, true,
+                                                       IOUtils.getDefaultPriorBandNames());
             } catch (IOException e) {
                 throw new OperatorException("Cannot load prior product: " + e.getMessage());
             }
@@ -156,6 +157,7 @@ public class GlobalbedoLevel3Albedo extends Operator {
                 albedoOp.setParameterDefaultValues();
                 albedoOp.setSourceProduct("brdfMergedProduct", brdfMergedProduct);
                 albedoOp.setParameter("doy", doy);
+                albedoOp.setParameter("tile", tile);
                 albedoOp.setParameter("computeSeaice", computeSeaice);
                 setTargetProduct(albedoOp.getTargetProduct());
             }
@@ -10,7 +10,6 @@ import org.esa.beam.framework.gpf.experimental.Output;
 import org.esa.beam.globalbedo.inversion.util.IOUtils;
 import org.esa.beam.util.logging.BeamLogManager;
 
-import javax.media.jai.JAI;
 import java.io.File;
 import java.io.IOException;
 import java.util.logging.Level;
@@ -47,6 +46,9 @@ public class GlobalbedoLevel3DailyAccumulation extends Operator {
     @Parameter(defaultValue = "false", description = "Debug - write more target bands")
     private boolean debug;
 
+    @Parameter(defaultValue = "false", description = "Write the accumulator file with deflated blocks")
+    private boolean compressAccumulator;
+
     @Override
     public void initialize() throws OperatorException {
 
@@ -73,8 +75,6 @@ public class GlobalbedoLevel3DailyAccumulation extends Operator {
 
             // STEP 2: do accumulation, write to binary file
             Product accumulationProduct;
-            // make sure that binary output is written sequentially
-            JAI.getDefaultInstance().getTileScheduler().setParallelism(1);
             String dailyAccumulatorBinaryFilename = "matrices_" + year + IOUtils.getDoyString(doy) + ".bin";
             final File dailyAccumulatorBinaryFile = new File(dailyAccumulatorDir + dailyAccumulatorBinaryFilename);
             DailyAccumulationOp accumulationOp = new DailyAccumulationOp();
@@ -84,6 +84,9 @@ public class GlobalbedoLevel3DailyAccumulation extends Operator {
             accumulationOp.setParameter("computeSeaice", computeSeaice);
             accumulationOp.setParameter("debug", debug);
             accumulationOp.setParameter("dailyAccumulatorBinaryFile", dailyAccumulatorBinaryFile);
+            accumulationOp.setParameter("year", year);
+            accumulationOp.setParameter("doy", doy);
+            accumulationOp.setParameter("compressAccumulator", compressAccumulator);
             accumulationProduct = accumulationOp.getTargetProduct();
 
             setTargetProduct(accumulationProduct);
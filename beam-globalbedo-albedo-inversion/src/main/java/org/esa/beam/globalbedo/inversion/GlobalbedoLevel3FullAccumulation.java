@@ -7,25 +7,41 @@ import org.esa.beam.framework.gpf.OperatorSpi;
 import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
 import org.esa.beam.framework.gpf.annotations.Parameter;
 import org.esa.beam.framework.gpf.experimental.Output;
+import org.esa.beam.globalbedo.inversion.util.AccumulatorFileHeader;
+import org.esa.beam.globalbedo.inversion.util.AccumulatorLayout;
+import org.esa.beam.globalbedo.inversion.util.AccumulatorPixelIndex;
 import org.esa.beam.globalbedo.inversion.util.IOUtils;
+import org.esa.beam.globalbedo.inversion.util.SlidingWindowWeighting;
 import org.esa.beam.util.logging.BeamLogManager;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * 'Master' operator for the full accumulation for a period of DoYs
  * --> basically makes 'full' (8-day) binary accumulator files from all the dailies, now
- * with reading the dailies only once!! However, this requires a lot of memory.
- * It seems that not more than 1/2 year (23 DoYs) can be properly processed.
+ * with reading the dailies only once per block of lines!!
+ * The accumulator arrays are processed in blocks of lines which are accumulated concurrently,
+ * so the memory needed is set by the memory budget parameter and not by the number of DoYs.
+ * Sparse daily accumulators are skipped for blocks without samples, and a full accumulator is written sparse
+ * if all its dailies are sparse and the union of their pixels is small enough.
+ * The days to the closest sample are tracked in place as short values while the mask band of a daily is read,
+ * and written as the last band of the full accumulator.
  * Also, final setup will depend on final concept to be provided by GL.
  *
  * @author Olaf Danne
@@ -66,6 +82,20 @@ public class GlobalbedoLevel3FullAccumulation extends Operator implements Output
     @Parameter(defaultValue = "false", description = "Debug - write more target bands")
     private boolean debug;
 
+    @Parameter(defaultValue = "2048", description = "Memory budget for the accumulation arrays of all threads (MB)")
+    private int maxMemoryMB;
+
+    @Parameter(defaultValue = "0", description = "Number of concurrently accumulated blocks (0 = number of processors)")
+    private int numThreads;
+
+    @Parameter(defaultValue = "false",
+               description = "Use recursive (sliding window) temporal weighting: all DoYs are done in one pass " +
+                       "with cost independent of the number of DoYs")
+    private boolean recursiveWeighting;
+
+    @Parameter(defaultValue = "false", description = "Write the full accumulator files with deflated blocks")
+    private boolean compressAccumulators;
+
 
     private Logger logger;
 
@@ -103,12 +133,6 @@ public class GlobalbedoLevel3FullAccumulation extends Operator implements Output
 
         final String[] bandNames = IOUtils.getDailyAccumulatorBandNames();
 
-        FullAccumulator[] accsToWrite = getDailyAccFromBinaryFileAndAccumulate(sourceBinaryFilenames,
-                                                                               inputProducts,
-                                                                               doys,
-                                                                               bandNames.length); // accumulates matrices and extracts mask array
-
-        // write accs to files...
         String fullAccumulatorDir = gaRootDir + File.separator + bbdrDir + File.separator + "AccumulatorFiles"
                 + File.separator + year + File.separator + tile;
         if (computeSnow) {
@@ -118,13 +142,10 @@ public class GlobalbedoLevel3FullAccumulation extends Operator implements Output
         } else {
             fullAccumulatorDir = fullAccumulatorDir.concat(File.separator + "NoSnow" + File.separator);
         }
-        for (FullAccumulator acc : accsToWrite) {
-            if (acc != null) {
-                String fullAccumulatorBinaryFilename = "matrices_full_" + acc.getYear() + IOUtils.getDoyString(acc.getDoy()) + ".bin";
-                final File fullAccumulatorBinaryFile = new File(fullAccumulatorDir + fullAccumulatorBinaryFilename);
-                IOUtils.writeFullAccumulatorToFile(fullAccumulatorBinaryFile, acc.getSumMatrices(), acc.getDaysToTheClosestSample());
-            }
-        }
+
+        // accumulates matrices and extracts mask array block by block, and writes the blocks to the full acc files
+        accumulateAndWriteFullAccumulators(sourceBinaryFilenames, inputProducts, doys, bandNames.length,
+                                           fullAccumulatorDir);
 
         // no target product needed here, define a dummy product
         Product dummyProduct = new Product("dummy", "dummy", 1, 1);
@@ -157,114 +178,408 @@ public class GlobalbedoLevel3FullAccumulation extends Operator implements Output
         return filenameList.toArray(new String[filenameList.size()]);
     }
 
-    private FullAccumulator[] getDailyAccFromBinaryFileAndAccumulate(String[] sourceBinaryFilenames,
-                                                                            AlbedoInput[] inputProducts,
-                                                                            int[] doys,
-                                                                            int numBands) {
+    private void accumulateAndWriteFullAccumulators(String[] sourceBinaryFilenames,
+                                                    final AlbedoInput[] inputProducts,
+                                                    final int[] doys,
+                                                    final int numBands,
+                                                    String fullAccumulatorDir) {
         final int numDoys = doys.length;
-        final int numFiles = sourceBinaryFilenames.length;
-
-        float[][][] daysToTheClosestSample = new float[numDoys][rasterWidth][rasterHeight];
-        float[][][][] sumMatrices = new float[numDoys][numBands][rasterWidth][rasterHeight];
-        float[][][] mask = new float[numDoys][rasterWidth][rasterHeight];
 
-        int size = numBands * rasterWidth * rasterHeight;
+        // skip daily accs which are missing, truncated or invalid, so that all blocks use the same set of files
+        final List<String> validFilenames = new ArrayList<String>();
+        final List<AccumulatorFileHeader> validHeaders = new ArrayList<AccumulatorFileHeader>();
+        for (String filename : sourceBinaryFilenames) {
+            final File dailyAccumulatorBinaryFile = new File(filename);
+            if (!dailyAccumulatorBinaryFile.exists()) {
+                logger.log(Level.SEVERE, "Could not find daily acc " + filename + "  - skipping.");
+            } else {
+                try {
+                    validHeaders.add(readDailyAccumulatorHeader(dailyAccumulatorBinaryFile));
+                    validFilenames.add(filename);
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "Could not read daily acc " + filename + " (" + e.getMessage() +
+                            ") - skipping.");
+                }
+            }
+        }
+        final String[] filenames = validFilenames.toArray(new String[validFilenames.size()]);
+        final AccumulatorFileHeader[] headers = validHeaders.toArray(new AccumulatorFileHeader[validHeaders.size()]);
+        final int numFiles = filenames.length;
 
         final boolean[][] accumulate = new boolean[numFiles][numDoys];
         final int[][] dayDifference = new int[numFiles][numDoys];
         final float[][] weight = new float[numFiles][numDoys];
+        for (int fileIndex = 0; fileIndex < numFiles; fileIndex++) {
+            final String name = new File(filenames[fileIndex]).getName();
+            for (int i = 0; i < numDoys; i++) {
+                if (inputProducts[i] != null) {
+                    accumulate[fileIndex][i] = doAccumulation(filenames[fileIndex],
+                                                              inputProducts[i].getProductBinaryFilenames());
+                    dayDifference[fileIndex][i] = getDayDifference(name, inputProducts[i]);
+                    weight[fileIndex][i] = getWeight(name, inputProducts[i]);
+                }
+            }
+        }
 
-        int fileIndex = 0;
-        for (String filename : sourceBinaryFilenames) {
-            BeamLogManager.getSystemLogger().log(Level.INFO, "Full accumulation: reading daily acc file = " + filename + " ...");
+        // in recursive mode, every daily acc contributes to at most four past/future buckets instead of to all DoYs
+        SlidingWindowWeighting slidingWindowWeighting = null;
+        final int[][] eventIndex = new int[numFiles][SlidingWindowWeighting.NUM_EVENTS];
+        final double[][] eventWeight = new double[numFiles][SlidingWindowWeighting.NUM_EVENTS];
+        if (recursiveWeighting) {
+            slidingWindowWeighting = getSlidingWindowWeighting(filenames, accumulate, doys, eventIndex, eventWeight);
+        }
+        final SlidingWindowWeighting recursion = slidingWindowWeighting;
+
+        final int threads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+        final int blockLines = getBlockLines(numDoys, numBands, threads, recursion != null);
+        final int numBlocks = (rasterWidth + blockLines - 1) / blockLines;
+
+        // the target files, which get the accumulated blocks at their positions. The headers hold one checksum
+        // per band and processed block, and are written when all blocks are done. The files are written as
+        // '*.part' files and renamed when complete, so a killed job never leaves a complete-looking file.
+        final AccumulatorPixelIndex[] fullAccPixelIndexes = getFullAccumulatorPixelIndexes(headers, accumulate,
+                                                                                            numDoys, numBands + 1);
+        final FileChannel[] fullAccChannels = new FileChannel[numDoys];
+        final AccumulatorFileHeader[] fullAccHeaders = new AccumulatorFileHeader[numDoys];
+        final RandomAccessFile[] fullAccFiles = new RandomAccessFile[numDoys];
+        final File[] fullAccPartFiles = new File[numDoys];
+        final File[] fullAccTargetFiles = new File[numDoys];
+        boolean written = false;
+        try {
+            for (int i = 0; i < numDoys; i++) {
+                if (inputProducts[i] != null) {
+                    String fullAccumulatorBinaryFilename = "matrices_full_" + inputProducts[i].getReferenceYear() +
+                            IOUtils.getDoyString(inputProducts[i].getReferenceDoy()) + ".bin";
+                    fullAccHeaders[i] = AccumulatorFileHeader.create(rasterWidth, rasterHeight, numBands + 1,
+                                                                     inputProducts[i].getReferenceYear(),
+                                                                     inputProducts[i].getReferenceDoy(),
+                                                                     blockLines, fullAccPixelIndexes[i],
+                                                                     compressAccumulators);
+                    fullAccTargetFiles[i] = new File(fullAccumulatorDir + fullAccumulatorBinaryFilename);
+                    fullAccPartFiles[i] = new File(fullAccTargetFiles[i].getPath() + ".part");
+                    fullAccFiles[i] = new RandomAccessFile(fullAccPartFiles[i], "rw");
+                    // no leftovers of a killed job in the new file
+                    fullAccFiles[i].setLength(0);
+                    fullAccFiles[i].setLength(fullAccHeaders[i].getFileSize());
+                    fullAccChannels[i] = fullAccFiles[i].getChannel();
+                }
+            }
 
-            final File dailyAccumulatorBinaryFile = new File(filename);
-            FileInputStream f;
+            logger.log(Level.INFO, "Full accumulation: " + numFiles + " daily accs, " + numDoys + " DoYs, " +
+                    numBlocks + " blocks of " + blockLines + " lines, " + threads + " threads.");
+
+            final ExecutorService executorService = Executors.newFixedThreadPool(Math.min(threads, numBlocks));
             try {
-                f = new FileInputStream(dailyAccumulatorBinaryFile);
-                FileChannel ch = f.getChannel();
-                ByteBuffer bb = ByteBuffer.allocateDirect(size);
-
-                for (int i = 0; i < doys.length; i++) {
-                    accumulate[fileIndex][i] = doAccumulation(filename, inputProducts[i].getProductBinaryFilenames());
-                    dayDifference[fileIndex][i] = getDayDifference(dailyAccumulatorBinaryFile.getName(), inputProducts[i]);
-                    weight[fileIndex][i] = getWeight(dailyAccumulatorBinaryFile.getName(), inputProducts[i]);
+                final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+                for (int blockIndex = 0; blockIndex < numBlocks; blockIndex++) {
+                    final int startLine = blockIndex * blockLines;
+                    final int numLines = Math.min(blockLines, rasterWidth - startLine);
+                    futures.add(executorService.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            if (recursion != null) {
+                                accumulateBlockRecursive(recursion, filenames, headers, accumulate, dayDifference,
+                                                         eventIndex, eventWeight, numBands,
+                                                         startLine, numLines, fullAccChannels, fullAccHeaders);
+                            } else {
+                                accumulateBlock(filenames, headers, accumulate, dayDifference, weight, numDoys,
+                                                numBands, startLine, numLines, fullAccChannels, fullAccHeaders);
+                            }
+                            return null;
+                        }
+                    }));
                 }
-
+                for (Future<Void> future : futures) {
+                    future.get();
+                }
+                for (int i = 0; i < numDoys; i++) {
+                    if (fullAccChannels[i] != null) {
+                        fullAccHeaders[i].write(fullAccChannels[i]);
+                    }
+                }
+                written = true;
+            } catch (InterruptedException e) {
+                throw new OperatorException("Full accumulation interrupted.", e);
+            } catch (ExecutionException e) {
+                throw new OperatorException("Full accumulation failed: " + e.getCause().getMessage(), e.getCause());
+            } finally {
+                executorService.shutdownNow();
+            }
+        } catch (IOException e) {
+            throw new OperatorException("Could not write full accumulator files: " + e.getMessage(), e);
+        } finally {
+            for (RandomAccessFile fullAccFile : fullAccFiles) {
+                if (fullAccFile != null) {
+                    try {
+                        fullAccFile.close();
+                    } catch (IOException e) {
+                        logger.log(Level.WARNING, "Could not close full accumulator file: " + e.getMessage());
+                        written = false;
+                    }
+                }
+            }
+            if (!written) {
+                for (File partFile : fullAccPartFiles) {
+                    if (partFile != null && partFile.exists() && !partFile.delete()) {
+                        logger.log(Level.WARNING, "Could not delete incomplete full accumulator file " +
+                                partFile.getPath());
+                    }
+                }
+            }
+        }
+        if (!written) {
+            throw new OperatorException("Could not close full accumulator files.");
+        }
+        for (int i = 0; i < numDoys; i++) {
+            if (fullAccPartFiles[i] != null) {
                 try {
-                    long t1 = System.currentTimeMillis();
-                    int nRead;
-                    int ii = 0;
-                    int jj = 0;
-                    int kk = 0;
-                    int count = 0;
-                    while ((nRead = ch.read(bb)) != -1) {
-                        if (nRead == 0) {
-                            continue;
-                        }
-                        bb.position(0);
-                        bb.limit(nRead);
-                        while (bb.hasRemaining() && ii < numBands) {
-                            final float value = bb.getFloat();
-                            count++;
-                            for (int doyIndex = 0; doyIndex < doys.length; doyIndex++) {
-                                if (accumulate[fileIndex][doyIndex]) {
-                                    // last band is the mask. extract array mask[jj][kk] for determination of doyOfClosestSample...
-                                    if (ii == numBands - 1) {
-                                        mask[doyIndex][jj][kk] = value;
-                                    }
-                                    sumMatrices[doyIndex][ii][jj][kk] += weight[fileIndex][doyIndex] * value;
+                    Files.move(fullAccPartFiles[i].toPath(), fullAccTargetFiles[i].toPath(),
+                               StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    throw new OperatorException("Could not rename " + fullAccPartFiles[i].getPath() + " to " +
+                                                        fullAccTargetFiles[i].getPath() + ": " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private SlidingWindowWeighting getSlidingWindowWeighting(String[] filenames, boolean[][] accumulate, int[] doys,
+                                                             int[][] eventIndex, double[][] eventWeight) {
+        final int[] targetTimes = new int[doys.length];
+        for (int i = 0; i < doys.length; i++) {
+            targetTimes[i] = 365 * year + doys[i] + 8;  // 'MODIS day'
+        }
+        final SlidingWindowWeighting slidingWindowWeighting = new SlidingWindowWeighting(targetTimes, HALFLIFE);
+        for (int fileIndex = 0; fileIndex < filenames.length; fileIndex++) {
+            if (!SlidingWindowWeighting.isContiguous(accumulate[fileIndex])) {
+                logger.log(Level.WARNING, "DoYs of daily acc " + filenames[fileIndex] + " are not contiguous - " +
+                        "recursive weighting not applicable, using direct weighting.");
+                return null;
+            }
+            final String name = new File(filenames[fileIndex]).getName();
+            final int fileYear = Integer.parseInt(name.substring(9, 13));  // 'matrices_yyyydoy.bin'
+            final int fileDoy = Integer.parseInt(name.substring(13, 16));
+            slidingWindowWeighting.getEvents(365 * fileYear + fileDoy, accumulate[fileIndex],
+                                             eventIndex[fileIndex], eventWeight[fileIndex]);
+        }
+        return slidingWindowWeighting;
+    }
+
+    private AccumulatorPixelIndex[] getFullAccumulatorPixelIndexes(AccumulatorFileHeader[] headers,
+                                                                   boolean[][] accumulate, int numDoys,
+                                                                   int numFullAccBands) {
+        // a full acc pixel has samples only if it has samples in one of the accumulated dailies
+        final AccumulatorPixelIndex[] pixelIndexes = new AccumulatorPixelIndex[numDoys];
+        for (int doyIndex = 0; doyIndex < numDoys; doyIndex++) {
+            AccumulatorPixelIndex pixelIndex = new AccumulatorPixelIndex(rasterWidth, rasterHeight);
+            for (int fileIndex = 0; fileIndex < headers.length && pixelIndex != null; fileIndex++) {
+                if (accumulate[fileIndex][doyIndex]) {
+                    if (headers[fileIndex].isSparse()) {
+                        pixelIndex.addAll(headers[fileIndex].getPixelIndex());
+                    } else {
+                        pixelIndex = null;
+                    }
+                }
+            }
+            if (pixelIndex != null && pixelIndex.isSparseWorthwhile(numFullAccBands)) {
+                pixelIndexes[doyIndex] = pixelIndex;
+            }
+        }
+        return pixelIndexes;
+    }
+
+    private static boolean hasSamples(AccumulatorFileHeader header, int startLine, int numLines) {
+        return !header.isSparse() || header.getLineOffset(startLine + numLines) > header.getLineOffset(startLine);
+    }
+
+    private AccumulatorFileHeader readDailyAccumulatorHeader(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // daily accs may still hold the full M, these are read in packed layout
+            final AccumulatorFileHeader header = AccumulatorFileHeader.read(raf.getChannel(), rasterWidth,
+                                                                            rasterHeight,
+                                                                            AccumulatorLayout.NUM_BANDS_UNPACKED);
+            IOUtils.checkAccumulatorDimensions(header, file.getPath(), rasterWidth, rasterHeight);
+            final int numBands = AccumulatorLayout.getNumAccumulatorBands(header);
+            if (header.getNumBands() != numBands) {
+                throw new IOException(header.getNumBands() + " bands, expected " + numBands);
+            }
+            return header;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private int getBlockLines(int numDoys, int numBands, int threads, boolean recursive) {
+        // per line and thread: sums (including the mask) and closest sample days for each DoY, plus the daily acc
+        // read buffer. The recursive mode keeps past and future buckets in double precision.
+        final int sumBytes = recursive ? 16 : 4;
+        final long bytesPerLine = ((long) numDoys * (numBands * sumBytes + 2) + (numBands + 1) * 4L) * rasterHeight;
+        final long budget = (long) maxMemoryMB * 1024L * 1024L;
+        final long blockLines = budget / (threads * bytesPerLine);
+        if (blockLines < 1) {
+            logger.log(Level.WARNING, "Memory budget of " + maxMemoryMB + " MB too small for " + threads +
+                    " threads - using blocks of one line.");
+            return 1;
+        }
+        if (blockLines >= rasterWidth) {
+            return rasterWidth;
+        }
+        // align to the checksum blocks of the daily accs, so that these are verified when reading
+        final int dailyBlockLines = AccumulatorFileHeader.DEFAULT_LINES_PER_BLOCK;
+        return blockLines >= dailyBlockLines ? (int) (blockLines / dailyBlockLines) * dailyBlockLines : (int) blockLines;
+    }
+
+    private void accumulateBlock(String[] filenames, AccumulatorFileHeader[] headers,
+                                 boolean[][] accumulate, int[][] dayDifference, float[][] weight,
+                                 int numDoys, int numBands, int startLine, int numLines,
+                                 FileChannel[] fullAccChannels,
+                                 AccumulatorFileHeader[] fullAccHeaders) throws IOException {
+        long t1 = System.currentTimeMillis();
+
+        short[][] daysToTheClosestSample = new short[numDoys][numLines * rasterHeight];
+        float[][][][] sumMatrices = new float[numDoys][numBands][numLines][rasterHeight];
+        float[][] dailyBand = new float[numLines][rasterHeight];
+        final ByteBuffer bb = ByteBuffer.allocateDirect(numLines * rasterHeight * 4);
+
+        for (int fileIndex = 0; fileIndex < filenames.length; fileIndex++) {
+            if (!hasSamples(headers[fileIndex], startLine, numLines)) {
+                // all zero, this changes neither the sums nor the closest sample
+                continue;
+            }
+            final FileInputStream f = new FileInputStream(filenames[fileIndex]);
+            try {
+                final FileChannel ch = f.getChannel();
+                for (int ii = 0; ii < numBands; ii++) {
+                    IOUtils.readAccumulatorBlock(ch, headers[fileIndex], bb,
+                                                 AccumulatorLayout.getFileBand(headers[fileIndex], ii),
+                                                 startLine, numLines, dailyBand);
+                    for (int doyIndex = 0; doyIndex < numDoys; doyIndex++) {
+                        if (accumulate[fileIndex][doyIndex]) {
+                            final float w = weight[fileIndex][doyIndex];
+                            final float[][] sum = sumMatrices[doyIndex][ii];
+                            for (int jj = 0; jj < numLines; jj++) {
+                                for (int kk = 0; kk < rasterHeight; kk++) {
+                                    sum[jj][kk] += w * dailyBand[jj][kk];
                                 }
                             }
-                            // find the right indices for sumMatrices array...
-                            kk++;
-                            if (kk == rasterWidth) {
-                                jj++;
-                                kk = 0;
-                                if (jj == rasterHeight) {
-                                    ii++;
-                                    jj = 0;
-                                }
+                            if (ii == AccumulatorLayout.MASK_INDEX) {
+                                updateDaysToTheClosestSample(daysToTheClosestSample[doyIndex], dailyBand,
+                                                             dayDifference[fileIndex][doyIndex]);
                             }
                         }
-                        bb.clear();
                     }
-                    ch.close();
-                    f.close();
+                }
+            } finally {
+                f.close();
+            }
+        }
 
-                    long t2 = System.currentTimeMillis();
-                    BeamLogManager.getSystemLogger().log(Level.INFO, "daily acc read in: " + (t2 - t1) + " ms");
+        for (int doyIndex = 0; doyIndex < numDoys; doyIndex++) {
+            final FileChannel fullAccChannel = fullAccChannels[doyIndex];
+            if (fullAccChannel != null) {
+                for (int ii = 0; ii < numBands; ii++) {
+                    IOUtils.writeAccumulatorBlock(fullAccChannel, fullAccHeaders[doyIndex], bb, ii, startLine,
+                                                  numLines, sumMatrices[doyIndex][ii]);
+                }
+                getDaysToTheClosestSample(daysToTheClosestSample[doyIndex], dailyBand);
+                IOUtils.writeAccumulatorBlock(fullAccChannel, fullAccHeaders[doyIndex], bb, numBands, startLine,
+                                              numLines, dailyBand);
+            }
+        }
 
-                    // now update doy of closest sample...
-                    for (int doyIndex = 0; doyIndex < doys.length; doyIndex++) {
-                        if (accumulate[fileIndex][doyIndex]) {
-                            float[][] dayOfClosestSampleOld = daysToTheClosestSample[doyIndex];
-                            daysToTheClosestSample[doyIndex] = updateDoYOfClosestSampleArray(dayOfClosestSampleOld,
-                                                                                             mask[doyIndex],
-                                                                                             dayDifference[fileIndex][doyIndex],
-                                                                                             fileIndex);
+        long t2 = System.currentTimeMillis();
+        BeamLogManager.getSystemLogger().log(Level.INFO, "Full accumulation: lines " + startLine + "-" +
+                (startLine + numLines - 1) + " done in: " + (t2 - t1) + " ms");
+    }
+
+    private void accumulateBlockRecursive(SlidingWindowWeighting recursion, String[] filenames,
+                                          AccumulatorFileHeader[] headers,
+                                          boolean[][] accumulate, int[][] dayDifference,
+                                          int[][] eventIndex, double[][] eventWeight,
+                                          int numBands, int startLine, int numLines,
+                                          FileChannel[] fullAccChannels,
+                                          AccumulatorFileHeader[] fullAccHeaders) throws IOException {
+        long t1 = System.currentTimeMillis();
+
+        final int numDoys = recursion.getNumTargets();
+        final int blockSize = numLines * rasterHeight;
+        short[][] daysToTheClosestSample = new short[numDoys][blockSize];
+        double[][][] pastSums = new double[numBands][numDoys][blockSize];
+        double[][][] futureSums = new double[numBands][numDoys][blockSize];
+        float[][] dailyBand = new float[numLines][rasterHeight];
+        final ByteBuffer bb = ByteBuffer.allocateDirect(blockSize * 4);
+
+        for (int fileIndex = 0; fileIndex < filenames.length; fileIndex++) {
+            if (!hasSamples(headers[fileIndex], startLine, numLines)) {
+                continue;
+            }
+            final int[] index = eventIndex[fileIndex];
+            final double[] w = eventWeight[fileIndex];
+            final FileInputStream f = new FileInputStream(filenames[fileIndex]);
+            try {
+                final FileChannel ch = f.getChannel();
+                for (int ii = 0; ii < numBands; ii++) {
+                    IOUtils.readAccumulatorBlock(ch, headers[fileIndex], bb,
+                                                 AccumulatorLayout.getFileBand(headers[fileIndex], ii),
+                                                 startLine, numLines, dailyBand);
+                    for (int k = 0; k < SlidingWindowWeighting.NUM_EVENTS; k++) {
+                        if (index[k] >= 0) {
+                            final double[] sum = k < 2 ? pastSums[ii][index[k]] : futureSums[ii][index[k]];
+                            for (int jj = 0; jj < numLines; jj++) {
+                                final float[] line = dailyBand[jj];
+                                final int offset = jj * rasterHeight;
+                                for (int kk = 0; kk < rasterHeight; kk++) {
+                                    sum[offset + kk] += w[k] * line[kk];
+                                }
+                            }
+                        }
+                    }
+                    if (ii == AccumulatorLayout.MASK_INDEX) {
+                        // the closest sample is a single plane, this is still updated directly
+                        for (int doyIndex = 0; doyIndex < numDoys; doyIndex++) {
+                            if (accumulate[fileIndex][doyIndex]) {
+                                updateDaysToTheClosestSample(daysToTheClosestSample[doyIndex], dailyBand,
+                                                             dayDifference[fileIndex][doyIndex]);
+                            }
                         }
                     }
-                    fileIndex++;
-                } catch (IOException e) {
-                    BeamLogManager.getSystemLogger().log(Level.SEVERE, "Could not read daily acc " + filename + "  - skipping.");
                 }
-            } catch (FileNotFoundException e) {
-                BeamLogManager.getSystemLogger().log(Level.SEVERE, "Could not find daily acc " + filename + "  - skipping.");
+            } finally {
+                f.close();
             }
-
         }
 
-        FullAccumulator[] accumulators = new FullAccumulator[numDoys];
-        for (int i = 0; i < numDoys; i++) {
-            accumulators[i] = null;
-            if (inputProducts[i] != null) {
-                accumulators[i] = new FullAccumulator(inputProducts[i].getReferenceYear(),
-                                                      inputProducts[i].getReferenceDoy(),
-                                                      sumMatrices[i], daysToTheClosestSample[i]);
+        for (int ii = 0; ii < numBands; ii++) {
+            recursion.combine(pastSums[ii], futureSums[ii], 0, blockSize);
+            futureSums[ii] = null;
+            for (int doyIndex = 0; doyIndex < numDoys; doyIndex++) {
+                final FileChannel fullAccChannel = fullAccChannels[doyIndex];
+                if (fullAccChannel != null) {
+                    final double[] sum = pastSums[ii][doyIndex];
+                    for (int jj = 0; jj < numLines; jj++) {
+                        for (int kk = 0; kk < rasterHeight; kk++) {
+                            dailyBand[jj][kk] = (float) sum[jj * rasterHeight + kk];
+                        }
+                    }
+                    IOUtils.writeAccumulatorBlock(fullAccChannel, fullAccHeaders[doyIndex], bb, ii, startLine,
+                                                  numLines, dailyBand);
+                }
             }
+            pastSums[ii] = null;
         }
-        return accumulators;
+        for (int doyIndex = 0; doyIndex < numDoys; doyIndex++) {
+            final FileChannel fullAccChannel = fullAccChannels[doyIndex];
+            if (fullAccChannel != null) {
+                getDaysToTheClosestSample(daysToTheClosestSample[doyIndex], dailyBand);
+                IOUtils.writeAccumulatorBlock(fullAccChannel, fullAccHeaders[doyIndex], bb, numBands, startLine,
+                                              numLines, dailyBand);
+            }
+        }
+
+        long t2 = System.currentTimeMillis();
+        BeamLogManager.getSystemLogger().log(Level.INFO, "Full accumulation (recursive weighting): lines " +
+                startLine + "-" + (startLine + numLines - 1) + " done in: " + (t2 - t1) + " ms");
     }
 
     private static int getDayDifference(String filename, AlbedoInput inputProduct) {
@@ -291,38 +606,32 @@ public class GlobalbedoLevel3FullAccumulation extends Operator implements Output
         return false;
     }
 
-    private float[][] updateDoYOfClosestSampleArray(float[][] doyOfClosestSampleOld,
-                                                           float[][] mask,
-                                                           int dayDifference,
-                                                           int productIndex) {
-        // this is done at the end of 'Accumulator' routine in breadboard...
-        float[][] doyOfClosestSample = new float[rasterWidth][rasterHeight];
-        for (int i = 0; i < rasterWidth; i++) {
+    private void updateDaysToTheClosestSample(short[] daysToTheClosestSample, float[][] mask, int dayDifference) {
+        // this is done at the end of 'Accumulator' routine in breadboard: running minimum of the days
+        // to the daily accs with samples, 0 as long as there is none
+        final short bbdrDaysToDoY = (short) (Math.abs(dayDifference) + 1);
+        for (int i = 0; i < mask.length; i++) {
+            final float[] maskLine = mask[i];
+            final int offset = i * rasterHeight;
             for (int j = 0; j < rasterHeight; j++) {
-                float doy;
-                final float bbdrDaysToDoY = (float) (Math.abs(dayDifference) + 1);
-                if (productIndex == 0) {
-                    if (mask[i][j] > 0.0) {
-                        doy = bbdrDaysToDoY;
-                    } else {
-                        doy = doyOfClosestSampleOld[i][j];
-                    }
-                } else {
-                    if (mask[i][j] > 0 && doyOfClosestSampleOld[i][j] == 0.0f) {
-                        doy = bbdrDaysToDoY;
-                    } else {
-                        doy = doyOfClosestSampleOld[i][j];
-                    }
-                    if (mask[i][j] > 0 && doy > 0) {
-                        doy = Math.min(bbdrDaysToDoY, doy);
-                    } else {
-                        doy = doyOfClosestSampleOld[i][j];
+                if (maskLine[j] > 0) {
+                    final short days = daysToTheClosestSample[offset + j];
+                    if (days == 0 || bbdrDaysToDoY < days) {
+                        daysToTheClosestSample[offset + j] = bbdrDaysToDoY;
                     }
                 }
-                doyOfClosestSample[i][j] = doy;
             }
         }
-        return doyOfClosestSample;
+    }
+
+    private void getDaysToTheClosestSample(short[] daysToTheClosestSample, float[][] target) {
+        for (int i = 0; i < target.length; i++) {
+            final float[] line = target[i];
+            final int offset = i * rasterHeight;
+            for (int j = 0; j < rasterHeight; j++) {
+                line[j] = daysToTheClosestSample[offset + j];
+            }
+        }
     }
 
     public static class Spi extends OperatorSpi {
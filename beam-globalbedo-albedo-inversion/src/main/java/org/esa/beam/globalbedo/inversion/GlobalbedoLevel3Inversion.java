@@ -1,6 +1,8 @@
 package org.esa.beam.globalbedo.inversion;
 
+import org.esa.beam.framework.dataio.ProductIO;
 import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.GeoCoding;
 import org.esa.beam.framework.datamodel.Product;
 import org.esa.beam.framework.gpf.Operator;
 import org.esa.beam.framework.gpf.OperatorException;
@@ -10,11 +12,13 @@ import org.esa.beam.framework.gpf.annotations.Parameter;
 import org.esa.beam.framework.gpf.annotations.SourceProduct;
 import org.esa.beam.globalbedo.inversion.util.AlbedoInversionUtils;
 import org.esa.beam.globalbedo.inversion.util.IOUtils;
+import org.esa.beam.globalbedo.inversion.util.InputCatalogue;
 import org.esa.beam.util.ProductUtils;
 import org.esa.beam.util.logging.BeamLogManager;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -30,6 +34,9 @@ public class GlobalbedoLevel3Inversion extends Operator {
     @SourceProduct(optional = true)
     private Product seaiceGeocodingProduct;
 
+    @SourceProduct(optional = true, description = "Tile info product providing the geocoding (read from tileInfoFilename if not set)")
+    private Product tileInfoProduct;
+
     @Parameter(defaultValue = "", description = "Globalbedo root directory") // e.g., /data/Globalbedo
     private String gaRootDir;
 
@@ -76,11 +83,12 @@ public class GlobalbedoLevel3Inversion extends Operator {
     @Parameter(defaultValue = "true", description = "Decide whether MODIS priors shall be used in inversion")
     private boolean usePrior = true;
 
+    private Product priorProduct;
+
     @Override
     public void initialize() throws OperatorException {
         Logger logger = BeamLogManager.getSystemLogger();
 
-        Product priorProduct = null;
         if (usePrior) {
             // STEP 1: get Prior input file...
             final String priorDir = priorRootDir + File.separator + tile;
@@ -91,7 +99,8 @@ public class GlobalbedoLevel3Inversion extends Operator {
             logger.log(Level.ALL, "Searching for prior file in directory: '" + priorDir + "'...");
 
             try {
-                priorProduct = IOUtils.getPriorProduct(priorDir, priorFileNamePrefix, doy, computeSnow);
+                priorProduct = IOUtils.getPriorProduct(priorDir, priorFileNamePrefix, doy, computeSnow,
+                                                       IOUtils.getDefaultPriorBandNames());
             } catch (IOException e) {
                 throw new OperatorException("No prior file available for DoY " + IOUtils.getDoyString(doy) +
                         " - cannot proceed...: " + e.getMessage());
@@ -109,7 +118,9 @@ public class GlobalbedoLevel3Inversion extends Operator {
             Product reprojectedPriorProduct = null;
             if (usePrior) {
                 try {
-                    Product tileInfoProduct = IOUtils.getTileInfoProduct(fullAccumulatorDir, tileInfoFilename);
+                    if (tileInfoProduct == null) {
+                        tileInfoProduct = IOUtils.getTileInfoProduct(fullAccumulatorDir, tileInfoFilename);
+                    }
                     reprojectedPriorProduct = IOUtils.getReprojectedPriorProduct(priorProduct, tile,
                             tileInfoProduct);
                 } catch (IOException e) {
@@ -156,16 +167,12 @@ public class GlobalbedoLevel3Inversion extends Operator {
 
             if (computeSeaice) {
                 // in this case we have no geocoding yet...
-//                inversionProduct.setGeoCoding(IOUtils.getSeaicePstGeocoding(tile));
-                for (int i = doy; i < doy + 8; i++) {
-                    try {
-                        Product[] bbdrpstProducts = IOUtils.getAccumulationInputProducts(bbdrRootDir, tile, year, i);
-                        if (bbdrpstProducts.length > 0) {
-                            inversionProduct.setGeoCoding(bbdrpstProducts[0].getGeoCoding());
-                        }
-                    } catch (IOException e) {
-                        throw new OperatorException("Cannot attach geocoding from BBDR PST product: ", e);
-                    }
+                GeoCoding pstGeoCoding = IOUtils.getSeaicePstGeocoding(tile);
+                if (pstGeoCoding != null) {
+                    inversionProduct.setGeoCoding(pstGeoCoding);
+                } else {
+                    // unknown quadrant: take it from a BBDR PST product of the period
+                    copyBbdrPstGeoCoding(bbdrRootDir, inversionProduct);
                 }
             } else if (reprojectedPriorProduct == null) {
                 // same in the standard mode without using priors...
@@ -199,6 +206,41 @@ public class GlobalbedoLevel3Inversion extends Operator {
                 IOUtils.getDoyString(doy) + " , Snow = " + computeSnow);
     }
 
+    @Override
+    public void dispose() {
+        if (priorProduct != null) {
+            priorProduct.dispose();
+            priorProduct = null;
+        }
+        super.dispose();
+    }
+
+    private void copyBbdrPstGeoCoding(String bbdrRootDir, Product targetProduct) {
+        // the first product of the last day of the period which has products
+        for (int i = doy + 7; i >= doy; i--) {
+            final List<File> bbdrpstFiles = InputCatalogue.getDailyBbdrFiles(bbdrRootDir, tile, year, i);
+            if (bbdrpstFiles.size() > 0) {
+                final Product bbdrPstProduct;
+                try {
+                    bbdrPstProduct = ProductIO.readProduct(bbdrpstFiles.get(0));
+                } catch (IOException e) {
+                    throw new OperatorException("Cannot attach geocoding from BBDR PST product: ", e);
+                }
+                if (bbdrPstProduct == null) {
+                    throw new OperatorException("No reader found for BBDR PST product " +
+                                                        bbdrpstFiles.get(0).getPath());
+                }
+                try {
+                    // a copy, so that the product can be disposed
+                    ProductUtils.copyGeoCoding(bbdrPstProduct, targetProduct);
+                } finally {
+                    bbdrPstProduct.dispose();
+                }
+                return;
+            }
+        }
+    }
+
     private boolean includesSouthPole(String tile) {
         return (tile.equals("h17v17") || tile.equals("h18v17"));
     }
@@ -0,0 +1,269 @@
+package org.esa.beam.globalbedo.inversion;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.framework.dataio.ProductIO;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.gpf.Operator;
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.framework.gpf.OperatorSpi;
+import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
+import org.esa.beam.framework.gpf.annotations.Parameter;
+import org.esa.beam.framework.gpf.experimental.Output;
+import org.esa.beam.globalbedo.inversion.util.IOUtils;
+import org.esa.beam.globalbedo.inversion.util.PriorIndex;
+import org.esa.beam.gpf.operators.standard.WriteOp;
+import org.esa.beam.util.logging.BeamLogManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 'Master' operator for the inversion of all 8-day DoYs of a tile and year in one process
+ * --> replaces the per-DoY calls of {@link GlobalbedoLevel3Inversion}. The tile info product is opened once and
+ * shared by all DoYs, the prior directories are looked up via their prior index, and the DoYs are inverted
+ * concurrently, with the number of concurrent inversions limited by the memory budget parameter.
+ * DoYs without prior are skipped, any other failure of an inversion aborts the run.
+ *
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+@OperatorMetadata(alias = "ga.l3.inversion.year")
+public class GlobalbedoLevel3InversionYear extends Operator implements Output {
+
+    // inversion parameters, uncertainties, entropy, relative entropy, nsamples, days to closest sample, goodness of fit
+    private static final int NUM_INVERSION_BANDS = 9 + 45 + 5;
+
+    @Parameter(defaultValue = "", description = "Globalbedo root directory") // e.g., /data/Globalbedo
+    private String gaRootDir;
+
+    @Parameter(defaultValue = "", description = "MODIS 'NoSnow' Prior root directory") // e.g., /disk2/Priors
+    private String priorRootDir;
+
+    @Parameter(defaultValue = "", description = "MODIS 'Snow' Prior root directory (priorRootDir if not set)")
+    private String snowPriorRootDir;
+
+    @Parameter(defaultValue = "", description = "MODIS Prior root directory suffix") // e.g., background/processed.p1.0.618034.p2.1.00000
+    private String priorRootDirSuffix;
+
+    @Parameter(defaultValue = "kernel", description = "MODIS Prior file name prefix") // e.g., filename = kernel.001.006.h18v04.Snow.1km.nc
+    private String priorFileNamePrefix;
+
+    @Parameter(defaultValue = "h18v04", description = "MODIS tile")
+    private String tile;
+
+    @Parameter(defaultValue = "tileInfo_0.dim", description = "Name of tile info filename providing the geocoding")
+    private String tileInfoFilename;
+
+    @Parameter(defaultValue = "2005", description = "Year")
+    private int year;
+
+    @Parameter(defaultValue = "1", description = "Start Day of Year", interval = "[1,366]")
+    private int startDoy;
+
+    @Parameter(defaultValue = "361", description = "End Day of Year", interval = "[1,366]")
+    private int endDoy;
+
+    @Parameter(defaultValue = "540", description = "Wings")   // 540 # One year plus 3 months wings
+    private int wings;
+
+    @Parameter(defaultValue = "true", description = "Compute 'NoSnow' inversion")
+    private boolean computeNoSnow;
+
+    @Parameter(defaultValue = "true", description = "Compute 'Snow' inversion")
+    private boolean computeSnow;
+
+    @Parameter(defaultValue = "false", description = "Computation for seaice mode (polar tiles) only")
+    private boolean computeSeaice;
+
+    @Parameter(defaultValue = "30.0", description = "Prior scale factor")
+    private double priorScaleFactor;
+
+    @Parameter(defaultValue = "true", description = "Decide whether MODIS priors shall be used in inversion")
+    private boolean usePrior;
+
+    @Parameter(defaultValue = "", description = "Target directory (<gaRootDir>/Inversion/<tile> if not set)")
+    private String inversionDir;
+
+    @Parameter(defaultValue = "4096", description = "Memory budget for the concurrent inversions (MB)")
+    private int maxMemoryMB;
+
+    @Parameter(defaultValue = "0", description = "Number of concurrent inversions (0 = number of processors)")
+    private int numThreads;
+
+    private Logger logger;
+
+    @Override
+    public void initialize() throws OperatorException {
+        logger = BeamLogManager.getSystemLogger();
+
+        final String targetDir = inversionDir != null && !inversionDir.isEmpty() ? inversionDir :
+                gaRootDir + File.separator + "Inversion" + File.separator + tile;
+        final String snowPriorDir = snowPriorRootDir != null && !snowPriorRootDir.isEmpty() ? snowPriorRootDir :
+                priorRootDir;
+
+        final List<Job> jobs = new ArrayList<Job>();
+        for (int doy = startDoy; doy <= endDoy; doy += 8) {
+            if (computeSeaice) {
+                jobs.add(new Job(doy, "Seaice", null));
+            } else {
+                if (computeNoSnow && hasPriors(priorRootDir)) {
+                    jobs.add(new Job(doy, "NoSnow", priorRootDir));
+                }
+                if (computeSnow && hasPriors(snowPriorDir)) {
+                    jobs.add(new Job(doy, "Snow", snowPriorDir));
+                }
+            }
+        }
+
+        // the geocoding is the same for all DoYs
+        Product tileInfoProduct = null;
+        if (!computeSeaice && usePrior) {
+            final String accumulatorDir = gaRootDir + File.separator + "BBDR" + File.separator + "AccumulatorFiles"
+                    + File.separator + year + File.separator + tile;
+            try {
+                tileInfoProduct = IOUtils.getTileInfoProduct(accumulatorDir, tileInfoFilename);
+            } catch (IOException e) {
+                throw new OperatorException("Cannot read tile info product - cannot proceed: " + e.getMessage());
+            }
+        }
+
+        final int threads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+        final int concurrentJobs = Math.max(1, Math.min(jobs.size(), getConcurrentInversions(threads)));
+        logger.log(Level.INFO, "Inversion of tile " + tile + ", year " + year + ": " + jobs.size() +
+                " DoYs/modes, " + concurrentJobs + " concurrently.");
+
+        final Product sharedTileInfoProduct = tileInfoProduct;
+        final ExecutorService executorService = Executors.newFixedThreadPool(concurrentJobs);
+        int numSkipped = 0;
+        try {
+            final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (final Job job : jobs) {
+                futures.add(executorService.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return invert(job, sharedTileInfoProduct, targetDir);
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                if (!future.get()) {
+                    numSkipped++;
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new OperatorException("Inversion interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new OperatorException("Inversion failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executorService.shutdownNow();
+            if (tileInfoProduct != null) {
+                tileInfoProduct.dispose();
+            }
+        }
+
+        // no target product needed here, define a dummy product
+        Product dummyProduct = new Product("dummy", "dummy", 1, 1);
+        setTargetProduct(dummyProduct);
+
+        logger.log(Level.ALL, "Finished inversion process for tile: " + tile + ", year: " + year + ", DoYs: " +
+                IOUtils.getDoyString(startDoy) + "-" + IOUtils.getDoyString(endDoy) + ", " +
+                (jobs.size() - numSkipped) + " of " + jobs.size() + " products written.");
+    }
+
+    private boolean hasPriors(String rootDir) {
+        return !usePrior || new File(rootDir + File.separator + tile).exists();
+    }
+
+    // the prior the inversion operator will open, see GlobalbedoLevel3Inversion and IOUtils.getPriorProduct
+    private boolean hasPrior(Job job) {
+        final File priorDir = new File(job.priorRootDir + File.separator + tile);
+        return PriorIndex.getInstance(priorDir).findPrior(priorFileNamePrefix, null, job.doy, job.mode) != null;
+    }
+
+    private int getConcurrentInversions(int threads) {
+        final int width = computeSeaice ? AlbedoInversionConstants.SEAICE_TILE_WIDTH :
+                AlbedoInversionConstants.MODIS_TILE_WIDTH;
+        final int height = computeSeaice ? AlbedoInversionConstants.SEAICE_TILE_HEIGHT :
+                AlbedoInversionConstants.MODIS_TILE_HEIGHT;
+        // upper bound: all target rasters and the prior rasters of a DoY in memory at the same time
+        final int numBands = NUM_INVERSION_BANDS + (usePrior ? IOUtils.getDefaultPriorBandNames().length : 0);
+        final long bytesPerInversion = 4L * numBands * width * height;
+        final long maxConcurrent = (maxMemoryMB * 1024L * 1024L) / bytesPerInversion;
+        return (int) Math.min(threads, maxConcurrent);
+    }
+
+    private boolean invert(Job job, Product tileInfoProduct, String targetDir) {
+        final String doyString = IOUtils.getDoyString(job.doy);
+        if (usePrior && !computeSeaice && !hasPrior(job)) {
+            logger.log(Level.WARNING, "No prior file found for tile: " + tile + ", year: " + year + ", DoY: " +
+                    doyString + ", " + job.mode + " - no inversion performed.");
+            return false;
+        }
+        final File targetFile = new File(targetDir, "GlobAlbedo.brdf." + year + doyString + "." + tile + "." +
+                job.mode + ".dim");
+
+        GlobalbedoLevel3Inversion inversionOp = new GlobalbedoLevel3Inversion();
+        inversionOp.setParameterDefaultValues();
+        if (tileInfoProduct != null) {
+            inversionOp.setSourceProduct("tileInfoProduct", tileInfoProduct);
+        }
+        inversionOp.setParameter("gaRootDir", gaRootDir);
+        if (job.priorRootDir != null) {
+            inversionOp.setParameter("priorRootDir", job.priorRootDir);
+        }
+        inversionOp.setParameter("priorRootDirSuffix", priorRootDirSuffix);
+        inversionOp.setParameter("priorFileNamePrefix", priorFileNamePrefix);
+        inversionOp.setParameter("tile", tile);
+        inversionOp.setParameter("tileInfoFilename", tileInfoFilename);
+        inversionOp.setParameter("year", year);
+        inversionOp.setParameter("doy", job.doy);
+        inversionOp.setParameter("wings", wings);
+        inversionOp.setParameter("computeSnow", job.mode.equals("Snow"));
+        inversionOp.setParameter("computeSeaice", computeSeaice);
+        inversionOp.setParameter("priorScaleFactor", priorScaleFactor);
+        inversionOp.setParameter("usePrior", usePrior && !computeSeaice);
+        try {
+            // any failure other than a missing prior aborts the run
+            final Product inversionProduct = inversionOp.getTargetProduct();
+            final WriteOp writeOp = new WriteOp(inversionProduct, targetFile, ProductIO.DEFAULT_FORMAT_NAME);
+            try {
+                writeOp.writeProduct(ProgressMonitor.NULL);
+            } finally {
+                writeOp.dispose();
+            }
+            logger.log(Level.INFO, "Written inversion product " + targetFile.getPath());
+            return true;
+        } finally {
+            inversionOp.dispose();
+        }
+    }
+
+    private static class Job {
+
+        final int doy;
+        final String mode;
+        final String priorRootDir;
+
+        Job(int doy, String mode, String priorRootDir) {
+            this.doy = doy;
+            this.mode = mode;
+            this.priorRootDir = priorRootDir;
+        }
+    }
+
+    public static class Spi extends OperatorSpi {
+
+        public Spi() {
+            super(GlobalbedoLevel3InversionYear.class);
+        }
+    }
+}
@@ -1,15 +1,14 @@
 package org.esa.beam.globalbedo.inversion;
 
-import org.esa.beam.framework.datamodel.Product;
 import org.esa.beam.framework.gpf.Operator;
 import org.esa.beam.framework.gpf.OperatorException;
 import org.esa.beam.framework.gpf.OperatorSpi;
 import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
 import org.esa.beam.framework.gpf.annotations.Parameter;
-import org.esa.beam.globalbedo.inversion.util.AlbedoInversionUtils;
 import org.esa.beam.globalbedo.inversion.util.IOUtils;
 import org.esa.beam.util.logging.BeamLogManager;
 
+import java.io.File;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -50,29 +49,27 @@ public class GlobalbedoLevel3MonthlyFrom8DayAlbedo extends Operator {
         logger = BeamLogManager.getSystemLogger();
         //        JAI.getDefaultInstance().getTileScheduler().setParallelism(1); // for debugging purpose
 
-        Product[] albedo8DayProducts;
+        File[] albedo8DayFiles;
         if (isMosaicAlbedo) {
-            albedo8DayProducts = IOUtils.getAlbedo8DayMosaicProducts(gaRootDir, monthIndex, year, mosaicScaling);
+            albedo8DayFiles = IOUtils.getAlbedo8DayMosaicFiles(gaRootDir, monthIndex, year, mosaicScaling);
         } else {
-            albedo8DayProducts = IOUtils.getAlbedo8DayTileProducts(gaRootDir, year, tile);
+            albedo8DayFiles = IOUtils.getAlbedo8DayTileFiles(gaRootDir, year, tile);
         }
-        if (albedo8DayProducts != null && albedo8DayProducts.length > 0) {
+        if (albedo8DayFiles != null && albedo8DayFiles.length > 0) {
 
             // get Albedo monthly product...
+            // the 8-day products are opened one after the other by the monthly operators
             if (isMosaicAlbedo) {
                 // the standard now
                 MonthlyFrom8DayAlbedoMosaicsOp monthlyAlbedoMosaicsOp = new MonthlyFrom8DayAlbedoMosaicsOp();
                 monthlyAlbedoMosaicsOp.setParameterDefaultValues();
-                monthlyAlbedoMosaicsOp.setSourceProducts(albedo8DayProducts);
+                monthlyAlbedoMosaicsOp.setParameter("albedo8DayFiles", albedo8DayFiles);
                 monthlyAlbedoMosaicsOp.setParameter("monthIndex", monthIndex);
                 setTargetProduct(monthlyAlbedoMosaicsOp.getTargetProduct());
             } else {
-                // get monthly weighting...
-                float[][] monthlyWeighting = AlbedoInversionUtils.getMonthlyWeighting();
                 MonthlyFrom8DayAlbedoOp monthlyAlbedoOp = new MonthlyFrom8DayAlbedoOp();
                 monthlyAlbedoOp.setParameterDefaultValues();
-                monthlyAlbedoOp.setSourceProducts(albedo8DayProducts);
-                monthlyAlbedoOp.setParameter("monthlyWeighting", monthlyWeighting);
+                monthlyAlbedoOp.setParameter("albedo8DayFiles", albedo8DayFiles);
                 monthlyAlbedoOp.setParameter("monthIndex", monthIndex);
                 setTargetProduct(monthlyAlbedoOp.getTargetProduct());
             }
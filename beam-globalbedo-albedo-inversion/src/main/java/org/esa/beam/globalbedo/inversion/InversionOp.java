@@ -1,20 +1,28 @@
 package org.esa.beam.globalbedo.inversion;
 
 
-import Jama.LUDecomposition;
 import Jama.Matrix;
+import com.bc.ceres.core.ProgressMonitor;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.SingularValueDecomposition;
 import org.esa.beam.framework.datamodel.Band;
 import org.esa.beam.framework.datamodel.Product;
 import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.framework.gpf.Operator;
+import org.esa.beam.framework.gpf.OperatorException;
 import org.esa.beam.framework.gpf.OperatorSpi;
+import org.esa.beam.framework.gpf.Tile;
 import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
 import org.esa.beam.framework.gpf.annotations.Parameter;
 import org.esa.beam.framework.gpf.annotations.SourceProduct;
-import org.esa.beam.framework.gpf.pointop.*;
-import org.esa.beam.globalbedo.inversion.util.AlbedoInversionUtils;
 import org.esa.beam.globalbedo.inversion.util.IOUtils;
+import org.esa.beam.globalbedo.inversion.util.SymmetricMatrixSolver;
+import org.esa.beam.util.ProductUtils;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.Map;
 
 import static java.lang.Math.*;
 import static org.esa.beam.globalbedo.inversion.AlbedoInversionConstants.*;
@@ -22,8 +30,11 @@ import static org.esa.beam.globalbedo.inversion.AlbedoInversionConstants.*;
 //import Jama.SingularValueDecomposition;
 
 /**
- * Pixel operator implementing the inversion part of python breadboard.
+ * Operator implementing the inversion part of python breadboard.
  * The breadboard file is 'AlbedoInversion_multisensor_FullAccum_MultiProcessing.py' provided by Gerardo Lopez Saldana.
+ * <p/>
+ * The tiles are computed pixel by pixel. If a tile has no accumulator samples (sparse full accumulator) and no
+ * prior is used, all its pixels get the same result, so this is computed once and no source is read at all.
  *
  * @author Olaf Danne
  * @version $Revision: $ $Date:  $
@@ -34,7 +45,7 @@ import static org.esa.beam.globalbedo.inversion.AlbedoInversionConstants.*;
                   version = "1.0",
                   copyright = "(C) 2011 by Brockmann Consult")
 
-public class InversionOp extends PixelOperator {
+public class InversionOp extends Operator {
 
     public static final int[][] SRC_PRIOR_MEAN = new int[NUM_ALBEDO_PARAMETERS][NUM_ALBEDO_PARAMETERS];
 
@@ -46,15 +57,21 @@ public class InversionOp extends PixelOperator {
 
     public static final int SRC_PRIOR_MASK = SOURCE_SAMPLE_OFFSET + 2 * PRIOR_OFFSET + 1;
 
+    private static final int NUM_PRIOR_RASTERS = SRC_PRIOR_MASK + 1;
+
     private static final int NUM_TRG_PARAMETERS = 3 * NUM_BBDR_WAVE_BANDS;
 
     // this offset is the number of UR matrix elements + diagonale. Should be 45 for 9x9 matrix...
     private static final int NUM_TRG_UNCERTAINTIES = ((int) pow(3 * NUM_BBDR_WAVE_BANDS, 2.0) + 3 * NUM_BBDR_WAVE_BANDS) / 2;
 
+    // entropy term per parameter, sqrt(log(2 * pi * e))
+    private static final double ENTROPY_OFFSET = sqrt(log(2.0 * PI * E));
+
     private static final int TRG_REL_ENTROPY = 1;
     private static final int TRG_WEIGHTED_NUM_SAMPLES = 2;
     private static final int TRG_GOODNESS_OF_FIT = 3;
     private static final int TRG_DAYS_TO_THE_CLOSEST_SAMPLE = 4;
+    private static final int NUM_TRG_BANDS = NUM_TRG_PARAMETERS + NUM_TRG_UNCERTAINTIES + 5;
 
     private static final String[] PARAMETER_BAND_NAMES = IOUtils.getInversionParameterBandNames();
     private static final String[][] UNCERTAINTY_BAND_NAMES = IOUtils.getInversionUncertaintyBandNames();
@@ -68,7 +85,7 @@ public class InversionOp extends PixelOperator {
         }
     }
 
-    @SourceProduct(description = "Prior product", optional = true)
+    @SourceProduct(description = "Prior product (or a dummy product of the tile size if no prior is used)")
     private Product priorProduct;
 
     @Parameter(description = "Year")
@@ -110,46 +127,12 @@ public class InversionOp extends PixelOperator {
     @Parameter(defaultValue = "land_mask", description = "Prior NSamples band name (default fits to the latest prior version)")
     private String priorLandMaskBandName;
 
-    private FullAccumulator fullAccumulator;
+    private MappedFullAccumulator fullAccumulator;
+    private Band[] priorBands;
+    private Band[] targetBands;
 
     @Override
-    protected void configureTargetProduct(ProductConfigurer productConfigurer) {
-        super.configureTargetProduct(productConfigurer);
-
-        for (String parameterBandName : PARAMETER_BAND_NAMES) {
-            Band b = productConfigurer.addBand(parameterBandName, ProductData.TYPE_FLOAT32, Float.NaN);
-            if (computeSeaice) {
-                b.setValidPixelExpression(AlbedoInversionConstants.SEAICE_ALBEDO_VALID_PIXEL_EXPRESSION);
-            }
-        }
-
-        for (int i = 0; i < 3 * NUM_BBDR_WAVE_BANDS; i++) {
-            // add bands only for UR triangular matrix
-            for (int j = i; j < 3 * NUM_BBDR_WAVE_BANDS; j++) {
-                Band b = productConfigurer.addBand(UNCERTAINTY_BAND_NAMES[i][j], ProductData.TYPE_FLOAT32, Float.NaN);
-                if (computeSeaice) {
-                    b.setValidPixelExpression(AlbedoInversionConstants.SEAICE_ALBEDO_VALID_PIXEL_EXPRESSION);
-                }
-            }
-        }
-
-        Band bInvEntr = productConfigurer.addBand(INV_ENTROPY_BAND_NAME, ProductData.TYPE_FLOAT32, Float.NaN);
-        Band bInvRelEntr = productConfigurer.addBand(INV_REL_ENTROPY_BAND_NAME, ProductData.TYPE_FLOAT32, Float.NaN);
-        Band bInvWeighNumSampl = productConfigurer.addBand(INV_WEIGHTED_NUMBER_OF_SAMPLES_BAND_NAME, ProductData.TYPE_FLOAT32, Float.NaN);
-        Band bAccDaysClSampl = productConfigurer.addBand(ACC_DAYS_TO_THE_CLOSEST_SAMPLE_BAND_NAME, ProductData.TYPE_FLOAT32, Float.NaN);
-        Band bInvGoodnessFit = productConfigurer.addBand(INV_GOODNESS_OF_FIT_BAND_NAME, ProductData.TYPE_FLOAT32, Float.NaN);
-        if (computeSeaice) {
-            bInvEntr.setValidPixelExpression(AlbedoInversionConstants.SEAICE_ALBEDO_VALID_PIXEL_EXPRESSION);
-            bInvRelEntr.setValidPixelExpression(AlbedoInversionConstants.SEAICE_ALBEDO_VALID_PIXEL_EXPRESSION);
-            bInvWeighNumSampl.setValidPixelExpression(AlbedoInversionConstants.SEAICE_ALBEDO_VALID_PIXEL_EXPRESSION);
-            bAccDaysClSampl.setValidPixelExpression(AlbedoInversionConstants.SEAICE_ALBEDO_VALID_PIXEL_EXPRESSION);
-            bInvGoodnessFit.setValidPixelExpression(AlbedoInversionConstants.SEAICE_ALBEDO_VALID_PIXEL_EXPRESSION);
-        }
-    }
-
-    @Override
-    protected void configureSourceSamples(SampleConfigurer configurator) {
-
+    public void initialize() throws OperatorException {
         int rasterWidth;
         int rasterHeight;
         if (computeSeaice) {
@@ -160,159 +143,239 @@ public class InversionOp extends PixelOperator {
             rasterHeight = AlbedoInversionConstants.MODIS_TILE_HEIGHT;
         }
 
-        System.out.println("Reading full accumulator file...");
-        fullAccumulator = IOUtils.getAccumulatorFromBinaryFile
-                (year, doy, fullAccumulatorFilePath,
-                 IOUtils.getDailyAccumulatorBandNames().length + 1,
-                 rasterWidth, rasterHeight, true);
+        // the full accumulator is memory-mapped, so only the lines of the tiles requested are read
+        fullAccumulator = IOUtils.mapAccumulatorFile(year, doy, fullAccumulatorFilePath,
+                                                     rasterWidth, rasterHeight);
+
+        if (usePrior) {
+            configurePriorBands();
+        }
 
-        System.out.println("Done reading full accumulator file.");
+        final int width = priorProduct.getSceneRasterWidth();
+        final int height = priorProduct.getSceneRasterHeight();
+        Product targetProduct = new Product(getId(), getClass().getName(), width, height);
+        ProductUtils.copyGeoCoding(priorProduct, targetProduct);
+        targetProduct.setStartTime(priorProduct.getStartTime());
+        targetProduct.setEndTime(priorProduct.getEndTime());
+        targetProduct.setPreferredTileSize(priorProduct.getPreferredTileSize());
+        configureTargetBands(targetProduct);
+        setTargetProduct(targetProduct);
+    }
 
+    private void configurePriorBands() {
         // prior product:
         // we have:
         // 3x3 mean, 3x3 SD, Nsamples, mask
-        if (usePrior) {
-            for (int i = 0; i < NUM_ALBEDO_PARAMETERS; i++) {
-                for (int j = 0; j < NUM_ALBEDO_PARAMETERS; j++) {
-                    final String indexString = Integer.toString(priorBandStartIndex + i);
-//                    final String meanBandName = "MEAN__BAND________" + i + "_PARAMETER_F" + j;
-                    final String meanBandName = priorMeanBandNamePrefix + indexString + "_PARAMETER_F" + j;
-                    configurator.defineSample(SRC_PRIOR_MEAN[i][j], meanBandName, priorProduct);
-
-//                    final String sdMeanBandName = "SD_MEAN__BAND________" + i + "_PARAMETER_F" + j;
-                    final String sdMeanBandName = priorSdBandNamePrefix + indexString + "_PARAMETER_F" + j;
-                    configurator.defineSample(SRC_PRIOR_SD[i][j], sdMeanBandName, priorProduct);
-                }
+        priorBands = new Band[NUM_PRIOR_RASTERS];
+        for (int i = 0; i < NUM_ALBEDO_PARAMETERS; i++) {
+            for (int j = 0; j < NUM_ALBEDO_PARAMETERS; j++) {
+                final String indexString = Integer.toString(priorBandStartIndex + i);
+//                final String meanBandName = "MEAN__BAND________" + i + "_PARAMETER_F" + j;
+                final String meanBandName = priorMeanBandNamePrefix + indexString + "_PARAMETER_F" + j;
+                priorBands[SRC_PRIOR_MEAN[i][j]] = getPriorBand(meanBandName);
+
+//                final String sdMeanBandName = "SD_MEAN__BAND________" + i + "_PARAMETER_F" + j;
+                final String sdMeanBandName = priorSdBandNamePrefix + indexString + "_PARAMETER_F" + j;
+                priorBands[SRC_PRIOR_SD[i][j]] = getPriorBand(sdMeanBandName);
             }
-//            configurator.defineSample(SRC_PRIOR_NSAMPLES, PRIOR_NSAMPLES_NAME, priorProduct);
-            configurator.defineSample(SRC_PRIOR_NSAMPLES, priorNSamplesBandName, priorProduct);
-//            configurator.defineSample(SRC_PRIOR_MASK, PRIOR_MASK_NAME, priorProduct);
-            configurator.defineSample(SRC_PRIOR_MASK, priorLandMaskBandName, priorProduct);
         }
+        priorBands[SRC_PRIOR_NSAMPLES] = getPriorBand(priorNSamplesBandName);
+        priorBands[SRC_PRIOR_MASK] = getPriorBand(priorLandMaskBandName);
     }
 
-    @Override
-    protected void configureTargetSamples(SampleConfigurer configurator) {
+    private Band getPriorBand(String bandName) {
+        final Band band = priorProduct.getBand(bandName);
+        if (band == null) {
+            throw new OperatorException("Prior product has no band '" + bandName + "'.");
+        }
+        return band;
+    }
 
+    private void configureTargetBands(Product targetProduct) {
+        targetBands = new Band[NUM_TRG_BANDS];
         for (int i = 0; i < 3 * NUM_BBDR_WAVE_BANDS; i++) {
-            configurator.defineSample(i, PARAMETER_BAND_NAMES[i]);
+            targetBands[i] = addTargetBand(targetProduct, PARAMETER_BAND_NAMES[i]);
         }
 
         int index = 0;
         for (int i = 0; i < 3 * NUM_BBDR_WAVE_BANDS; i++) {
-            for (int j = i; j < 3 * NUM_ALBEDO_PARAMETERS; j++) {
-                configurator.defineSample(NUM_TRG_PARAMETERS + index, UNCERTAINTY_BAND_NAMES[i][j]);
+            // add bands only for UR triangular matrix
+            for (int j = i; j < 3 * NUM_BBDR_WAVE_BANDS; j++) {
+                targetBands[NUM_TRG_PARAMETERS + index] = addTargetBand(targetProduct, UNCERTAINTY_BAND_NAMES[i][j]);
                 index++;
             }
         }
 
         int offset = NUM_TRG_PARAMETERS + NUM_TRG_UNCERTAINTIES;
-        configurator.defineSample(offset, INV_ENTROPY_BAND_NAME);
-        configurator.defineSample(offset + TRG_REL_ENTROPY, INV_REL_ENTROPY_BAND_NAME);
-        configurator.defineSample(offset + TRG_WEIGHTED_NUM_SAMPLES, INV_WEIGHTED_NUMBER_OF_SAMPLES_BAND_NAME);
-        configurator.defineSample(offset + TRG_GOODNESS_OF_FIT, INV_GOODNESS_OF_FIT_BAND_NAME);
-        configurator.defineSample(offset + TRG_DAYS_TO_THE_CLOSEST_SAMPLE, ACC_DAYS_TO_THE_CLOSEST_SAMPLE_BAND_NAME);
+        targetBands[offset] = addTargetBand(targetProduct, INV_ENTROPY_BAND_NAME);
+        targetBands[offset + TRG_REL_ENTROPY] = addTargetBand(targetProduct, INV_REL_ENTROPY_BAND_NAME);
+        targetBands[offset + TRG_WEIGHTED_NUM_SAMPLES] =
+                addTargetBand(targetProduct, INV_WEIGHTED_NUMBER_OF_SAMPLES_BAND_NAME);
+        targetBands[offset + TRG_DAYS_TO_THE_CLOSEST_SAMPLE] =
+                addTargetBand(targetProduct, ACC_DAYS_TO_THE_CLOSEST_SAMPLE_BAND_NAME);
+        targetBands[offset + TRG_GOODNESS_OF_FIT] = addTargetBand(targetProduct, INV_GOODNESS_OF_FIT_BAND_NAME);
+    }
+
+    private Band addTargetBand(Product targetProduct, String bandName) {
+        Band b = targetProduct.addBand(bandName, ProductData.TYPE_FLOAT32);
+        b.setNoDataValue(Float.NaN);
+        b.setNoDataValueUsed(true);
+        if (computeSeaice) {
+            b.setValidPixelExpression(AlbedoInversionConstants.SEAICE_ALBEDO_VALID_PIXEL_EXPRESSION);
+        }
+        return b;
     }
 
     @Override
-    protected void computePixel(int x, int y, Sample[] sourceSamples, WritableSample[] targetSamples) {
-        Matrix parameters = new Matrix(NUM_BBDR_WAVE_BANDS * NUM_ALBEDO_PARAMETERS, 1);
-        Matrix uncertainties = new Matrix(3 * NUM_BBDR_WAVE_BANDS, 3 * NUM_ALBEDO_PARAMETERS);
+    public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle targetRectangle, ProgressMonitor pm)
+            throws OperatorException {
+        final Tile[] trgTiles = new Tile[NUM_TRG_BANDS];
+        for (int i = 0; i < NUM_TRG_BANDS; i++) {
+            trgTiles[i] = targetTiles.get(targetBands[i]);
+        }
+        final InversionWorkspace ws = new InversionWorkspace();
+        final double[] result = new double[NUM_TRG_BANDS];
+
+        final boolean accumulatorEmpty = fullAccumulator == null || fullAccumulator.isEmpty(targetRectangle);
+        if (accumulatorEmpty && !usePrior) {
+            // no samples and no prior: the result does not depend on the pixel
+            computePixel(targetRectangle.x, targetRectangle.y, true, null, ws, result);
+            for (int i = 0; i < NUM_TRG_BANDS; i++) {
+                final Tile trgTile = trgTiles[i];
+                for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
+                    for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
+                        trgTile.setSample(x, y, result[i]);
+                    }
+                }
+            }
+            return;
+        }
+
+        Tile[] priorTiles = null;
+        double[][] rowSamples = null;
+        double[] priorSamples = null;
+        if (usePrior) {
+            priorTiles = new Tile[NUM_PRIOR_RASTERS];
+            for (int i = 0; i < NUM_PRIOR_RASTERS; i++) {
+                priorTiles[i] = getSourceTile(priorBands[i], targetRectangle);
+            }
+            rowSamples = new double[NUM_PRIOR_RASTERS][targetRectangle.width];
+            priorSamples = new double[NUM_PRIOR_RASTERS];
+        }
+
+        for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
+            if (usePrior) {
+                for (int i = 0; i < NUM_PRIOR_RASTERS; i++) {
+                    final Tile priorTile = priorTiles[i];
+                    final double[] samples = rowSamples[i];
+                    for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
+                        samples[x - targetRectangle.x] = priorTile.getSampleDouble(x, y);
+                    }
+                }
+            }
+            for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
+                if (usePrior) {
+                    for (int i = 0; i < NUM_PRIOR_RASTERS; i++) {
+                        priorSamples[i] = rowSamples[i][x - targetRectangle.x];
+                    }
+                }
+                computePixel(x, y, accumulatorEmpty, priorSamples, ws, result);
+                for (int i = 0; i < NUM_TRG_BANDS; i++) {
+                    trgTiles[i].setSample(x, y, result[i]);
+                }
+            }
+            checkForCancellation();
+        }
+    }
+
+    private void computePixel(int x, int y, boolean accumulatorEmpty, double[] priorSamples,
+                              InversionWorkspace ws, double[] result) {
+        final SymmetricMatrixSolver solver = ws.solver;
+        final double[] m = ws.m;
+        final double[] v = ws.v;
+        final double[] parameters = ws.parameters;
+        final double[] uncertainties = ws.uncertainties;
+        Arrays.fill(parameters, 0.0);
+        Arrays.fill(uncertainties, 0.0);
 
         double entropy = 0.0; // == det in BB
         double relEntropy = 0.0;
 
         double maskAcc = 0.0;
-        Accumulator accumulator = null;
-        if (fullAccumulator != null) {
-            accumulator = Accumulator.createForInversion(fullAccumulator.getSumMatrices(), x, y);
-            maskAcc = accumulator.getMask();
+        if (!accumulatorEmpty) {
+            maskAcc = fullAccumulator.getMask(x, y);
         }
 
         double maskPrior = 1.0;
         Prior prior = null;
         if (usePrior) {
-            prior = Prior.createForInversion(sourceSamples, priorScaleFactor);
+            prior = Prior.createForInversion(priorSamples, priorScaleFactor);
             maskPrior = prior.getMask();
         }
 
         double goodnessOfFit = 0.0;
         float daysToTheClosestSample = 0.0f;
-        if (accumulator != null && maskAcc > 0 && ((usePrior && maskPrior > 0) || !usePrior)) {
-            final Matrix mAcc = accumulator.getM();
-            Matrix vAcc = accumulator.getV();
-            final Matrix eAcc = accumulator.getE();
+        if (maskAcc > 0 && ((usePrior && maskPrior > 0) || !usePrior)) {
+            final double eAcc = fullAccumulator.getMatrices(x, y, m, v);
 
             if (usePrior) {
-                for (int i = 0; i < 3 * NUM_BBDR_WAVE_BANDS; i++) {
-                    double m_ii_accum = mAcc.get(i, i);
-                    if (prior.getM() != null) {
-                        m_ii_accum += prior.getM().get(i, i);
+                final Matrix priorM = prior.getM();
+                final Matrix priorV = prior.getV();
+                for (int i = 0; i < NUM_TRG_PARAMETERS; i++) {
+                    if (priorM != null) {
+                        m[i * NUM_TRG_PARAMETERS + i] += priorM.get(i, i);
                     }
-                    mAcc.set(i, i, m_ii_accum);
+                    v[i] += priorV.get(i, 0);
                 }
-                vAcc = vAcc.plus(prior.getV());
             }
 
-            final LUDecomposition lud = new LUDecomposition(mAcc);
-            if (lud.isNonsingular()) {
-                Matrix tmpM = mAcc.inverse();
-                if (AlbedoInversionUtils.matrixHasNanElements(tmpM) || AlbedoInversionUtils.matrixHasZerosInDiagonale(
-                        tmpM)) {
-                    tmpM = new Matrix(3 * NUM_BBDR_WAVE_BANDS,
-                                      3 * NUM_ALBEDO_PARAMETERS,
-                                      INVALID);
+            if (solver.decompose(m)) {
+                solver.invert(uncertainties);
+                if (hasNanElements(uncertainties) || hasZerosInDiagonale(uncertainties)) {
+                    Arrays.fill(uncertainties, INVALID);
                 }
-                uncertainties = tmpM;
             } else {
-                parameters = new Matrix(NUM_BBDR_WAVE_BANDS *
-                                                NUM_ALBEDO_PARAMETERS, 1,
-                                        INVALID
-                );
-                uncertainties = new Matrix(3 * NUM_BBDR_WAVE_BANDS,
-                                           3 * NUM_ALBEDO_PARAMETERS,
-                                           INVALID);
+                Arrays.fill(parameters, INVALID);
+                Arrays.fill(uncertainties, INVALID);
                 maskAcc = 0.0;
             }
 
             if (maskAcc != 0.0) {
-                parameters = mAcc.solve(vAcc);
+                solver.solve(v, parameters);
 
-//                entropy = INVALID;  // test used because of VM crashes on gamaster in case of only one BRDF source product!!!
-//                relEntropy = INVALID;
-                // todo: reactivate
-                entropy = getEntropy(mAcc);
+                entropy = getEntropy(solver);
                 if (usePrior && prior != null && prior.getM() != null) {
-                    final double entropyPrior = getEntropy(prior.getM());
+                    final double[] priorM = getMatrixElements(prior.getM(), ws.priorM);
+                    final double entropyPrior = ws.priorSolver.decompose(priorM) ?
+                            getEntropy(ws.priorSolver) : getEntropyFromSvd(priorM);
                     relEntropy = entropyPrior - entropy;
                 } else {
                     relEntropy = INVALID;
                 }
             }
             // 'Goodness of Fit'...
-            goodnessOfFit = getGoodnessOfFit(mAcc, vAcc, eAcc, parameters, maskAcc);
+            goodnessOfFit = getGoodnessOfFit(v, eAcc, parameters, maskAcc);
 
             // finally we need the 'Days to the closest sample'...
-            daysToTheClosestSample = fullAccumulator.getDaysToTheClosestSample()[x][y];
+            daysToTheClosestSample = fullAccumulator.getDaysToTheClosestSample(x, y);
         } else {
             if (maskPrior > 0.0) {
                 if (usePrior) {
-                    parameters = prior.getParameters();
-                    final LUDecomposition lud = new LUDecomposition(prior.getM());
-                    if (lud.isNonsingular()) {
-                        uncertainties = prior.getM().inverse();
-                        entropy = getEntropy(prior.getM());
+                    final Matrix priorParameters = prior.getParameters();
+                    for (int i = 0; i < NUM_TRG_PARAMETERS; i++) {
+                        parameters[i] = priorParameters.get(i, 0);
+                    }
+                    getMatrixElements(prior.getM(), m);
+                    if (solver.decompose(m)) {
+                        solver.invert(uncertainties);
+                        entropy = getEntropy(solver);
                     } else {
-                        uncertainties = new Matrix(
-                                3 * NUM_BBDR_WAVE_BANDS,
-                                3 * NUM_ALBEDO_PARAMETERS, INVALID);
+                        Arrays.fill(uncertainties, INVALID);
                         entropy = INVALID;
                     }
                     relEntropy = 0.0;
                 } else {
-                    uncertainties = new Matrix(
-                            3 * NUM_BBDR_WAVE_BANDS,
-                            3 * NUM_ALBEDO_PARAMETERS, INVALID);
+                    Arrays.fill(uncertainties, INVALID);
                     entropy = INVALID;
                     relEntropy = INVALID;
                 }
@@ -320,56 +383,97 @@ public class InversionOp extends PixelOperator {
         }
 
         // we have the final result - fill target samples...
-        fillTargetSamples(targetSamples,
-                          parameters, uncertainties, entropy, relEntropy,
-                          maskAcc, goodnessOfFit, daysToTheClosestSample);
+        fillResult(result,
+                   parameters, uncertainties, entropy, relEntropy,
+                   maskAcc, goodnessOfFit, daysToTheClosestSample);
     }
 
-    private double getGoodnessOfFit(Matrix mAcc, Matrix vAcc, Matrix eAcc, Matrix fPars, double maskAcc) {
-        Matrix goodnessOfFitMatrix = new Matrix(1, 1, 0.0);
+    private static double[] getMatrixElements(Matrix matrix, double[] elements) {
+        final int n = matrix.getColumnDimension();
+        for (int i = 0; i < matrix.getRowDimension(); i++) {
+            for (int j = 0; j < n; j++) {
+                elements[i * n + j] = matrix.get(i, j);
+            }
+        }
+        return elements;
+    }
+
+    private static boolean hasNanElements(double[] m) {
+        for (double element : m) {
+            if (Double.isNaN(element)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasZerosInDiagonale(double[] m) {
+        for (int i = 0; i < NUM_TRG_PARAMETERS; i++) {
+            if (m[i * NUM_TRG_PARAMETERS + i] == 0.0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double getGoodnessOfFit(double[] vAcc, double eAcc, double[] fPars, double maskAcc) {
+        double goodnessOfFit = 0.0;
         if (maskAcc > 0) {
-            final Matrix gofTerm1 = fPars.transpose().times(mAcc).times(fPars);
-            final Matrix gofTerm2 = fPars.transpose().times(vAcc);
-            final Matrix m2 = new Matrix(1, 1, 2.0);
-            final Matrix gofTerm3 = m2.times(eAcc);
-            goodnessOfFitMatrix = gofTerm1.plus(gofTerm2).minus(gofTerm3);
+            // fPars^T * M * fPars + fPars^T * V - 2 * E, with M * fPars == V from the solve:
+            // 2 * fPars^T * V - 2 * E
+            for (int i = 0; i < NUM_TRG_PARAMETERS; i++) {
+                goodnessOfFit += fPars[i] * vAcc[i];
+            }
+            goodnessOfFit = 2.0 * goodnessOfFit - 2.0 * eAcc;
         }
-        return goodnessOfFitMatrix.get(0, 0);
+        return goodnessOfFit;
     }
 
-    private void fillTargetSamples(WritableSample[] targetSamples,
-                                   Matrix parameters, Matrix uncertainties, double entropy, double relEntropy,
-                                   double weightedNumberOfSamples, double goodnessOfFit, float daysToTheClosestSample) {
+    private static void fillResult(double[] result,
+                                   double[] parameters, double[] uncertainties, double entropy, double relEntropy,
+                                   double weightedNumberOfSamples, double goodnessOfFit,
+                                   float daysToTheClosestSample) {
 
         // parameters
         int index = 0;
         for (int i = 0; i < NUM_BBDR_WAVE_BANDS; i++) {
             for (int j = 0; j < NUM_BBDR_WAVE_BANDS; j++) {
-                targetSamples[index].set(parameters.get(index, 0));
+                result[index] = parameters[index];
                 index++;
             }
         }
 
         for (int i = 0; i < 3 * NUM_BBDR_WAVE_BANDS; i++) {
             for (int j = i; j < 3 * NUM_BBDR_WAVE_BANDS; j++) {
-                targetSamples[index].set(uncertainties.get(i, j));
+                result[index] = uncertainties[i * NUM_TRG_PARAMETERS + j];
                 index++;
             }
         }
 
         int offset = NUM_TRG_PARAMETERS + NUM_TRG_UNCERTAINTIES;
-        targetSamples[offset].set(entropy);
-        targetSamples[offset + TRG_REL_ENTROPY].set(relEntropy);
-        targetSamples[offset + TRG_WEIGHTED_NUM_SAMPLES].set(weightedNumberOfSamples);
-        targetSamples[offset + TRG_GOODNESS_OF_FIT].set(goodnessOfFit);
-        targetSamples[offset + TRG_DAYS_TO_THE_CLOSEST_SAMPLE].set(daysToTheClosestSample);
+        result[offset] = entropy;
+        result[offset + TRG_REL_ENTROPY] = relEntropy;
+        result[offset + TRG_WEIGHTED_NUM_SAMPLES] = weightedNumberOfSamples;
+        result[offset + TRG_GOODNESS_OF_FIT] = goodnessOfFit;
+        result[offset + TRG_DAYS_TO_THE_CLOSEST_SAMPLE] = daysToTheClosestSample;
+
+    }
 
+    private static double getEntropy(SymmetricMatrixSolver solver) {
+        // the product of the singular values is |det M|, which we get from the factorization of the solve
+        return -0.5 * solver.getLogDeterminant() + NUM_TRG_PARAMETERS * ENTROPY_OFFSET;
     }
 
-    private double getEntropy(Matrix m) {
+    private static double getEntropyFromSvd(double[] m) {
+        // only for singular matrices, where zero singular values are left out of the product
         // final SingularValueDecomposition svdM = m.svd();     // this sometimes gets stuck at CEMS!!
         //  --> single value decomposition from apache.commons.math3 seems to do better
-        final RealMatrix rm = AlbedoInversionUtils.getRealMatrixFromJamaMatrix(m);
+        final RealMatrix rm = new Array2DRowRealMatrix(NUM_TRG_PARAMETERS, NUM_TRG_PARAMETERS);
+        for (int i = 0; i < NUM_TRG_PARAMETERS; i++) {
+            for (int j = 0; j < NUM_TRG_PARAMETERS; j++) {
+                rm.setEntry(i, j, m[i * NUM_TRG_PARAMETERS + j]);
+            }
+        }
         final SingularValueDecomposition svdM = new SingularValueDecomposition(rm);
         final double[] svdMSingularValues = svdM.getSingularValues();
         // see python BB equivalent at http://nullege.com/codes/search/numpy.prod
@@ -379,7 +483,28 @@ public class InversionOp extends PixelOperator {
                 productSvdMSRecip *= (1.0 / svdMSingularValue);
             }
         }
-        return 0.5 * log(productSvdMSRecip) + svdMSingularValues.length * sqrt(log(2.0 * PI * E));
+        return 0.5 * log(productSvdMSRecip) + svdMSingularValues.length * ENTROPY_OFFSET;
+    }
+
+    /**
+     * Per-tile primitive arrays for the pixel inversion, so that computePixel does not allocate
+     * any matrix objects for the 9x9 system.
+     */
+    private static class InversionWorkspace {
+        final SymmetricMatrixSolver solver = new SymmetricMatrixSolver(NUM_TRG_PARAMETERS);
+        final SymmetricMatrixSolver priorSolver = new SymmetricMatrixSolver(NUM_TRG_PARAMETERS);
+        final double[] m = new double[NUM_TRG_PARAMETERS * NUM_TRG_PARAMETERS];
+        final double[] v = new double[NUM_TRG_PARAMETERS];
+        final double[] parameters = new double[NUM_TRG_PARAMETERS];
+        final double[] uncertainties = new double[NUM_TRG_PARAMETERS * NUM_TRG_PARAMETERS];
+        final double[] priorM = new double[NUM_TRG_PARAMETERS * NUM_TRG_PARAMETERS];
+    }
+
+    @Override
+    public void dispose() {
+        // the accumulator file is unmapped when the buffers are garbage collected
+        fullAccumulator = null;
+        super.dispose();
     }
 
     public static class Spi extends OperatorSpi {
@@ -0,0 +1,187 @@
+package org.esa.beam.globalbedo.inversion;
+
+import org.esa.beam.globalbedo.inversion.util.AccumulatorFileHeader;
+import org.esa.beam.globalbedo.inversion.util.AccumulatorLayout;
+import org.esa.beam.globalbedo.inversion.util.AccumulatorPixelIndex;
+import org.esa.beam.globalbedo.inversion.util.IOUtils;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Class representing a 'full' 8-day accumulator file which is memory-mapped instead of being read into
+ * float arrays. Each band (M, V, E, mask and daysToTheClosestSample) is mapped separately, so only the
+ * pages of the lines touched by the requested tiles are actually read from disk.
+ * For sparse files only the values of the pixels with samples are mapped, all other pixels are 0.
+ * Compressed files cannot be mapped, their bands are inflated into direct buffers instead.
+ * <p/>
+ * Values are accessed with absolute gets, so an instance can be shared by the tile computing threads.
+ *
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class MappedFullAccumulator {
+
+    private final int year;
+    private final int doy;
+    private final int rasterWidth;
+    private final int rasterHeight;
+    private final FloatBuffer[] bands;
+    private final FloatBuffer daysToTheClosestSample;
+    private final AccumulatorPixelIndex pixelIndex;
+
+    private MappedFullAccumulator(int year, int doy, int rasterWidth, int rasterHeight,
+                                  FloatBuffer[] bands, FloatBuffer daysToTheClosestSample,
+                                  AccumulatorPixelIndex pixelIndex) {
+        this.year = year;
+        this.doy = doy;
+        this.rasterWidth = rasterWidth;
+        this.rasterHeight = rasterHeight;
+        this.bands = bands;
+        this.daysToTheClosestSample = daysToTheClosestSample;
+        this.pixelIndex = pixelIndex;
+    }
+
+    /**
+     * Maps a full accumulator file (accumulator bands followed by the daysToTheClosestSample band,
+     * band by band). Files with and without {@link AccumulatorFileHeader} are supported. The accumulator
+     * bands are mapped in packed layout (see {@link AccumulatorLayout}), files which still hold the full M
+     * are mapped without their lower triangle. The size of the file is checked against the header, the block
+     * checksums are not verified here (except for compressed files, which are inflated and verified completely).
+     *
+     * @param year         - year
+     * @param doy          - day of year
+     * @param file         - the full accumulator file
+     * @param rasterWidth  - raster width
+     * @param rasterHeight - raster height
+     * @return MappedFullAccumulator
+     * @throws IOException if the file cannot be mapped or is too short
+     */
+    public static MappedFullAccumulator map(int year, int doy, File file,
+                                            int rasterWidth, int rasterHeight) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel ch = raf.getChannel();
+            final AccumulatorFileHeader header = AccumulatorFileHeader.read(ch, rasterWidth, rasterHeight,
+                                                                            AccumulatorLayout.NUM_BANDS_UNPACKED + 1);
+            IOUtils.checkAccumulatorDimensions(header, file.getPath(), rasterWidth, rasterHeight);
+            final int numFileBands = AccumulatorLayout.getNumAccumulatorBands(header) + 1;
+            if (header.getNumBands() != numFileBands) {
+                throw new IOException("Full accumulator file '" + file.getPath() + "' has " +
+                                              header.getNumBands() + " bands, expected " + numFileBands);
+            }
+            final long bandSize = header.getLineOffset(rasterWidth) * 4L;
+            final int numBands = AccumulatorLayout.NUM_BANDS;
+            final FloatBuffer[] bands = new FloatBuffer[numBands];
+            for (int i = 0; i < numBands; i++) {
+                bands[i] = getBand(ch, header, AccumulatorLayout.getFileBand(header, i), bandSize);
+            }
+            final FloatBuffer days = getBand(ch, header, AccumulatorLayout.getFileBand(header, numBands), bandSize);
+            // the mappings stay valid after the channel is closed
+            return new MappedFullAccumulator(year, doy, rasterWidth, rasterHeight, bands, days,
+                                             header.getPixelIndex());
+        } finally {
+            raf.close();
+        }
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    public int getDoy() {
+        return doy;
+    }
+
+    public int getRasterWidth() {
+        return rasterWidth;
+    }
+
+    public int getRasterHeight() {
+        return rasterHeight;
+    }
+
+    public int getNumBands() {
+        return bands.length;
+    }
+
+    /**
+     * @param rectangle - a rectangle in image coordinates
+     * @return boolean - true if the file is sparse and no pixel of the rectangle has samples
+     */
+    public boolean isEmpty(Rectangle rectangle) {
+        // the lines of the file are image columns, as in the index
+        return pixelIndex != null && pixelIndex.isEmpty(rectangle);
+    }
+
+    /**
+     * @param band - accumulator band index in packed layout (0..44: M, 45..53: V, 54: E, 55: mask)
+     * @param x    - pixel x
+     * @param y    - pixel y
+     * @return float - the accumulator value
+     */
+    public float getSumMatrixElement(int band, int x, int y) {
+        final int index = getIndex(x, y);
+        return index >= 0 ? bands[band].get(index) : 0.0f;
+    }
+
+    public float getDaysToTheClosestSample(int x, int y) {
+        final int index = getIndex(x, y);
+        return index >= 0 ? daysToTheClosestSample.get(index) : 0.0f;
+    }
+
+    /**
+     * Reads the accumulated M (row-major) and V of a pixel.
+     *
+     * @param x - pixel x
+     * @param y - pixel y
+     * @param m - M elements (output, length n*n)
+     * @param v - V elements (output, length n)
+     * @return double - the accumulated E
+     */
+    public double getMatrices(int x, int y, double[] m, double[] v) {
+        final int index = getIndex(x, y);
+        final int n = v.length;
+        if (index < 0) {
+            Arrays.fill(m, 0, n * n, 0.0);
+            Arrays.fill(v, 0, n, 0.0);
+            return 0.0;
+        }
+        int band = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = i; j < n; j++) {
+                final float value = bands[band++].get(index);
+                m[i * n + j] = value;
+                m[j * n + i] = value;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            v[i] = bands[AccumulatorLayout.V_INDEX + i].get(index);
+        }
+        return bands[AccumulatorLayout.E_INDEX].get(index);
+    }
+
+    public float getMask(int x, int y) {
+        final int index = getIndex(x, y);
+        return index >= 0 ? bands[AccumulatorLayout.MASK_INDEX].get(index) : 0.0f;
+    }
+
+    private int getIndex(int x, int y) {
+        return pixelIndex != null ? pixelIndex.getIndex(x, y) : x * rasterHeight + y;
+    }
+
+    private static FloatBuffer getBand(FileChannel ch, AccumulatorFileHeader header, int fileBand,
+                                       long size) throws IOException {
+        if (header.isCompressed()) {
+            return IOUtils.readCompressedAccumulatorBand(ch, header, fileBand).order(header.getByteOrder()).
+                    asFloatBuffer();
+        }
+        return ch.map(FileChannel.MapMode.READ_ONLY, header.getPosition(fileBand, 0), size).
+                order(header.getByteOrder()).asFloatBuffer();
+    }
+}
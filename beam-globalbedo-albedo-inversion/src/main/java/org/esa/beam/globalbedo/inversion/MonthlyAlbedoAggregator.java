@@ -0,0 +1,202 @@
+package org.esa.beam.globalbedo.inversion;
+
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.globalbedo.inversion.util.AlbedoInversionUtils;
+import org.esa.beam.globalbedo.inversion.util.IOUtils;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Weighted average of 8-day albedo products to a monthly albedo, computed per tile rectangle.
+ * <p/>
+ * The 8-day products are walked one at a time: for each rectangle, a product is opened with the needed bands only,
+ * its samples of the rectangle are added to weighted sums, and it is disposed before the next product is opened.
+ * So the memory and the open products of a rectangle do not depend on the number of 8-day products. The weights
+ * are taken from the month x DoY table of {@link AlbedoInversionUtils#getMonthlyWeight(int, int)}.
+ * <p/>
+ * An 8-day sample contributes where the sample of the 'valid' band is > 0. NaN samples contribute 0 with their
+ * full weight, as in the breadboard. The data mask is 1 where the 'valid' band of at least one 8-day product is > 0,
+ * also of a product with weight 0 (of which only the 'valid' band is read). All bands but the data mask are divided
+ * by the sum of weights, the alpha bands only if requested (as in the breadboard of the monthly mosaics, but not of
+ * the monthly tiles).
+ *
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class MonthlyAlbedoAggregator {
+
+    private final File[] albedo8DayFiles;
+    private final float[] weights;
+    private final String[] bandNames;
+    private final String validBandName;
+    private final String[] readBandNames;
+    private final boolean[] normalize;
+
+    /**
+     * @param albedo8DayFiles - the 8-day albedo products
+     * @param monthIndex      - month (1..12)
+     * @param bandNames       - the bands to average (the data mask band is derived)
+     * @param validBandName   - band which is > 0 where an 8-day sample is valid
+     * @param normalizeAlphas - whether the alpha bands are divided by the sum of weights as the other bands
+     */
+    public MonthlyAlbedoAggregator(File[] albedo8DayFiles, int monthIndex, String[] bandNames, String validBandName,
+                                   boolean normalizeAlphas) {
+        this.albedo8DayFiles = albedo8DayFiles;
+        this.bandNames = bandNames;
+        this.validBandName = validBandName;
+
+        weights = new float[albedo8DayFiles.length];
+        for (int j = 0; j < albedo8DayFiles.length; j++) {
+            final int doy = IOUtils.getDoyFromAlbedoProductName(albedo8DayFiles[j].getName());
+            weights[j] = doy > 0 ? AlbedoInversionUtils.getMonthlyWeight(monthIndex, doy) : 0.0f;
+        }
+
+        List<String> names = new ArrayList<String>();
+        for (String bandName : bandNames) {
+            if (!isDataMask(bandName)) {
+                names.add(bandName);
+            }
+        }
+        if (!names.contains(validBandName)) {
+            names.add(validBandName);
+        }
+        readBandNames = names.toArray(new String[names.size()]);
+
+        final List<String> alphaBandNames = new ArrayList<String>();
+        alphaBandNames.addAll(Arrays.asList(IOUtils.getAlbedoDhrAlphaBandNames()));
+        alphaBandNames.addAll(Arrays.asList(IOUtils.getAlbedoBhrAlphaBandNames()));
+        normalize = new boolean[bandNames.length];
+        for (int b = 0; b < bandNames.length; b++) {
+            normalize[b] = !isDataMask(bandNames[b]) && (normalizeAlphas || !alphaBandNames.contains(bandNames[b]));
+        }
+    }
+
+    /**
+     * @param albedo8DayProduct - an 8-day albedo product
+     * @return String[] - the bands of a monthly product made of 8-day products like the given one, in the
+     *         order of the 8-day products
+     */
+    public static String[] getMonthlyBandNames(Product albedo8DayProduct) {
+        List<String> names = new ArrayList<String>();
+        addBandNames(names, IOUtils.getAlbedoDhrBandNames(), albedo8DayProduct);
+        addBandNames(names, IOUtils.getAlbedoDhrAlphaBandNames(), albedo8DayProduct);
+        addBandNames(names, IOUtils.getAlbedoDhrSigmaBandNames(), albedo8DayProduct);
+        addBandNames(names, IOUtils.getAlbedoBhrBandNames(), albedo8DayProduct);
+        addBandNames(names, IOUtils.getAlbedoBhrAlphaBandNames(), albedo8DayProduct);
+        addBandNames(names, IOUtils.getAlbedoBhrSigmaBandNames(), albedo8DayProduct);
+        addBandNames(names, new String[]{
+                AlbedoInversionConstants.INV_WEIGHTED_NUMBER_OF_SAMPLES_BAND_NAME,
+                AlbedoInversionConstants.INV_REL_ENTROPY_BAND_NAME,
+                AlbedoInversionConstants.INV_GOODNESS_OF_FIT_BAND_NAME,
+                AlbedoInversionConstants.ALB_SNOW_FRACTION_BAND_NAME,
+        }, albedo8DayProduct);
+        names.add(AlbedoInversionConstants.ALB_DATA_MASK_BAND_NAME);
+        // is not in breadboard monthly product
+        addBandNames(names, new String[]{AlbedoInversionConstants.ALB_SZA_BAND_NAME}, albedo8DayProduct);
+        return names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * Computes the monthly albedo of the given rectangle.
+     *
+     * @param rectangle - the rectangle
+     * @return double[][] - the monthly values, indexed by [band][pixel], with bands in the order of the band names
+     *         and pixels row by row
+     * @throws IOException - if an 8-day product cannot be read
+     */
+    public double[][] aggregate(Rectangle rectangle) throws IOException {
+        final int numPixels = rectangle.width * rectangle.height;
+        final double[][] sums = new double[bandNames.length][numPixels];
+        final double[] sumWeights = new double[numPixels];
+        final float[] validSamples = new float[numPixels];
+        final float[] samples = new float[numPixels];
+
+        final String[] validBandNames = {validBandName};
+        for (int j = 0; j < albedo8DayFiles.length; j++) {
+            final float weight = weights[j];
+            // a product with weight 0 only contributes to the data mask
+            final Product product = openProduct(albedo8DayFiles[j], weight > 0.0f ? readBandNames : validBandNames);
+            try {
+                readSamples(product, validBandName, rectangle, validSamples);
+                for (int b = 0; b < bandNames.length; b++) {
+                    final double[] sum = sums[b];
+                    if (isDataMask(bandNames[b])) {
+                        for (int i = 0; i < numPixels; i++) {
+                            if (validSamples[i] > 0.0f) {
+                                sum[i] = 1.0;
+                            }
+                        }
+                    } else if (weight > 0.0f) {
+                        readSamples(product, bandNames[b], rectangle, samples);
+                        for (int i = 0; i < numPixels; i++) {
+                            if (validSamples[i] > 0.0f) {
+                                sum[i] += weight * AlbedoInversionUtils.checkSummandForNan((double) samples[i]);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                product.dispose();
+            }
+            if (weight > 0.0f) {
+                for (int i = 0; i < numPixels; i++) {
+                    if (validSamples[i] > 0.0f) {
+                        sumWeights[i] += weight;
+                    }
+                }
+            }
+        }
+
+        for (int b = 0; b < bandNames.length; b++) {
+            if (normalize[b]) {
+                final double[] sum = sums[b];
+                for (int i = 0; i < numPixels; i++) {
+                    if (sumWeights[i] > 0.0) {
+                        sum[i] /= sumWeights[i];
+                    }
+                }
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * Opens an 8-day product. The caller disposes it.
+     *
+     * @param albedo8DayFile - the 8-day albedo product file
+     * @param bandNames      - the bands to read
+     * @return Product - the product
+     * @throws IOException - if the product cannot be opened
+     */
+    protected Product openProduct(File albedo8DayFile, String[] bandNames) throws IOException {
+        return IOUtils.readProductSubset(albedo8DayFile, bandNames);
+    }
+
+    private void readSamples(Product product, String bandName, Rectangle rectangle, float[] samples)
+            throws IOException {
+        final Band band = product.getBand(bandName);
+        if (band == null) {
+            throw new IOException("Band '" + bandName + "' not found in 8-day albedo product " +
+                                          product.getFileLocation());
+        }
+        band.readPixels(rectangle.x, rectangle.y, rectangle.width, rectangle.height, samples);
+    }
+
+    private static boolean isDataMask(String bandName) {
+        return bandName.equals(AlbedoInversionConstants.ALB_DATA_MASK_BAND_NAME);
+    }
+
+    private static void addBandNames(List<String> names, String[] bandNames, Product albedo8DayProduct) {
+        for (String bandName : bandNames) {
+            if (albedo8DayProduct.containsBand(bandName)) {
+                names.add(bandName);
+            }
+        }
+    }
+}
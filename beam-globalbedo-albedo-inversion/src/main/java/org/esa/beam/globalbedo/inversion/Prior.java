@@ -2,7 +2,6 @@ package org.esa.beam.globalbedo.inversion;
 
 import Jama.LUDecomposition;
 import Jama.Matrix;
-import org.esa.beam.framework.gpf.pointop.Sample;
 
 /**
  * Object holding the prior data elements M, V, Mask and Parameters
@@ -25,15 +24,15 @@ public class Prior {
     }
 
     /**
-     * Returns a prior object built from source samples of a prior product to be used for inversion in {@link InversionOp}}.
+     * Returns a prior object built from the samples of a prior product pixel to be used for inversion in {@link InversionOp}}.
      * This method basically represents the BB implementation 'GetPrior'
      *
-     * @param sourceSamples - the source samples as defined in {@link InversionOp}}.
+     * @param priorSamples - the prior samples, indexed as defined in {@link InversionOp}}.
      * @param priorScaleFactor - the prior scale factor
      *
      * @return Prior
      */
-    public static Prior createForInversion(Sample[] sourceSamples, double priorScaleFactor) {
+    public static Prior createForInversion(double[] priorSamples, double priorScaleFactor) {
 
         Matrix C = new Matrix(3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS,
                               3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS);              // 9x9
@@ -43,7 +42,7 @@ public class Prior {
 
         double mask = 0.0;
         final int priorIndexNsamples = InversionOp.SRC_PRIOR_NSAMPLES;
-        double nSamples = sourceSamples[priorIndexNsamples].getDouble();
+        double nSamples = priorSamples[priorIndexNsamples];
 
         Matrix priorMean = new Matrix(
                 AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS, 1);
@@ -54,10 +53,10 @@ public class Prior {
         for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
             for (int j = 0; j < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; j++) {
                 final int priorIndexMij = InversionOp.SRC_PRIOR_MEAN[i][j];
-                final double m_ij = sourceSamples[priorIndexMij].getDouble();
+                final double m_ij = priorSamples[priorIndexMij];
                 priorMean.set(index, 0, m_ij);
                 final int priorIndexSDij = InversionOp.SRC_PRIOR_SD[i][j];
-                final double sd_ij = sourceSamples[priorIndexSDij].getDouble();
+                final double sd_ij = priorSamples[priorIndexSDij];
                 priorSD.set(index, 0, sd_ij);
                 if (priorMean.get(index, 0) > 0.0 && priorSD.get(index, 0) == 0.0) {
                     mask = 1.0;
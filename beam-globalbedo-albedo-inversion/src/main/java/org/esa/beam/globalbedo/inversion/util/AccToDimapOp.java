@@ -47,13 +47,8 @@ public class AccToDimapOp extends Operator {
     @Override
     public void initialize() throws OperatorException {
         System.out.println("Reading accumulator file: " + fullAccumulatorFilePath);
-        int numBands =  IOUtils.getDailyAccumulatorBandNames().length;
-        if (isFullAcc) {
-            numBands++;
-        }
         fullAcc = IOUtils.getAccumulatorFromBinaryFile
                 (year, doy, fullAccumulatorFilePath,
-                 numBands,
                  rasterWidth, rasterHeight, isFullAcc);
 
         System.out.println("Done reading full accumulator file.");
@@ -89,12 +84,12 @@ public class AccToDimapOp extends Operator {
         if (targetBand.getName().startsWith("M")) {
             final int i = Integer.parseInt(targetBand.getName().substring(2, 3));
             final int j = Integer.parseInt(targetBand.getName().substring(3, 4));
-            sumMatrixIndex = 9 * i + j;
+            sumMatrixIndex = AccumulatorLayout.getMIndex(i, j);
         } else if (targetBand.getName().startsWith("V")) {
             final int j = Integer.parseInt(targetBand.getName().substring(2, 3));
-            sumMatrixIndex = 9 * j;
+            sumMatrixIndex = AccumulatorLayout.V_INDEX + j;
         } else {
-            sumMatrixIndex = 90;
+            sumMatrixIndex = AccumulatorLayout.E_INDEX;
         }
 
         for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
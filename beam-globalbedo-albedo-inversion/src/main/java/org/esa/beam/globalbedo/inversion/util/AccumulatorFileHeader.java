@@ -0,0 +1,508 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Header of the binary daily and full accumulator files. The header makes the files self-describing, so that
+ * readers can seek to a band or line block, and truncated or corrupt files (e.g. from killed jobs) are detected
+ * instead of being silently consumed.
+ * <p/>
+ * Layout (header fields always big endian):
+ * <pre>
+ *   int    magic ('GAAC')
+ *   int    version
+ *   int    byte order of the data (0 = big endian, 1 = little endian)
+ *   int    width (number of lines per band, first array index)
+ *   int    height (number of floats per line)
+ *   int    number of bands
+ *   int    year
+ *   int    day of year
+ *   int    lines per checksum block
+ *   int    header size (= offset of the data)
+ *   long[] CRC32 checksums per band and block of lines (-1 if not set)
+ *   long[] file positions of the blocks per band and block of lines (compressed files only, -1 if not set)
+ *   int[]  lengths of the blocks per band and block of lines (compressed files only)
+ *   long[] validity bitmap (sparse files only, see {@link AccumulatorPixelIndex})
+ * </pre>
+ * followed by the bands, each band as [width][height] floats. The band layout is given by the version
+ * (see {@link AccumulatorLayout}): version 2 to 5 files hold the packed M, version 1 files the full M.
+ * Version 3 and 5 files are 'sparse': each band holds the values of the valid pixels of the bitmap only, line by
+ * line, which makes the files of tiles with few observed pixels (coast lines, high latitudes) small.
+ * Version 4 and 5 files are 'compressed': each block of lines of a band is stored deflated at the position given
+ * by the block index, in any order, so that a block can still be read without inflating the whole file.
+ * The checksums are the ones of the inflated data.
+ * Files without the magic are the former headerless raw float dumps, these are still read as 'legacy' files.
+ *
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class AccumulatorFileHeader {
+
+    public static final int MAGIC = 0x47414143;  // 'GAAC'
+    public static final int VERSION = 2;           // 2: M packed (upper triangle only), see AccumulatorLayout
+    public static final int VERSION_UNPACKED = 1;
+    public static final int VERSION_SPARSE = 3;    // 3: M packed, values of the valid pixels only
+    public static final int VERSION_COMPRESSED = 4;         // 4: as 2, deflated blocks
+    public static final int VERSION_SPARSE_COMPRESSED = 5;  // 5: as 3, deflated blocks
+    public static final int DEFAULT_LINES_PER_BLOCK = 50;
+
+    private static final int FIXED_HEADER_SIZE = 40;
+    private static final long NO_CHECKSUM = -1L;
+    private static final long NO_POSITION = -1L;
+
+    private final int version;
+    private final ByteOrder byteOrder;
+    private final int width;
+    private final int height;
+    private final int numBands;
+    private final int year;
+    private final int doy;
+    private final int linesPerBlock;
+    private final int headerSize;
+    private final long[] checksums;
+    private final long[] blockPositions;
+    private final int[] blockLengths;
+    private final AccumulatorPixelIndex pixelIndex;
+
+    // end of the data written so far (compressed files)
+    private long dataEnd;
+
+    private AccumulatorFileHeader(int version, ByteOrder byteOrder, int width, int height, int numBands,
+                                  int year, int doy, int linesPerBlock, long[] checksums,
+                                  long[] blockPositions, int[] blockLengths, AccumulatorPixelIndex pixelIndex) {
+        this.version = version;
+        this.byteOrder = byteOrder;
+        this.width = width;
+        this.height = height;
+        this.numBands = numBands;
+        this.year = year;
+        this.doy = doy;
+        this.linesPerBlock = linesPerBlock;
+        this.checksums = checksums;
+        this.blockPositions = blockPositions;
+        this.blockLengths = blockLengths;
+        this.pixelIndex = pixelIndex;
+        int size = version == 0 ? 0 : FIXED_HEADER_SIZE + 8 * checksums.length;
+        if (blockPositions != null) {
+            size += 12 * blockPositions.length;
+        }
+        if (pixelIndex != null) {
+            size += AccumulatorPixelIndex.getSize(width, height);
+        }
+        this.headerSize = size;
+        this.dataEnd = size;
+    }
+
+    /**
+     * Creates a header for a new accumulator file (big endian data, packed layout, checksums not yet set).
+     *
+     * @param width         - number of lines per band
+     * @param height        - number of floats per line
+     * @param numBands      - number of bands
+     * @param year          - year
+     * @param doy           - day of year
+     * @param linesPerBlock - number of lines per checksum block
+     * @return AccumulatorFileHeader
+     */
+    public static AccumulatorFileHeader create(int width, int height, int numBands, int year, int doy,
+                                               int linesPerBlock) {
+        return create(width, height, numBands, year, doy, linesPerBlock, null);
+    }
+
+    /**
+     * Creates a header for a new sparse accumulator file, which holds the values of the valid pixels of the
+     * given index only (big endian data, packed layout, checksums not yet set).
+     *
+     * @param width         - number of lines per band
+     * @param height        - number of floats per line
+     * @param numBands      - number of bands
+     * @param year          - year
+     * @param doy           - day of year
+     * @param linesPerBlock - number of lines per checksum block
+     * @param pixelIndex    - the valid pixels, or null for a dense file
+     * @return AccumulatorFileHeader
+     */
+    public static AccumulatorFileHeader create(int width, int height, int numBands, int year, int doy,
+                                               int linesPerBlock, AccumulatorPixelIndex pixelIndex) {
+        return create(width, height, numBands, year, doy, linesPerBlock, pixelIndex, false);
+    }
+
+    /**
+     * Creates a header for a new accumulator file (big endian data, packed layout, checksums not yet set).
+     * The data of compressed files must be written in whole blocks of lines.
+     *
+     * @param width         - number of lines per band
+     * @param height        - number of floats per line
+     * @param numBands      - number of bands
+     * @param year          - year
+     * @param doy           - day of year
+     * @param linesPerBlock - number of lines per checksum (and compression) block
+     * @param pixelIndex    - the valid pixels, or null for a dense file
+     * @param compressed    - true for a file with deflated blocks
+     * @return AccumulatorFileHeader
+     */
+    public static AccumulatorFileHeader create(int width, int height, int numBands, int year, int doy,
+                                               int linesPerBlock, AccumulatorPixelIndex pixelIndex,
+                                               boolean compressed) {
+        if (pixelIndex != null && (pixelIndex.getWidth() != width || pixelIndex.getHeight() != height)) {
+            throw new IllegalArgumentException("Pixel index dimensions differ from accumulator dimensions.");
+        }
+        final int numBlocks = (width + linesPerBlock - 1) / linesPerBlock;
+        final long[] checksums = new long[numBands * numBlocks];
+        Arrays.fill(checksums, NO_CHECKSUM);
+        long[] blockPositions = null;
+        int[] blockLengths = null;
+        if (compressed) {
+            blockPositions = new long[checksums.length];
+            blockLengths = new int[checksums.length];
+            Arrays.fill(blockPositions, NO_POSITION);
+        }
+        final int version;
+        if (compressed) {
+            version = pixelIndex != null ? VERSION_SPARSE_COMPRESSED : VERSION_COMPRESSED;
+        } else {
+            version = pixelIndex != null ? VERSION_SPARSE : VERSION;
+        }
+        return new AccumulatorFileHeader(version, ByteOrder.BIG_ENDIAN, width, height, numBands, year, doy,
+                                         linesPerBlock, checksums, blockPositions, blockLengths, pixelIndex);
+    }
+
+    /**
+     * Reads the header of an accumulator file and checks the file size against it.
+     * Files without header are taken as legacy files with the given dimensions, if they have exactly the
+     * size of such a file.
+     *
+     * @param channel        - the file channel
+     * @param legacyWidth    - width of a legacy file
+     * @param legacyHeight   - height of a legacy file
+     * @param legacyNumBands - number of bands of a legacy file
+     * @return AccumulatorFileHeader
+     * @throws IOException if the header is invalid, the file is truncated or is no legacy file of the given size
+     */
+    public static AccumulatorFileHeader read(FileChannel channel, int legacyWidth, int legacyHeight,
+                                             int legacyNumBands) throws IOException {
+        AccumulatorFileHeader header = null;
+        if (channel.size() >= FIXED_HEADER_SIZE) {
+            final ByteBuffer fixed = readFully(channel, 0, FIXED_HEADER_SIZE);
+            if (fixed.getInt(0) == MAGIC) {
+                final int version = fixed.getInt(4);
+                if (version < VERSION_UNPACKED || version > VERSION_SPARSE_COMPRESSED) {
+                    throw new IOException("Unsupported accumulator file version: " + version);
+                }
+                final boolean sparse = version == VERSION_SPARSE || version == VERSION_SPARSE_COMPRESSED;
+                final boolean compressed = version == VERSION_COMPRESSED || version == VERSION_SPARSE_COMPRESSED;
+                final ByteOrder byteOrder = fixed.getInt(8) == 1 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+                final int width = fixed.getInt(12);
+                final int height = fixed.getInt(16);
+                final int numBands = fixed.getInt(20);
+                final int linesPerBlock = fixed.getInt(32);
+                final int headerSize = fixed.getInt(36);
+                if (width <= 0 || height <= 0 || numBands <= 0 || linesPerBlock <= 0) {
+                    throw new IOException("Invalid accumulator file header.");
+                }
+                final int numBlocks = (width + linesPerBlock - 1) / linesPerBlock;
+                final long[] checksums = new long[numBands * numBlocks];
+                final int blockIndexSize = compressed ? 12 * checksums.length : 0;
+                final int indexSize = sparse ? AccumulatorPixelIndex.getSize(width, height) : 0;
+                final int variableSize = 8 * checksums.length + blockIndexSize + indexSize;
+                if (headerSize != FIXED_HEADER_SIZE + variableSize) {
+                    throw new IOException("Invalid accumulator file header size: " + headerSize);
+                }
+                final ByteBuffer variable = readFully(channel, FIXED_HEADER_SIZE, variableSize);
+                for (int i = 0; i < checksums.length; i++) {
+                    checksums[i] = variable.getLong();
+                }
+                long[] blockPositions = null;
+                int[] blockLengths = null;
+                if (compressed) {
+                    blockPositions = new long[checksums.length];
+                    blockLengths = new int[checksums.length];
+                    for (int i = 0; i < blockPositions.length; i++) {
+                        blockPositions[i] = variable.getLong();
+                    }
+                    for (int i = 0; i < blockLengths.length; i++) {
+                        blockLengths[i] = variable.getInt();
+                    }
+                }
+                AccumulatorPixelIndex pixelIndex = null;
+                if (sparse) {
+                    pixelIndex = AccumulatorPixelIndex.read(variable, width, height);
+                }
+                header = new AccumulatorFileHeader(version, byteOrder, width, height, numBands,
+                                                   fixed.getInt(24), fixed.getInt(28), linesPerBlock, checksums,
+                                                   blockPositions, blockLengths, pixelIndex);
+                if (compressed) {
+                    header.checkBlockIndex();
+                }
+            }
+        }
+        if (header == null) {
+            header = new AccumulatorFileHeader(0, ByteOrder.BIG_ENDIAN, legacyWidth, legacyHeight, legacyNumBands,
+                                               0, 0, legacyWidth, new long[0], null, null, null);
+            // without header, only the exact size identifies a legacy file (and not e.g. one with a lost header)
+            if (channel.size() != header.getFileSize()) {
+                throw new IOException("Accumulator file has no valid header and " + channel.size() +
+                                              " bytes, expected " + header.getFileSize() + " bytes of a legacy file.");
+            }
+        }
+        if (channel.size() < header.getFileSize()) {
+            throw new EOFException("Accumulator file is truncated: " + channel.size() + " bytes, expected " +
+                                           header.getFileSize() + " bytes.");
+        }
+        return header;
+    }
+
+    /**
+     * Writes the header at the beginning of the file.
+     *
+     * @param channel - the file channel
+     * @throws IOException if the header cannot be written
+     */
+    public void write(FileChannel channel) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(headerSize);
+        buffer.putInt(MAGIC);
+        buffer.putInt(version);
+        buffer.putInt(byteOrder == ByteOrder.LITTLE_ENDIAN ? 1 : 0);
+        buffer.putInt(width);
+        buffer.putInt(height);
+        buffer.putInt(numBands);
+        buffer.putInt(year);
+        buffer.putInt(doy);
+        buffer.putInt(linesPerBlock);
+        buffer.putInt(headerSize);
+        for (long checksum : checksums) {
+            buffer.putLong(checksum);
+        }
+        if (blockPositions != null) {
+            for (long blockPosition : blockPositions) {
+                buffer.putLong(blockPosition);
+            }
+            for (int blockLength : blockLengths) {
+                buffer.putInt(blockLength);
+            }
+        }
+        if (pixelIndex != null) {
+            pixelIndex.write(buffer);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+    }
+
+    public boolean isLegacy() {
+        return version == 0;
+    }
+
+    /**
+     * @return boolean - true if the M bands are stored packed (upper triangle only)
+     */
+    public boolean isPackedLayout() {
+        return version >= VERSION;
+    }
+
+    /**
+     * @return boolean - true if the bands hold the values of the valid pixels only
+     */
+    public boolean isSparse() {
+        return pixelIndex != null;
+    }
+
+    /**
+     * @return AccumulatorPixelIndex - the valid pixels of a sparse file, null for a dense file
+     */
+    public AccumulatorPixelIndex getPixelIndex() {
+        return pixelIndex;
+    }
+
+    /**
+     * @return boolean - true if the blocks of lines are stored deflated
+     */
+    public boolean isCompressed() {
+        return blockPositions != null;
+    }
+
+    /**
+     * @param band  - band index
+     * @param block - block index
+     * @return long - the file position of a block of a compressed file, -1 if not yet written
+     */
+    public long getBlockPosition(int band, int block) {
+        return blockPositions[band * getNumBlocks() + block];
+    }
+
+    /**
+     * @param band  - band index
+     * @param block - block index
+     * @return int - the length of a block of a compressed file (bytes)
+     */
+    public int getBlockLength(int band, int block) {
+        return blockLengths[band * getNumBlocks() + block];
+    }
+
+    /**
+     * Reserves the space for a block of a compressed file at the end of the data written so far.
+     *
+     * @param band   - band index
+     * @param block  - block index
+     * @param length - length of the deflated block (bytes)
+     * @return long - the file position to write the block to
+     */
+    public synchronized long addBlock(int band, int block, int length) {
+        final int index = band * getNumBlocks() + block;
+        blockPositions[index] = dataEnd;
+        blockLengths[index] = length;
+        dataEnd += length;
+        return blockPositions[index];
+    }
+
+    /**
+     * @param block - block index (0..number of blocks)
+     * @return int - the first line of the block
+     */
+    public int getBlockStartLine(int block) {
+        return Math.min(block * linesPerBlock, width);
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public ByteOrder getByteOrder() {
+        return byteOrder;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getNumBands() {
+        return numBands;
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    public int getDoy() {
+        return doy;
+    }
+
+    public int getLinesPerBlock() {
+        return linesPerBlock;
+    }
+
+    public int getNumBlocks() {
+        return (width + linesPerBlock - 1) / linesPerBlock;
+    }
+
+    public long getDataOffset() {
+        return headerSize;
+    }
+
+    /**
+     * @return long - the size of the file, for compressed files the size of the data written so far
+     */
+    public long getFileSize() {
+        if (isCompressed()) {
+            synchronized (this) {
+                return dataEnd;
+            }
+        }
+        return headerSize + (long) numBands * getLineOffset(width) * 4L;
+    }
+
+    /**
+     * @param line - line index (0..width)
+     * @return long - the number of values of a band before the given line
+     */
+    public long getLineOffset(int line) {
+        return pixelIndex != null ? pixelIndex.getLineOffset(line) : (long) line * height;
+    }
+
+    /**
+     * @param band - band index
+     * @param line - line index
+     * @return long - the file position of the given line of a band (uncompressed files only)
+     */
+    public long getPosition(int band, int line) {
+        return headerSize + ((long) band * getLineOffset(width) + getLineOffset(line)) * 4L;
+    }
+
+    /**
+     * Sets (writing) or verifies (reading) the checksums of all blocks which are completely contained in the
+     * given lines of a band. Blocks only partly contained, and legacy files, are skipped.
+     *
+     * @param band      - band index
+     * @param startLine - first line in data
+     * @param numLines  - number of lines in data
+     * @param data      - the raw bytes of the lines (of their values in sparse files), starting at position 0
+     * @param update    - true to set the checksums, false to verify them
+     * @throws IOException if a checksum does not match
+     */
+    public void processChecksums(int band, int startLine, int numLines, ByteBuffer data,
+                                 boolean update) throws IOException {
+        if (isLegacy()) {
+            return;
+        }
+        final int endLine = startLine + numLines;
+        final int numBlocks = getNumBlocks();
+        byte[] bytes = null;
+        for (int block = (startLine + linesPerBlock - 1) / linesPerBlock; block < numBlocks; block++) {
+            final int blockStart = block * linesPerBlock;
+            final int blockEnd = Math.min(blockStart + linesPerBlock, width);
+            if (blockEnd > endLine) {
+                break;
+            }
+            final int blockOffset = (int) (getLineOffset(blockStart) - getLineOffset(startLine)) * 4;
+            final int length = (int) (getLineOffset(blockEnd) - getLineOffset(blockStart)) * 4;
+            if (bytes == null || bytes.length < length) {
+                bytes = new byte[length];
+            }
+            final ByteBuffer blockData = data.duplicate();
+            blockData.limit(blockOffset + length);
+            blockData.position(blockOffset);
+            blockData.get(bytes, 0, length);
+            final CRC32 crc32 = new CRC32();
+            crc32.update(bytes, 0, length);
+
+            final int index = band * numBlocks + block;
+            if (update) {
+                checksums[index] = crc32.getValue();
+            } else if (checksums[index] != NO_CHECKSUM && checksums[index] != crc32.getValue()) {
+                throw new IOException("Checksum mismatch in accumulator file at band " + band + ", lines " +
+                                              blockStart + "-" + (blockEnd - 1));
+            }
+        }
+    }
+
+    private void checkBlockIndex() throws IOException {
+        for (int i = 0; i < blockPositions.length; i++) {
+            if (blockPositions[i] == NO_POSITION || blockPositions[i] < headerSize || blockLengths[i] < 0) {
+                throw new IOException("Incomplete block index in compressed accumulator file.");
+            }
+            dataEnd = Math.max(dataEnd, blockPositions[i] + blockLengths[i]);
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int size) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of accumulator file header.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,82 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+import org.esa.beam.globalbedo.inversion.AlbedoInversionConstants;
+
+/**
+ * Band layout of the daily and full accumulator files.
+ * <p/>
+ * M is symmetric, so the 'packed' layout (header version 2 and later) stores only its upper triangle:
+ * <pre>
+ *   M_ij (i <= j, row by row)   45 bands
+ *   V_i                          9 bands
+ *   E                            1 band
+ *   mask                         1 band
+ * </pre>
+ * The former 'unpacked' layout (legacy and version 1 files) stores all 81 M elements row by row,
+ * followed by V, E and mask. All band indices used by the accumulation and inversion code refer to the
+ * packed layout, {@link #getFileBand} maps them to the bands of a file in either layout.
+ *
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class AccumulatorLayout {
+
+    public static final int N = 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS;
+
+    public static final int NUM_M_BANDS = N * (N + 1) / 2;
+    public static final int V_INDEX = NUM_M_BANDS;
+    public static final int E_INDEX = V_INDEX + N;
+    public static final int MASK_INDEX = E_INDEX + 1;
+
+    public static final int NUM_BANDS = MASK_INDEX + 1;
+    public static final int NUM_BANDS_UNPACKED = N * N + N + 2;
+
+    private static final int[] UNPACKED_BANDS = new int[NUM_BANDS];
+
+    static {
+        int index = 0;
+        for (int i = 0; i < N; i++) {
+            for (int j = i; j < N; j++) {
+                UNPACKED_BANDS[index++] = N * i + j;
+            }
+        }
+        for (int i = 0; i < N + 2; i++) {
+            UNPACKED_BANDS[index++] = N * N + i;
+        }
+    }
+
+    private AccumulatorLayout() {
+    }
+
+    /**
+     * @param i - row
+     * @param j - column
+     * @return int - the packed band index of M_ij (same as of M_ji)
+     */
+    public static int getMIndex(int i, int j) {
+        if (i > j) {
+            return getMIndex(j, i);
+        }
+        return i * N - i * (i - 1) / 2 + (j - i);
+    }
+
+    /**
+     * @param header - the header of an accumulator file
+     * @param band   - band index in packed layout (or the daysToTheClosestSample band of a full accumulator)
+     * @return int - the index of this band in the file
+     */
+    public static int getFileBand(AccumulatorFileHeader header, int band) {
+        if (header.isPackedLayout()) {
+            return band;
+        }
+        return band < NUM_BANDS ? UNPACKED_BANDS[band] : NUM_BANDS_UNPACKED + (band - NUM_BANDS);
+    }
+
+    /**
+     * @param header - the header of an accumulator file
+     * @return int - number of accumulator bands in this file (without the daysToTheClosestSample band)
+     */
+    public static int getNumAccumulatorBands(AccumulatorFileHeader header) {
+        return header.isPackedLayout() ? NUM_BANDS : NUM_BANDS_UNPACKED;
+    }
+}
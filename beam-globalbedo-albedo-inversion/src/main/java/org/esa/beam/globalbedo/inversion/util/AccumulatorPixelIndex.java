@@ -0,0 +1,237 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Validity bitmap of a sparse accumulator file (see {@link AccumulatorFileHeader}): one bit per pixel, set for the
+ * pixels which have a non-zero value in any band. The bands of a sparse file hold the values of these pixels only,
+ * line by line, so the value index of a pixel is the number of valid pixels before it.
+ * <p/>
+ * Each line of the bitmap starts at a new long word. The pixel counts per line (and per word, for random access)
+ * are computed on first use, so the index must not be modified any more once values are read or written with it.
+ *
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class AccumulatorPixelIndex {
+
+    private final int width;
+    private final int height;
+    private final int wordsPerLine;
+    private final long[] bits;
+
+    // number of valid pixels before each line resp. word, and in total as last element
+    private volatile int[] lineOffsets;
+    private volatile int[] wordOffsets;
+
+    /**
+     * Creates an index without valid pixels.
+     *
+     * @param width  - number of lines
+     * @param height - number of pixels per line
+     */
+    public AccumulatorPixelIndex(int width, int height) {
+        this.width = width;
+        this.height = height;
+        wordsPerLine = (height + 63) / 64;
+        bits = new long[width * wordsPerLine];
+    }
+
+    /**
+     * @param width  - number of lines
+     * @param height - number of pixels per line
+     * @return int - size of the bitmap in a file (bytes)
+     */
+    public static int getSize(int width, int height) {
+        return width * ((height + 63) / 64) * 8;
+    }
+
+    /**
+     * Reads a bitmap written by {@link #write}.
+     *
+     * @param buffer - the buffer, positioned at the bitmap
+     * @param width  - number of lines
+     * @param height - number of pixels per line
+     * @return AccumulatorPixelIndex
+     */
+    public static AccumulatorPixelIndex read(ByteBuffer buffer, int width, int height) {
+        final AccumulatorPixelIndex index = new AccumulatorPixelIndex(width, height);
+        buffer.asLongBuffer().get(index.bits);
+        buffer.position(buffer.position() + index.bits.length * 8);
+        return index;
+    }
+
+    /**
+     * @param buffer - the buffer to put the bitmap to
+     */
+    public void write(ByteBuffer buffer) {
+        buffer.asLongBuffer().put(bits);
+        buffer.position(buffer.position() + bits.length * 8);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void setValid(int x, int y) {
+        bits[x * wordsPerLine + (y >>> 6)] |= 1L << (y & 63);
+        lineOffsets = null;
+        wordOffsets = null;
+    }
+
+    /**
+     * Sets all pixels valid which are valid in the given index.
+     *
+     * @param other - an index of the same dimensions
+     */
+    public void addAll(AccumulatorPixelIndex other) {
+        if (other.width != width || other.height != height) {
+            throw new IllegalArgumentException("Pixel index dimensions differ.");
+        }
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] |= other.bits[i];
+        }
+        lineOffsets = null;
+        wordOffsets = null;
+    }
+
+    public boolean isValid(int x, int y) {
+        return (bits[x * wordsPerLine + (y >>> 6)] & (1L << (y & 63))) != 0;
+    }
+
+    /**
+     * @param x - line
+     * @param y - pixel in line
+     * @return int - the value index of the pixel, or -1 if the pixel is not valid
+     */
+    public int getIndex(int x, int y) {
+        final int word = x * wordsPerLine + (y >>> 6);
+        final long bit = 1L << (y & 63);
+        if ((bits[word] & bit) == 0) {
+            return -1;
+        }
+        return getWordOffsets()[word] + Long.bitCount(bits[word] & (bit - 1));
+    }
+
+    /**
+     * @param x - line (0..width)
+     * @return int - the number of valid pixels before the line
+     */
+    public int getLineOffset(int x) {
+        return getLineOffsets()[x];
+    }
+
+    public int getNumValid() {
+        return getLineOffsets()[width];
+    }
+
+    /**
+     * @param rectangle - a rectangle of lines (x) and pixels in lines (y)
+     * @return boolean - true if no pixel of the rectangle is valid
+     */
+    public boolean isEmpty(Rectangle rectangle) {
+        if (rectangle.isEmpty()) {
+            return true;
+        }
+        final int y0 = rectangle.y;
+        final int y1 = rectangle.y + rectangle.height - 1;
+        for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+            final int lineStart = x * wordsPerLine;
+            for (int w = y0 >>> 6; w <= y1 >>> 6; w++) {
+                long word = bits[lineStart + w];
+                if (w == y0 >>> 6) {
+                    word &= -1L << (y0 & 63);
+                }
+                if (w == y1 >>> 6 && (y1 & 63) < 63) {
+                    word &= (1L << ((y1 & 63) + 1)) - 1;
+                }
+                if (word != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param numBands - number of bands of the file
+     * @return boolean - true if a sparse file with this index is smaller than a dense file
+     */
+    public boolean isSparseWorthwhile(int numBands) {
+        final long sparseSize = getSize(width, height) + (long) numBands * getNumValid() * 4L;
+        final long denseSize = (long) numBands * width * height * 4L;
+        return sparseSize < denseSize;
+    }
+
+    /**
+     * Gets the values of the valid pixels of a line from the pixels of the line.
+     *
+     * @param x      - line
+     * @param line   - the pixels of the line
+     * @param values - the values of the valid pixels (output, at its position)
+     */
+    public void compact(int x, float[] line, FloatBuffer values) {
+        final int lineStart = x * wordsPerLine;
+        for (int w = 0; w < wordsPerLine; w++) {
+            long word = bits[lineStart + w];
+            while (word != 0) {
+                values.put(line[(w << 6) + Long.numberOfTrailingZeros(word)]);
+                word &= word - 1;
+            }
+        }
+    }
+
+    /**
+     * Sets the pixels of a line from the values of its valid pixels, all other pixels are set to 0.
+     *
+     * @param x      - line
+     * @param values - the values of the valid pixels (at its position)
+     * @param line   - the pixels of the line (output)
+     */
+    public void expand(int x, FloatBuffer values, float[] line) {
+        Arrays.fill(line, 0, height, 0.0f);
+        final int lineStart = x * wordsPerLine;
+        for (int w = 0; w < wordsPerLine; w++) {
+            long word = bits[lineStart + w];
+            while (word != 0) {
+                line[(w << 6) + Long.numberOfTrailingZeros(word)] = values.get();
+                word &= word - 1;
+            }
+        }
+    }
+
+    private int[] getLineOffsets() {
+        int[] offsets = lineOffsets;
+        if (offsets == null) {
+            offsets = new int[width + 1];
+            for (int x = 0; x < width; x++) {
+                int count = 0;
+                for (int w = x * wordsPerLine; w < (x + 1) * wordsPerLine; w++) {
+                    count += Long.bitCount(bits[w]);
+                }
+                offsets[x + 1] = offsets[x] + count;
+            }
+            lineOffsets = offsets;
+        }
+        return offsets;
+    }
+
+    private int[] getWordOffsets() {
+        int[] offsets = wordOffsets;
+        if (offsets == null) {
+            offsets = new int[bits.length + 1];
+            for (int i = 0; i < bits.length; i++) {
+                offsets[i + 1] = offsets[i] + Long.bitCount(bits[i]);
+            }
+            wordOffsets = offsets;
+        }
+        return offsets;
+    }
+}
@@ -4,9 +4,12 @@ import Jama.Matrix;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.GeoCoding;
 import org.esa.beam.framework.datamodel.GeoPos;
+import org.esa.beam.framework.datamodel.PixelPos;
 import org.esa.beam.framework.datamodel.Product;
 import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.framework.datamodel.RasterDataNode;
 import org.esa.beam.framework.gpf.pointop.SampleConfigurer;
 import org.esa.beam.globalbedo.inversion.AlbedoInversionConstants;
 import org.esa.beam.gpf.operators.standard.BandMathsOp;
@@ -24,6 +27,8 @@ import java.util.Calendar;
 @SuppressWarnings("StatementWithEmptyBody")
 public class AlbedoInversionUtils {
 
+    private static float[][] monthlyWeighting;
+
     /**
      * Converts a day of year to a datestring in yyyyMMdd format
      *
@@ -47,39 +52,60 @@ public class AlbedoInversionUtils {
      * @param configurator  - the configurator
      * @param index         - the sample index
      * @param sourceProduct - the source product
+     * @param computeSeaice - true in seaice mode
      */
     public static void setLandMaskSourceSample(SampleConfigurer configurator, int index,
                                                Product sourceProduct, boolean computeSeaice) {
+        final RasterDataNode landMaskRaster = getLandMaskSourceRaster(sourceProduct, computeSeaice);
+        configurator.defineSample(index, landMaskRaster.getName(), landMaskRaster.getProduct());
+    }
+
+    /**
+     * Adds a seaice mask sample definition to a configurator used in a point operator
+     *
+     * @param configurator  - the configurator
+     * @param index         - the sample index
+     * @param sourceProduct - the source product
+     */
+    public static void setSeaiceMaskSourceSample(SampleConfigurer configurator, int index,
+                                                 Product sourceProduct) {
+        final RasterDataNode seaiceMaskRaster = getSeaiceMaskSourceRaster(sourceProduct);
+        configurator.defineSample(index, seaiceMaskRaster.getName(), seaiceMaskRaster.getProduct());
+    }
+
+    /**
+     * Returns the land mask raster of a source product (sensor dependent)
+     *
+     * @param sourceProduct - the source product
+     * @param computeSeaice - true in seaice mode
+     * @return RasterDataNode - the land mask raster
+     */
+    public static RasterDataNode getLandMaskSourceRaster(Product sourceProduct, boolean computeSeaice) {
         if ((sourceProduct.getProductType().startsWith("MER") ||
                 sourceProduct.getName().startsWith("MER")) || computeSeaice) {
             BandMathsOp landOp = BandMathsOp.createBooleanExpressionBand
                     (AlbedoInversionConstants.merisLandMaskExpression, sourceProduct);
-            Product landMaskProduct = landOp.getTargetProduct();
-            configurator.defineSample(index, landMaskProduct.getBandAt(0).getName(), landMaskProduct);
+            return landOp.getTargetProduct().getBandAt(0);
         } else if ((sourceProduct.getProductType().startsWith("VGT") ||
                 sourceProduct.getName().startsWith("VGT"))) {
-            configurator.defineSample(index, AlbedoInversionConstants.BBDR_VGT_SM_NAME, sourceProduct);
+            return sourceProduct.getRasterDataNode(AlbedoInversionConstants.BBDR_VGT_SM_NAME);
         } else {
             BandMathsOp landOp = BandMathsOp.createBooleanExpressionBand
                     (AlbedoInversionConstants.aatsrLandMaskExpression, sourceProduct);
-            Product landMaskProduct = landOp.getTargetProduct();
-            configurator.defineSample(index, landMaskProduct.getBandAt(0).getName(), landMaskProduct);
+            return landOp.getTargetProduct().getBandAt(0);
         }
     }
 
     /**
-     * Adds a land mask sample definition to a configurator used in a point operator
+     * Returns the seaice mask raster of a source product
      *
-     * @param configurator  - the configurator
-     * @param index         - the sample index
      * @param sourceProduct - the source product
+     * @return RasterDataNode - the seaice mask raster
      */
-    public static void setSeaiceMaskSourceSample(SampleConfigurer configurator, int index,
-                                                 Product sourceProduct) {
+    public static RasterDataNode getSeaiceMaskSourceRaster(Product sourceProduct) {
         BandMathsOp seaiceOp = BandMathsOp.createBooleanExpressionBand
                 (AlbedoInversionConstants.seaiceMaskExpression, sourceProduct);
-        Product seaiceProduct = seaiceOp.getTargetProduct();
-        configurator.defineSample(index, seaiceProduct.getBandAt(0).getName(), seaiceProduct);
+        return seaiceOp.getTargetProduct().getBandAt(0);
     }
 
     /**
@@ -222,8 +248,19 @@ public class AlbedoInversionUtils {
      * @return sza - in degrees!!
      */
     public static double computeSza(GeoPos geoPos, int doy) {
+        return computeSza(geoPos.getLat(), doy);
+    }
+
+    /**
+     * Computes solar zenith angle at local noon as function of latitude and DoY
+     *
+     * @param lat - latitude in degrees
+     * @param doy - day of year
+     * @return sza - in degrees!!
+     */
+    public static double computeSza(double lat, int doy) {
 
-        final double latitude = geoPos.getLat() * MathUtils.DTOR;
+        final double latitude = lat * MathUtils.DTOR;
 
         // # To emulate MODIS products, set fixed LST = 12.00
         final double LST = 12.0;
@@ -235,6 +272,72 @@ public class AlbedoInversionUtils {
         return SZArad * MathUtils.RTOD;
     }
 
+    /**
+     * Computes the latitude of a row of a MODIS tile at pixel position (x, y), i.e. at the upper pixel edge as the
+     * former per-pixel geocoding call. On the sinusoidal grid the latitude only depends on the northing, i.e. on
+     * the vertical tile index and the row.
+     *
+     * @param modisTile - the MODIS tile, e.g. 'h18v04'
+     * @param y         - the row
+     * @return latitude - in degrees
+     */
+    public static double getModisTileLatitude(String modisTile, int y) {
+        final double northing = getUpperLeftCornerOfModisTiles(modisTile)[1] -
+                y * AlbedoInversionConstants.MODIS_SIN_PROJECTION_PIXEL_SIZE_Y;
+        return northing / AlbedoInversionConstants.MODIS_SIN_PROJECTION_EARTH_RADIUS * MathUtils.RTOD;
+    }
+
+    /**
+     * Computes the solar zenith angles at local noon for all rows of a MODIS tile.
+     *
+     * @param modisTile - the MODIS tile, e.g. 'h18v04'
+     * @param height    - the number of rows
+     * @param doy       - day of year
+     * @return double[] - sza per row, in degrees
+     */
+    public static double[] computeModisTileSzaPerRow(String modisTile, int height, int doy) {
+        double[] sza = new double[height];
+        for (int y = 0; y < height; y++) {
+            sza[y] = computeSza(getModisTileLatitude(modisTile, y), doy);
+        }
+        return sza;
+    }
+
+    /**
+     * Computes the solar zenith angles at local noon for all rows of a product whose latitude only depends on
+     * the row (e.g. sinusoidal or lat/lon grids), using one geocoding call per row at pixel position (0, y).
+     *
+     * @param product - the product
+     * @param doy     - day of year
+     * @return double[] - sza per row in degrees, or null if the latitude of the product varies along the rows
+     */
+    public static double[] computeSzaPerRow(Product product, int doy) {
+        final GeoCoding geoCoding = product.getGeoCoding();
+        final int width = product.getSceneRasterWidth();
+        final int height = product.getSceneRasterHeight();
+        if (geoCoding == null || !geoCoding.canGetGeoPos()) {
+            return null;
+        }
+        final int[] testRows = new int[]{0, height / 2, height - 1};
+        for (int y : testRows) {
+            final GeoPos first = geoCoding.getGeoPos(new PixelPos(0, y), null);
+            final GeoPos last = geoCoding.getGeoPos(new PixelPos(width - 1, y), null);
+            if (!first.isValid() || !last.isValid() || Math.abs(first.getLat() - last.getLat()) > 1.0E-6) {
+                return null;
+            }
+        }
+
+        double[] sza = new double[height];
+        final PixelPos pixelPos = new PixelPos();
+        final GeoPos geoPos = new GeoPos();
+        for (int y = 0; y < height; y++) {
+            pixelPos.setLocation(0, y);
+            geoCoding.getGeoPos(pixelPos, geoPos);
+            sza[y] = computeSza(geoPos.getLat(), doy);
+        }
+        return sza;
+    }
+
     public static Product createDummySourceProduct(int width, int height) {
         Product product = new Product("dummy", "dummy", width, height);
         Band b = product.addBand("b1", ProductData.TYPE_FLOAT32);
@@ -252,7 +355,38 @@ public class AlbedoInversionUtils {
         return product;
     }
 
+    /**
+     * Returns the weights of the 8-day periods in the monthly albedos as month x DoY table. The table is
+     * computed once, the caller gets a copy of it.
+     *
+     * @return float[][] - the weights, indexed by [monthIndex - 1][doy - 1]
+     */
     public static float[][] getMonthlyWeighting() {
+        final float[][] table = getMonthlyWeightingTable();
+        final float[][] copy = new float[table.length][];
+        for (int i = 0; i < table.length; i++) {
+            copy[i] = table[i].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * @param monthIndex - month (1..12)
+     * @param doy        - DoY of the 8-day period
+     * @return float - the weight of the 8-day period in the monthly albedo
+     */
+    public static float getMonthlyWeight(int monthIndex, int doy) {
+        return getMonthlyWeightingTable()[monthIndex - 1][doy - 1];
+    }
+
+    private static synchronized float[][] getMonthlyWeightingTable() {
+        if (monthlyWeighting == null) {
+            monthlyWeighting = computeMonthlyWeighting();
+        }
+        return monthlyWeighting;
+    }
+
+    private static float[][] computeMonthlyWeighting() {
         final int[] startingDoy = new int[]{1, 32, 60, 91, 121, 152, 182, 213, 244, 274, 305, 335};
         final int[] nDays = new int[]{31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
 
@@ -0,0 +1,108 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+import org.esa.beam.globalbedo.inversion.AlbedoInversionConstants;
+
+/**
+ * Contribution of a single BBDR observation to the daily accumulator: M = K^T * C^-1 * K,
+ * V = K^T * diag(C^-1) * BBDR and E = BBDR^T * C^-1 * BBDR, with the 3x9 kernel matrix K and the 3x3 BBDR
+ * covariance matrix C.
+ * <p/>
+ * K holds the kernels (1, kvol, kgeo) of broad band b in row b, columns 3b..3b+2, and zeros elsewhere, so the
+ * products are evaluated on the non-zero terms only. They are multiplied in the same order as the Jama products
+ * used before; C is inverted in closed form, which differs from the Jama LU inverse by rounding only.
+ * <p/>
+ * Symmetric 3x3 matrices are given by their 6 upper triangle terms (c00, c01, c02, c11, c12, c22).
+ *
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class BbdrObservation {
+
+    public static final int NUM_BANDS = AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS;
+    public static final int NUM_COVARIANCE_TERMS = NUM_BANDS * (NUM_BANDS + 1) / 2;
+
+    private static final int N = AccumulatorLayout.N;
+    private static final int NUM_PARAMETERS = AlbedoInversionConstants.NUM_ALBEDO_PARAMETERS;
+
+    // packed index of the 3x3 term (a, b)
+    private static final int[][] PACKED_INDEX = {{0, 1, 2}, {1, 3, 4}, {2, 4, 5}};
+
+    private BbdrObservation() {
+    }
+
+    /**
+     * Sets the BBDR covariance matrix from the standard deviations and the correlations of the broad bands.
+     *
+     * @param sd          - the standard deviations (VIS, NIR, SW)
+     * @param correlation - the correlations (VIS_NIR, VIS_SW, NIR_SW)
+     * @param c           - the packed covariance terms (output, length 6)
+     */
+    public static void getCovariance(double[] sd, double[] correlation, double[] c) {
+        c[0] = sd[0] * sd[0];
+        c[1] = correlation[0] * sd[0] * sd[1];
+        c[2] = correlation[1] * sd[0] * sd[2];
+        c[3] = sd[1] * sd[1];
+        c[4] = correlation[2] * sd[1] * sd[2];
+        c[5] = sd[2] * sd[2];
+    }
+
+    /**
+     * Inverts a symmetric 3x3 matrix by its adjugate.
+     *
+     * @param c       - the packed terms of the matrix (length 6)
+     * @param inverse - the packed terms of the inverse (output, length 6)
+     * @return boolean - false if the matrix is singular (determinant 0), the inverse is not set then
+     */
+    public static boolean invert(double[] c, double[] inverse) {
+        final double a00 = c[3] * c[5] - c[4] * c[4];
+        final double a01 = c[2] * c[4] - c[1] * c[5];
+        final double a02 = c[1] * c[4] - c[2] * c[3];
+        final double det = c[0] * a00 + c[1] * a01 + c[2] * a02;
+        if (det == 0.0) {
+            return false;
+        }
+        inverse[0] = a00 / det;
+        inverse[1] = a01 / det;
+        inverse[2] = a02 / det;
+        inverse[3] = (c[0] * c[5] - c[2] * c[2]) / det;
+        inverse[4] = (c[1] * c[2] - c[0] * c[4]) / det;
+        inverse[5] = (c[0] * c[3] - c[1] * c[1]) / det;
+        return true;
+    }
+
+    /**
+     * Adds M, V and E of an observation to the accumulator sums.
+     *
+     * @param inverseC - the packed terms of C^-1 (length 6)
+     * @param kernels  - the non-zero terms of K, (1, kvol, kgeo) per broad band (length 9)
+     * @param bbdr     - the BBDRs (VIS, NIR, SW)
+     * @param sums     - the accumulator sums in packed layout, see {@link AccumulatorLayout} (input and output)
+     */
+    public static void accumulate(double[] inverseC, double[] kernels, double[] bbdr, double[] sums) {
+        // M, upper triangle row by row, as (K^T * C^-1) * K
+        int index = 0;
+        for (int i = 0; i < N; i++) {
+            final int a = i / NUM_PARAMETERS;
+            for (int j = i; j < N; j++) {
+                sums[index++] += kernels[i] * inverseC[PACKED_INDEX[a][j / NUM_PARAMETERS]] * kernels[j];
+            }
+        }
+
+        // V, as (K^T * diag(C^-1)) * BBDR
+        for (int i = 0; i < N; i++) {
+            final int a = i / NUM_PARAMETERS;
+            sums[AccumulatorLayout.V_INDEX + i] += kernels[i] * inverseC[PACKED_INDEX[a][a]] * bbdr[a];
+        }
+
+        // E, as (BBDR^T * C^-1) * BBDR
+        double e = 0.0;
+        for (int b = 0; b < NUM_BANDS; b++) {
+            double t = 0.0;
+            for (int a = 0; a < NUM_BANDS; a++) {
+                t += bbdr[a] * inverseC[PACKED_INDEX[a][b]];
+            }
+            e += t * bbdr[b];
+        }
+        sums[AccumulatorLayout.E_INDEX] += e;
+    }
+}
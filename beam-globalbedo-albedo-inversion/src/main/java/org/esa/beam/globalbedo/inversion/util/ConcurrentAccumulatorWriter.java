@@ -0,0 +1,253 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+import org.esa.beam.util.logging.BeamLogManager;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+
+/**
+ * Writer for binary accumulator files which are filled tile by tile from concurrently computed tiles.
+ * <p/>
+ * The file is created as '*.part' file with the final size, and each band is memory-mapped, so the
+ * tiles write their values directly with absolute puts and no accumulator array is held in heap.
+ * A tile is committed when it is done. When all pixels are committed, the checksums and header are
+ * written and the file is atomically moved to its final name, so a killed job never leaves a complete-looking file,
+ * and a previous file stays in place until it is replaced.
+ * The pixels with a value != 0 are marked in a bitmap while the values are set. If most of the pixels have no
+ * samples, a sparse file (see {@link AccumulatorPixelIndex}) is written from the mapped bands instead, block of
+ * lines by block of lines, and so is a compressed file if compression is requested.
+ *
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class ConcurrentAccumulatorWriter {
+
+    private final File file;
+    private final File partFile;
+    private final AccumulatorFileHeader header;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer[] bands;
+    // pixels with a value != 0, same layout as in AccumulatorPixelIndex
+    private final AtomicLongArray validBits;
+    private final int wordsPerLine;
+    private final Set<Rectangle> committedTiles;
+    private final long numPixelsTotal;
+    private final boolean compress;
+
+    private long numPixelsCommitted;
+    private boolean finished;
+
+    /**
+     * @param file   - the final accumulator file
+     * @param header - the header of the file to write (dense, all checksums are set by this writer)
+     * @throws IOException if the file cannot be created
+     */
+    public ConcurrentAccumulatorWriter(File file, AccumulatorFileHeader header) throws IOException {
+        this(file, header, false);
+    }
+
+    /**
+     * @param file     - the final accumulator file
+     * @param header   - the header of the file to write (dense and uncompressed, all checksums are set by this writer)
+     * @param compress - if true, the final file is written with deflated blocks
+     * @throws IOException if the file cannot be created
+     */
+    public ConcurrentAccumulatorWriter(File file, AccumulatorFileHeader header, boolean compress) throws IOException {
+        if (header.isSparse() || header.isCompressed()) {
+            throw new IllegalArgumentException("Accumulator writer needs a dense, uncompressed file header.");
+        }
+        this.file = file;
+        this.header = header;
+        this.compress = compress;
+        partFile = new File(file.getPath() + ".part");
+        raf = new RandomAccessFile(partFile, "rw");
+        raf.setLength(0);
+        raf.setLength(header.getFileSize());
+        final FileChannel ch = raf.getChannel();
+        final long bandSize = (long) header.getWidth() * header.getHeight() * 4L;
+        bands = new MappedByteBuffer[header.getNumBands()];
+        for (int i = 0; i < bands.length; i++) {
+            bands[i] = ch.map(FileChannel.MapMode.READ_WRITE, header.getPosition(i, 0), bandSize);
+            bands[i].order(header.getByteOrder());
+        }
+        wordsPerLine = (header.getHeight() + 63) / 64;
+        validBits = new AtomicLongArray(header.getWidth() * wordsPerLine);
+        committedTiles = new HashSet<Rectangle>();
+        numPixelsTotal = (long) header.getWidth() * header.getHeight();
+    }
+
+    /**
+     * Sets a value. May be called concurrently for different pixels.
+     *
+     * @param band  - band index
+     * @param x     - x (line index in the file)
+     * @param y     - y
+     * @param value - the value
+     */
+    public void setValue(int band, int x, int y, float value) {
+        bands[band].putFloat((x * header.getHeight() + y) * 4, value);
+        // bitwise, so that -0.0 and NaN are kept
+        if (Float.floatToRawIntBits(value) != 0) {
+            final int word = x * wordsPerLine + (y >>> 6);
+            final long bit = 1L << (y & 63);
+            long bits = validBits.get(word);
+            // neighbouring tiles may share a word
+            while ((bits & bit) == 0 && !validBits.compareAndSet(word, bits, bits | bit)) {
+                bits = validBits.get(word);
+            }
+        }
+    }
+
+    /**
+     * Commits a tile after all its values were set. Tiles which are committed a second time
+     * (e.g. recomputed by JAI) are counted only once.
+     *
+     * @param rectangle - the tile rectangle
+     * @return boolean - true if this commit completed the file
+     * @throws IOException if the file cannot be completed
+     */
+    public boolean commit(Rectangle rectangle) throws IOException {
+        synchronized (committedTiles) {
+            if (finished || !committedTiles.add(new Rectangle(rectangle))) {
+                return false;
+            }
+            numPixelsCommitted += (long) rectangle.width * rectangle.height;
+            if (numPixelsCommitted < numPixelsTotal) {
+                return false;
+            }
+            finish();
+            return true;
+        }
+    }
+
+    public boolean isFinished() {
+        synchronized (committedTiles) {
+            return finished;
+        }
+    }
+
+    /**
+     * Closes the writer. An unfinished file is deleted.
+     */
+    public void close() {
+        synchronized (committedTiles) {
+            if (!finished) {
+                try {
+                    raf.close();
+                } catch (IOException ignore) {
+                }
+                if (partFile.exists() && !partFile.delete()) {
+                    BeamLogManager.getSystemLogger().log(Level.WARNING, "Could not delete incomplete accumulator file " +
+                            partFile.getPath());
+                }
+                finished = true;
+            }
+        }
+    }
+
+    private void finish() throws IOException {
+        File completeFile = partFile;
+        try {
+            final AccumulatorPixelIndex pixelIndex = getSparsePixelIndex();
+            if (pixelIndex != null || compress) {
+                completeFile = writeCopy(pixelIndex);
+            } else {
+                for (int i = 0; i < bands.length; i++) {
+                    bands[i].force();
+                    // absolute puts only, so the position of the mapped band is still 0
+                    header.processChecksums(i, 0, header.getWidth(), bands[i].duplicate(), true);
+                }
+                header.write(raf.getChannel());
+            }
+        } finally {
+            raf.close();
+            finished = true;
+        }
+        if (completeFile != partFile && !partFile.delete()) {
+            BeamLogManager.getSystemLogger().log(Level.WARNING, "Could not delete mapped accumulator file " +
+                    partFile.getPath());
+        }
+        // the previous file stays in place until it is atomically replaced by the complete file
+        try {
+            Files.move(completeFile.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (completeFile.exists() && !completeFile.delete()) {
+                BeamLogManager.getSystemLogger().log(Level.WARNING, "Could not delete accumulator file " +
+                        completeFile.getPath());
+            }
+            throw new IOException("Could not rename " + completeFile.getPath() + " to " + file.getPath() + ": " +
+                                          e.getMessage(), e);
+        }
+    }
+
+    private AccumulatorPixelIndex getSparsePixelIndex() {
+        final int width = header.getWidth();
+        final AccumulatorPixelIndex pixelIndex = new AccumulatorPixelIndex(width, header.getHeight());
+        for (int x = 0; x < width; x++) {
+            for (int w = 0; w < wordsPerLine; w++) {
+                long bits = validBits.get(x * wordsPerLine + w);
+                while (bits != 0) {
+                    pixelIndex.setValid(x, (w << 6) + Long.numberOfTrailingZeros(bits));
+                    bits &= bits - 1;
+                }
+            }
+        }
+        return pixelIndex.isSparseWorthwhile(bands.length) ? pixelIndex : null;
+    }
+
+    /**
+     * Writes the mapped bands to a sparse and/or compressed file.
+     *
+     * @param pixelIndex - the index of the valid pixels for a sparse file, or null
+     * @return File - the written part file
+     * @throws IOException if the file cannot be written
+     */
+    private File writeCopy(AccumulatorPixelIndex pixelIndex) throws IOException {
+        final int width = header.getWidth();
+        final AccumulatorFileHeader copyHeader =
+                AccumulatorFileHeader.create(width, header.getHeight(), bands.length, header.getYear(),
+                                             header.getDoy(), header.getLinesPerBlock(), pixelIndex, compress);
+        final File copyPartFile = new File(file.getPath() + (pixelIndex != null ? ".sparse.part" : ".deflated.part"));
+        final RandomAccessFile copyRaf = new RandomAccessFile(copyPartFile, "rw");
+        boolean written = false;
+        try {
+            final FileChannel ch = copyRaf.getChannel();
+            ch.truncate(0);
+            // one block of lines at a time, in whole blocks as needed for compression
+            final int linesPerBlock = copyHeader.getLinesPerBlock();
+            final float[][] lines = new float[Math.min(linesPerBlock, width)][header.getHeight()];
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(lines.length * header.getHeight() * 4);
+            for (int i = 0; i < bands.length; i++) {
+                final FloatBuffer values = bands[i].duplicate().order(header.getByteOrder()).asFloatBuffer();
+                for (int startLine = 0; startLine < width; startLine += linesPerBlock) {
+                    final int numLines = Math.min(linesPerBlock, width - startLine);
+                    for (int line = 0; line < numLines; line++) {
+                        values.get(lines[line]);
+                    }
+                    IOUtils.writeAccumulatorBlock(ch, copyHeader, buffer, i, startLine, numLines, lines);
+                }
+            }
+            copyHeader.write(ch);
+            written = true;
+        } finally {
+            copyRaf.close();
+            if (!written) {
+                copyPartFile.delete();
+            }
+        }
+        return copyPartFile;
+    }
+}
@@ -0,0 +1,190 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+import org.esa.beam.util.logging.BeamLogManager;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+
+/**
+ * Listing of the file names of a directory, shared by {@link PriorIndex} and {@link InputCatalogue}.
+ * <p/>
+ * The modification time of the directory is taken <i>before</i> the directory is listed, and a listing is only
+ * used as long as the directory still has exactly this modification time. So a file added while the directory
+ * is listed makes the listing stale instead of being missed. As the modification time has a granularity of up to
+ * a second and the clocks of network file systems may be skewed, listings of directories modified within
+ * {@link #RACY_INTERVAL} ms of the local clock are not reused at all.
+ * <p/>
+ * Listings are cached in memory and persisted in a local cache directory (system property
+ * {@link #CACHE_DIR_PROPERTY}, by default in the temp directory), one file per listed directory keyed by its path,
+ * so the shared data directories are never written.
+ *
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+class DirectoryListing {
+
+    static final String CACHE_DIR_PROPERTY = "globalbedo.listing.cacheDir";
+
+    private static final long RACY_INTERVAL = 10000L;
+
+    private static final String LISTING_FILE_HEADER = "# directory listing v1";
+    private static final String LISTING_FILE_END = "# end";
+
+    private static final Map<String, DirectoryListing> cache = new HashMap<String, DirectoryListing>();
+
+    private final long lastModified;
+    private final boolean racy;
+    private final List<String> fileNames;
+
+    private DirectoryListing(long lastModified, boolean racy, List<String> fileNames) {
+        this.lastModified = lastModified;
+        this.racy = racy;
+        this.fileNames = Collections.unmodifiableList(fileNames);
+    }
+
+    /**
+     * Returns the listing of the given directory. The same instance is returned as long as the directory has not
+     * been modified, so listings can be compared by identity.
+     *
+     * @param dir - the directory
+     * @return DirectoryListing
+     */
+    static synchronized DirectoryListing getInstance(File dir) {
+        final String key = dir.getAbsolutePath();
+        final long lastModified = dir.lastModified();
+        DirectoryListing listing = cache.get(key);
+        if (listing == null || listing.racy || listing.lastModified != lastModified) {
+            listing = load(dir, key, lastModified);
+            cache.put(key, listing);
+        }
+        return listing;
+    }
+
+    /**
+     * @return List<String> - the names of all files of the directory in alphabetical order (empty if the directory
+     *         does not exist)
+     */
+    List<String> getFileNames() {
+        return fileNames;
+    }
+
+    /**
+     * @param dir - a directory
+     * @return File - the file the listing of the directory is persisted in
+     */
+    static File getListingFile(File dir) {
+        final String cacheDirPath = System.getProperty(CACHE_DIR_PROPERTY);
+        final File cacheDir = cacheDirPath != null ? new File(cacheDirPath) :
+                new File(System.getProperty("java.io.tmpdir"), "globalbedo-listings-" + System.getProperty("user.name"));
+        return new File(cacheDir, getKeyHash(dir.getAbsolutePath()) + ".txt");
+    }
+
+    private static DirectoryListing load(File dir, String key, long lastModified) {
+        final File listingFile = getListingFile(dir);
+        List<String> fileNames = readListingFile(listingFile, key, lastModified);
+        if (fileNames != null) {
+            return new DirectoryListing(lastModified, false, fileNames);
+        }
+        final String[] dirContent = dir.list();
+        fileNames = new ArrayList<String>();
+        boolean racy = false;
+        if (dirContent != null) {
+            fileNames.addAll(Arrays.asList(dirContent));
+            Collections.sort(fileNames);
+            racy = Math.abs(System.currentTimeMillis() - lastModified) < RACY_INTERVAL;
+            if (!racy) {
+                writeListingFile(listingFile, key, lastModified, fileNames);
+            }
+        }
+        return new DirectoryListing(lastModified, racy, fileNames);
+    }
+
+    private static List<String> readListingFile(File listingFile, String key, long lastModified) {
+        if (!listingFile.isFile()) {
+            return null;
+        }
+        try {
+            final BufferedReader reader = new BufferedReader(new FileReader(listingFile));
+            try {
+                if (!LISTING_FILE_HEADER.equals(reader.readLine()) || !key.equals(reader.readLine()) ||
+                        !Long.toString(lastModified).equals(reader.readLine())) {
+                    return null;
+                }
+                List<String> fileNames = new ArrayList<String>();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.equals(LISTING_FILE_END)) {
+                        return fileNames;
+                    }
+                    fileNames.add(line);
+                }
+                // incomplete listing file
+                return null;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeListingFile(File listingFile, String key, long lastModified, List<String> fileNames) {
+        final File cacheDir = listingFile.getParentFile();
+        // write to a temporary file first, so that concurrent jobs never read a partial listing
+        final File partFile = new File(cacheDir, listingFile.getName() + "." + UUID.randomUUID() + ".part");
+        try {
+            if (!cacheDir.isDirectory() && !cacheDir.mkdirs() && !cacheDir.isDirectory()) {
+                throw new IOException("Cannot create directory " + cacheDir.getPath());
+            }
+            final PrintWriter writer = new PrintWriter(new FileWriter(partFile));
+            try {
+                writer.println(LISTING_FILE_HEADER);
+                writer.println(key);
+                writer.println(lastModified);
+                for (String fileName : fileNames) {
+                    writer.println(fileName);
+                }
+                writer.println(LISTING_FILE_END);
+            } finally {
+                writer.close();
+            }
+            Files.move(partFile.toPath(), listingFile.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            partFile.delete();
+            BeamLogManager.getSystemLogger().log(Level.FINE, "Cannot write directory listing file " +
+                    listingFile.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    private static String getKeyHash(String key) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(Charset.forName("UTF-8")));
+            final StringBuilder sb = new StringBuilder(2 * digest.length);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is supported by every JVM
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package org.esa.beam.globalbedo.inversion.util;
 
 import org.esa.beam.framework.dataio.ProductIO;
+import org.esa.beam.framework.dataio.ProductReader;
+import org.esa.beam.framework.dataio.ProductSubsetDef;
 import org.esa.beam.framework.datamodel.Band;
 import org.esa.beam.framework.datamodel.CrsGeoCoding;
 import org.esa.beam.framework.datamodel.Product;
@@ -9,6 +11,7 @@ import org.esa.beam.globalbedo.auxdata.ModisTileCoordinates;
 import org.esa.beam.globalbedo.inversion.AlbedoInput;
 import org.esa.beam.globalbedo.inversion.AlbedoInversionConstants;
 import org.esa.beam.globalbedo.inversion.FullAccumulator;
+import org.esa.beam.globalbedo.inversion.MappedFullAccumulator;
 import org.esa.beam.util.ProductUtils;
 import org.esa.beam.util.StringUtils;
 import org.esa.beam.util.logging.BeamLogManager;
@@ -19,9 +22,14 @@ import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import static org.esa.beam.globalbedo.inversion.AlbedoInversionConstants.NUM_ALBEDO_PARAMETERS;
 
@@ -35,44 +43,15 @@ public class IOUtils {
 
     public static Product[] getAccumulationInputProducts(String bbdrRootDir, String tile, int year, int doy) throws
             IOException {
-        final String daystring = AlbedoInversionUtils.getDateFromDoy(year, doy);
+        // MERIS, AATSR and VGT products of the day, see InputCatalogue
+        final List<File> bbdrFiles = InputCatalogue.getDailyBbdrFiles(bbdrRootDir, tile, year, doy);
 
-        final String merisBbdrDir = bbdrRootDir + File.separator + "MERIS" + File.separator + year + File.separator + tile;
-        final String[] merisBbdrFiles = (new File(merisBbdrDir)).list();
-        final List<String> merisBbdrFileList = getDailyBBDRFilenames(merisBbdrFiles, daystring);
-
-        final String aatsrBbdrDir = bbdrRootDir + File.separator + "AATSR" + File.separator + year + File.separator + tile;
-        final String[] aatsrBbdrFiles = (new File(aatsrBbdrDir)).list();
-        final List<String> aatsrBbdrFileList = getDailyBBDRFilenames(aatsrBbdrFiles, daystring);
-
-        final String vgtBbdrDir = bbdrRootDir + File.separator + "VGT" + File.separator + year + File.separator + tile;
-        final String[] vgtBbdrFiles = (new File(vgtBbdrDir)).list();
-        final List<String> vgtBbdrFileList = getDailyBBDRFilenames(vgtBbdrFiles, daystring);
-
-        final int numberOfInputProducts = merisBbdrFileList.size() + aatsrBbdrFileList.size() + vgtBbdrFileList.size();
-        Product[] bbdrProducts = new Product[numberOfInputProducts];
-
-        int productIndex = 0;
-        for (String aMerisBbdrFileList : merisBbdrFileList) {
-            String sourceProductFileName = merisBbdrDir + File.separator + aMerisBbdrFileList;
-            Product product = ProductIO.readProduct(sourceProductFileName);
-            bbdrProducts[productIndex] = product;
-            productIndex++;
-        }
-        for (String anAatsrBbdrFileList : aatsrBbdrFileList) {
-            String sourceProductFileName = aatsrBbdrDir + File.separator + anAatsrBbdrFileList;
-            Product product = ProductIO.readProduct(sourceProductFileName);
-            bbdrProducts[productIndex] = product;
-            productIndex++;
-        }
-        for (String aVgtBbdrFileList : vgtBbdrFileList) {
-            String sourceProductFileName = vgtBbdrDir + File.separator + aVgtBbdrFileList;
-            Product product = ProductIO.readProduct(sourceProductFileName);
-            bbdrProducts[productIndex] = product;
-            productIndex++;
+        Product[] bbdrProducts = new Product[bbdrFiles.size()];
+        for (int productIndex = 0; productIndex < bbdrProducts.length; productIndex++) {
+            bbdrProducts[productIndex] = ProductIO.readProduct(bbdrFiles.get(productIndex));
         }
 
-        if (productIndex == 0) {
+        if (bbdrProducts.length == 0) {
             BeamLogManager.getSystemLogger().log(Level.ALL, "No BBDR source products found for DoY " + IOUtils.getDoyString(doy) + " ...");
         }
 
@@ -101,20 +80,95 @@ public class IOUtils {
     }
 
     public static Product getPriorProduct(String priorDir, String priorFileNamePrefix, int doy, boolean computeSnow) throws IOException {
+        return getPriorProduct(priorDir, priorFileNamePrefix, doy, computeSnow, null);
+    }
 
-        final String[] priorFiles = (new File(priorDir)).list();
-        final List<String> snowFilteredPriorList = getPriorProductNames(priorFiles, computeSnow);
+    /**
+     * Opens the prior product for given DoY and snow mode, found via the {@link PriorIndex} of the prior directory.
+     *
+     * @param priorDir            - the prior directory
+     * @param priorFileNamePrefix - prior file name prefix, e.g. 'kernel'
+     * @param doy                 - day of year
+     * @param computeSnow         - whether to use the 'Snow' or the 'NoSnow' prior
+     * @param priorBandNames      - the prior bands to read (all bands if null)
+     * @return Product - the prior product, or null if there is no prior for this DoY
+     * @throws IOException
+     */
+    public static Product getPriorProduct(String priorDir, String priorFileNamePrefix, int doy, boolean computeSnow,
+                                          String[] priorBandNames) throws IOException {
+        final String snowMode = computeSnow ? "Snow" : "NoSnow";
+        final File priorFile = PriorIndex.getInstance(new File(priorDir)).findPrior(priorFileNamePrefix, null, doy,
+                                                                                     snowMode);
+        if (priorFile == null) {
+            return null;
+        }
+        if (priorBandNames == null) {
+            return ProductIO.readProduct(priorFile);
+        }
+        return readProductSubset(priorFile, priorBandNames);
+    }
 
-        String doyString = getDoyString(doy);
+    /**
+     * Opens a product with the given bands only and without metadata. If the product does not provide all
+     * of these bands, the complete product is opened.
+     *
+     * @param file      - the product file
+     * @param bandNames - the bands to read
+     * @return Product - the product
+     * @throws IOException
+     */
+    public static Product readProductSubset(File file, String[] bandNames) throws IOException {
+        final ProductReader productReader = ProductIO.getProductReaderForInput(file);
+        if (productReader == null) {
+            throw new IOException("No reader found for product file " + file.getPath());
+        }
+        ProductSubsetDef subsetDef = new ProductSubsetDef();
+        subsetDef.addNodeNames(bandNames);
+        subsetDef.setIgnoreMetadata(true);
+        final Product product = productReader.readProductNodes(file, subsetDef);
+        for (String bandName : bandNames) {
+            if (!product.containsBand(bandName)) {
+                // e.g. band naming of an older product version, or the reader ignores the subset - read everything
+                product.dispose();
+                return ProductIO.readProduct(file);
+            }
+        }
+        return product;
+    }
 
-        for (String priorFileName : snowFilteredPriorList) {
-            if (priorFileName.startsWith(priorFileNamePrefix + "." + doyString)) {
-                String sourceProductFileName = priorDir + File.separator + priorFileName;
-                return ProductIO.readProduct(sourceProductFileName);
+    /**
+     * @param meanBandNamePrefix - prefix of prior mean bands, e.g. 'MEAN:_BAND_'
+     * @param sdBandNamePrefix   - prefix of prior SD bands, e.g. 'SD:_BAND_'
+     * @param bandStartIndex     - index of the first broad band
+     * @param nSamplesBandName   - name of the prior NSamples band
+     * @param landMaskBandName   - name of the prior land mask band
+     * @return String[] - names of all prior bands used by inversion and BRDF merging
+     */
+    public static String[] getPriorBandNames(String meanBandNamePrefix, String sdBandNamePrefix, int bandStartIndex,
+                                             String nSamplesBandName, String landMaskBandName) {
+        List<String> bandNames = new ArrayList<String>();
+        for (int i = 0; i < AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
+            final String indexString = Integer.toString(bandStartIndex + i);
+            for (int j = 0; j < NUM_ALBEDO_PARAMETERS; j++) {
+                bandNames.add(meanBandNamePrefix + indexString + "_PARAMETER_F" + j);
+                bandNames.add(sdBandNamePrefix + indexString + "_PARAMETER_F" + j);
             }
         }
+        bandNames.add(nSamplesBandName);
+        bandNames.add(landMaskBandName);
+        return bandNames.toArray(new String[bandNames.size()]);
+    }
 
-        return null;
+    /**
+     * @return String[] - names of the prior bands used with the default prior band parameters of
+     *         {@link org.esa.beam.globalbedo.inversion.InversionOp} and {@link org.esa.beam.globalbedo.inversion.MergeBrdfOp}
+     */
+    public static String[] getDefaultPriorBandNames() {
+        return getPriorBandNames(AlbedoInversionConstants.PRIOR_MEAN_BAND_NAME_PREFIX,
+                                 AlbedoInversionConstants.PRIOR_SD_BAND_NAME_PREFIX,
+                                 AlbedoInversionConstants.PRIOR_BAND_START_INDEX,
+                                 AlbedoInversionConstants.PRIOR_WEIGHTED_NSAMPLES_NAME,
+                                 AlbedoInversionConstants.PRIOR_LAND_MASK_NAME);
     }
 
     public static Product getReprojectedPriorProduct(Product priorProduct, String tile,
@@ -152,20 +206,30 @@ public class IOUtils {
         return geoCoding;
     }
 
+    /**
+     * Provides the geocoding of a PST quadrant from the fixed grid the BBDR products are reprojected onto
+     * (see BbdrToPstSingleQuadrantOp), so that no BBDR PST product needs to be opened.
+     *
+     * @param pstTile - the PST quadrant, one of '180W_90W', '90W_0', '0_90E', '90E_180E'
+     * @return CrsGeoCoding - the geocoding, or null if the quadrant is unknown
+     */
     public static CrsGeoCoding getSeaicePstGeocoding(String pstTile) {
+        final double[] referencePixel = getSeaicePstReferencePixel(pstTile);
+        if (referencePixel == null) {
+            return null;
+        }
         final String crsString = AlbedoInversionConstants.POLAR_STEREOGRAPHIC_PROJECTION_CRS_STRING;
         final int imageWidth = AlbedoInversionConstants.SEAICE_TILE_WIDTH;
         final int imageHeight = AlbedoInversionConstants.SEAICE_TILE_HEIGHT;
         final double pixelSizeX = AlbedoInversionConstants.SEAICE_PST_PIXEL_SIZE_X;
         final double pixelSizeY = AlbedoInversionConstants.SEAICE_PST_PIXEL_SIZE_Y;
-        final double imageWidthMetres = imageWidth * pixelSizeX;
-        double[] eastingNorthing = getSeaicePstEastingNorthing(pstTile, imageWidthMetres);
-        final double easting = eastingNorthing[0];
-        final double northing = eastingNorthing[1];
+        final double easting = AlbedoInversionConstants.SEAICE_PST_REFERENCE_EASTING;
+        final double northing = AlbedoInversionConstants.SEAICE_PST_REFERENCE_NORTHING;
         CrsGeoCoding geoCoding;
         try {
             final CoordinateReferenceSystem crs = CRS.parseWKT(crsString);
-            geoCoding = new CrsGeoCoding(crs, imageWidth, imageHeight, easting, northing, pixelSizeX, pixelSizeY);
+            geoCoding = new CrsGeoCoding(crs, imageWidth, imageHeight, easting, northing, pixelSizeX, pixelSizeY,
+                                         referencePixel[0], referencePixel[1]);
         } catch (Exception e) {
             throw new OperatorException("Cannot attach geocoding for PST tile ''" + pstTile + " : ", e);
         }
@@ -265,11 +329,7 @@ public class IOUtils {
             inputProduct.setReferenceDoy(doy);
 
             if (useBinaryFiles) {
-                final List<String> albedoInputProductBinaryFileList = getAlbedoInputProductFileNames(accumulatorRootDir,
-                        true, doy, year, tile,
-                        wings,
-                        computeSnow,
-                        computeSeaice);
+                final List<String> albedoInputProductBinaryFileList = albedoInputProductList;
                 String[] albedoInputProductBinaryFilenames = new String[albedoInputProductBinaryFileList.size()];
                 int binaryProductIndex = 0;
                 for (String albedoInputProductBinaryName : albedoInputProductBinaryFileList) {
@@ -302,92 +362,9 @@ public class IOUtils {
                                                        int year, String tile,
                                                        int wings,
                                                        boolean computeSnow, boolean computeSeaice) {
-        List<String> albedoInputProductList = new ArrayList<String>();
-
-        final FilenameFilter yearFilter = new FilenameFilter() {
-            public boolean accept(File dir, String name) {
-                // accept only years between 1995 and 2010 (GA period), but allow 2011 wings!
-                int startYear = 1995;
-                for (int i = 0; i <= 16; i++) {
-                    String thisYear = (new Integer(startYear + i)).toString();
-                    if (name.equals(thisYear)) {
-                        return true;
-                    }
-                }
-                return false;
-            }
-        };
-
-        final FilenameFilter inputProductNameFilter = new FilenameFilter() {
-            public boolean accept(File dir, String name) {
-                // accept only filenames like 'matrices_2005123.dim', 'matrices_2005123.bin'...
-                if (isBinaryFiles) {
-                    return (name.length() == 20 && name.startsWith("matrices") && name.endsWith("bin"));
-                } else {
-                    return (name.length() == 20 && name.startsWith("matrices") && name.endsWith("dim"));
-                }
-            }
-        };
-
-        final String[] allYears = (new File(accumulatorRootDir)).list(yearFilter);
-
-        doy = doy + 8; // 'MODIS day'
-
-        // fill the name list year by year...
-        for (String thisYear : allYears) {
-            String thisYearsRootDir;
-            if (computeSnow) {
-                thisYearsRootDir = accumulatorRootDir.concat(
-                        File.separator + thisYear + File.separator + tile + File.separator + "Snow");
-            } else if (computeSeaice) {
-                thisYearsRootDir = accumulatorRootDir.concat(
-                        File.separator + thisYear + File.separator + tile);
-            } else {
-                thisYearsRootDir = accumulatorRootDir.concat(
-                        File.separator + thisYear + File.separator + tile + File.separator + "NoSnow");
-            }
-            final String[] thisYearAlbedoInputFiles = (new File(thisYearsRootDir)).list(inputProductNameFilter);
-
-            if (thisYearAlbedoInputFiles != null && thisYearAlbedoInputFiles.length > 0) {
-                for (String s : thisYearAlbedoInputFiles) {
-                    if (s.startsWith("matrices_" + thisYear)) {
-                        if (!albedoInputProductList.contains(s)) {
-                            // check the 'wings' condition...
-                            try {
-                                final int dayOfYear = Integer.parseInt(
-                                        s.substring(13, 16));
-                                //    # Left wing
-                                if (365 + (doy - wings) <= 366) {
-                                    if (!albedoInputProductList.contains(s)) {
-                                        if (dayOfYear >= 366 + (doy - wings) && Integer.parseInt(thisYear) < year) {
-                                            albedoInputProductList.add(s);
-                                        }
-                                    }
-                                }
-                                //    # Center
-                                if ((dayOfYear < doy + wings) && (dayOfYear >= doy - wings) &&
-                                        (Integer.parseInt(thisYear) == year)) {
-                                    albedoInputProductList.add(s);
-                                }
-                                //    # Right wing
-                                if ((doy + wings) - 365 > 0) {
-                                    if (!albedoInputProductList.contains(s)) {
-                                        if (dayOfYear <= (doy + wings - 365) && Integer.parseInt(thisYear) > year) {
-                                            albedoInputProductList.add(s);
-                                        }
-                                    }
-                                }
-                            } catch (NumberFormatException e) {
-                                BeamLogManager.getSystemLogger().log(Level.ALL, "Cannot determine wings for accumulator " + s + " - skipping.");
-                            }
-                        }
-                    }
-                }
-            }
-        }
-
-        Collections.sort(albedoInputProductList);
-        return albedoInputProductList;
+        // accept only filenames like 'matrices_2005123.dim', 'matrices_2005123.bin' within the wings
+        return InputCatalogue.getAccumulatorFileNames(accumulatorRootDir, isBinaryFiles, doy, year, tile, wings,
+                                                      computeSnow, computeSeaice);
     }
 
     static final Map<Integer, String> waveBandsOffsetMap = new HashMap<Integer, String>();
@@ -398,14 +375,17 @@ public class IOUtils {
         waveBandsOffsetMap.put(2, "SW");
     }
 
+    /**
+     * Returns the names of the accumulator bands in packed layout (see {@link AccumulatorLayout}).
+     *
+     * @return String[] - the band names
+     */
     public static String[] getDailyAccumulatorBandNames() {
-        String[] bandNames = new String[3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS *
-                3 * AlbedoInversionConstants.NUM_ALBEDO_PARAMETERS +
-                3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS + 2];
+        String[] bandNames = new String[AccumulatorLayout.NUM_BANDS];
 
         int index = 0;
         for (int i = 0; i < 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; i++) {
-            for (int j = 0; j < 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; j++) {
+            for (int j = i; j < 3 * AlbedoInversionConstants.NUM_BBDR_WAVE_BANDS; j++) {
                 bandNames[index++] = "M_" + i + "" + j;
             }
         }
@@ -513,120 +493,477 @@ public class IOUtils {
         return bandNames;
     }
 
-    public static FullAccumulator getAccumulatorFromBinaryFile(int year, int doy, String filename, int numBands,
+    /**
+     * Reads a daily or full accumulator file into a {@link FullAccumulator}. The accumulator bands are
+     * returned in packed layout, also for files which still hold the full M.
+     *
+     * @param year         - year
+     * @param doy          - day of year
+     * @param filename     - the accumulator file
+     * @param rasterWidth  - raster width
+     * @param rasterHeight - raster height
+     * @param isFullAcc    - true for a full accumulator (with daysToTheClosestSample band)
+     * @return FullAccumulator - null if there is no accumulator file
+     */
+    public static FullAccumulator getAccumulatorFromBinaryFile(int year, int doy, String filename,
                                                                int rasterWidth, int rasterHeight, boolean isFullAcc) {
-//        int size = numBands * rasterWidth * rasterHeight;         // OLD
-        int size = numBands * rasterWidth * rasterHeight * 4; // NEW
         final File accumulatorBinaryFile = new File(filename);
-        FileInputStream f;
+        RandomAccessFile f;
         try {
-            f = new FileInputStream(accumulatorBinaryFile);
+            f = new RandomAccessFile(accumulatorBinaryFile, "r");
         } catch (FileNotFoundException e) {
             BeamLogManager.getSystemLogger().log(Level.ALL, "No accumulator file found for year: " + year + ", DoY: " +
                     IOUtils.getDoyString(doy) + " - will use data from MODIS priors...");
             return null;
         }
-        FileChannel ch = f.getChannel();
-        ByteBuffer bb = ByteBuffer.allocateDirect(size);
-        FloatBuffer floatBuffer = bb.asFloatBuffer();
 
+        final int numBands = AccumulatorLayout.NUM_BANDS;
         float[][] daysToTheClosestSample = new float[rasterWidth][rasterHeight];
         float[][][] sumMatrices = new float[numBands][rasterWidth][rasterHeight];
 
-        FullAccumulator accumulator = null;
-
         try {
             long t1 = System.currentTimeMillis();
 
-            ch.read(bb);
-            for (int ii = 0; ii < numBands - 1; ii++) {
-                for (int jj = 0; jj < rasterWidth; jj++) {
-                    floatBuffer.get(sumMatrices[ii][jj]);
-                }
+            final FileChannel ch = f.getChannel();
+            final int legacyNumBands = AccumulatorLayout.NUM_BANDS_UNPACKED + (isFullAcc ? 1 : 0);
+            final AccumulatorFileHeader header = AccumulatorFileHeader.read(ch, rasterWidth, rasterHeight,
+                                                                            legacyNumBands);
+            checkAccumulatorDimensions(header, filename, rasterWidth, rasterHeight);
+            ByteBuffer bb = ByteBuffer.allocateDirect(rasterWidth * rasterHeight * 4);
+            for (int ii = 0; ii < numBands; ii++) {
+                readAccumulatorBlock(ch, header, bb, AccumulatorLayout.getFileBand(header, ii),
+                                     0, rasterWidth, sumMatrices[ii]);
             }
             if (isFullAcc) {
                 // skip this for 'daily' accumulators
-                for (int jj = 0; jj < rasterWidth; jj++) {
-                    floatBuffer.get(daysToTheClosestSample[jj]);
-                }
+                readAccumulatorBlock(ch, header, bb, AccumulatorLayout.getFileBand(header, numBands),
+                                     0, rasterWidth, daysToTheClosestSample);
             }
-            bb.clear();
-            floatBuffer.clear();
-            ch.close();
-            f.close();
 
             long t2 = System.currentTimeMillis();
             BeamLogManager.getSystemLogger().log(Level.INFO, "Full accumulator read in: " + (t2 - t1) + " ms");
+        } catch (IOException e) {
+            // corrupt or truncated files must not be consumed silently
+            throw new OperatorException("Could not read full accumulator file '" + filename + "': " +
+                                                e.getMessage(), e);
+        } finally {
+            try {
+                f.close();
+            } catch (IOException ignore) {
+            }
+        }
+        return new FullAccumulator(year, doy, sumMatrices, daysToTheClosestSample);
+    }
 
-            accumulator = new FullAccumulator(year, doy, sumMatrices, daysToTheClosestSample);
-
+    /**
+     * Memory-maps a full accumulator file instead of reading it into the heap.
+     *
+     * @param year         - year
+     * @param doy          - day of year
+     * @param filename     - full accumulator file
+     * @param rasterWidth  - raster width
+     * @param rasterHeight - raster height
+     * @return MappedFullAccumulator - null if there is no full accumulator file
+     */
+    public static MappedFullAccumulator mapAccumulatorFile(int year, int doy, String filename,
+                                                           int rasterWidth, int rasterHeight) {
+        final File accumulatorBinaryFile = new File(filename);
+        if (!accumulatorBinaryFile.exists()) {
+            BeamLogManager.getSystemLogger().log(Level.ALL, "No accumulator file found for year: " + year + ", DoY: " +
+                    IOUtils.getDoyString(doy) + " - will use data from MODIS priors...");
+            return null;
+        }
+        try {
+            return MappedFullAccumulator.map(year, doy, accumulatorBinaryFile, rasterWidth, rasterHeight);
         } catch (IOException e) {
-            BeamLogManager.getSystemLogger().log(Level.SEVERE, "Could not read full accumulator file '" + filename +
-                    "':  " + e.getMessage());
+            throw new OperatorException("Could not map full accumulator file '" + filename + "': " + e.getMessage(), e);
         }
-        return accumulator;
     }
 
-    public static void writeFloatArrayToFile(File file, float[][][] values) {
-        int index = 0;
+    /**
+     * Writes a daily accumulator array [band][width][height] to a binary accumulator file.
+     *
+     * @param file   - the file
+     * @param year   - year
+     * @param doy    - day of year
+     * @param values - the accumulator values
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeFloatArrayToFile(File file, int year, int doy, float[][][] values) throws IOException {
+        writeAccumulatorToFile(file, year, doy, values, null);
+    }
+
+    /**
+     * Writes a full accumulator (sum matrices and days to the closest sample) to a binary accumulator file.
+     *
+     * @param file              - the file
+     * @param year              - year
+     * @param doy               - day of year
+     * @param sumMatrices       - the accumulator values [band][width][height]
+     * @param daysClosestSample - the days to the closest sample [width][height]
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeFullAccumulatorToFile(File file, int year, int doy,
+                                                  float[][][] sumMatrices, float[][] daysClosestSample)
+            throws IOException {
+        writeAccumulatorToFile(file, year, doy, sumMatrices, daysClosestSample);
+    }
+
+    private static void writeAccumulatorToFile(File file, int year, int doy,
+                                               float[][][] values, float[][] daysClosestSample)
+            throws IOException {
+        final int numBands = daysClosestSample != null ? values.length + 1 : values.length;
+        final int width = values[0].length;
+        final int height = values[0][0].length;
+        // the file is written sparse if most of the pixels have no samples
+        AccumulatorPixelIndex pixelIndex = new AccumulatorPixelIndex(width, height);
+        for (float[][] band : values) {
+            addNonZeroPixels(pixelIndex, band);
+        }
+        if (daysClosestSample != null) {
+            addNonZeroPixels(pixelIndex, daysClosestSample);
+        }
+        if (!pixelIndex.isSparseWorthwhile(numBands)) {
+            pixelIndex = null;
+        }
+        final AccumulatorFileHeader header =
+                AccumulatorFileHeader.create(width, height, numBands, year, doy,
+                                             AccumulatorFileHeader.DEFAULT_LINES_PER_BLOCK, pixelIndex);
+        RandomAccessFile fileOutput = new RandomAccessFile(file, "rw");
         try {
-            // Create an output stream to the file.
-            FileOutputStream file_output = new FileOutputStream(file);
-            // Create a writable file channel
-            FileChannel wChannel = file_output.getChannel();
-
-            final int dim1 = values.length;
-            final int dim2 = values[0].length;
-            final int dim3 = values[0][0].length;
-
-            ByteBuffer bb = ByteBuffer.allocateDirect(dim1 * dim2 * dim3 * 4);
-            FloatBuffer floatBuffer = bb.asFloatBuffer();
-            for (int i = 0; i < dim1; i++) {
-                for (int j = 0; j < dim2; j++) {
-                    floatBuffer.put(values[i][j], 0, dim3);
+            FileChannel wChannel = fileOutput.getChannel();
+            wChannel.truncate(0);
+            ByteBuffer bb = ByteBuffer.allocateDirect(width * height * 4);
+            for (int i = 0; i < values.length; i++) {
+                writeAccumulatorBlock(wChannel, header, bb, i, 0, width, values[i]);
+            }
+            if (daysClosestSample != null) {
+                writeAccumulatorBlock(wChannel, header, bb, values.length, 0, width, daysClosestSample);
+            }
+            // header last, so that it holds the checksums
+            header.write(wChannel);
+        } finally {
+            fileOutput.close();
+        }
+    }
+
+    /**
+     * Sets the pixels valid which are not 0.0 in the given band (bitwise, so that -0.0 and NaN are kept).
+     *
+     * @param pixelIndex - the pixel index
+     * @param band       - the band as [width][height]
+     */
+    public static void addNonZeroPixels(AccumulatorPixelIndex pixelIndex, float[][] band) {
+        for (int x = 0; x < band.length; x++) {
+            final float[] line = band[x];
+            for (int y = 0; y < line.length; y++) {
+                if (Float.floatToRawIntBits(line[y]) != 0) {
+                    pixelIndex.setValid(x, y);
                 }
             }
-            wChannel.write(bb);
+        }
+    }
 
-            // Close file when finished with it..
-            wChannel.close();
-            file_output.close();
-        } catch (IOException e) {
-            BeamLogManager.getSystemLogger().log(Level.WARNING, "Could not write array to file:  " + e + " // " + e.getMessage() +
-                    " // buffer index =  " + index);
+    /**
+     * Converts a daily or full accumulator file which still holds the full M (legacy or version 1 file)
+     * to the packed layout (see {@link AccumulatorLayout}). The packed file is written as '*.part' file
+     * and then atomically replaces the original file.
+     *
+     * @param file         - the accumulator file
+     * @param rasterWidth  - raster width
+     * @param rasterHeight - raster height
+     * @return boolean - false if the file was already packed
+     * @throws IOException if the file cannot be read or written
+     */
+    public static boolean packAccumulatorFile(File file, int rasterWidth, int rasterHeight) throws IOException {
+        final File partFile = new File(file.getPath() + ".part");
+        boolean replaced = false;
+        try {
+            final RandomAccessFile source = new RandomAccessFile(file, "r");
+            try {
+                final FileChannel sourceChannel = source.getChannel();
+                // legacy files have no header, full accumulators are identified by the additional band
+                final long legacyFullAccSize =
+                        (AccumulatorLayout.NUM_BANDS_UNPACKED + 1L) * rasterWidth * rasterHeight * 4L;
+                final int legacyNumBands = sourceChannel.size() == legacyFullAccSize ?
+                        AccumulatorLayout.NUM_BANDS_UNPACKED + 1 : AccumulatorLayout.NUM_BANDS_UNPACKED;
+                final AccumulatorFileHeader header = AccumulatorFileHeader.read(sourceChannel, rasterWidth,
+                                                                                rasterHeight, legacyNumBands);
+                checkAccumulatorDimensions(header, file.getPath(), rasterWidth, rasterHeight);
+                if (header.isPackedLayout()) {
+                    return false;
+                }
+                final int numExtraBands = header.getNumBands() - AccumulatorLayout.NUM_BANDS_UNPACKED;
+                final AccumulatorFileHeader packedHeader =
+                        AccumulatorFileHeader.create(rasterWidth, rasterHeight,
+                                                     AccumulatorLayout.NUM_BANDS + numExtraBands,
+                                                     header.getYear(), header.getDoy(),
+                                                     AccumulatorFileHeader.DEFAULT_LINES_PER_BLOCK);
+                final RandomAccessFile target = new RandomAccessFile(partFile, "rw");
+                try {
+                    final FileChannel targetChannel = target.getChannel();
+                    targetChannel.truncate(0);
+                    final ByteBuffer bb = ByteBuffer.allocateDirect(rasterWidth * rasterHeight * 4);
+                    final float[][] band = new float[rasterWidth][rasterHeight];
+                    for (int ii = 0; ii < packedHeader.getNumBands(); ii++) {
+                        readAccumulatorBlock(sourceChannel, header, bb, AccumulatorLayout.getFileBand(header, ii),
+                                             0, rasterWidth, band);
+                        writeAccumulatorBlock(targetChannel, packedHeader, bb, ii, 0, rasterWidth, band);
+                    }
+                    packedHeader.write(targetChannel);
+                } finally {
+                    target.close();
+                }
+            } finally {
+                source.close();
+            }
+            // the original file stays in place until it is atomically replaced by the complete packed file
+            Files.move(partFile.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            replaced = true;
+        } finally {
+            if (!replaced && partFile.exists() && !partFile.delete()) {
+                BeamLogManager.getSystemLogger().log(Level.WARNING, "Could not delete incomplete packed file " +
+                        partFile.getPath());
+            }
         }
+        return true;
     }
 
-    public static void writeFullAccumulatorToFile(File file, float[][][] sumMatrices, float[][] daysClosestSample) {
-        int index = 0;
+    /**
+     * Checks that an accumulator file header fits to the expected raster.
+     *
+     * @param header       - the header
+     * @param filename     - file name (for the message)
+     * @param rasterWidth  - expected width
+     * @param rasterHeight - expected height
+     * @throws IOException if the dimensions differ
+     */
+    public static void checkAccumulatorDimensions(AccumulatorFileHeader header, String filename,
+                                                  int rasterWidth, int rasterHeight) throws IOException {
+        if (header.getWidth() != rasterWidth || header.getHeight() != rasterHeight) {
+            throw new IOException("Accumulator file '" + filename + "' has dimensions " + header.getWidth() + "x" +
+                                          header.getHeight() + ", expected " + rasterWidth + "x" + rasterHeight);
+        }
+    }
+
+    /**
+     * Reads a block of consecutive lines of one band from a binary accumulator file.
+     * The files hold the bands one after another, each band as [width][height] floats, or with the values of
+     * the valid pixels only for sparse files, which are expanded here (0 for all other pixels).
+     * The checksums of all blocks completely covered by the read lines are verified. Of compressed files,
+     * only the blocks overlapping the lines are inflated (and verified).
+     *
+     * @param channel   - the file channel (positional reads, may be shared between threads)
+     * @param header    - the file header
+     * @param buffer    - a byte buffer with capacity >= numLines * height * 4
+     * @param band      - the band index
+     * @param startLine - first line of the block
+     * @param numLines  - number of lines of the block
+     * @param target    - the block data as [numLines][height]
+     * @throws IOException - if the file is too short, cannot be read or is corrupt
+     */
+    public static void readAccumulatorBlock(FileChannel channel, AccumulatorFileHeader header, ByteBuffer buffer,
+                                            int band, int startLine, int numLines,
+                                            float[][] target) throws IOException {
+        if (header.isCompressed()) {
+            readCompressedAccumulatorBlock(channel, header, band, startLine, numLines, target);
+            return;
+        }
+        final int lineLength = header.getHeight();
+        final long position = header.getPosition(band, startLine);
+        final int numValues = (int) (header.getLineOffset(startLine + numLines) - header.getLineOffset(startLine));
+        buffer.clear();
+        buffer.limit(numValues * 4);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of accumulator file at band " + band + ", line " + startLine);
+            }
+        }
+        buffer.flip();
+        header.processChecksums(band, startLine, numLines, buffer, false);
+        final FloatBuffer floatBuffer = buffer.order(header.getByteOrder()).asFloatBuffer();
+        final AccumulatorPixelIndex pixelIndex = header.getPixelIndex();
+        for (int i = 0; i < numLines; i++) {
+            if (pixelIndex != null) {
+                pixelIndex.expand(startLine + i, floatBuffer, target[i]);
+            } else {
+                floatBuffer.get(target[i], 0, lineLength);
+            }
+        }
+    }
+
+    /**
+     * Writes a block of consecutive lines of one band to a binary accumulator file
+     * (same layout as in {@link #readAccumulatorBlock}, for sparse files only the values of the valid pixels are
+     * written). The checksums of all blocks completely covered by the written lines are set in the header, which
+     * has to be written after all data. Compressed files are written in whole blocks of lines, each block is
+     * deflated and appended to the data written so far.
+     *
+     * @param channel   - the file channel (positional writes, may be shared between threads)
+     * @param header    - the file header
+     * @param buffer    - a byte buffer with capacity >= numLines * height * 4
+     * @param band      - the band index
+     * @param startLine - first line of the block
+     * @param numLines  - number of lines of the block
+     * @param source    - the block data as [numLines][height]
+     * @throws IOException - if the file cannot be written
+     */
+    public static void writeAccumulatorBlock(FileChannel channel, AccumulatorFileHeader header, ByteBuffer buffer,
+                                             int band, int startLine, int numLines,
+                                             float[][] source) throws IOException {
+        final int lineLength = header.getHeight();
+        final int endLine = startLine + numLines;
+        if (header.isCompressed() && (startLine % header.getLinesPerBlock() != 0 ||
+                (endLine % header.getLinesPerBlock() != 0 && endLine != header.getWidth()))) {
+            throw new IllegalArgumentException("Compressed accumulator files must be written in whole blocks, " +
+                                                       "lines " + startLine + "-" + (endLine - 1));
+        }
+        buffer.clear();
+        final FloatBuffer floatBuffer = buffer.order(header.getByteOrder()).asFloatBuffer();
+        final AccumulatorPixelIndex pixelIndex = header.getPixelIndex();
+        for (int i = 0; i < numLines; i++) {
+            if (pixelIndex != null) {
+                pixelIndex.compact(startLine + i, source[i], floatBuffer);
+            } else {
+                floatBuffer.put(source[i], 0, lineLength);
+            }
+        }
+        buffer.limit(floatBuffer.position() * 4);
+        header.processChecksums(band, startLine, numLines, buffer, true);
+        if (header.isCompressed()) {
+            writeCompressedBlocks(channel, header, buffer, band, startLine, numLines);
+            return;
+        }
+        final long position = header.getPosition(band, startLine);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * Reads a whole band of a compressed accumulator file, inflated to the layout of an uncompressed file.
+     *
+     * @param channel - the file channel
+     * @param header  - the file header (of a compressed file)
+     * @param band    - the band index
+     * @return ByteBuffer - the raw band data in a direct buffer (byte order not set)
+     * @throws IOException - if the file cannot be read or is corrupt
+     */
+    public static ByteBuffer readCompressedAccumulatorBand(FileChannel channel, AccumulatorFileHeader header,
+                                                           int band) throws IOException {
+        final ByteBuffer bandData = ByteBuffer.allocateDirect((int) header.getLineOffset(header.getWidth()) * 4);
+        for (int block = 0; block < header.getNumBlocks(); block++) {
+            bandData.put(readCompressedBlock(channel, header, band, block));
+        }
+        bandData.flip();
+        return bandData;
+    }
+
+    private static void readCompressedAccumulatorBlock(FileChannel channel, AccumulatorFileHeader header, int band,
+                                                       int startLine, int numLines,
+                                                       float[][] target) throws IOException {
+        final int endLine = startLine + numLines;
+        final AccumulatorPixelIndex pixelIndex = header.getPixelIndex();
+        for (int block = startLine / header.getLinesPerBlock();
+             header.getBlockStartLine(block) < endLine; block++) {
+            final int blockStart = header.getBlockStartLine(block);
+            final int blockEnd = header.getBlockStartLine(block + 1);
+            final FloatBuffer values = readCompressedBlock(channel, header, band, block).
+                    order(header.getByteOrder()).asFloatBuffer();
+            final int firstLine = Math.max(startLine, blockStart);
+            values.position((int) (header.getLineOffset(firstLine) - header.getLineOffset(blockStart)));
+            for (int line = firstLine; line < Math.min(endLine, blockEnd); line++) {
+                if (pixelIndex != null) {
+                    pixelIndex.expand(line, values, target[line - startLine]);
+                } else {
+                    values.get(target[line - startLine], 0, header.getHeight());
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer readCompressedBlock(FileChannel channel, AccumulatorFileHeader header,
+                                                  int band, int block) throws IOException {
+        final int blockStart = header.getBlockStartLine(block);
+        final int blockEnd = header.getBlockStartLine(block + 1);
+        final long position = header.getBlockPosition(band, block);
+        final ByteBuffer compressed = ByteBuffer.allocate(header.getBlockLength(band, block));
+        while (compressed.hasRemaining()) {
+            if (channel.read(compressed, position + compressed.position()) < 0) {
+                throw new EOFException("Unexpected end of accumulator file at band " + band + ", line " + blockStart);
+            }
+        }
+        final int length = (int) (header.getLineOffset(blockEnd) - header.getLineOffset(blockStart)) * 4;
+        // one byte more, so that a block which inflates to more than expected is detected
+        final byte[] data = new byte[length + 1];
+        int numBytes = 0;
+        final Inflater inflater = new Inflater();
         try {
-            // Create an output stream to the file.
-            FileOutputStream file_output = new FileOutputStream(file);
-            // Create a writable file channel
-            FileChannel wChannel = file_output.getChannel();
-
-            final int dim1 = sumMatrices.length;
-            final int dim2 = sumMatrices[0].length;
-            final int dim3 = sumMatrices[0][0].length;
-
-            ByteBuffer bb = ByteBuffer.allocateDirect((dim1 + 1) * dim2 * dim3 * 4);
-            FloatBuffer floatBuffer = bb.asFloatBuffer();
-            for (int i = 0; i < dim1; i++) {
-                for (int j = 0; j < dim2; j++) {
-                    floatBuffer.put(sumMatrices[i][j], 0, dim3);
+            inflater.setInput(compressed.array(), 0, compressed.capacity());
+            while (!inflater.finished() && numBytes < data.length) {
+                final int n = inflater.inflate(data, numBytes, data.length - numBytes);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
                 }
+                numBytes += n;
             }
-            for (int j = 0; j < dim2; j++) {
-                floatBuffer.put(daysClosestSample[j], 0, dim3);
+            if (!inflater.finished() || numBytes != length) {
+                throw new IOException("Corrupt compressed block in accumulator file at band " + band + ", lines " +
+                                              blockStart + "-" + (blockEnd - 1));
             }
-            wChannel.write(bb);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed block in accumulator file at band " + band + ", lines " +
+                                          blockStart + "-" + (blockEnd - 1) + ": " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+        final ByteBuffer blockData = ByteBuffer.wrap(data, 0, length);
+        header.processChecksums(band, blockStart, blockEnd - blockStart, blockData, false);
+        return blockData;
+    }
 
-            // Close file when finished with it..
-            wChannel.close();
-            file_output.close();
-        } catch (IOException e) {
-            BeamLogManager.getSystemLogger().log(Level.WARNING, "Could not write full accumulator to file:  " + e + " // " + e.getMessage() +
-                    " // buffer index =  " + index);
+    private static void writeCompressedBlocks(FileChannel channel, AccumulatorFileHeader header, ByteBuffer data,
+                                              int band, int startLine, int numLines) throws IOException {
+        final int endLine = startLine + numLines;
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            byte[] bytes = new byte[0];
+            byte[] compressed = new byte[0];
+            for (int block = startLine / header.getLinesPerBlock();
+                 header.getBlockStartLine(block) < endLine; block++) {
+                final int blockStart = header.getBlockStartLine(block);
+                final int blockEnd = header.getBlockStartLine(block + 1);
+                final int offset = (int) (header.getLineOffset(blockStart) - header.getLineOffset(startLine)) * 4;
+                final int length = (int) (header.getLineOffset(blockEnd) - header.getLineOffset(blockStart)) * 4;
+                if (bytes.length < length) {
+                    bytes = new byte[length];
+                    compressed = new byte[length + length / 100 + 64];
+                }
+                final ByteBuffer blockData = data.duplicate();
+                blockData.position(offset);
+                blockData.get(bytes, 0, length);
+
+                deflater.reset();
+                deflater.setInput(bytes, 0, length);
+                deflater.finish();
+                int compressedLength = 0;
+                while (!deflater.finished()) {
+                    if (compressedLength == compressed.length) {
+                        compressed = Arrays.copyOf(compressed, 2 * compressed.length);
+                    }
+                    compressedLength += deflater.deflate(compressed, compressedLength,
+                                                         compressed.length - compressedLength);
+                }
+
+                final long position = header.addBlock(band, block, compressedLength);
+                final ByteBuffer out = ByteBuffer.wrap(compressed, 0, compressedLength);
+                while (out.hasRemaining()) {
+                    channel.write(out, position + out.position());
+                }
+            }
+        } finally {
+            deflater.end();
         }
     }
 
@@ -697,7 +1034,13 @@ public class IOUtils {
         return Math.abs(difference);
     }
 
-    public static Product[] getAlbedo8DayTileProducts(String gaRootDir, final String year, final String tile) {
+    /**
+     * @param gaRootDir - Globalbedo root directory
+     * @param year      - year
+     * @param tile      - MODIS tile
+     * @return File[] - the 8-day albedo products of the tile and year in alphabetical order, or null if none
+     */
+    public static File[] getAlbedo8DayTileFiles(String gaRootDir, final String year, final String tile) {
 
         final FilenameFilter inputProductNameFilter = new FilenameFilter() {
             public boolean accept(File dir, String name) {
@@ -707,37 +1050,18 @@ public class IOUtils {
         };
 
         final String albedoDir = gaRootDir + File.separator + "Albedo" + File.separator + year + File.separator + tile + File.separator;
-        final String[] albedoFiles = (new File(albedoDir)).list(inputProductNameFilter);
-
-        if (albedoFiles != null && albedoFiles.length > 0) {
-            Product[] albedoProducts = new Product[albedoFiles.length];
-
-            int productIndex = 0;
-            for (int i = 0; i < albedoFiles.length; i++) {
-                String albedoProductFileName = albedoDir + File.separator + albedoFiles[i];
-
-                if ((new File(albedoProductFileName)).exists()) {
-                    Product product;
-                    try {
-                        product = ProductIO.readProduct(albedoProductFileName);
-                        albedoProducts[productIndex] = product;
-                        productIndex++;
-                    } catch (IOException e) {
-                        throw new OperatorException("Cannot load Albedo 8-day product " + albedoProductFileName + ": "
-                                + e.getMessage());
-                    }
-                }
-            }
-
-            return albedoProducts;
-        } else {
-            return null;
-        }
-
+        return getSortedFiles(new File(albedoDir), inputProductNameFilter);
     }
 
-    public static Product[] getAlbedo8DayMosaicProducts(String gaRootDir, final int monthIndex,
-                                                        final String year, final String mosaicScaling) {
+    /**
+     * @param gaRootDir     - Globalbedo root directory
+     * @param monthIndex    - month (1..12)
+     * @param year          - year
+     * @param mosaicScaling - mosaic scaling, e.g. '05'
+     * @return File[] - the 8-day albedo mosaics of the month in alphabetical order, or null if none
+     */
+    public static File[] getAlbedo8DayMosaicFiles(String gaRootDir, final int monthIndex,
+                                                  final String year, final String mosaicScaling) {
 
         final FilenameFilter inputProductNameFilter = new FilenameFilter() {
             public boolean accept(File dir, String name) {
@@ -763,33 +1087,16 @@ public class IOUtils {
 
         final String albedoDir = gaRootDir + File.separator + "Mosaic" + File.separator + "albedo" +
                 File.separator + year + File.separator + mosaicScaling + File.separator;
-        final String[] albedoFiles = (new File(albedoDir)).list(inputProductNameFilter);
-
-        if (albedoFiles != null && albedoFiles.length > 0) {
-            Product[] albedoProducts = new Product[albedoFiles.length];
-
-            int productIndex = 0;
-            for (int i = 0; i < albedoFiles.length; i++) {
-                String albedoProductFileName = albedoDir + File.separator + albedoFiles[i];
-
-                if ((new File(albedoProductFileName)).exists()) {
-                    Product product;
-                    try {
-                        product = ProductIO.readProduct(albedoProductFileName);
-                        albedoProducts[productIndex] = product;
-                        productIndex++;
-                    } catch (IOException e) {
-                        throw new OperatorException("Cannot load Albedo 8-day product " + albedoProductFileName + ": "
-                                + e.getMessage());
-                    }
-                }
-            }
+        return getSortedFiles(new File(albedoDir), inputProductNameFilter);
+    }
 
-            return albedoProducts;
-        } else {
+    private static File[] getSortedFiles(File dir, FilenameFilter filter) {
+        final File[] files = dir.listFiles(filter);
+        if (files == null || files.length == 0) {
             return null;
         }
-
+        Arrays.sort(files);
+        return files;
     }
 
     public static File[] getTileDirectories(String rootDirString) {
@@ -815,18 +1122,20 @@ public class IOUtils {
                 (name.length() == 28 && name.startsWith("GlobAlbedo.") && name.endsWith(tile + ".nc"));
     }
 
-    private static double[] getSeaicePstEastingNorthing(String tile, double width) {
-        double[] eastingNorthing = new double[2];
+    static double[] getSeaicePstReferencePixel(String tile) {
+        // the pixel at the pole, as in the PST reprojection of the BBDR products
+        final double width = AlbedoInversionConstants.SEAICE_TILE_WIDTH;
+        final double height = AlbedoInversionConstants.SEAICE_TILE_HEIGHT;
         if (tile.equals("180W_90W")) {
-            eastingNorthing = new double[]{-width, width};
+            return new double[]{width, height};
         } else if (tile.equals("90W_0")) {
-            eastingNorthing = new double[]{-width, 0.0};
+            return new double[]{width, 0.0};
         } else if (tile.equals("0_90E")) {
-            eastingNorthing = new double[]{0.0, 0.0};
+            return new double[]{0.0, 0.0};
         } else if (tile.equals("90E_180E")) {
-            eastingNorthing = new double[]{0.0, width};
+            return new double[]{0.0, height};
         }
-        return eastingNorthing;
+        return null;
     }
 
     private static List<String> getBrdfProductNames(String[] brdfFiles, boolean snow) {
@@ -0,0 +1,228 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Catalogue of the input files of one directory, used to select the BBDR products of the daily accumulation
+ * and the daily accumulator files of the inversion.
+ * <p/>
+ * Directory layouts:
+ * <pre>
+ *   BBDR products:        BBDR/MERIS/2005/h18v04/Meris_20050101_080302_BBDR.dim
+ *   accumulator years:    BBDR/AccumulatorFiles/2005
+ *   accumulator files:    BBDR/AccumulatorFiles/2005/h18v04/NoSnow/matrices_2005001.bin
+ * </pre>
+ * The names of all files of a directory are taken from its {@link DirectoryListing} and indexed by date
+ * (BBDR products) resp. year and DoY (accumulator files), so each directory is only listed again after files have
+ * been added, removed or renamed in it.
+ *
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class InputCatalogue {
+
+    static final String[] BBDR_SENSORS = new String[]{"MERIS", "AATSR", "VGT"};
+
+    // accept only years between 1995 and 2010 (GA period), but allow 2011 wings!
+    private static final int FIRST_YEAR = 1995;
+    private static final int LAST_YEAR = 2011;
+
+    // e.g. matrices_2005123.bin
+    private static final Pattern ACCUMULATOR_PATTERN = Pattern.compile("matrices_(\\d{4})(\\d{3})\\.(bin|dim)");
+    private static final Pattern DIGITS_PATTERN = Pattern.compile("\\d{8,}");
+
+    private static final Map<String, InputCatalogue> cache = new HashMap<String, InputCatalogue>();
+
+    private final File dir;
+    private final DirectoryListing listing;
+    private final Map<String, List<String>> bbdrNamesByDate;
+    private final Map<String, String> accumulatorNames;
+
+    private InputCatalogue(File dir, DirectoryListing listing) {
+        this.dir = dir;
+        this.listing = listing;
+
+        bbdrNamesByDate = new HashMap<String, List<String>>();
+        accumulatorNames = new HashMap<String, String>();
+        for (String name : listing.getFileNames()) {
+            if (name.endsWith(".dim") || name.endsWith(".nc")) {
+                // index each date the name contains
+                Set<String> dates = new HashSet<String>();
+                final Matcher matcher = DIGITS_PATTERN.matcher(name);
+                while (matcher.find()) {
+                    for (int i = matcher.start(); i + 8 <= matcher.end(); i++) {
+                        dates.add(name.substring(i, i + 8));
+                    }
+                }
+                for (String date : dates) {
+                    List<String> dateNames = bbdrNamesByDate.get(date);
+                    if (dateNames == null) {
+                        dateNames = new ArrayList<String>();
+                        bbdrNamesByDate.put(date, dateNames);
+                    }
+                    dateNames.add(name);
+                }
+            }
+            final Matcher matcher = ACCUMULATOR_PATTERN.matcher(name);
+            if (matcher.matches()) {
+                accumulatorNames.put(getAccumulatorKey(Integer.parseInt(matcher.group(1)),
+                                                       Integer.parseInt(matcher.group(2)),
+                                                       matcher.group(3).equals("bin")), name);
+            }
+        }
+    }
+
+    /**
+     * Returns the catalogue of the given directory. The catalogue is cached per directory and is
+     * rebuilt if the directory has been modified since.
+     *
+     * @param dir - the directory
+     * @return InputCatalogue
+     */
+    public static synchronized InputCatalogue getInstance(File dir) {
+        final DirectoryListing listing = DirectoryListing.getInstance(dir);
+        final String key = dir.getAbsolutePath();
+        InputCatalogue catalogue = cache.get(key);
+        if (catalogue == null || catalogue.listing != listing) {
+            catalogue = new InputCatalogue(dir, listing);
+            cache.put(key, catalogue);
+        }
+        return catalogue;
+    }
+
+    /**
+     * @param bbdrRootDir - BBDR root directory
+     * @param tile        - MODIS tile
+     * @param year        - year
+     * @param doy         - day of year
+     * @return List<File> - the BBDR products of the day, MERIS first, then AATSR, then VGT, each in alphabetical order
+     */
+    public static List<File> getDailyBbdrFiles(String bbdrRootDir, String tile, int year, int doy) {
+        final String daystring = AlbedoInversionUtils.getDateFromDoy(year, doy);
+        List<File> bbdrFiles = new ArrayList<File>();
+        for (String sensor : BBDR_SENSORS) {
+            final File bbdrDir = new File(bbdrRootDir + File.separator + sensor + File.separator + year +
+                                                  File.separator + tile);
+            bbdrFiles.addAll(getInstance(bbdrDir).getBbdrFiles(daystring));
+        }
+        return bbdrFiles;
+    }
+
+    /**
+     * Selects the daily accumulator files within the wings around the given DoY.
+     *
+     * @param accumulatorRootDir - root directory of the daily accumulators, with one subdirectory per year
+     * @param isBinaryFiles      - whether to select the binary ('.bin') or the Dimap ('.dim') accumulators
+     * @param doy                - day of year
+     * @param year               - year
+     * @param tile               - MODIS tile
+     * @param wings              - wings in days
+     * @param computeSnow        - whether to select the 'Snow' accumulators
+     * @param computeSeaice      - whether to select the seaice accumulators
+     * @return List<String> - the file names in alphabetical order
+     */
+    public static List<String> getAccumulatorFileNames(String accumulatorRootDir, boolean isBinaryFiles, int doy,
+                                                       int year, String tile, int wings,
+                                                       boolean computeSnow, boolean computeSeaice) {
+        List<String> fileNames = new ArrayList<String>();
+
+        doy = doy + 8; // 'MODIS day'
+
+        for (String yearName : getInstance(new File(accumulatorRootDir)).getFileNames()) {
+            final int thisYear = getYear(yearName);
+            if (thisYear < 0) {
+                continue;
+            }
+            String thisYearsRootDir;
+            if (computeSnow) {
+                thisYearsRootDir = accumulatorRootDir.concat(
+                        File.separator + thisYear + File.separator + tile + File.separator + "Snow");
+            } else if (computeSeaice) {
+                thisYearsRootDir = accumulatorRootDir.concat(
+                        File.separator + thisYear + File.separator + tile);
+            } else {
+                thisYearsRootDir = accumulatorRootDir.concat(
+                        File.separator + thisYear + File.separator + tile + File.separator + "NoSnow");
+            }
+
+            // DoY range of this year within the wings
+            int firstDoy;
+            int lastDoy;
+            if (thisYear < year) {
+                //    # Left wing
+                if (365 + (doy - wings) > 366) {
+                    continue;
+                }
+                firstDoy = 366 + (doy - wings);
+                lastDoy = 999;
+            } else if (thisYear == year) {
+                //    # Center
+                firstDoy = doy - wings;
+                lastDoy = doy + wings - 1;
+            } else {
+                //    # Right wing
+                if ((doy + wings) - 365 <= 0) {
+                    continue;
+                }
+                firstDoy = 0;
+                lastDoy = doy + wings - 365;
+            }
+
+            final InputCatalogue catalogue = getInstance(new File(thisYearsRootDir));
+            for (int dayOfYear = Math.max(firstDoy, 0); dayOfYear <= Math.min(lastDoy, 999); dayOfYear++) {
+                final String name = catalogue.accumulatorNames.get(getAccumulatorKey(thisYear, dayOfYear,
+                                                                                     isBinaryFiles));
+                if (name != null) {
+                    fileNames.add(name);
+                }
+            }
+        }
+
+        Collections.sort(fileNames);
+        return fileNames;
+    }
+
+    /**
+     * @param daystring - date as yyyyMMdd
+     * @return List<File> - the BBDR products ('.dim' or '.nc') whose name contains the date, in alphabetical order
+     */
+    public List<File> getBbdrFiles(String daystring) {
+        List<File> bbdrFiles = new ArrayList<File>();
+        final List<String> dateNames = bbdrNamesByDate.get(daystring);
+        if (dateNames != null) {
+            for (String name : dateNames) {
+                bbdrFiles.add(new File(dir, name));
+            }
+        }
+        return bbdrFiles;
+    }
+
+    /**
+     * @return List<String> - the names of all files of the directory in alphabetical order
+     */
+    public List<String> getFileNames() {
+        return listing.getFileNames();
+    }
+
+    private static int getYear(String name) {
+        for (int year = FIRST_YEAR; year <= LAST_YEAR; year++) {
+            if (name.equals(Integer.toString(year))) {
+                return year;
+            }
+        }
+        return -1;
+    }
+
+    private static String getAccumulatorKey(int year, int doy, boolean isBinaryFile) {
+        return year + "/" + doy + (isBinaryFile ? "/bin" : "/dim");
+    }
+}
@@ -0,0 +1,78 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.gpf.Operator;
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.framework.gpf.OperatorSpi;
+import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
+import org.esa.beam.framework.gpf.annotations.Parameter;
+import org.esa.beam.util.logging.BeamLogManager;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Utility operator to convert existing daily and full accumulator files of a directory, which still hold
+ * the full M, to the packed layout (see {@link AccumulatorLayout}). Files which are already packed are skipped.
+ *
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+@OperatorMetadata(alias = "ga.inversion.packacc",
+                  description = "Utility operator to convert accumulator files to the packed layout.",
+                  version = "1.0",
+                  copyright = "(C) 2013 by Brockmann Consult")
+public class PackAccumulatorFilesOp extends Operator {
+
+    @Parameter(description = "Directory with the accumulator files (matrices_*.bin)")
+    private File accumulatorDir;
+
+    @Parameter(description = "raster width", defaultValue = "1200")
+    private int rasterWidth;
+
+    @Parameter(description = "raster height", defaultValue = "1200")
+    private int rasterHeight;
+
+    @Override
+    public void initialize() throws OperatorException {
+        final Logger logger = BeamLogManager.getSystemLogger();
+
+        final File[] accumulatorFiles = accumulatorDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("matrices_") && name.endsWith(".bin");
+            }
+        });
+        if (accumulatorFiles == null) {
+            throw new OperatorException("Cannot list accumulator directory " + accumulatorDir.getPath());
+        }
+
+        int numPacked = 0;
+        for (File accumulatorFile : accumulatorFiles) {
+            try {
+                if (IOUtils.packAccumulatorFile(accumulatorFile, rasterWidth, rasterHeight)) {
+                    numPacked++;
+                }
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Could not pack accumulator file " + accumulatorFile.getPath() + ": " +
+                        e.getMessage());
+            }
+        }
+        logger.log(Level.INFO, "Packed " + numPacked + " of " + accumulatorFiles.length + " accumulator files in " +
+                accumulatorDir.getPath());
+
+        // no target product needed here, define a dummy product
+        Product dummyProduct = new Product("dummy", "dummy", 1, 1);
+        setTargetProduct(dummyProduct);
+    }
+
+    public static class Spi extends OperatorSpi {
+
+        public Spi() {
+            super(PackAccumulatorFilesOp.class);
+        }
+    }
+}
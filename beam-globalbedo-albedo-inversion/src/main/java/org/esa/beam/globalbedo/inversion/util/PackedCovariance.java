@@ -0,0 +1,112 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+import org.esa.beam.globalbedo.inversion.AlbedoInversionConstants;
+
+/**
+ * Forms of the 9x9 BRDF parameter covariance matrix C as used for the albedo uncertainties, evaluated on the
+ * 45 upper triangle terms of C in the packed order of the inversion products (row by row, see
+ * {@link AccumulatorLayout#getMIndex}).
+ * <p/>
+ * The coefficient vectors of the albedo uncertainties are non-zero in the three parameters of one broad band only.
+ * {@link #getBlockForm} therefore sums over these three parameters only, but in the same order as the
+ * Jama products m * C * m^T used before, so the results are bit-identical to these as long as C is finite
+ * (see {@link #isFinite}, {@link #getFullForm} otherwise).
+ *
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class PackedCovariance {
+
+    public static final int N = AccumulatorLayout.N;
+    public static final int NUM_TERMS = AccumulatorLayout.NUM_M_BANDS;
+
+    private static final int NUM_PARAMETERS = AlbedoInversionConstants.NUM_ALBEDO_PARAMETERS;
+
+    // packed index of C_ij, for row-major i * N + j
+    private static final int[] PACKED_INDEX = new int[N * N];
+
+    static {
+        for (int i = 0; i < N; i++) {
+            for (int j = 0; j < N; j++) {
+                PACKED_INDEX[i * N + j] = AccumulatorLayout.getMIndex(i, j);
+            }
+        }
+    }
+
+    private PackedCovariance() {
+    }
+
+    /**
+     * @param c - the packed covariance terms, length 45
+     * @return boolean - true if all terms are finite
+     */
+    public static boolean isFinite(double[] c) {
+        for (int i = 0; i < NUM_TERMS; i++) {
+            if (Double.isNaN(c[i]) || Double.isInfinite(c[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fills the full symmetric matrix.
+     *
+     * @param c - the packed covariance terms, length 45
+     * @param m - the matrix as row-major array, length 81
+     */
+    public static void unpack(double[] c, double[] m) {
+        for (int i = 0; i < N * N; i++) {
+            m[i] = c[PACKED_INDEX[i]];
+        }
+    }
+
+    /**
+     * Computes (u_a * C * u_b^T) for the 9-vectors u_a, u_b holding the coefficients k in the parameters of
+     * broad band a resp. b and zeros elsewhere. For finite C this is bit-identical to the Jama product.
+     *
+     * @param c - the packed covariance terms, length 45
+     * @param a - broad band of the left vector (0..2)
+     * @param b - broad band of the right vector (0..2)
+     * @param k - the coefficients of the three BRDF model parameters
+     * @return double - the form
+     */
+    public static double getBlockForm(double[] c, int a, int b, double[] k) {
+        double s = 0.0;
+        for (int jj = 0; jj < NUM_PARAMETERS; jj++) {
+            final int j = NUM_PARAMETERS * b + jj;
+            double t = 0.0;
+            for (int kk = 0; kk < NUM_PARAMETERS; kk++) {
+                t += k[kk] * c[PACKED_INDEX[(NUM_PARAMETERS * a + kk) * N + j]];
+            }
+            s += t * k[jj];
+        }
+        return s;
+    }
+
+    /**
+     * Same as {@link #getBlockForm}, but summing over all nine parameters as the Jama product does. Needed for
+     * non-finite C only, where the zero coefficients contribute NaN terms (0 * NaN, 0 * Infinity).
+     *
+     * @param c - the packed covariance terms, length 45
+     * @param a - broad band of the left vector (0..2)
+     * @param b - broad band of the right vector (0..2)
+     * @param k - the coefficients of the three BRDF model parameters
+     * @return double - the form
+     */
+    public static double getFullForm(double[] c, int a, int b, double[] k) {
+        double s = 0.0;
+        for (int j = 0; j < N; j++) {
+            double t = 0.0;
+            for (int i = 0; i < N; i++) {
+                t += getCoefficient(i, a, k) * c[PACKED_INDEX[i * N + j]];
+            }
+            s += t * getCoefficient(j, b, k);
+        }
+        return s;
+    }
+
+    private static double getCoefficient(int parameter, int band, double[] k) {
+        return parameter / NUM_PARAMETERS == band ? k[parameter % NUM_PARAMETERS] : 0.0;
+    }
+}
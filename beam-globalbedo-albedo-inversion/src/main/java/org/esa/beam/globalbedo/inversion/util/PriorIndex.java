@@ -0,0 +1,185 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Index of the prior files of one prior tile directory, keyed by tile, DoY (or month) and snow mode.
+ * <p/>
+ * Recognized layouts:
+ * <pre>
+ *   MODIS priors:      kernel.001.006.h18v04.Snow.1km.nc, Kernels.105.005.h18v04.backGround.NoSnow.hdr
+ *   new MODIS priors:  Kernels.001.005.h18v04.background.SnowAndNoSnow.nc
+ *   ADAM priors:       Adam.nr.200506.h23v06.dim
+ * </pre>
+ * The index is built from the {@link DirectoryListing} of the prior directory, so the directory is only listed again
+ * after files have been added, removed or renamed.
+ *
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class PriorIndex {
+
+    // e.g. kernel.001.006.h18v04.Snow.1km.nc, Kernels.001.005.h18v04.backGround.SnowAndNoSnow.hdr
+    private static final Pattern KERNELS_PATTERN =
+            Pattern.compile("([^.]+)\\.(\\d{3})\\.[^.]+\\.(h\\d{2}v\\d{2})\\.(?:.*\\.)?(SnowAndNoSnow|NoSnow|Snow)" +
+                                    "\\.(?:1km\\.nc|nc|hdr)");
+    // e.g. Adam.nr.200506.h23v06.dim
+    private static final Pattern ADAM_PATTERN =
+            Pattern.compile("adam\\.nr\\.(\\d{4})(\\d{2})\\.(h\\d{2}v\\d{2})\\.dim", Pattern.CASE_INSENSITIVE);
+
+    private static final Map<String, PriorIndex> cache = new HashMap<String, PriorIndex>();
+
+    private final File priorDir;
+    private final DirectoryListing listing;
+    private final List<Entry> entries;
+
+    private PriorIndex(File priorDir, DirectoryListing listing) {
+        this.priorDir = priorDir;
+        this.listing = listing;
+
+        entries = new ArrayList<Entry>();
+        for (String fileName : listing.getFileNames()) {
+            final Entry entry = parse(fileName);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        Collections.sort(entries);
+    }
+
+    /**
+     * Returns the index of the given prior directory. The index is cached per directory and is
+     * rebuilt if the directory has been modified since.
+     *
+     * @param priorDir - the prior directory
+     * @return PriorIndex
+     */
+    public static synchronized PriorIndex getInstance(File priorDir) {
+        final DirectoryListing listing = DirectoryListing.getInstance(priorDir);
+        final String key = priorDir.getAbsolutePath();
+        PriorIndex index = cache.get(key);
+        if (index == null || index.listing != listing) {
+            index = new PriorIndex(priorDir, listing);
+            cache.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * @param priorFileNamePrefix - prefix of the prior file name, e.g. 'kernel' (may be null)
+     * @param tile                - the MODIS tile (may be null)
+     * @param doy                 - day of year
+     * @param snowMode            - 'Snow', 'NoSnow' or 'SnowAndNoSnow'
+     * @return File - the first prior file in alphabetical order matching the given properties, or null
+     */
+    public File findPrior(String priorFileNamePrefix, String tile, int doy, String snowMode) {
+        final List<File> priorFiles = findPriors(priorFileNamePrefix, tile, doy, snowMode);
+        return priorFiles.isEmpty() ? null : priorFiles.get(0);
+    }
+
+    /**
+     * @param priorFileNamePrefix - prefix of the prior file name, e.g. 'kernel' (may be null)
+     * @param tile                - the MODIS tile (may be null)
+     * @param doy                 - day of year
+     * @param snowMode            - 'Snow', 'NoSnow' or 'SnowAndNoSnow'
+     * @return List<File> - all prior files matching the given properties, in alphabetical order
+     */
+    public List<File> findPriors(String priorFileNamePrefix, String tile, int doy, String snowMode) {
+        List<File> priorFiles = new ArrayList<File>();
+        for (Entry entry : entries) {
+            if (!entry.isAdam && entry.doy == doy && entry.snowMode.equals(snowMode) &&
+                    (priorFileNamePrefix == null || entry.prefix.equals(priorFileNamePrefix)) &&
+                    (tile == null || entry.tile.equals(tile))) {
+                priorFiles.add(new File(priorDir, entry.fileName));
+            }
+        }
+        return priorFiles;
+    }
+
+    /**
+     * @param tile  - the MODIS tile (may be null)
+     * @param year  - year
+     * @param month - month (1..12)
+     * @return File - the ADAM prior file for the given month, or null
+     */
+    public File findAdamPrior(String tile, int year, int month) {
+        for (Entry entry : entries) {
+            if (entry.isAdam && entry.year == year && entry.month == month &&
+                    (tile == null || entry.tile.equalsIgnoreCase(tile))) {
+                return new File(priorDir, entry.fileName);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return List<String> - the names of all recognized prior files in alphabetical order
+     */
+    public List<String> getFileNames() {
+        List<String> fileNames = new ArrayList<String>(entries.size());
+        for (Entry entry : entries) {
+            fileNames.add(entry.fileName);
+        }
+        return fileNames;
+    }
+
+    static Entry parse(String fileName) {
+        Matcher matcher = KERNELS_PATTERN.matcher(fileName);
+        if (matcher.matches()) {
+            return new Entry(fileName, matcher.group(1), matcher.group(3), Integer.parseInt(matcher.group(2)),
+                             matcher.group(4));
+        }
+        matcher = ADAM_PATTERN.matcher(fileName);
+        if (matcher.matches()) {
+            return new Entry(fileName, matcher.group(3), Integer.parseInt(matcher.group(1)),
+                             Integer.parseInt(matcher.group(2)));
+        }
+        return null;
+    }
+
+    static class Entry implements Comparable<Entry> {
+
+        final String fileName;
+        final String prefix;
+        final String tile;
+        final boolean isAdam;
+        final int doy;
+        final String snowMode;
+        final int year;
+        final int month;
+
+        Entry(String fileName, String prefix, String tile, int doy, String snowMode) {
+            this.fileName = fileName;
+            this.prefix = prefix;
+            this.tile = tile;
+            this.isAdam = false;
+            this.doy = doy;
+            this.snowMode = snowMode;
+            this.year = -1;
+            this.month = -1;
+        }
+
+        Entry(String fileName, String tile, int year, int month) {
+            this.fileName = fileName;
+            this.prefix = null;
+            this.tile = tile;
+            this.isAdam = true;
+            this.doy = -1;
+            this.snowMode = null;
+            this.year = year;
+            this.month = month;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return fileName.compareTo(other.fileName);
+        }
+    }
+}
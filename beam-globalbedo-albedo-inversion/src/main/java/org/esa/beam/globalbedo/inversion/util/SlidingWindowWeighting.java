@@ -0,0 +1,164 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+/**
+ * Recursive (sliding window) form of the temporal weighting exp(-|t - T|/HALFLIFE) used in the full accumulation.
+ * <p/>
+ * The kernel splits into a past half (t <= T) and a future half (t > T). For a sequence of target times T_0 < T_1 < ...
+ * the past sums follow P_i = exp(-(T_i - T_(i-1))/HALFLIFE) * P_(i-1) + B_i and the future sums follow
+ * F_i = exp(-(T_(i+1) - T_i)/HALFLIFE) * F_(i+1) + C_i, where B and C only hold the samples which enter (or leave)
+ * the wings window at target i. Each sample therefore contributes to at most four buckets instead of to all
+ * target DoYs, and the weighted sums for all targets are P_i + F_i.
+ * <p/>
+ * This requires that the targets for which a sample is accumulated form a contiguous range of target indices.
+ *
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class SlidingWindowWeighting {
+
+    public static final int NUM_EVENTS = 4;
+
+    private final int[] targetTimes;
+    private final double halfLife;
+    private final double[] pastDecay;
+    private final double[] futureDecay;
+
+    /**
+     * @param targetTimes - the target times in days (e.g. 365*year + doy), strictly increasing
+     * @param halfLife    - the half life of the weighting in days
+     */
+    public SlidingWindowWeighting(int[] targetTimes, double halfLife) {
+        this.targetTimes = targetTimes;
+        this.halfLife = halfLife;
+        final int numTargets = targetTimes.length;
+        pastDecay = new double[numTargets];
+        futureDecay = new double[numTargets];
+        for (int i = 0; i < numTargets; i++) {
+            if (i > 0 && targetTimes[i] <= targetTimes[i - 1]) {
+                throw new IllegalArgumentException("Target times must be strictly increasing.");
+            }
+            pastDecay[i] = i > 0 ? Math.exp(-(targetTimes[i] - targetTimes[i - 1]) / halfLife) : 0.0;
+            futureDecay[i] = i < numTargets - 1 ? Math.exp(-(targetTimes[i + 1] - targetTimes[i]) / halfLife) : 0.0;
+        }
+    }
+
+    public int getNumTargets() {
+        return targetTimes.length;
+    }
+
+    /**
+     * Checks if the targets for which a sample is accumulated form a contiguous range.
+     *
+     * @param accumulate - accumulation flags per target
+     * @return boolean
+     */
+    public static boolean isContiguous(boolean[] accumulate) {
+        int i = 0;
+        while (i < accumulate.length && !accumulate[i]) {
+            i++;
+        }
+        while (i < accumulate.length && accumulate[i]) {
+            i++;
+        }
+        while (i < accumulate.length) {
+            if (accumulate[i]) {
+                return false;
+            }
+            i++;
+        }
+        return true;
+    }
+
+    /**
+     * Provides the bucket contributions of a sample. A sample value x has to be added as weight[k] * x to the
+     * past buckets (k = 0, 1) or future buckets (k = 2, 3) at target index index[k], if index[k] >= 0.
+     *
+     * @param sampleTime - the sample time in days (same reference as the target times)
+     * @param accumulate - accumulation flags per target, must be contiguous
+     * @param index      - the target indices of the four events (output, length 4)
+     * @param weight     - the weights of the four events (output, length 4)
+     */
+    public void getEvents(int sampleTime, boolean[] accumulate, int[] index, double[] weight) {
+        for (int k = 0; k < NUM_EVENTS; k++) {
+            index[k] = -1;
+            weight[k] = 0.0;
+        }
+        int first = -1;
+        int last = -1;
+        for (int i = 0; i < accumulate.length; i++) {
+            if (accumulate[i]) {
+                if (first < 0) {
+                    first = i;
+                }
+                last = i;
+            }
+        }
+        if (first < 0) {
+            return;
+        }
+
+        // first target for which the sample is in the past
+        int firstPast = 0;
+        while (firstPast < targetTimes.length && targetTimes[firstPast] < sampleTime) {
+            firstPast++;
+        }
+
+        final int pastStart = Math.max(first, firstPast);
+        if (pastStart <= last) {
+            index[0] = pastStart;
+            weight[0] = getWeight(sampleTime, pastStart);
+            if (last + 1 < targetTimes.length) {
+                index[1] = last + 1;
+                weight[1] = -getWeight(sampleTime, last + 1);
+            }
+        }
+        final int futureEnd = Math.min(last, firstPast - 1);
+        if (first <= futureEnd) {
+            index[2] = futureEnd;
+            weight[2] = getWeight(sampleTime, futureEnd);
+            if (first - 1 >= 0) {
+                index[3] = first - 1;
+                weight[3] = -getWeight(sampleTime, first - 1);
+            }
+        }
+    }
+
+    /**
+     * Runs the past and future recursions on the bucket sums, the result is stored in the past buckets.
+     *
+     * @param past   - past buckets [target][element], contains the weighted sums on return
+     * @param future - future buckets [target][element], destroyed on return
+     * @param offset - first element
+     * @param length - number of elements
+     */
+    public void combine(double[][] past, double[][] future, int offset, int length) {
+        final int numTargets = targetTimes.length;
+        for (int i = 1; i < numTargets; i++) {
+            final double decay = pastDecay[i];
+            final double[] previous = past[i - 1];
+            final double[] current = past[i];
+            for (int j = offset; j < offset + length; j++) {
+                current[j] += decay * previous[j];
+            }
+        }
+        for (int i = numTargets - 2; i >= 0; i--) {
+            final double decay = futureDecay[i];
+            final double[] next = future[i + 1];
+            final double[] current = future[i];
+            for (int j = offset; j < offset + length; j++) {
+                current[j] += decay * next[j];
+            }
+        }
+        for (int i = 0; i < numTargets; i++) {
+            final double[] p = past[i];
+            final double[] f = future[i];
+            for (int j = offset; j < offset + length; j++) {
+                p[j] += f[j];
+            }
+        }
+    }
+
+    private double getWeight(int sampleTime, int targetIndex) {
+        return Math.exp(-Math.abs(sampleTime - targetTimes[targetIndex]) / halfLife);
+    }
+}
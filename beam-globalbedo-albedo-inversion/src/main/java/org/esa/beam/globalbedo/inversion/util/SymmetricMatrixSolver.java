@@ -0,0 +1,265 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+/**
+ * Allocation-free solver for the small symmetric positive-definite systems (9x9 in GlobAlbedo) of the
+ * albedo inversion. One factorization provides the solution, the inverse and the determinant, so
+ * the LU decomposition, inverse() and solve() calls on Jama matrices are no longer needed per pixel.
+ * <p/>
+ * Matrices are given as row-major double arrays of length n*n. A Cholesky factorization is used if
+ * the matrix is positive definite. Otherwise we fall back to an LU decomposition with partial pivoting,
+ * which is non-singular in the same cases as the Jama LUDecomposition used before.
+ * <p/>
+ * Instances are NOT thread safe, they are meant as reusable per-thread workspaces.
+ *
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class SymmetricMatrixSolver {
+
+    private final int n;
+    private final double[] factor;
+    private final int[] pivot;
+    private final double[] column;
+
+    private boolean cholesky;
+    private boolean nonsingular;
+    private double logDeterminant;
+    private int determinantSign;
+
+    public SymmetricMatrixSolver(int n) {
+        this.n = n;
+        factor = new double[n * n];
+        pivot = new int[n];
+        column = new double[n];
+    }
+
+    public int getDimension() {
+        return n;
+    }
+
+    /**
+     * Factorizes the given matrix. The input array is not modified.
+     *
+     * @param m - the symmetric matrix as row-major array of length n*n
+     * @return boolean - true if the matrix is non-singular
+     */
+    public boolean decompose(double[] m) {
+        System.arraycopy(m, 0, factor, 0, n * n);
+        cholesky = decomposeCholesky();
+        if (!cholesky) {
+            System.arraycopy(m, 0, factor, 0, n * n);
+            decomposeLU();
+        }
+        return nonsingular;
+    }
+
+    /**
+     * Factorizes the given matrix with the LU decomposition only, so that the non-singularity is decided
+     * exactly as by Jama.LUDecomposition. The input array is not modified.
+     *
+     * @param m - the matrix as row-major array of length n*n
+     * @return boolean - true if the matrix is non-singular
+     */
+    public boolean decomposeWithLU(double[] m) {
+        System.arraycopy(m, 0, factor, 0, n * n);
+        cholesky = false;
+        decomposeLU();
+        return nonsingular;
+    }
+
+    public boolean isNonsingular() {
+        return nonsingular;
+    }
+
+    /**
+     * @return boolean - true if the last matrix was positive definite and thus Cholesky-factorized
+     */
+    public boolean isPositiveDefinite() {
+        return cholesky;
+    }
+
+    /**
+     * @return double - the determinant of the last decomposed matrix (0.0 if singular)
+     */
+    public double getDeterminant() {
+        if (!nonsingular) {
+            return 0.0;
+        }
+        return determinantSign * Math.exp(logDeterminant);
+    }
+
+    /**
+     * @return double - the logarithm of the absolute determinant of the last decomposed matrix
+     */
+    public double getLogDeterminant() {
+        return nonsingular ? logDeterminant : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Solves m * x = b for the last decomposed matrix.
+     *
+     * @param b - right hand side, length n
+     * @param x - the solution, length n (may be the same array as b)
+     */
+    public void solve(double[] b, double[] x) {
+        if (!nonsingular) {
+            throw new IllegalStateException("Matrix is singular.");
+        }
+        if (cholesky) {
+            System.arraycopy(b, 0, x, 0, n);
+            solveCholesky(x);
+        } else {
+            for (int i = 0; i < n; i++) {
+                column[i] = b[pivot[i]];
+            }
+            solveLU(column);
+            System.arraycopy(column, 0, x, 0, n);
+        }
+    }
+
+    /**
+     * Computes the inverse of the last decomposed matrix.
+     *
+     * @param inverse - the result as row-major array of length n*n
+     */
+    public void invert(double[] inverse) {
+        if (!nonsingular) {
+            throw new IllegalStateException("Matrix is singular.");
+        }
+        for (int j = 0; j < n; j++) {
+            for (int i = 0; i < n; i++) {
+                column[i] = 0.0;
+            }
+            if (cholesky) {
+                column[j] = 1.0;
+                solveCholesky(column);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    column[i] = (pivot[i] == j) ? 1.0 : 0.0;
+                }
+                solveLU(column);
+            }
+            for (int i = 0; i < n; i++) {
+                inverse[i * n + j] = column[i];
+            }
+        }
+    }
+
+    private boolean decomposeCholesky() {
+        logDeterminant = 0.0;
+        determinantSign = 1;
+        for (int j = 0; j < n; j++) {
+            double d = factor[j * n + j];
+            for (int k = 0; k < j; k++) {
+                d -= factor[j * n + k] * factor[j * n + k];
+            }
+            if (!(d > 0.0)) {
+                return false;
+            }
+            final double ljj = Math.sqrt(d);
+            factor[j * n + j] = ljj;
+            logDeterminant += 2.0 * Math.log(ljj);
+            for (int i = j + 1; i < n; i++) {
+                double s = factor[i * n + j];
+                for (int k = 0; k < j; k++) {
+                    s -= factor[i * n + k] * factor[j * n + k];
+                }
+                factor[i * n + j] = s / ljj;
+            }
+        }
+        nonsingular = true;
+        return true;
+    }
+
+    private void solveCholesky(double[] x) {
+        // L * y = b
+        for (int i = 0; i < n; i++) {
+            double s = x[i];
+            for (int k = 0; k < i; k++) {
+                s -= factor[i * n + k] * x[k];
+            }
+            x[i] = s / factor[i * n + i];
+        }
+        // L^T * x = y
+        for (int i = n - 1; i >= 0; i--) {
+            double s = x[i];
+            for (int k = i + 1; k < n; k++) {
+                s -= factor[k * n + i] * x[k];
+            }
+            x[i] = s / factor[i * n + i];
+        }
+    }
+
+    private void decomposeLU() {
+        // Doolittle with partial pivoting, same scheme as in Jama.LUDecomposition
+        for (int i = 0; i < n; i++) {
+            pivot[i] = i;
+        }
+        determinantSign = 1;
+        for (int j = 0; j < n; j++) {
+            for (int i = 0; i < n; i++) {
+                final int kmax = Math.min(i, j);
+                double s = 0.0;
+                for (int k = 0; k < kmax; k++) {
+                    s += factor[i * n + k] * factor[k * n + j];
+                }
+                factor[i * n + j] -= s;
+            }
+            int p = j;
+            for (int i = j + 1; i < n; i++) {
+                if (Math.abs(factor[i * n + j]) > Math.abs(factor[p * n + j])) {
+                    p = i;
+                }
+            }
+            if (p != j) {
+                for (int k = 0; k < n; k++) {
+                    final double t = factor[p * n + k];
+                    factor[p * n + k] = factor[j * n + k];
+                    factor[j * n + k] = t;
+                }
+                final int t = pivot[p];
+                pivot[p] = pivot[j];
+                pivot[j] = t;
+                determinantSign = -determinantSign;
+            }
+            if (factor[j * n + j] != 0.0) {
+                for (int i = j + 1; i < n; i++) {
+                    factor[i * n + j] /= factor[j * n + j];
+                }
+            }
+        }
+
+        nonsingular = true;
+        logDeterminant = 0.0;
+        for (int j = 0; j < n; j++) {
+            final double ujj = factor[j * n + j];
+            if (ujj == 0.0) {
+                nonsingular = false;
+                return;
+            }
+            if (ujj < 0.0) {
+                determinantSign = -determinantSign;
+            }
+            logDeterminant += Math.log(Math.abs(ujj));
+        }
+    }
+
+    private void solveLU(double[] x) {
+        // L * y = P * b (unit diagonal)
+        for (int i = 0; i < n; i++) {
+            double s = x[i];
+            for (int k = 0; k < i; k++) {
+                s -= factor[i * n + k] * x[k];
+            }
+            x[i] = s;
+        }
+        // U * x = y
+        for (int i = n - 1; i >= 0; i--) {
+            double s = x[i];
+            for (int k = i + 1; k < n; k++) {
+                s -= factor[i * n + k] * x[k];
+            }
+            x[i] = s / factor[i * n + i];
+        }
+    }
+}
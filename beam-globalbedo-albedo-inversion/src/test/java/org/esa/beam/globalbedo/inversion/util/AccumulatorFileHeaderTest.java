@@ -0,0 +1,284 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+import junit.framework.TestCase;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class AccumulatorFileHeaderTest extends TestCase {
+
+    private static final int NUM_BANDS = 3;
+    private static final int WIDTH = 120;
+    private static final int HEIGHT = 7;
+
+    private File file;
+    private float[][][] values;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("matrices_", ".bin");
+        values = new float[NUM_BANDS][WIDTH][HEIGHT];
+        for (int i = 0; i < NUM_BANDS; i++) {
+            for (int j = 0; j < WIDTH; j++) {
+                for (int k = 0; k < HEIGHT; k++) {
+                    values[i][j][k] = 1000.0f * i + 10.0f * j + 0.1f * k;
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testWriteAndReadBlocks() throws IOException {
+        IOUtils.writeFloatArrayToFile(file, 2005, 121, values);
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel ch = raf.getChannel();
+            final AccumulatorFileHeader header = AccumulatorFileHeader.read(ch, 1, 1, 1);
+            assertFalse(header.isLegacy());
+            assertEquals(WIDTH, header.getWidth());
+            assertEquals(HEIGHT, header.getHeight());
+            assertEquals(NUM_BANDS, header.getNumBands());
+            assertEquals(2005, header.getYear());
+            assertEquals(121, header.getDoy());
+            assertEquals(header.getFileSize(), ch.size());
+
+            // random access to lines 50..99 of band 2
+            final float[][] block = new float[50][HEIGHT];
+            IOUtils.readAccumulatorBlock(ch, header, ByteBuffer.allocateDirect(50 * HEIGHT * 4), 2, 50, 50, block);
+            for (int j = 0; j < 50; j++) {
+                for (int k = 0; k < HEIGHT; k++) {
+                    assertEquals(values[2][50 + j][k], block[j][k], 0.0f);
+                }
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    public void testLegacyFile() throws IOException {
+        writeRawFloats(file, values);
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel ch = raf.getChannel();
+            final AccumulatorFileHeader header = AccumulatorFileHeader.read(ch, WIDTH, HEIGHT, NUM_BANDS);
+            assertTrue(header.isLegacy());
+            assertEquals(0L, header.getDataOffset());
+
+            final float[][] band = new float[WIDTH][HEIGHT];
+            IOUtils.readAccumulatorBlock(ch, header, ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4), 1, 0, WIDTH, band);
+            assertEquals(values[1][77][3], band[77][3], 0.0f);
+        } finally {
+            raf.close();
+        }
+    }
+
+    public void testTruncatedFileFailsFast() throws IOException {
+        IOUtils.writeFloatArrayToFile(file, 2005, 121, values);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 4);
+            AccumulatorFileHeader.read(raf.getChannel(), WIDTH, HEIGHT, NUM_BANDS);
+            fail("EOFException expected");
+        } catch (EOFException expected) {
+            // ok
+        } finally {
+            raf.close();
+        }
+    }
+
+    public void testFileWithZeroedHeaderIsNoLegacyFile() throws IOException {
+        IOUtils.writeFloatArrayToFile(file, 2005, 121, values);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel ch = raf.getChannel();
+            final AccumulatorFileHeader header = AccumulatorFileHeader.read(ch, WIDTH, HEIGHT, NUM_BANDS);
+            raf.seek(0);
+            raf.write(new byte[(int) header.getDataOffset()]);
+            AccumulatorFileHeader.read(ch, WIDTH, HEIGHT, NUM_BANDS);
+            fail("IOException expected");
+        } catch (IOException expected) {
+            // ok
+        } finally {
+            raf.close();
+        }
+    }
+
+    public void testCorruptBlockIsDetected() throws IOException {
+        IOUtils.writeFloatArrayToFile(file, 2005, 121, values);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel ch = raf.getChannel();
+            final AccumulatorFileHeader header = AccumulatorFileHeader.read(ch, WIDTH, HEIGHT, NUM_BANDS);
+            raf.seek(header.getPosition(1, 10));
+            raf.writeFloat(-1.0f);
+
+            final float[][] band = new float[WIDTH][HEIGHT];
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4);
+            IOUtils.readAccumulatorBlock(ch, header, buffer, 0, 0, WIDTH, band);
+            try {
+                IOUtils.readAccumulatorBlock(ch, header, buffer, 1, 0, WIDTH, band);
+                fail("IOException expected");
+            } catch (IOException expected) {
+                // ok
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    public void testSparseFile() throws IOException {
+        // samples only in lines 30..39, pixels 2 and 5
+        final float[][][] sparseValues = new float[NUM_BANDS][WIDTH][HEIGHT];
+        for (int i = 0; i < NUM_BANDS; i++) {
+            for (int j = 30; j < 40; j++) {
+                sparseValues[i][j][2] = values[i][j][2];
+                sparseValues[i][j][5] = values[i][j][5];
+            }
+        }
+        sparseValues[0][30][2] = 0.0f;  // still valid, other bands have samples
+        IOUtils.writeFloatArrayToFile(file, 2005, 121, sparseValues);
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel ch = raf.getChannel();
+            final AccumulatorFileHeader header = AccumulatorFileHeader.read(ch, WIDTH, HEIGHT, NUM_BANDS);
+            assertTrue(header.isSparse());
+            assertEquals(AccumulatorFileHeader.VERSION_SPARSE, header.getVersion());
+            assertEquals(20, header.getPixelIndex().getNumValid());
+            assertEquals(header.getFileSize(), ch.size());
+            assertTrue(ch.size() < header.getDataOffset() + NUM_BANDS * WIDTH * HEIGHT * 4L);
+            assertEquals(0L, header.getLineOffset(30));
+            assertEquals(20L, header.getLineOffset(40));
+
+            final float[][] block = new float[50][HEIGHT];
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(50 * HEIGHT * 4);
+            IOUtils.readAccumulatorBlock(ch, header, buffer, 1, 25, 50, block);
+            for (int j = 0; j < 50; j++) {
+                for (int k = 0; k < HEIGHT; k++) {
+                    assertEquals(sparseValues[1][25 + j][k], block[j][k], 0.0f);
+                }
+            }
+            IOUtils.readAccumulatorBlock(ch, header, buffer, 0, 50, 50, block);
+            for (int j = 0; j < 50; j++) {
+                for (int k = 0; k < HEIGHT; k++) {
+                    assertEquals(0.0f, block[j][k], 0.0f);
+                }
+            }
+
+            raf.seek(header.getPosition(2, 35));
+            raf.writeFloat(-1.0f);
+            try {
+                IOUtils.readAccumulatorBlock(ch, header, buffer, 2, 0, 50, block);
+                fail("IOException expected");
+            } catch (IOException expected) {
+                // ok
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    public void testCompressedFile() throws IOException {
+        // few distinct values, as in accumulators of few samples
+        final float[][][] compressibleValues = new float[NUM_BANDS][WIDTH][HEIGHT];
+        for (int i = 0; i < NUM_BANDS; i++) {
+            for (int j = 0; j < WIDTH; j++) {
+                for (int k = 0; k < HEIGHT; k++) {
+                    compressibleValues[i][j][k] = 1.0f + i + (j / 30) + (k % 2) * 0.5f;
+                }
+            }
+        }
+        final AccumulatorFileHeader writeHeader =
+                AccumulatorFileHeader.create(WIDTH, HEIGHT, NUM_BANDS, 2005, 121,
+                                             AccumulatorFileHeader.DEFAULT_LINES_PER_BLOCK, null, true);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel ch = raf.getChannel();
+            ch.truncate(0);
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4);
+            for (int i = 0; i < NUM_BANDS; i++) {
+                // in whole blocks, in two parts
+                IOUtils.writeAccumulatorBlock(ch, writeHeader, buffer, i, 0, 50, compressibleValues[i]);
+                final float[][] rest = new float[WIDTH - 50][];
+                System.arraycopy(compressibleValues[i], 50, rest, 0, rest.length);
+                IOUtils.writeAccumulatorBlock(ch, writeHeader, buffer, i, 50, rest.length, rest);
+            }
+            writeHeader.write(ch);
+            try {
+                IOUtils.writeAccumulatorBlock(ch, writeHeader, buffer, 0, 25, 50, compressibleValues[0]);
+                fail("IllegalArgumentException expected");
+            } catch (IllegalArgumentException expected) {
+                // ok
+            }
+        } finally {
+            raf.close();
+        }
+
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel ch = raf.getChannel();
+            final AccumulatorFileHeader header = AccumulatorFileHeader.read(ch, WIDTH, HEIGHT, NUM_BANDS);
+            assertTrue(header.isCompressed());
+            assertFalse(header.isSparse());
+            assertEquals(AccumulatorFileHeader.VERSION_COMPRESSED, header.getVersion());
+            assertEquals(header.getFileSize(), ch.size());
+            assertTrue(ch.size() < header.getDataOffset() + NUM_BANDS * WIDTH * HEIGHT * 4L);
+
+            // across block boundaries
+            final float[][] block = new float[70][HEIGHT];
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(70 * HEIGHT * 4);
+            IOUtils.readAccumulatorBlock(ch, header, buffer, 1, 40, 70, block);
+            for (int j = 0; j < 70; j++) {
+                for (int k = 0; k < HEIGHT; k++) {
+                    assertEquals(compressibleValues[1][40 + j][k], block[j][k], 0.0f);
+                }
+            }
+
+            // a corrupt block does not affect the other blocks
+            final long position = header.getBlockPosition(2, 1) + header.getBlockLength(2, 1) / 2;
+            raf.seek(position);
+            final int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0xff);
+            IOUtils.readAccumulatorBlock(ch, header, buffer, 2, 0, 50, block);
+            try {
+                IOUtils.readAccumulatorBlock(ch, header, buffer, 2, 60, 10, block);
+                fail("IOException expected");
+            } catch (IOException expected) {
+                // ok
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void writeRawFloats(File file, float[][][] values) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            for (float[][] band : values) {
+                for (float[] line : band) {
+                    for (float value : line) {
+                        raf.writeFloat(value);
+                    }
+                }
+            }
+        } finally {
+            raf.close();
+        }
+    }
+}
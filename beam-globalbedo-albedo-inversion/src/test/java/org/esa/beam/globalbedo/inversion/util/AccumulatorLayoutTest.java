@@ -0,0 +1,107 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+import junit.framework.TestCase;
+import org.esa.beam.globalbedo.inversion.FullAccumulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class AccumulatorLayoutTest extends TestCase {
+
+    private static final int WIDTH = 4;
+    private static final int HEIGHT = 3;
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("matrices_full_", ".bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testPackedIndices() {
+        assertEquals(45, AccumulatorLayout.NUM_M_BANDS);
+        assertEquals(56, AccumulatorLayout.NUM_BANDS);
+        assertEquals(92, AccumulatorLayout.NUM_BANDS_UNPACKED);
+
+        int index = 0;
+        for (int i = 0; i < AccumulatorLayout.N; i++) {
+            for (int j = i; j < AccumulatorLayout.N; j++) {
+                assertEquals(index, AccumulatorLayout.getMIndex(i, j));
+                assertEquals(index, AccumulatorLayout.getMIndex(j, i));
+                index++;
+            }
+        }
+        assertEquals(AccumulatorLayout.V_INDEX, index);
+        assertEquals(IOUtils.getDailyAccumulatorBandNames().length, AccumulatorLayout.NUM_BANDS);
+    }
+
+    public void testFileBandsOfUnpackedFile() throws IOException {
+        final AccumulatorFileHeader header = writeLegacyFullAccumulator();
+        assertFalse(header.isPackedLayout());
+        assertEquals(0, AccumulatorLayout.getFileBand(header, 0));
+        assertEquals(8, AccumulatorLayout.getFileBand(header, 8));
+        assertEquals(10, AccumulatorLayout.getFileBand(header, AccumulatorLayout.getMIndex(1, 1)));
+        assertEquals(80, AccumulatorLayout.getFileBand(header, AccumulatorLayout.getMIndex(8, 8)));
+        assertEquals(81, AccumulatorLayout.getFileBand(header, AccumulatorLayout.V_INDEX));
+        assertEquals(90, AccumulatorLayout.getFileBand(header, AccumulatorLayout.E_INDEX));
+        assertEquals(91, AccumulatorLayout.getFileBand(header, AccumulatorLayout.MASK_INDEX));
+        assertEquals(92, AccumulatorLayout.getFileBand(header, AccumulatorLayout.NUM_BANDS));
+    }
+
+    public void testPackLegacyFullAccumulator() throws IOException {
+        writeLegacyFullAccumulator();
+
+        assertTrue(IOUtils.packAccumulatorFile(file, WIDTH, HEIGHT));
+        assertFalse(IOUtils.packAccumulatorFile(file, WIDTH, HEIGHT));
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final AccumulatorFileHeader header = AccumulatorFileHeader.read(raf.getChannel(), 1, 1, 1);
+            assertTrue(header.isPackedLayout());
+            assertEquals(AccumulatorLayout.NUM_BANDS + 1, header.getNumBands());
+            assertEquals(header.getFileSize(), raf.length());
+        } finally {
+            raf.close();
+        }
+
+        final FullAccumulator fullAcc = IOUtils.getAccumulatorFromBinaryFile(2005, 121, file.getPath(),
+                                                                             WIDTH, HEIGHT, true);
+        final float[][][] sumMatrices = fullAcc.getSumMatrices();
+        assertEquals(AccumulatorLayout.NUM_BANDS, sumMatrices.length);
+        assertEquals(getLegacyValue(2 * 9 + 5, 3, 1), sumMatrices[AccumulatorLayout.getMIndex(2, 5)][3][1], 0.0f);
+        assertEquals(getLegacyValue(81 + 4, 0, 2), sumMatrices[AccumulatorLayout.V_INDEX + 4][0][2], 0.0f);
+        assertEquals(getLegacyValue(91, 1, 1), sumMatrices[AccumulatorLayout.MASK_INDEX][1][1], 0.0f);
+        assertEquals(getLegacyValue(92, 2, 0), fullAcc.getDaysToTheClosestSample()[2][0], 0.0f);
+    }
+
+    private AccumulatorFileHeader writeLegacyFullAccumulator() throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            for (int band = 0; band < AccumulatorLayout.NUM_BANDS_UNPACKED + 1; band++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    for (int y = 0; y < HEIGHT; y++) {
+                        raf.writeFloat(getLegacyValue(band, x, y));
+                    }
+                }
+            }
+            return AccumulatorFileHeader.read(raf.getChannel(), WIDTH, HEIGHT, AccumulatorLayout.NUM_BANDS_UNPACKED + 1);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static float getLegacyValue(int band, int x, int y) {
+        return 100.0f * band + 10.0f * x + y;
+    }
+}
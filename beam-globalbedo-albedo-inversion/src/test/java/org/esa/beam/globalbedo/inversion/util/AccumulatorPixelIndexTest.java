@@ -0,0 +1,101 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+import junit.framework.TestCase;
+
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class AccumulatorPixelIndexTest extends TestCase {
+
+    private static final int WIDTH = 5;
+    private static final int HEIGHT = 130;
+
+    private AccumulatorPixelIndex pixelIndex;
+
+    @Override
+    protected void setUp() throws Exception {
+        pixelIndex = new AccumulatorPixelIndex(WIDTH, HEIGHT);
+        pixelIndex.setValid(1, 0);
+        pixelIndex.setValid(1, 64);
+        pixelIndex.setValid(1, 129);
+        pixelIndex.setValid(3, 70);
+    }
+
+    public void testGetIndex() {
+        assertEquals(4, pixelIndex.getNumValid());
+        assertEquals(0, pixelIndex.getIndex(1, 0));
+        assertEquals(1, pixelIndex.getIndex(1, 64));
+        assertEquals(2, pixelIndex.getIndex(1, 129));
+        assertEquals(3, pixelIndex.getIndex(3, 70));
+        assertEquals(-1, pixelIndex.getIndex(1, 1));
+        assertEquals(-1, pixelIndex.getIndex(0, 0));
+
+        assertEquals(0, pixelIndex.getLineOffset(0));
+        assertEquals(0, pixelIndex.getLineOffset(1));
+        assertEquals(3, pixelIndex.getLineOffset(2));
+        assertEquals(4, pixelIndex.getLineOffset(WIDTH));
+
+        // offsets are updated when pixels are added
+        pixelIndex.setValid(0, 5);
+        assertEquals(5, pixelIndex.getNumValid());
+        assertEquals(4, pixelIndex.getIndex(3, 70));
+    }
+
+    public void testIsEmpty() {
+        assertTrue(pixelIndex.isEmpty(new Rectangle(0, 0, 1, HEIGHT)));
+        assertTrue(pixelIndex.isEmpty(new Rectangle(1, 1, 3, 63)));
+        assertTrue(pixelIndex.isEmpty(new Rectangle(2, 0, 1, HEIGHT)));
+        assertTrue(pixelIndex.isEmpty(new Rectangle(3, 71, 2, 59)));
+        assertFalse(pixelIndex.isEmpty(new Rectangle(1, 1, 3, 64)));
+        assertFalse(pixelIndex.isEmpty(new Rectangle(3, 70, 1, 1)));
+        assertFalse(pixelIndex.isEmpty(new Rectangle(0, 0, WIDTH, HEIGHT)));
+    }
+
+    public void testCompactAndExpand() {
+        final float[] line = new float[HEIGHT];
+        line[0] = 1.0f;
+        line[1] = 7.0f;  // not valid, dropped
+        line[64] = 2.0f;
+        line[129] = 3.0f;
+        final FloatBuffer values = FloatBuffer.allocate(3);
+        pixelIndex.compact(1, line, values);
+        assertEquals(3, values.position());
+        assertEquals(2.0f, values.get(1), 0.0f);
+
+        values.flip();
+        final float[] expanded = new float[HEIGHT];
+        expanded[1] = 9.0f;
+        pixelIndex.expand(1, values, expanded);
+        assertEquals(1.0f, expanded[0], 0.0f);
+        assertEquals(0.0f, expanded[1], 0.0f);
+        assertEquals(2.0f, expanded[64], 0.0f);
+        assertEquals(3.0f, expanded[129], 0.0f);
+    }
+
+    public void testWriteAndRead() {
+        final ByteBuffer buffer = ByteBuffer.allocate(AccumulatorPixelIndex.getSize(WIDTH, HEIGHT));
+        pixelIndex.write(buffer);
+        assertFalse(buffer.hasRemaining());
+        buffer.flip();
+        final AccumulatorPixelIndex readIndex = AccumulatorPixelIndex.read(buffer, WIDTH, HEIGHT);
+        assertEquals(4, readIndex.getNumValid());
+        assertTrue(readIndex.isValid(3, 70));
+        assertFalse(readIndex.isValid(3, 71));
+    }
+
+    public void testIsSparseWorthwhile() {
+        assertTrue(pixelIndex.isSparseWorthwhile(56));
+        final AccumulatorPixelIndex fullIndex = new AccumulatorPixelIndex(WIDTH, HEIGHT);
+        for (int x = 0; x < WIDTH; x++) {
+            for (int y = 0; y < HEIGHT; y++) {
+                fullIndex.setValid(x, y);
+            }
+        }
+        assertFalse(fullIndex.isSparseWorthwhile(56));
+    }
+}
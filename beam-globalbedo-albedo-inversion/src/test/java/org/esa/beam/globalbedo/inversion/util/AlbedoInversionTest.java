@@ -186,6 +186,26 @@ public class AlbedoInversionTest extends TestCase {
         assertEquals(95.2706, sunZenith, 0.3);
     }
 
+    public void testGetModisTileLatitude() {
+        // tile rows are 10 degrees high, taken at the upper pixel edge (pixel position (x, y)) as the geocoding does
+        final double pixelSize = 10.0 / 1200;
+        assertEquals(50.0, AlbedoInversionUtils.getModisTileLatitude("h18v04", 0), 1.E-6);
+        assertEquals(40.0 + pixelSize, AlbedoInversionUtils.getModisTileLatitude("h18v04", 1199), 1.E-6);
+        assertEquals(0.0 + pixelSize, AlbedoInversionUtils.getModisTileLatitude("h25v08", 1199), 1.E-6);
+        assertEquals(-90.0 + pixelSize, AlbedoInversionUtils.getModisTileLatitude("h17v17", 1199), 1.E-6);
+    }
+
+    public void testComputeModisTileSzaPerRow() {
+        final double[] sza = AlbedoInversionUtils.computeModisTileSzaPerRow("h18v04", 1200, 129);
+        assertEquals(1200, sza.length);
+        for (int y = 0; y < sza.length; y += 100) {
+            final double lat = AlbedoInversionUtils.getModisTileLatitude("h18v04", y);
+            assertEquals(AlbedoInversionUtils.computeSza(lat, 129), sza[y], 1.E-10);
+        }
+        // doy 129, lat 50 deg, see testGetSunZenith
+        assertEquals(32.823, sza[0], 0.3);
+    }
+
     public void testCheckSummandForNan() throws Exception {
         double summand = Double.NaN;
         double value = 10.0;
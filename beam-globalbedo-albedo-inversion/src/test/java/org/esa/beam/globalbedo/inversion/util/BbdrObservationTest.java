@@ -0,0 +1,120 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+import Jama.Matrix;
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class BbdrObservationTest extends TestCase {
+
+    private static final int N = AccumulatorLayout.N;
+
+    public void testInvert() {
+        final Random random = new Random(7);
+        final double[] c = new double[BbdrObservation.NUM_COVARIANCE_TERMS];
+        final double[] inverse = new double[BbdrObservation.NUM_COVARIANCE_TERMS];
+        for (int n = 0; n < 100; n++) {
+            BbdrObservation.getCovariance(getRandomSd(random), getRandomCorrelation(random), c);
+            assertTrue(BbdrObservation.invert(c, inverse));
+            final Matrix product = getSymmetricMatrix(c).times(getSymmetricMatrix(inverse));
+            for (int i = 0; i < 3; i++) {
+                for (int j = 0; j < 3; j++) {
+                    assertEquals(i == j ? 1.0 : 0.0, product.get(i, j), 1.E-9);
+                }
+            }
+        }
+
+        // no SD in the NIR
+        BbdrObservation.getCovariance(new double[]{0.05, 0.0, 0.02}, new double[]{0.3, 0.2, 0.1}, c);
+        assertFalse(BbdrObservation.invert(c, inverse));
+    }
+
+    public void testAccumulateIsSameAsJamaProducts() {
+        final Random random = new Random(42);
+        final double[] sums = new double[AccumulatorLayout.NUM_BANDS];
+        Matrix sumM = new Matrix(N, N);
+        Matrix sumV = new Matrix(N, 1);
+        Matrix sumE = new Matrix(1, 1);
+        final double[] c = new double[BbdrObservation.NUM_COVARIANCE_TERMS];
+        final double[] inverseC = new double[BbdrObservation.NUM_COVARIANCE_TERMS];
+        final double[] kernels = new double[N];
+        final double[] bbdr = new double[3];
+        for (int n = 0; n < 50; n++) {
+            BbdrObservation.getCovariance(getRandomSd(random), getRandomCorrelation(random), c);
+            for (int b = 0; b < 3; b++) {
+                kernels[3 * b] = 1.0;
+                kernels[3 * b + 1] = -0.5 + random.nextDouble();
+                kernels[3 * b + 2] = -2.0 + random.nextDouble();
+                bbdr[b] = 0.01 + 0.5 * random.nextDouble();
+            }
+            assertTrue(BbdrObservation.invert(c, inverseC));
+            BbdrObservation.accumulate(inverseC, kernels, bbdr, sums);
+
+            // as formerly in DailyAccumulationOp
+            final Matrix k = new Matrix(3, N);
+            for (int b = 0; b < 3; b++) {
+                for (int p = 0; p < 3; p++) {
+                    k.set(b, 3 * b + p, kernels[3 * b + p]);
+                }
+            }
+            final Matrix bbdrMatrix = new Matrix(3, 1);
+            for (int b = 0; b < 3; b++) {
+                bbdrMatrix.set(b, 0, bbdr[b]);
+            }
+            final Matrix jamaInverseC = getSymmetricMatrix(c).inverse();
+            final Matrix inverseCDiag = new Matrix(3, 3);
+            for (int b = 0; b < 3; b++) {
+                inverseCDiag.set(b, b, jamaInverseC.get(b, b));
+            }
+            sumM = sumM.plus(k.transpose().times(jamaInverseC).times(k));
+            sumV = sumV.plus(k.transpose().times(inverseCDiag).times(bbdrMatrix));
+            sumE = sumE.plus(bbdrMatrix.transpose().times(jamaInverseC).times(bbdrMatrix));
+        }
+
+        // the accumulators are stored as float
+        for (int i = 0; i < N; i++) {
+            for (int j = i; j < N; j++) {
+                assertEquals((float) sumM.get(i, j), (float) sums[AccumulatorLayout.getMIndex(i, j)],
+                             1.E-6 * Math.abs(sumM.get(i, j)));
+            }
+            assertEquals((float) sumV.get(i, 0), (float) sums[AccumulatorLayout.V_INDEX + i],
+                         1.E-6 * Math.abs(sumV.get(i, 0)));
+        }
+        assertEquals((float) sumE.get(0, 0), (float) sums[AccumulatorLayout.E_INDEX], 1.E-6 * sumE.get(0, 0));
+        assertEquals(0.0, sums[AccumulatorLayout.MASK_INDEX], 0.0);
+    }
+
+    private static double[] getRandomSd(Random random) {
+        return new double[]{
+                0.005 + 0.1 * random.nextDouble(),
+                0.005 + 0.1 * random.nextDouble(),
+                0.005 + 0.1 * random.nextDouble()
+        };
+    }
+
+    private static double[] getRandomCorrelation(Random random) {
+        return new double[]{
+                -0.5 + random.nextDouble(),
+                -0.5 + random.nextDouble(),
+                -0.5 + random.nextDouble()
+        };
+    }
+
+    private static Matrix getSymmetricMatrix(double[] c) {
+        final Matrix m = new Matrix(3, 3);
+        m.set(0, 0, c[0]);
+        m.set(0, 1, c[1]);
+        m.set(0, 2, c[2]);
+        m.set(1, 1, c[3]);
+        m.set(1, 2, c[4]);
+        m.set(2, 2, c[5]);
+        m.set(1, 0, c[1]);
+        m.set(2, 0, c[2]);
+        m.set(2, 1, c[4]);
+        return m;
+    }
+}
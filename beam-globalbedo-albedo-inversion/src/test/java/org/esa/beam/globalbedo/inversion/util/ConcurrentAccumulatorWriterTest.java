@@ -0,0 +1,215 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+import junit.framework.TestCase;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class ConcurrentAccumulatorWriterTest extends TestCase {
+
+    private static final int NUM_BANDS = 3;
+    private static final int WIDTH = 120;
+    private static final int HEIGHT = 7;
+    private static final int TILE_HEIGHT = 3;
+
+    private File file;
+    private File expectedFile;
+    private float[][][] values;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("matrices_", ".bin");
+        expectedFile = File.createTempFile("matrices_expected_", ".bin");
+        values = new float[NUM_BANDS][WIDTH][HEIGHT];
+        for (int i = 0; i < NUM_BANDS; i++) {
+            for (int j = 0; j < WIDTH; j++) {
+                for (int k = 0; k < HEIGHT; k++) {
+                    values[i][j][k] = 1000.0f * i + 10.0f * j + 0.1f * k;
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        expectedFile.delete();
+        new File(file.getPath() + ".part").delete();
+        new File(file.getPath() + ".deflated.part").delete();
+    }
+
+    public void testConcurrentTilesGiveSameFileAsArrayWriter() throws Exception {
+        IOUtils.writeFloatArrayToFile(expectedFile, 2005, 121, values);
+
+        final ConcurrentAccumulatorWriter writer = new ConcurrentAccumulatorWriter(file, createHeader());
+        final Thread[] threads = new Thread[(HEIGHT + TILE_HEIGHT - 1) / TILE_HEIGHT];
+        final boolean[] completed = new boolean[threads.length];
+        final Exception[] errors = new Exception[threads.length];
+        // tiles in reverse order, each in its own thread
+        for (int t = 0; t < threads.length; t++) {
+            final int index = t;
+            final int y0 = (threads.length - 1 - t) * TILE_HEIGHT;
+            final Rectangle rectangle = new Rectangle(0, y0, WIDTH, Math.min(TILE_HEIGHT, HEIGHT - y0));
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        writeTile(writer, rectangle);
+                        completed[index] = writer.commit(rectangle);
+                    } catch (IOException e) {
+                        errors[index] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        int numCompleted = 0;
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+            assertNull(errors[t]);
+            if (completed[t]) {
+                numCompleted++;
+            }
+        }
+
+        assertEquals(1, numCompleted);
+        assertTrue(writer.isFinished());
+        assertFalse(new File(file.getPath() + ".part").exists());
+        assertTrue(Arrays.equals(readBytes(expectedFile), readBytes(file)));
+    }
+
+    public void testMostlyEmptyTilesGiveSparseFile() throws Exception {
+        for (int i = 0; i < NUM_BANDS; i++) {
+            for (int j = 0; j < WIDTH; j++) {
+                for (int k = 0; k < HEIGHT; k++) {
+                    if (j % 10 != 0 || k != 3) {
+                        values[i][j][k] = 0.0f;
+                    }
+                }
+            }
+        }
+        IOUtils.writeFloatArrayToFile(expectedFile, 2005, 121, values);
+
+        final ConcurrentAccumulatorWriter writer = new ConcurrentAccumulatorWriter(file, createHeader());
+        final Rectangle rectangle = new Rectangle(0, 0, WIDTH, HEIGHT);
+        writeTile(writer, rectangle);
+        assertTrue(writer.commit(rectangle));
+
+        assertFalse(new File(file.getPath() + ".part").exists());
+        assertFalse(new File(file.getPath() + ".sparse.part").exists());
+        assertTrue(file.length() < NUM_BANDS * WIDTH * HEIGHT * 4L);
+        assertTrue(Arrays.equals(readBytes(expectedFile), readBytes(file)));
+    }
+
+    public void testCompressedFileHasSameValues() throws Exception {
+        final ConcurrentAccumulatorWriter writer = new ConcurrentAccumulatorWriter(file, createHeader(), true);
+        final Rectangle rectangle = new Rectangle(0, 0, WIDTH, HEIGHT);
+        writeTile(writer, rectangle);
+        assertTrue(writer.commit(rectangle));
+
+        assertFalse(new File(file.getPath() + ".part").exists());
+        assertFalse(new File(file.getPath() + ".deflated.part").exists());
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel ch = raf.getChannel();
+            final AccumulatorFileHeader header = AccumulatorFileHeader.read(ch, WIDTH, HEIGHT, NUM_BANDS);
+            assertTrue(header.isCompressed());
+            final float[][] band = new float[WIDTH][HEIGHT];
+            for (int i = 0; i < NUM_BANDS; i++) {
+                IOUtils.readAccumulatorBlock(ch, header, ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4), i, 0, WIDTH,
+                                             band);
+                for (int j = 0; j < WIDTH; j++) {
+                    assertTrue(Arrays.equals(values[i][j], band[j]));
+                }
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    public void testRecommittedTileIsCountedOnce() throws Exception {
+        final ConcurrentAccumulatorWriter writer = new ConcurrentAccumulatorWriter(file, createHeader());
+        final Rectangle upper = new Rectangle(0, 0, WIDTH, 4);
+        writeTile(writer, upper);
+        assertFalse(writer.commit(upper));
+        assertFalse(writer.commit(upper));
+        assertFalse(writer.isFinished());
+
+        final Rectangle lower = new Rectangle(0, 4, WIDTH, HEIGHT - 4);
+        writeTile(writer, lower);
+        assertTrue(writer.commit(lower));
+        assertTrue(writer.isFinished());
+    }
+
+    public void testCloseDeletesIncompleteFile() throws Exception {
+        file.delete();
+        final ConcurrentAccumulatorWriter writer = new ConcurrentAccumulatorWriter(file, createHeader());
+        final Rectangle upper = new Rectangle(0, 0, WIDTH, 4);
+        writeTile(writer, upper);
+        writer.commit(upper);
+        writer.close();
+
+        assertFalse(file.exists());
+        assertFalse(new File(file.getPath() + ".part").exists());
+    }
+
+    public void testPreviousFileIsKeptUntilReplaced() throws Exception {
+        final byte[] previous = {1, 2, 3, 4};
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(previous);
+        } finally {
+            out.close();
+        }
+
+        ConcurrentAccumulatorWriter writer = new ConcurrentAccumulatorWriter(file, createHeader());
+        final Rectangle upper = new Rectangle(0, 0, WIDTH, 4);
+        writeTile(writer, upper);
+        writer.commit(upper);
+        writer.close();
+        assertTrue(Arrays.equals(previous, readBytes(file)));
+
+        writer = new ConcurrentAccumulatorWriter(file, createHeader());
+        final Rectangle all = new Rectangle(0, 0, WIDTH, HEIGHT);
+        writeTile(writer, all);
+        assertTrue(writer.commit(all));
+        assertTrue(file.length() > previous.length);
+        assertFalse(new File(file.getPath() + ".part").exists());
+    }
+
+    private AccumulatorFileHeader createHeader() {
+        return AccumulatorFileHeader.create(WIDTH, HEIGHT, NUM_BANDS, 2005, 121,
+                                            AccumulatorFileHeader.DEFAULT_LINES_PER_BLOCK);
+    }
+
+    private void writeTile(ConcurrentAccumulatorWriter writer, Rectangle rectangle) {
+        for (int i = 0; i < NUM_BANDS; i++) {
+            for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+                for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                    writer.setValue(i, x, y, values[i][x][y]);
+                }
+            }
+        }
+    }
+
+    private static byte[] readBytes(File f) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            final byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return bytes;
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package org.esa.beam.globalbedo.inversion.util;
 
 import junit.framework.TestCase;
+import org.esa.beam.framework.datamodel.CrsGeoCoding;
+import org.esa.beam.framework.datamodel.GeoPos;
+import org.esa.beam.framework.datamodel.PixelPos;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -506,4 +509,28 @@ public class IOTest extends TestCase {
         assertEquals("h25v06", tileDirs[1].getName());
 
     }
+
+    public void testGetSeaicePstGeocoding() throws Exception {
+        assertNull(IOUtils.getSeaicePstGeocoding("h18v04"));
+
+        // the pole is at the reference pixel of the quadrant
+        CrsGeoCoding geoCoding = IOUtils.getSeaicePstGeocoding("180W_90W");
+        assertNotNull(geoCoding);
+        double[] mapPos = new double[2];
+        geoCoding.getImageToMapTransform().transform(new double[]{2250.0, 2250.0}, 0, mapPos, 0, 1);
+        assertEquals(89.999999999, mapPos[0], 1.E-6);
+        assertEquals(0.0, mapPos[1], 1.E-6);
+        GeoPos geoPos = geoCoding.getGeoPos(new PixelPos(2250.0f, 2250.0f), null);
+        assertEquals(90.0, geoPos.getLat(), 1.E-3);
+
+        geoCoding = IOUtils.getSeaicePstGeocoding("0_90E");
+        assertNotNull(geoCoding);
+        geoCoding.getImageToMapTransform().transform(new double[]{0.0, 0.0}, 0, mapPos, 0, 1);
+        assertEquals(89.999999999, mapPos[0], 1.E-6);
+        assertEquals(0.0, mapPos[1], 1.E-6);
+        // 1 km per pixel, northing decreases downwards
+        geoCoding.getImageToMapTransform().transform(new double[]{1.0, 1.0}, 0, mapPos, 0, 1);
+        assertEquals(1089.999999999, mapPos[0], 1.E-6);
+        assertEquals(-1000.0, mapPos[1], 1.E-6);
+    }
 }
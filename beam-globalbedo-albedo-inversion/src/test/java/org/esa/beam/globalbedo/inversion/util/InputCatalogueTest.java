@@ -0,0 +1,164 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class InputCatalogueTest extends TestCase {
+
+    private File rootDir;
+    private File listingCacheDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        listingCacheDir = File.createTempFile("listings_", "");
+        listingCacheDir.delete();
+        System.setProperty(DirectoryListing.CACHE_DIR_PROPERTY, listingCacheDir.getPath());
+
+        rootDir = File.createTempFile("catalogue_", "");
+        rootDir.delete();
+        rootDir.mkdir();
+
+        createFiles("BBDR/MERIS/2005/h18v04",
+                    "Meris_20050101_080302_BBDR.dim",
+                    "Meris_20050101_101645_BBDR.dim",
+                    "Meris_20050101_101645_BBDR.data",
+                    "Meris_20050102_075433_BBDR.dim");
+        createFiles("BBDR/AATSR/2005/h18v04",
+                    "AATSR_20050101_BBDR.nc",
+                    "AATSR_20050102_BBDR.nc");
+
+        createFiles("AccumulatorFiles/2004/h18v04/NoSnow",
+                    "matrices_2004300.bin",
+                    "matrices_2004360.bin",
+                    "matrices_2004366.bin");
+        createFiles("AccumulatorFiles/2005/h18v04/NoSnow",
+                    "matrices_2005001.bin",
+                    "matrices_2005001.dim",
+                    "matrices_2005009.bin",
+                    "matrices_2005050.bin",
+                    "matrices_2005361.bin",
+                    "blubb.txt");
+        createFiles("AccumulatorFiles/2006/h18v04/NoSnow",
+                    "matrices_2006001.bin",
+                    "matrices_2006030.bin");
+        createFiles("AccumulatorFiles/2005/h18v04/Snow",
+                    "matrices_2005005.bin");
+        createFiles("AccumulatorFiles/1994/h18v04/NoSnow",
+                    "matrices_1994365.bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        System.clearProperty(DirectoryListing.CACHE_DIR_PROPERTY);
+        delete(rootDir);
+        delete(listingCacheDir);
+    }
+
+    public void testGetDailyBbdrFiles() {
+        final String bbdrRootDir = new File(rootDir, "BBDR").getPath();
+        final List<File> bbdrFiles = InputCatalogue.getDailyBbdrFiles(bbdrRootDir, "h18v04", 2005, 1);
+        assertEquals(3, bbdrFiles.size());
+        // MERIS first
+        assertEquals("Meris_20050101_080302_BBDR.dim", bbdrFiles.get(0).getName());
+        assertEquals("Meris_20050101_101645_BBDR.dim", bbdrFiles.get(1).getName());
+        assertEquals("AATSR_20050101_BBDR.nc", bbdrFiles.get(2).getName());
+        assertEquals(new File(bbdrRootDir, "AATSR/2005/h18v04/AATSR_20050101_BBDR.nc"), bbdrFiles.get(2));
+
+        assertEquals(2, InputCatalogue.getDailyBbdrFiles(bbdrRootDir, "h18v04", 2005, 2).size());
+        assertEquals(0, InputCatalogue.getDailyBbdrFiles(bbdrRootDir, "h18v04", 2005, 3).size());
+        assertEquals(0, InputCatalogue.getDailyBbdrFiles(bbdrRootDir, "h18v05", 2005, 1).size());
+    }
+
+    public void testGetAccumulatorFileNames() {
+        final String accumulatorRootDir = new File(rootDir, "AccumulatorFiles").getPath();
+
+        // left wing and center
+        List<String> fileNames = InputCatalogue.getAccumulatorFileNames(accumulatorRootDir, true, 1, 2005, "h18v04",
+                                                                        16, false, false);
+        assertEquals(4, fileNames.size());
+        assertEquals("matrices_2004360.bin", fileNames.get(0));
+        assertEquals("matrices_2004366.bin", fileNames.get(1));
+        assertEquals("matrices_2005001.bin", fileNames.get(2));
+        assertEquals("matrices_2005009.bin", fileNames.get(3));
+
+        // center and right wing
+        fileNames = InputCatalogue.getAccumulatorFileNames(accumulatorRootDir, true, 353, 2005, "h18v04",
+                                                           16, false, false);
+        assertEquals(2, fileNames.size());
+        assertEquals("matrices_2005361.bin", fileNames.get(0));
+        assertEquals("matrices_2006001.bin", fileNames.get(1));
+
+        // Dimap accumulators
+        fileNames = InputCatalogue.getAccumulatorFileNames(accumulatorRootDir, false, 1, 2005, "h18v04",
+                                                           16, false, false);
+        assertEquals(1, fileNames.size());
+        assertEquals("matrices_2005001.dim", fileNames.get(0));
+
+        // snow
+        fileNames = InputCatalogue.getAccumulatorFileNames(accumulatorRootDir, true, 1, 2005, "h18v04",
+                                                           16, true, false);
+        assertEquals(1, fileNames.size());
+        assertEquals("matrices_2005005.bin", fileNames.get(0));
+
+        // same as the file name selection of IOUtils
+        assertEquals(InputCatalogue.getAccumulatorFileNames(accumulatorRootDir, true, 41, 2005, "h18v04",
+                                                            90, false, false),
+                     IOUtils.getAlbedoInputProductFileNames(accumulatorRootDir, true, 41, 2005, "h18v04",
+                                                            90, false, false));
+    }
+
+    public void testListingIsPersistedAndRefreshed() throws IOException {
+        final File bbdrDir = new File(rootDir, "BBDR/MERIS/2005/h18v04");
+        final long lastModified = System.currentTimeMillis() - 60000L;
+        assertTrue(bbdrDir.setLastModified(lastModified));
+        InputCatalogue catalogue = InputCatalogue.getInstance(bbdrDir);
+        assertEquals(4, catalogue.getFileNames().size());
+        assertTrue(DirectoryListing.getListingFile(bbdrDir).isFile());
+        // nothing is written to the data directory
+        assertEquals(4, bbdrDir.list().length);
+
+        // a new product changes the modification time of the directory
+        new File(bbdrDir, "Meris_20050103_080302_BBDR.dim").createNewFile();
+        assertTrue(bbdrDir.setLastModified(lastModified + 30000L));
+        catalogue = InputCatalogue.getInstance(bbdrDir);
+        assertEquals(5, catalogue.getFileNames().size());
+        assertEquals(1, catalogue.getBbdrFiles("20050103").size());
+    }
+
+    public void testListingOfOtherModificationTimeIsNotUsed() throws IOException {
+        final File bbdrDir = new File(rootDir, "BBDR/MERIS/2005/h18v04");
+        final long lastModified = System.currentTimeMillis() - 60000L;
+        assertTrue(bbdrDir.setLastModified(lastModified));
+        assertEquals(4, InputCatalogue.getInstance(bbdrDir).getFileNames().size());
+
+        // even a directory which looks older than the persisted listing is listed again
+        new File(bbdrDir, "Meris_20050103_080302_BBDR.dim").createNewFile();
+        assertTrue(bbdrDir.setLastModified(lastModified - 30000L));
+        assertEquals(5, InputCatalogue.getInstance(bbdrDir).getFileNames().size());
+    }
+
+    private void createFiles(String dirPath, String... fileNames) throws IOException {
+        final File dir = new File(rootDir, dirPath);
+        dir.mkdirs();
+        for (String fileName : fileNames) {
+            new File(dir, fileName).createNewFile();
+        }
+    }
+
+    private static void delete(File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
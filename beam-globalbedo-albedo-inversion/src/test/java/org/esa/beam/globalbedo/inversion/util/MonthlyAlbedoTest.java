@@ -1,7 +1,18 @@
 package org.esa.beam.globalbedo.inversion.util;
 
 import junit.framework.TestCase;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.globalbedo.inversion.AlbedoInversionConstants;
 import org.esa.beam.globalbedo.inversion.GlobalbedoLevel3MonthlyFrom8DayAlbedo;
+import org.esa.beam.globalbedo.inversion.MonthlyAlbedoAggregator;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * @author Olaf Danne
@@ -9,6 +20,40 @@ import org.esa.beam.globalbedo.inversion.GlobalbedoLevel3MonthlyFrom8DayAlbedo;
  */
 public class MonthlyAlbedoTest extends TestCase {
 
+    private static final String DHR = IOUtils.getAlbedoDhrBandNames()[0];
+    private static final String DHR_ALPHA = IOUtils.getAlbedoDhrAlphaBandNames()[0];
+    private static final String REL_ENTROPY = AlbedoInversionConstants.INV_REL_ENTROPY_BAND_NAME;
+    private static final String DATA_MASK = AlbedoInversionConstants.ALB_DATA_MASK_BAND_NAME;
+    private static final String[] BAND_NAMES = {DHR, DHR_ALPHA, REL_ENTROPY, DATA_MASK};
+
+    // the 8-day products of DoY 1 and 9, and a product with weight 0, 4 x 1 pixels each
+    private static final File[] FILES = {
+            new File("GlobAlbedo.albedo.2005001.h18v04.dim"),
+            new File("GlobAlbedo.albedo.2005009.h18v04.dim"),
+            new File("other.dim")
+    };
+    // per product: DHR, DHR alpha, relative entropy, data mask
+    private static final float[][][] VALUES = {
+            {
+                    {0.2f, Float.NaN, 0.6f, 0.3f},
+                    {0.5f, 0.5f, 0.5f, 0.5f},
+                    {1.0f, 1.0f, 0.0f, 0.0f},
+                    {1.0f, 1.0f, 0.0f, 0.0f}
+            },
+            {
+                    {0.4f, 0.9f, 0.8f, 0.3f},
+                    {0.7f, 0.7f, 0.7f, 0.7f},
+                    {1.0f, 1.0f, 0.0f, 0.0f},
+                    {1.0f, 0.0f, 0.0f, 0.0f}
+            },
+            {
+                    {0.5f, 0.5f, 0.5f, 0.5f},
+                    {0.5f, 0.5f, 0.5f, 0.5f},
+                    {1.0f, 1.0f, 1.0f, 0.0f},
+                    {1.0f, 1.0f, 1.0f, 0.0f}
+            }
+    };
+
     public void testGetMonthlyWeighting() throws Exception {
 
         float[][] monthlyWeighting = AlbedoInversionUtils.getMonthlyWeighting();
@@ -23,6 +68,78 @@ public class MonthlyAlbedoTest extends TestCase {
         assertEquals(0.37752336f, monthlyWeighting[11][364]);
     }
 
+    public void testGetMonthlyWeight() throws Exception {
+        assertEquals(0.21216308f, AlbedoInversionUtils.getMonthlyWeight(1, 1));
+        assertEquals(3.5346034E-8f, AlbedoInversionUtils.getMonthlyWeight(8, 29));
+        assertEquals(0.37752336f, AlbedoInversionUtils.getMonthlyWeight(12, 365));
+
+        // the table is handed out as copy
+        final float[][] monthlyWeighting = AlbedoInversionUtils.getMonthlyWeighting();
+        assertNotSame(monthlyWeighting, AlbedoInversionUtils.getMonthlyWeighting());
+        monthlyWeighting[0][0] = 0.0f;
+        assertEquals(0.21216308f, AlbedoInversionUtils.getMonthlyWeight(1, 1));
+        assertEquals(0.21216308f, AlbedoInversionUtils.getMonthlyWeighting()[0][0]);
+    }
+
+    public void testAggregateWithDataMask() throws Exception {
+        final TestAggregator aggregator = new TestAggregator(DATA_MASK, false);
+        final double[][] monthly = aggregator.aggregate(new Rectangle(0, 0, 4, 1));
+        final double w1 = AlbedoInversionUtils.getMonthlyWeight(1, 1);
+        final double w9 = AlbedoInversionUtils.getMonthlyWeight(1, 9);
+
+        // pixel 0: both 8-day samples
+        assertEquals((w1 * 0.2f + w9 * 0.4f) / (w1 + w9), monthly[0][0], 1.0E-6);
+        assertEquals(1.0, monthly[2][0], 1.0E-6);
+        // the alphas are weighted sums only
+        assertEquals(w1 * 0.5f + w9 * 0.7f, monthly[1][0], 1.0E-6);
+        assertEquals(1.0, monthly[3][0], 0.0);
+
+        // pixel 1: DoY 9 is not valid, the NaN sample of DoY 1 contributes 0 with its weight
+        assertEquals(0.0, monthly[0][1], 1.0E-6);
+        assertEquals(w1 * 0.5f, monthly[1][1], 1.0E-6);
+        assertEquals(1.0, monthly[2][1], 1.0E-6);
+        assertEquals(1.0, monthly[3][1], 0.0);
+
+        // pixel 2: only the product with weight 0 is valid, which sets the data mask only
+        assertEquals(0.0, monthly[0][2], 0.0);
+        assertEquals(0.0, monthly[1][2], 0.0);
+        assertEquals(0.0, monthly[2][2], 0.0);
+        assertEquals(1.0, monthly[3][2], 0.0);
+
+        // pixel 3: no valid sample
+        assertEquals(0.0, monthly[0][3], 0.0);
+        assertEquals(0.0, monthly[3][3], 0.0);
+
+        // one product open at a time, with the valid band only if its weight is 0
+        assertEquals(1, aggregator.maxOpenProducts);
+        assertEquals(0, aggregator.openProducts);
+        assertEquals(3, aggregator.numOpenedProducts);
+    }
+
+    public void testAggregateWithRelativeEntropy() throws Exception {
+        // as the monthly mosaics: relative entropy > 0 is valid, the alphas are normalized
+        final TestAggregator aggregator = new TestAggregator(REL_ENTROPY, true);
+        final double[][] monthly = aggregator.aggregate(new Rectangle(1, 0, 3, 1));
+        final double w1 = AlbedoInversionUtils.getMonthlyWeight(1, 1);
+        final double w9 = AlbedoInversionUtils.getMonthlyWeight(1, 9);
+
+        // pixel 1: both 8-day samples, the NaN sample of DoY 1 contributes 0 with its weight
+        assertEquals(w9 * 0.9f / (w1 + w9), monthly[0][0], 1.0E-6);
+        assertEquals((w1 * 0.5f + w9 * 0.7f) / (w1 + w9), monthly[1][0], 1.0E-6);
+        assertEquals(1.0, monthly[2][0], 1.0E-6);
+        assertEquals(1.0, monthly[3][0], 0.0);
+
+        // pixel 2: only the product with weight 0 is valid
+        assertEquals(0.0, monthly[0][1], 0.0);
+        assertEquals(0.0, monthly[1][1], 0.0);
+        assertEquals(1.0, monthly[3][1], 0.0);
+
+        // pixel 3: no valid sample
+        assertEquals(0.0, monthly[0][2], 0.0);
+        assertEquals(0.0, monthly[3][2], 0.0);
+        assertEquals(0, aggregator.openProducts);
+    }
+
     public void testGetMonthString() throws Exception {
         int month = 11;
         assertEquals("11", IOUtils.getMonthString(month));
@@ -34,4 +151,50 @@ public class MonthlyAlbedoTest extends TestCase {
         assertNull(IOUtils.getMonthString(month));
     }
 
+    private static class TestAggregator extends MonthlyAlbedoAggregator {
+
+        private int openProducts;
+        private int maxOpenProducts;
+        private int numOpenedProducts;
+
+        private TestAggregator(String validBandName, boolean normalizeAlphas) {
+            super(FILES, 1, BAND_NAMES, validBandName, normalizeAlphas);
+        }
+
+        @Override
+        protected Product openProduct(File albedo8DayFile, String[] bandNames) throws IOException {
+            final int j = getFileIndex(albedo8DayFile);
+            if (j == 2) {
+                assertEquals(1, bandNames.length);
+            }
+            final Product product = new Product(albedo8DayFile.getName(), "test", 4, 1) {
+                @Override
+                public void dispose() {
+                    openProducts--;
+                    super.dispose();
+                }
+            };
+            final Map<String, float[]> bandValues = new HashMap<String, float[]>();
+            for (int b = 0; b < BAND_NAMES.length; b++) {
+                bandValues.put(BAND_NAMES[b], VALUES[j][b]);
+            }
+            for (String bandName : bandNames) {
+                final Band band = product.addBand(bandName, ProductData.TYPE_FLOAT32);
+                band.setRasterData(ProductData.createInstance(bandValues.get(bandName).clone()));
+            }
+            openProducts++;
+            numOpenedProducts++;
+            maxOpenProducts = Math.max(maxOpenProducts, openProducts);
+            return product;
+        }
+
+        private static int getFileIndex(File file) {
+            for (int j = 0; j < FILES.length; j++) {
+                if (FILES[j].equals(file)) {
+                    return j;
+                }
+            }
+            throw new IllegalArgumentException(file.getName());
+        }
+    }
 }
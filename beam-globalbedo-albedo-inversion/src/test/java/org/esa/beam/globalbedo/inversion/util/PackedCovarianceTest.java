@@ -0,0 +1,128 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+import Jama.LUDecomposition;
+import Jama.Matrix;
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class PackedCovarianceTest extends TestCase {
+
+    private static final int N = PackedCovariance.N;
+
+    private static final double[] K_BHR = {1.0, 0.189184, -1.377622};
+    private static final double[] K_DHR = {
+            1.0,
+            -0.007574 + (-0.070887 * Math.pow(0.6, 2.0)) + (0.307588 * Math.pow(0.6, 3.0)),
+            -1.284909 + (-0.166314 * Math.pow(0.6, 2.0)) + (0.041840 * Math.pow(0.6, 3.0))
+    };
+
+    public void testUnpack() {
+        final double[] c = getRandomPackedCovariance(new Random(1));
+        final double[] m = new double[N * N];
+        PackedCovariance.unpack(c, m);
+        for (int i = 0; i < N; i++) {
+            for (int j = 0; j < N; j++) {
+                assertEquals(c[AccumulatorLayout.getMIndex(i, j)], m[i * N + j], 0.0);
+            }
+        }
+    }
+
+    public void testBlockFormIsBitIdenticalToJamaProduct() {
+        final Random random = new Random(42);
+        for (int n = 0; n < 200; n++) {
+            final double[] c = getRandomPackedCovariance(random);
+            assertTrue(PackedCovariance.isFinite(c));
+            final Matrix cMatrix = getJamaMatrix(c);
+            for (double[] k : new double[][]{K_BHR, K_DHR}) {
+                final Matrix jamaForms = getJamaForms(cMatrix, k);
+                for (int a = 0; a < 3; a++) {
+                    for (int b = 0; b < 3; b++) {
+                        assertBitIdentical(jamaForms.get(a, b), PackedCovariance.getBlockForm(c, a, b, k));
+                        assertBitIdentical(jamaForms.get(a, b), PackedCovariance.getFullForm(c, a, b, k));
+                    }
+                }
+            }
+        }
+    }
+
+    public void testFullFormOfNonFiniteCovariance() {
+        final double[] c = getRandomPackedCovariance(new Random(7));
+        c[AccumulatorLayout.getMIndex(0, 0)] = Double.POSITIVE_INFINITY;
+        c[AccumulatorLayout.getMIndex(4, 7)] = Double.NaN;
+        assertFalse(PackedCovariance.isFinite(c));
+
+        final Matrix jamaForms = getJamaForms(getJamaMatrix(c), K_BHR);
+        for (int a = 0; a < 3; a++) {
+            for (int b = 0; b < 3; b++) {
+                assertBitIdentical(jamaForms.get(a, b), PackedCovariance.getFullForm(c, a, b, K_BHR));
+            }
+        }
+    }
+
+    public void testLUNonsingularityIsSameAsJama() {
+        final SymmetricMatrixSolver solver = new SymmetricMatrixSolver(N);
+        final double[] m = new double[N * N];
+
+        double[] c = getRandomPackedCovariance(new Random(3));
+        PackedCovariance.unpack(c, m);
+        assertEquals(new LUDecomposition(getJamaMatrix(c)).isNonsingular(), solver.decomposeWithLU(m));
+        assertTrue(solver.isNonsingular());
+
+        // rank deficient: row/column 5 is zero
+        for (int i = 0; i < N; i++) {
+            c[AccumulatorLayout.getMIndex(5, i)] = 0.0;
+        }
+        PackedCovariance.unpack(c, m);
+        assertEquals(new LUDecomposition(getJamaMatrix(c)).isNonsingular(), solver.decomposeWithLU(m));
+        assertFalse(solver.isNonsingular());
+    }
+
+    private static double[] getRandomPackedCovariance(Random random) {
+        // A * A^T is symmetric positive semi-definite
+        final double[] a = new double[N * N];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = random.nextGaussian() * 0.01;
+        }
+        final double[] c = new double[PackedCovariance.NUM_TERMS];
+        for (int i = 0; i < N; i++) {
+            for (int j = i; j < N; j++) {
+                double s = 0.0;
+                for (int k = 0; k < N; k++) {
+                    s += a[i * N + k] * a[j * N + k];
+                }
+                c[AccumulatorLayout.getMIndex(i, j)] = s;
+            }
+        }
+        return c;
+    }
+
+    private static Matrix getJamaMatrix(double[] c) {
+        Matrix m = new Matrix(N, N);
+        for (int i = 0; i < N; i++) {
+            for (int j = 0; j < N; j++) {
+                m.set(i, j, c[AccumulatorLayout.getMIndex(i, j)]);
+            }
+        }
+        return m;
+    }
+
+    // the former implementation in BrdfToAlbedoOp
+    private static Matrix getJamaForms(Matrix c, double[] k) {
+        Matrix m = new Matrix(3, 9, 0.0);
+        for (int a = 0; a < 3; a++) {
+            m.set(a, (a * 3), k[0]);
+            m.set(a, (a * 3) + 1, k[1]);
+            m.set(a, (a * 3) + 2, k[2]);
+        }
+        return m.times(c.transpose()).times(m.transpose());
+    }
+
+    private static void assertBitIdentical(double expected, double actual) {
+        assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+    }
+}
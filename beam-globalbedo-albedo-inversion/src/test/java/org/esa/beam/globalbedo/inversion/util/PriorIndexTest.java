@@ -0,0 +1,143 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class PriorIndexTest extends TestCase {
+
+    private File priorDir;
+    private File listingCacheDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        listingCacheDir = File.createTempFile("listings_", "");
+        listingCacheDir.delete();
+        System.setProperty(DirectoryListing.CACHE_DIR_PROPERTY, listingCacheDir.getPath());
+
+        priorDir = File.createTempFile("priors_", "");
+        priorDir.delete();
+        priorDir.mkdir();
+        final String[] priorDirContent = new String[]{
+                "kernel.001.006.h18v04.Snow.1km.nc",
+                "kernel.001.006.h18v04.NoSnow.1km.nc",
+                "kernel.009.006.h18v04.NoSnow.1km.nc",
+                "Kernels.105.005.h18v04.backGround.NoSnow.hdr",
+                "Kernels.105.005.h18v04.backGround.NoSnow.bin",
+                "Kernels.001.005.h18v04.background.SnowAndNoSnow.nc",
+                "Adam.nr.200506.h18v04.dim",
+                "blubb.txt"
+        };
+        for (String fileName : priorDirContent) {
+            new File(priorDir, fileName).createNewFile();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        System.clearProperty(DirectoryListing.CACHE_DIR_PROPERTY);
+        delete(priorDir);
+        delete(listingCacheDir);
+    }
+
+    public void testParseFileNames() {
+        PriorIndex.Entry entry = PriorIndex.parse("kernel.001.006.h18v04.Snow.1km.nc");
+        assertNotNull(entry);
+        assertEquals("kernel", entry.prefix);
+        assertEquals("h18v04", entry.tile);
+        assertEquals(1, entry.doy);
+        assertEquals("Snow", entry.snowMode);
+
+        entry = PriorIndex.parse("Kernels.105.005.h18v04.backGround.NoSnow.hdr");
+        assertNotNull(entry);
+        assertEquals("Kernels", entry.prefix);
+        assertEquals(105, entry.doy);
+        assertEquals("NoSnow", entry.snowMode);
+
+        entry = PriorIndex.parse("Kernels.001.005.h18v04.background.SnowAndNoSnow.nc");
+        assertNotNull(entry);
+        assertEquals("SnowAndNoSnow", entry.snowMode);
+
+        entry = PriorIndex.parse("Adam.nr.200506.h23v06.dim");
+        assertNotNull(entry);
+        assertTrue(entry.isAdam);
+        assertEquals("h23v06", entry.tile);
+        assertEquals(2005, entry.year);
+        assertEquals(6, entry.month);
+
+        assertNull(PriorIndex.parse("Kernels.105.005.h18v04.backGround.NoSnow.bin"));
+        assertNull(PriorIndex.parse("blubb.txt"));
+    }
+
+    public void testFindPriors() {
+        final PriorIndex priorIndex = PriorIndex.getInstance(priorDir);
+        assertEquals(6, priorIndex.getFileNames().size());
+
+        assertEquals(new File(priorDir, "kernel.001.006.h18v04.Snow.1km.nc"),
+                     priorIndex.findPrior("kernel", null, 1, "Snow"));
+        assertEquals(new File(priorDir, "kernel.001.006.h18v04.NoSnow.1km.nc"),
+                     priorIndex.findPrior("kernel", "h18v04", 1, "NoSnow"));
+        assertNull(priorIndex.findPrior("kernel", "h18v05", 1, "NoSnow"));
+        assertNull(priorIndex.findPrior("kernel", null, 9, "Snow"));
+        assertEquals(new File(priorDir, "Kernels.105.005.h18v04.backGround.NoSnow.hdr"),
+                     priorIndex.findPrior("Kernels", null, 105, "NoSnow"));
+        assertEquals(new File(priorDir, "Kernels.001.005.h18v04.background.SnowAndNoSnow.nc"),
+                     priorIndex.findPrior(null, null, 1, "SnowAndNoSnow"));
+        assertEquals(new File(priorDir, "Adam.nr.200506.h18v04.dim"),
+                     priorIndex.findAdamPrior("h18v04", 2005, 6));
+        assertNull(priorIndex.findAdamPrior("h18v04", 2005, 7));
+    }
+
+    public void testListingIsPersistedAndRefreshed() throws IOException {
+        final long lastModified = System.currentTimeMillis() - 60000L;
+        assertTrue(priorDir.setLastModified(lastModified));
+        PriorIndex.getInstance(priorDir);
+        final File listingFile = DirectoryListing.getListingFile(priorDir);
+        assertTrue(listingFile.isFile());
+        // nothing is written to the prior directory
+        assertEquals(8, priorDir.list().length);
+
+        // a new prior changes the modification time of the directory
+        new File(priorDir, "kernel.009.006.h18v04.Snow.1km.nc").createNewFile();
+        assertTrue(priorDir.setLastModified(lastModified + 30000L));
+        final PriorIndex priorIndex = PriorIndex.getInstance(priorDir);
+        assertEquals(7, priorIndex.getFileNames().size());
+        assertNotNull(priorIndex.findPrior("kernel", null, 9, "Snow"));
+    }
+
+    public void testRecentlyModifiedDirectoryIsListedAgain() throws IOException {
+        assertEquals(6, PriorIndex.getInstance(priorDir).getFileNames().size());
+        assertFalse(DirectoryListing.getListingFile(priorDir).exists());
+
+        // within the granularity of the modification time, the directory may look unchanged
+        final long lastModified = priorDir.lastModified();
+        new File(priorDir, "kernel.009.006.h18v04.Snow.1km.nc").createNewFile();
+        priorDir.setLastModified(lastModified);
+        assertEquals(7, PriorIndex.getInstance(priorDir).getFileNames().size());
+    }
+
+    public void testDefaultPriorBandNames() {
+        final String[] bandNames = IOUtils.getDefaultPriorBandNames();
+        assertEquals(2 * 9 + 2, bandNames.length);
+        assertEquals("MEAN:_BAND_7_PARAMETER_F0", bandNames[0]);
+        assertEquals("SD:_BAND_7_PARAMETER_F0", bandNames[1]);
+        assertEquals("SD:_BAND_9_PARAMETER_F2", bandNames[17]);
+        assertEquals("Weighted_number_of_samples", bandNames[18]);
+        assertEquals("land_mask", bandNames[19]);
+    }
+
+    private static void delete(File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
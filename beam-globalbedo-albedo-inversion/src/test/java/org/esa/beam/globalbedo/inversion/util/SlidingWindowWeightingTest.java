@@ -0,0 +1,75 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class SlidingWindowWeightingTest extends TestCase {
+
+    private static final double HALFLIFE = 11.54;
+
+    public void testIsContiguous() {
+        assertTrue(SlidingWindowWeighting.isContiguous(new boolean[]{false, false, false}));
+        assertTrue(SlidingWindowWeighting.isContiguous(new boolean[]{true, true, false}));
+        assertTrue(SlidingWindowWeighting.isContiguous(new boolean[]{false, true, true}));
+        assertFalse(SlidingWindowWeighting.isContiguous(new boolean[]{true, false, true}));
+    }
+
+    public void testRecursionEqualsDirectWeighting() {
+        // 46 8-day targets in 2005, daily samples from 2004 to 2006 with a wings window of 60 days
+        final int numTargets = 46;
+        final int wings = 60;
+        final int[] targetTimes = new int[numTargets];
+        for (int i = 0; i < numTargets; i++) {
+            targetTimes[i] = 365 * 2005 + 1 + 8 * i + 8;
+        }
+        final SlidingWindowWeighting weighting = new SlidingWindowWeighting(targetTimes, HALFLIFE);
+
+        final Random random = new Random(123);
+        final int numElements = 5;
+        final double[][] direct = new double[numTargets][numElements];
+        final double[][] past = new double[numTargets][numElements];
+        final double[][] future = new double[numTargets][numElements];
+        final int[] index = new int[SlidingWindowWeighting.NUM_EVENTS];
+        final double[] weight = new double[SlidingWindowWeighting.NUM_EVENTS];
+
+        for (int sampleTime = 365 * 2004; sampleTime < 365 * 2007; sampleTime++) {
+            final double[] values = new double[numElements];
+            for (int j = 0; j < numElements; j++) {
+                values[j] = random.nextGaussian();
+            }
+            final boolean[] accumulate = new boolean[numTargets];
+            for (int i = 0; i < numTargets; i++) {
+                accumulate[i] = Math.abs(sampleTime - targetTimes[i]) < wings;
+                if (accumulate[i]) {
+                    final double w = Math.exp(-Math.abs(sampleTime - targetTimes[i]) / HALFLIFE);
+                    for (int j = 0; j < numElements; j++) {
+                        direct[i][j] += w * values[j];
+                    }
+                }
+            }
+            assertTrue(SlidingWindowWeighting.isContiguous(accumulate));
+
+            weighting.getEvents(sampleTime, accumulate, index, weight);
+            for (int k = 0; k < SlidingWindowWeighting.NUM_EVENTS; k++) {
+                if (index[k] >= 0) {
+                    final double[] sum = k < 2 ? past[index[k]] : future[index[k]];
+                    for (int j = 0; j < numElements; j++) {
+                        sum[j] += weight[k] * values[j];
+                    }
+                }
+            }
+        }
+
+        weighting.combine(past, future, 0, numElements);
+        for (int i = 0; i < numTargets; i++) {
+            for (int j = 0; j < numElements; j++) {
+                assertEquals(direct[i][j], past[i][j], 1.E-10);
+            }
+        }
+    }
+}
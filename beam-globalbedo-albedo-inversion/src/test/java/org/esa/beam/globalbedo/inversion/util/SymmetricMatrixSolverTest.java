@@ -0,0 +1,114 @@
+package org.esa.beam.globalbedo.inversion.util;
+
+import Jama.LUDecomposition;
+import Jama.Matrix;
+import junit.framework.TestCase;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.SingularValueDecomposition;
+
+import java.util.Random;
+
+/**
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class SymmetricMatrixSolverTest extends TestCase {
+
+    private static final int N = 9;
+
+    public void testPositiveDefiniteAgainstJama() {
+        final double[] m = createSymmetricMatrix(new Random(42), 0.0);
+        final Matrix jm = new Matrix(m, N);
+        final Matrix jv = new Matrix(N, 1, 0.3);
+
+        final SymmetricMatrixSolver solver = new SymmetricMatrixSolver(N);
+        assertTrue(solver.decompose(m));
+        assertTrue(solver.isPositiveDefinite());
+        assertEquals(jm.det(), solver.getDeterminant(), 1.E-8 * Math.abs(jm.det()));
+        assertEquals(Math.log(jm.det()), solver.getLogDeterminant(), 1.E-10);
+
+        assertSolutionAndInverse(solver, jm, jv);
+    }
+
+    public void testIndefiniteFallsBackToLU() {
+        final double[] m = createSymmetricMatrix(new Random(4711), -6.0);
+        final Matrix jm = new Matrix(m, N);
+        final Matrix jv = new Matrix(N, 1, -1.5);
+
+        final SymmetricMatrixSolver solver = new SymmetricMatrixSolver(N);
+        assertTrue(solver.decompose(m));
+        assertFalse(solver.isPositiveDefinite());
+        assertEquals(jm.det(), solver.getDeterminant(), 1.E-8 * Math.abs(jm.det()));
+
+        assertSolutionAndInverse(solver, jm, jv);
+    }
+
+    public void testSingular() {
+        final double[] m = new double[N * N];
+        for (int i = 0; i < N - 1; i++) {
+            m[i * N + i] = 2.0;
+        }
+        final SymmetricMatrixSolver solver = new SymmetricMatrixSolver(N);
+        assertFalse(new LUDecomposition(new Matrix(m, N)).isNonsingular());
+        assertFalse(solver.decompose(m));
+        assertEquals(0.0, solver.getDeterminant());
+    }
+
+    public void testLogDeterminantIsSumOfLogSingularValues() {
+        // the inversion entropy uses the log-determinant instead of an SVD per pixel
+        for (double shift : new double[]{0.0, -6.0}) {
+            final double[] m = createSymmetricMatrix(new Random(123), shift);
+            final SymmetricMatrixSolver solver = new SymmetricMatrixSolver(N);
+            assertTrue(solver.decompose(m));
+
+            final double[] singularValues =
+                    new SingularValueDecomposition(new Array2DRowRealMatrix(new Matrix(m, N).getArray())).getSingularValues();
+            double sumLogSingularValues = 0.0;
+            for (double singularValue : singularValues) {
+                sumLogSingularValues += Math.log(singularValue);
+            }
+            assertEquals(sumLogSingularValues, solver.getLogDeterminant(), 1.E-10);
+        }
+    }
+
+    private static void assertSolutionAndInverse(SymmetricMatrixSolver solver, Matrix jm, Matrix jv) {
+        final double[] v = jv.getColumnPackedCopy();
+        final double[] x = new double[N];
+        solver.solve(v, x);
+        final Matrix jx = jm.solve(jv);
+        for (int i = 0; i < N; i++) {
+            assertEquals(jx.get(i, 0), x[i], 1.E-10);
+        }
+
+        final double[] inverse = new double[N * N];
+        solver.invert(inverse);
+        final Matrix jInverse = jm.inverse();
+        for (int i = 0; i < N; i++) {
+            for (int j = 0; j < N; j++) {
+                assertEquals(jInverse.get(i, j), inverse[i * N + j], 1.E-10);
+            }
+        }
+    }
+
+    private static double[] createSymmetricMatrix(Random random, double diagonalShift) {
+        // B * B^T is symmetric positive definite, a negative diagonal shift makes it indefinite
+        final double[][] b = new double[N][N + 3];
+        for (int i = 0; i < N; i++) {
+            for (int k = 0; k < N + 3; k++) {
+                b[i][k] = random.nextGaussian();
+            }
+        }
+        final double[] m = new double[N * N];
+        for (int i = 0; i < N; i++) {
+            for (int j = 0; j < N; j++) {
+                double sum = 0.0;
+                for (int k = 0; k < N + 3; k++) {
+                    sum += b[i][k] * b[j][k];
+                }
+                m[i * N + j] = sum;
+            }
+            m[i * N + i] += diagonalShift;
+        }
+        return m;
+    }
+}
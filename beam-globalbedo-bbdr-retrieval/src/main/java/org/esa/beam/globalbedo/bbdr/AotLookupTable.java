@@ -10,6 +10,7 @@ import org.esa.beam.util.math.LookupTable;
  */
 public class AotLookupTable {
     private LookupTable lut;
+    private MultilinearLut multilinearLut;
     private float[] wvl;
     private float[] solarIrradiance;
 
@@ -21,6 +22,17 @@ public class AotLookupTable {
         this.lut = lut;
     }
 
+    /**
+     * @return MultilinearLut - the LUT values, for interpolation of all parameters at once
+     */
+    public MultilinearLut getMultilinearLut() {
+        return multilinearLut;
+    }
+
+    public void setMultilinearLut(MultilinearLut multilinearLut) {
+        this.multilinearLut = multilinearLut;
+    }
+
     public float[] getWvl() {
         return wvl;
     }
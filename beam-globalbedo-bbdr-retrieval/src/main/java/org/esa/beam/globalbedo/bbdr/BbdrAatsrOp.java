@@ -28,7 +28,6 @@ import org.esa.beam.framework.gpf.annotations.SourceProduct;
 import org.esa.beam.framework.gpf.pointop.*;
 import org.esa.beam.gpf.operators.standard.BandMathsOp;
 import org.esa.beam.util.ProductUtils;
-import org.esa.beam.util.math.FracIndex;
 import org.esa.beam.util.math.LookupTable;
 
 import java.io.IOException;
@@ -100,10 +99,14 @@ public class BbdrAatsrOp extends PixelOperator {
     private double kpp_geo;
 
     private AotLookupTable aotLut;
-    private LookupTable kxAotLut;
+    private MultilinearLut kxAotLut;
     private GasLookupTable gasLookupTable;
     private NskyLookupTable nskyDwLut;
     private NskyLookupTable nskyUpLut;
+    private BbdrLutRegistry.SensorLuts luts;
+    private BbdrLutInterpolator lutInterpolator;
+    private ThreadLocal<BbdrLutInterpolator.Workspace> lutWorkspace;
+    private ThreadLocal<GasLookupTable.Transmittance> gasTransmittance;
 
     private double vzaMin;
     private double vzaMax;
@@ -181,34 +184,47 @@ public class BbdrAatsrOp extends PixelOperator {
     }
 
     void readAuxdata() {
-        N2Bconversion n2Bconversion = new N2Bconversion(Sensor.AATSR, 3);
         try {
-            n2Bconversion.load();
-            rmse_arr_all = n2Bconversion.getRmse_arr_all();
-            nb_coef_arr_all = new Matrix(n2Bconversion.getNb_coef_arr_all());
-            double[] nb_intcp_arr_all_data = n2Bconversion.getNb_intcp_arr_all();
-            nb_intcp_arr_all = new Matrix(nb_intcp_arr_all_data, nb_intcp_arr_all_data.length);
-
-            double[][] nb_coef_arr_D = n2Bconversion.getNb_coef_arr_D();
-            nb_coef_arr = new Matrix[n_spc];
-            for (int i_bb = 0; i_bb < n_spc; i_bb++) {
-                nb_coef_arr[i_bb] = new Matrix(nb_coef_arr_D[i_bb], nb_coef_arr_D[i_bb].length).transpose();
-            }
-            nb_intcp_arr_D = n2Bconversion.getNb_intcp_arr_D();
-
-            aotLut = BbdrUtils.getAotLookupTable(Sensor.AATSR);
-            kxAotLut = BbdrUtils.getAotKxLookupTable(Sensor.AATSR);
-            nskyDwLut = BbdrUtils.getNskyLookupTableDw(Sensor.AATSR);
-            nskyUpLut = BbdrUtils.getNskyLookupTableUp(Sensor.AATSR);
-            kpp_geo = nskyDwLut.getKppGeo();
-            kpp_vol = nskyDwLut.getKppVol();
-
-            gasLookupTable = new GasLookupTable(Sensor.AATSR);
-            gasLookupTable.load(sourceProduct);
+            luts = BbdrLutRegistry.acquire(Sensor.AATSR, GasLookupTable.getGasValue(Sensor.AATSR, sourceProduct));
         } catch (IOException e) {
             throw new OperatorException(e.getMessage());
         }
 
+        N2Bconversion n2Bconversion = luts.getN2Bconversion();
+        rmse_arr_all = n2Bconversion.getRmse_arr_all();
+        nb_coef_arr_all = new Matrix(n2Bconversion.getNb_coef_arr_all());
+        double[] nb_intcp_arr_all_data = n2Bconversion.getNb_intcp_arr_all();
+        nb_intcp_arr_all = new Matrix(nb_intcp_arr_all_data, nb_intcp_arr_all_data.length);
+
+        double[][] nb_coef_arr_D = n2Bconversion.getNb_coef_arr_D();
+        nb_coef_arr = new Matrix[n_spc];
+        for (int i_bb = 0; i_bb < n_spc; i_bb++) {
+            nb_coef_arr[i_bb] = new Matrix(nb_coef_arr_D[i_bb], nb_coef_arr_D[i_bb].length).transpose();
+        }
+        nb_intcp_arr_D = n2Bconversion.getNb_intcp_arr_D();
+
+        aotLut = luts.getAotLut();
+        kxAotLut = luts.getAotKxLut();
+        nskyDwLut = luts.getNskyDwLut();
+        nskyUpLut = luts.getNskyUpLut();
+        lutInterpolator = new BbdrLutInterpolator(aotLut, kxAotLut, nskyDwLut, nskyUpLut, Sensor.AATSR.getNumBands());
+        lutWorkspace = new ThreadLocal<BbdrLutInterpolator.Workspace>() {
+            @Override
+            protected BbdrLutInterpolator.Workspace initialValue() {
+                return lutInterpolator.createWorkspace();
+            }
+        };
+        kpp_geo = nskyDwLut.getKppGeo();
+        kpp_vol = nskyDwLut.getKppVol();
+
+        gasLookupTable = luts.getGasLookupTable();
+        gasTransmittance = new ThreadLocal<GasLookupTable.Transmittance>() {
+            @Override
+            protected GasLookupTable.Transmittance initialValue() {
+                return gasLookupTable.createTransmittance();
+            }
+        };
+
         LookupTable aotLut = this.aotLut.getLut();
 
         final double[] vzaArray = aotLut.getDimension(5).getSequence();
@@ -229,6 +245,15 @@ public class BbdrAatsrOp extends PixelOperator {
         aotMax = aotArray[aotArray.length - 1];
     }
 
+    @Override
+    public void dispose() {
+        if (luts != null) {
+            BbdrLutRegistry.release(luts);
+            luts = null;
+        }
+        super.dispose();
+    }
+
     @Override
     protected void configureSourceSamples(SampleConfigurer configurator) {
         String[] toaBandNames;
@@ -418,8 +443,10 @@ public class BbdrAatsrOp extends PixelOperator {
         phi = max(phi, 1);
         targetSamples[TRG_RAA].set(phi);
 
-        float[] tg = gasLookupTable.getTg((float) amf, (float) gas);
-        float[][][] kx_tg = gasLookupTable.getKxTg((float) amf, (float) gas);
+        final GasLookupTable.Transmittance transmittance = gasTransmittance.get();
+        gasLookupTable.getTransmittance((float) amf, (float) gas, transmittance);
+        float[] tg = transmittance.getTg();
+        float[][][] kx_tg = transmittance.getKxTg();
 
         double[][] f_int_all = interpol_lut_MOMO_kx(vza, sza, phi, hsf, aot);
 
@@ -591,70 +618,16 @@ public class BbdrAatsrOp extends PixelOperator {
      * as a function of [vza, sza, phi, hsf, aot] from the interpolation of the MOMO absorption-free LUTs
      */
     private double[][] interpol_lut_MOMO_kx(double vza, double sza, double phi, double hsf, double aot) {
-        final LookupTable lut = aotLut.getLut();
-        final float[] wvl = aotLut.getWvl();
-        final double[] params = aotLut.getLut().getDimension(6).getSequence();
-        final double[] kxParams = kxAotLut.getDimension(6).getSequence();
-        double[][] result = new double[Sensor.AATSR.getNumBands()][7];
-
-        int lutDimensionCount = lut.getDimensionCount();
-        FracIndex[] fracIndexes = FracIndex.createArray(lutDimensionCount);
-        double[] v = new double[1 << lutDimensionCount];
-
-        LookupTable.computeFracIndex(lut.getDimension(1), aot, fracIndexes[1]);
-        LookupTable.computeFracIndex(lut.getDimension(2), hsf, fracIndexes[2]);
-        LookupTable.computeFracIndex(lut.getDimension(3), phi, fracIndexes[3]);
-        LookupTable.computeFracIndex(lut.getDimension(4), sza, fracIndexes[4]);
-        LookupTable.computeFracIndex(lut.getDimension(5), vza, fracIndexes[5]);
-
-        for (int i = 0; i < result.length; i++) {
-            int index = 0;
-            LookupTable.computeFracIndex(lut.getDimension(0), wvl[i], fracIndexes[0]);
-            for (double param : params) {
-                LookupTable.computeFracIndex(lut.getDimension(6), param, fracIndexes[6]);
-                result[i][index++] = lut.getValue(fracIndexes, v);
-            }
-            for (double kxParam : kxParams) {
-                LookupTable.computeFracIndex(lut.getDimension(6), kxParam, fracIndexes[6]);
-                result[i][index++] = kxAotLut.getValue(fracIndexes, v);
-            }
-        }
-        return result;
+        return lutInterpolator.interpolateMomoKx(lutWorkspace.get(), vza, sza, phi, hsf, aot);
     }
 
+    /**
+     * 4-D linear interpolation:
+     * returns broadband array [dw_1, dw_2, up_1, up_2]
+     * as a function of [sza, vza, hsf, aot] from the interpolation of the Nsky LUTs
+     */
     private double[][] interpol_lut_Nsky(double sza, double vza, double hsf, double aot) {
-        final LookupTable lut_dw = nskyDwLut.getLut();
-        final LookupTable lut_up = nskyUpLut.getLut();
-        final double[] broadBandSpecs = lut_dw.getDimension(0).getSequence();
-        final double[] dw_params = lut_dw.getDimension(4).getSequence();
-        final double[] up_params = lut_up.getDimension(4).getSequence();
-
-        double[][] result = new double[broadBandSpecs.length][4];
-
-        int lutDimensionCount = lut_dw.getDimensionCount();
-        FracIndex[] fracIndexes = FracIndex.createArray(lutDimensionCount);
-        double[] v = new double[1 << lutDimensionCount];
-
-        LookupTable.computeFracIndex(lut_dw.getDimension(1), aot, fracIndexes[1]);
-        LookupTable.computeFracIndex(lut_dw.getDimension(2), hsf, fracIndexes[2]);
-
-        for (int i = 0; i < result.length; i++) {
-            int index = 0;
-            LookupTable.computeFracIndex(lut_dw.getDimension(0), broadBandSpecs[i], fracIndexes[0]);
-
-            LookupTable.computeFracIndex(lut_dw.getDimension(3), sza, fracIndexes[3]);
-            for (double param : dw_params) {
-                LookupTable.computeFracIndex(lut_dw.getDimension(4), param, fracIndexes[4]);
-                result[i][index++] = lut_dw.getValue(fracIndexes, v);
-            }
-
-            LookupTable.computeFracIndex(lut_up.getDimension(3), vza, fracIndexes[3]);
-            for (double param : up_params) {
-                LookupTable.computeFracIndex(lut_up.getDimension(4), param, fracIndexes[4]);
-                result[i][index++] = lut_up.getValue(fracIndexes, v);
-            }
-        }
-        return result;
+        return lutInterpolator.interpolateNsky(lutWorkspace.get(), sza, vza, hsf, aot);
     }
 
     static Matrix matrixSquare(double[] doubles) {
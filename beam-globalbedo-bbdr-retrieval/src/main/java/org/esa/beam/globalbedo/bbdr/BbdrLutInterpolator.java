@@ -0,0 +1,299 @@
+package org.esa.beam.globalbedo.bbdr;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-pixel interpolation of the MOMO absorption-free LUTs (AOT and AOT Kx) and of the Nsky LUTs, as used by the
+ * BBDR operators. The LUTs are interpolated with {@link MultilinearLut}s in one pass per band for all parameters,
+ * and the results are written to arrays of a {@link Workspace}, so a pixel allocates nothing. An operator holds one
+ * workspace per thread.
+ * <p/>
+ * Optionally, the MOMO/Kx values are cached per workspace: the coordinates are quantized to steps of a given fraction
+ * of the LUT ranges, and the values are interpolated at the quantized point and reused for the following pixels with
+ * the same quantized coordinates. As the geometry and AOT vary smoothly within a tile, most neighbouring pixels hit
+ * the cache. The cache of a workspace is kept across all tiles its thread computes. The quantized coordinates are
+ * limited to the LUT ranges, so the values differ from the exact interpolation by at most the LUT change over half a
+ * step per coordinate.
+ *
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class BbdrLutInterpolator {
+
+    // dimensions of the AOT and AOT Kx LUTs: wvl, aot, hsf, azi, sza, vza, parameters
+    private static final int AOT_WVL = 0;
+    private static final int AOT_AOT = 1;
+    private static final int AOT_HSF = 2;
+    private static final int AOT_AZI = 3;
+    private static final int AOT_SZA = 4;
+    private static final int AOT_VZA = 5;
+
+    // dimensions of the Nsky LUTs: spec, aot, hsf, sza (dw) resp. vza (up), parameters
+    private static final int NSKY_SPEC = 0;
+    private static final int NSKY_AOT = 1;
+    private static final int NSKY_HSF = 2;
+    private static final int NSKY_ANGLE = 3;
+
+    // AOT LUT dimensions of the cached MOMO coordinates (vza, sza, phi, hsf, aot), and cache entries per workspace
+    private static final int[] MOMO_CACHE_DIMENSIONS = {AOT_VZA, AOT_SZA, AOT_AZI, AOT_HSF, AOT_AOT};
+    private static final int MOMO_CACHE_SIZE = 1024;
+
+    private final MultilinearLut aotLut;
+    private final MultilinearLut kxAotLut;
+    private final MultilinearLut nskyDwLut;
+    private final MultilinearLut nskyUpLut;
+    private final float[] wvl;
+    private final int numBands;
+
+    // quantization of the MOMO coordinates (vza, sza, phi, hsf, aot), null if not cached
+    private final double[] momoCacheOrigins;
+    private final double[] momoCacheEnds;
+    private final double[] momoCacheSteps;
+    private final List<Workspace> workspaces = new ArrayList<Workspace>();
+
+    /**
+     * @param aotLut    - the AOT LUT
+     * @param kxAotLut  - the AOT Kx LUT, with the same dimensions as the AOT LUT except for the parameters
+     * @param nskyDwLut - the Nsky DW LUT
+     * @param nskyUpLut - the Nsky UP LUT, with the same dimensions as the DW LUT except for the angle
+     * @param numBands  - the number of bands of the sensor
+     */
+    public BbdrLutInterpolator(AotLookupTable aotLut, MultilinearLut kxAotLut,
+                               NskyLookupTable nskyDwLut, NskyLookupTable nskyUpLut, int numBands) {
+        this(aotLut, kxAotLut, nskyDwLut, nskyUpLut, numBands, 0.0);
+    }
+
+    /**
+     * @param aotLut             - the AOT LUT
+     * @param kxAotLut           - the AOT Kx LUT, with the same dimensions as the AOT LUT except for the parameters
+     * @param nskyDwLut          - the Nsky DW LUT
+     * @param nskyUpLut          - the Nsky UP LUT, with the same dimensions as the DW LUT except for the angle
+     * @param numBands           - the number of bands of the sensor
+     * @param momoCacheTolerance - the quantization step of the cached MOMO/Kx coordinates, as fraction of the LUT
+     *                           range of each coordinate, 0 for no caching
+     */
+    public BbdrLutInterpolator(AotLookupTable aotLut, MultilinearLut kxAotLut,
+                               NskyLookupTable nskyDwLut, NskyLookupTable nskyUpLut, int numBands,
+                               double momoCacheTolerance) {
+        this.aotLut = aotLut.getMultilinearLut();
+        this.kxAotLut = kxAotLut;
+        for (int i = 0; i < this.aotLut.getDimensionCount() - 1; i++) {
+            if (kxAotLut.getDimensionCount() != this.aotLut.getDimensionCount() ||
+                    kxAotLut.getDimension(i).length != this.aotLut.getDimension(i).length) {
+                throw new IllegalArgumentException("AOT Kx LUT does not have the dimensions of the AOT LUT.");
+            }
+        }
+        this.nskyDwLut = nskyDwLut.getMultilinearLut();
+        this.nskyUpLut = nskyUpLut.getMultilinearLut();
+        this.wvl = aotLut.getWvl();
+        this.numBands = numBands;
+        if (momoCacheTolerance < 0.0 || Double.isNaN(momoCacheTolerance)) {
+            throw new IllegalArgumentException("Invalid LUT cache tolerance " + momoCacheTolerance);
+        }
+        if (momoCacheTolerance > 0.0) {
+            momoCacheOrigins = new double[MOMO_CACHE_DIMENSIONS.length];
+            momoCacheEnds = new double[MOMO_CACHE_DIMENSIONS.length];
+            momoCacheSteps = new double[MOMO_CACHE_DIMENSIONS.length];
+            for (int i = 0; i < MOMO_CACHE_DIMENSIONS.length; i++) {
+                final float[] dimension = this.aotLut.getDimension(MOMO_CACHE_DIMENSIONS[i]);
+                momoCacheOrigins[i] = dimension[0];
+                momoCacheEnds[i] = dimension[dimension.length - 1];
+                momoCacheSteps[i] = momoCacheTolerance * (momoCacheEnds[i] - momoCacheOrigins[i]);
+            }
+        } else {
+            momoCacheOrigins = null;
+            momoCacheEnds = null;
+            momoCacheSteps = null;
+        }
+    }
+
+    public Workspace createWorkspace() {
+        final Workspace workspace = new Workspace(this);
+        synchronized (workspaces) {
+            workspaces.add(workspace);
+        }
+        return workspace;
+    }
+
+    /**
+     * @return long - the number of MOMO/Kx interpolations served from the caches of all workspaces
+     */
+    public long getMomoCacheHits() {
+        long hits = 0;
+        synchronized (workspaces) {
+            for (Workspace workspace : workspaces) {
+                hits += workspace.momoCacheHits;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * @return long - the number of MOMO/Kx interpolations not served from the caches of all workspaces
+     */
+    public long getMomoCacheMisses() {
+        long misses = 0;
+        synchronized (workspaces) {
+            for (Workspace workspace : workspaces) {
+                misses += workspace.momoCacheMisses;
+            }
+        }
+        return misses;
+    }
+
+    /**
+     * 5-D linear interpolation:
+     * returns spectral array [rpw, ttot, sab, rat_tdw, rat_tup, Kx_1, Kx_2]
+     * as a function of [vza, sza, phi, hsf, aot] from the interpolation of the MOMO absorption-free LUTs
+     *
+     * @param workspace - the workspace of the calling thread
+     * @param vza       - vza
+     * @param sza       - sza
+     * @param phi       - relative azimuth
+     * @param hsf       - surface height
+     * @param aot       - aot
+     * @return double[][] - the values per band, valid until the next call with the workspace, not to be modified
+     */
+    public double[][] interpolateMomoKx(Workspace workspace, double vza, double sza, double phi, double hsf,
+                                        double aot) {
+        if (momoCacheSteps == null) {
+            return interpolateMomoKx(workspace.momoWorkspace, workspace.momoResult, vza, sza, phi, hsf, aot);
+        }
+        final double[] coordinates = workspace.momoCoordinates;
+        coordinates[0] = vza;
+        coordinates[1] = sza;
+        coordinates[2] = phi;
+        coordinates[3] = hsf;
+        coordinates[4] = aot;
+        final int[] key = workspace.momoKey;
+        int hash = 0;
+        for (int i = 0; i < coordinates.length; i++) {
+            if (Double.isNaN(coordinates[i])) {
+                return interpolateMomoKx(workspace.momoWorkspace, workspace.momoResult, vza, sza, phi, hsf, aot);
+            }
+            key[i] = (int) Math.round((coordinates[i] - momoCacheOrigins[i]) / momoCacheSteps[i]);
+            hash = 31 * hash + key[i];
+        }
+        hash ^= hash >>> 16;
+        final int entry = hash & (MOMO_CACHE_SIZE - 1);
+
+        final int[] cacheKeys = workspace.momoCacheKeys;
+        final int keyOffset = entry * key.length;
+        if (workspace.momoCacheValid[entry]) {
+            boolean hit = true;
+            for (int i = 0; i < key.length && hit; i++) {
+                hit = cacheKeys[keyOffset + i] == key[i];
+            }
+            if (hit) {
+                workspace.momoCacheHits++;
+                return workspace.momoCacheValues[entry];
+            }
+        }
+        workspace.momoCacheMisses++;
+        for (int i = 0; i < key.length; i++) {
+            cacheKeys[keyOffset + i] = key[i];
+            // the last step may reach beyond the LUT range if 1/tolerance is not an integer
+            coordinates[i] = Math.max(momoCacheOrigins[i],
+                                      Math.min(momoCacheEnds[i], momoCacheOrigins[i] + key[i] * momoCacheSteps[i]));
+        }
+        workspace.momoCacheValid[entry] = true;
+        return interpolateMomoKx(workspace.momoWorkspace, workspace.momoCacheValues[entry],
+                                 coordinates[0], coordinates[1], coordinates[2], coordinates[3], coordinates[4]);
+    }
+
+    private double[][] interpolateMomoKx(MultilinearLut.Workspace lutWorkspace, double[][] result,
+                                         double vza, double sza, double phi, double hsf, double aot) {
+        aotLut.setCoordinate(lutWorkspace, AOT_AOT, aot);
+        aotLut.setCoordinate(lutWorkspace, AOT_HSF, hsf);
+        aotLut.setCoordinate(lutWorkspace, AOT_AZI, phi);
+        aotLut.setCoordinate(lutWorkspace, AOT_SZA, sza);
+        aotLut.setCoordinate(lutWorkspace, AOT_VZA, vza);
+
+        final int numAotParameters = aotLut.getNumParameters();
+        for (int i = 0; i < result.length; i++) {
+            aotLut.setCoordinate(lutWorkspace, AOT_WVL, wvl[i]);
+            // the Kx LUT has the grid of the AOT LUT, so the corner weights are shared
+            aotLut.interpolate(lutWorkspace, result[i], 0);
+            kxAotLut.interpolate(lutWorkspace, result[i], numAotParameters);
+        }
+        return result;
+    }
+
+    /**
+     * 4-D linear interpolation:
+     * returns broadband array [dw_1, dw_2, up_1, up_2] as a function of [sza, vza, hsf, aot] from the interpolation
+     * of the Nsky LUTs
+     *
+     * @param workspace - the workspace of the calling thread
+     * @param sza       - sza
+     * @param vza       - vza
+     * @param hsf       - surface height
+     * @param aot       - aot
+     * @return double[][] - the values per broad band, valid until the next call with the workspace
+     */
+    public double[][] interpolateNsky(Workspace workspace, double sza, double vza, double hsf, double aot) {
+        final MultilinearLut.Workspace dwWorkspace = workspace.nskyDwWorkspace;
+        final MultilinearLut.Workspace upWorkspace = workspace.nskyUpWorkspace;
+        final float[] broadBandSpecs = nskyDwLut.getDimension(NSKY_SPEC);
+        // spec, aot and hsf are taken from the DW LUT for both LUTs
+        nskyDwLut.setCoordinate(dwWorkspace, NSKY_AOT, aot);
+        nskyDwLut.setCoordinate(dwWorkspace, NSKY_HSF, hsf);
+        nskyDwLut.setCoordinate(dwWorkspace, NSKY_ANGLE, sza);
+        nskyDwLut.setCoordinate(upWorkspace, NSKY_AOT, aot);
+        nskyDwLut.setCoordinate(upWorkspace, NSKY_HSF, hsf);
+        nskyUpLut.setCoordinate(upWorkspace, NSKY_ANGLE, vza);
+
+        final double[][] result = workspace.nskyResult;
+        final int numDwParameters = nskyDwLut.getNumParameters();
+        for (int i = 0; i < result.length; i++) {
+            nskyDwLut.setCoordinate(dwWorkspace, NSKY_SPEC, broadBandSpecs[i]);
+            nskyDwLut.setCoordinate(upWorkspace, NSKY_SPEC, broadBandSpecs[i]);
+            nskyDwLut.interpolate(dwWorkspace, result[i], 0);
+            nskyUpLut.interpolate(upWorkspace, result[i], numDwParameters);
+        }
+        return result;
+    }
+
+    /**
+     * The interpolation state, result arrays and MOMO/Kx cache of one thread.
+     */
+    public static class Workspace {
+
+        private final MultilinearLut.Workspace momoWorkspace;
+        private final MultilinearLut.Workspace nskyDwWorkspace;
+        private final MultilinearLut.Workspace nskyUpWorkspace;
+        private final double[][] momoResult;
+        private final double[][] nskyResult;
+
+        // direct mapped cache, see interpolateMomoKx
+        private final double[] momoCoordinates;
+        private final int[] momoKey;
+        private final int[] momoCacheKeys;
+        private final boolean[] momoCacheValid;
+        private final double[][][] momoCacheValues;
+        private long momoCacheHits;
+        private long momoCacheMisses;
+
+        private Workspace(BbdrLutInterpolator interpolator) {
+            momoWorkspace = interpolator.aotLut.createWorkspace();
+            nskyDwWorkspace = interpolator.nskyDwLut.createWorkspace();
+            nskyUpWorkspace = interpolator.nskyUpLut.createWorkspace();
+            momoResult = new double[interpolator.numBands][interpolator.aotLut.getNumParameters() +
+                    interpolator.kxAotLut.getNumParameters()];
+            nskyResult = new double[interpolator.nskyDwLut.getDimension(NSKY_SPEC).length]
+                    [interpolator.nskyDwLut.getNumParameters() + interpolator.nskyUpLut.getNumParameters()];
+            momoCoordinates = new double[MOMO_CACHE_DIMENSIONS.length];
+            momoKey = new int[MOMO_CACHE_DIMENSIONS.length];
+            if (interpolator.momoCacheSteps != null) {
+                momoCacheKeys = new int[MOMO_CACHE_SIZE * MOMO_CACHE_DIMENSIONS.length];
+                momoCacheValid = new boolean[MOMO_CACHE_SIZE];
+                momoCacheValues = new double[MOMO_CACHE_SIZE][momoResult.length][momoResult[0].length];
+            } else {
+                momoCacheKeys = null;
+                momoCacheValid = null;
+                momoCacheValues = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package org.esa.beam.globalbedo.bbdr;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM-wide registry of the BBDR lookup tables (AOT, AOT Kx, Nsky, N2B coefficients and gas), keyed by sensor and
+ * table type, so that the BBDR operators of a graph or batch share one instance of each table.
+ * <p/>
+ * Tables are loaded on first use and are reference counted: an operator acquires its tables in initialize() and
+ * releases them in dispose(). Tables which are not referenced any more are kept softly reachable only, so the next
+ * operator of the same sensor gets them without loading unless the memory was needed elsewhere.
+ * The tables are not modified after loading and must not be modified by their users.
+ *
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class BbdrLutRegistry {
+
+    static final int N2B_NUM_SPECTRAL_BANDS = 3; // VIS, NIR, SW ; Broadband albedos
+
+    enum LutType {
+        AOT, AOT_KX, NSKY_DW, NSKY_UP, N2B, GAS
+    }
+
+    private static final Map<Key, Entry> entries = new HashMap<Key, Entry>();
+
+    private BbdrLutRegistry() {
+    }
+
+    /**
+     * Acquires all tables of a sensor. Each call must be followed by a call of {@link #release}.
+     *
+     * @param sensor   - the sensor
+     * @param gasValue - the gas value of the gas table, see {@link GasLookupTable#getGasValue}
+     * @return SensorLuts - the tables
+     * @throws IOException when failing to read LUT data
+     */
+    public static SensorLuts acquire(Sensor sensor, float gasValue) throws IOException {
+        final Key[] keys = SensorLuts.getKeys(sensor, gasValue);
+        final Object[] tables = new Object[keys.length];
+        int numAcquired = 0;
+        try {
+            for (; numAcquired < keys.length; numAcquired++) {
+                tables[numAcquired] = acquire(keys[numAcquired]);
+            }
+        } finally {
+            if (numAcquired < keys.length) {
+                for (int i = 0; i < numAcquired; i++) {
+                    release(keys[i]);
+                }
+            }
+        }
+        return new SensorLuts(sensor, gasValue, tables);
+    }
+
+    /**
+     * Releases the tables of a sensor. The tables must not be used by the caller any more.
+     *
+     * @param luts - the tables, as returned by {@link #acquire}
+     */
+    public static void release(SensorLuts luts) {
+        for (Key key : SensorLuts.getKeys(luts.sensor, luts.gasValue)) {
+            release(key);
+        }
+    }
+
+    static int getReferenceCount(Sensor sensor, LutType type) {
+        synchronized (entries) {
+            int count = 0;
+            for (Map.Entry<Key, Entry> entry : entries.entrySet()) {
+                if (entry.getKey().sensor == sensor && entry.getKey().type == type) {
+                    count += entry.getValue().referenceCount;
+                }
+            }
+            return count;
+        }
+    }
+
+    private static Object acquire(Key key) throws IOException {
+        final Entry entry;
+        synchronized (entries) {
+            Entry existingEntry = entries.get(key);
+            if (existingEntry == null) {
+                existingEntry = new Entry();
+                entries.put(key, existingEntry);
+            }
+            existingEntry.referenceCount++;
+            entry = existingEntry;
+        }
+        boolean loaded = false;
+        try {
+            // loaded outside the registry lock, so that the tables of different sensors are loaded concurrently
+            final Object table = entry.get(key);
+            loaded = true;
+            return table;
+        } finally {
+            if (!loaded) {
+                release(key);
+            }
+        }
+    }
+
+    private static void release(Key key) {
+        synchronized (entries) {
+            final Entry entry = entries.get(key);
+            if (entry == null || entry.referenceCount == 0) {
+                throw new IllegalStateException("LUT " + key.type + " of " + key.sensor + " is not acquired.");
+            }
+            entry.referenceCount--;
+            if (entry.referenceCount == 0 && !entry.unreference()) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    private static Object load(Key key) throws IOException {
+        switch (key.type) {
+            case AOT:
+                return BbdrUtils.getAotLookupTable(key.sensor);
+            case AOT_KX:
+                return BbdrUtils.getAotKxMultilinearLut(key.sensor);
+            case NSKY_DW:
+                return BbdrUtils.getNskyLookupTableDw(key.sensor);
+            case NSKY_UP:
+                return BbdrUtils.getNskyLookupTableUp(key.sensor);
+            case N2B:
+                final N2Bconversion n2Bconversion = new N2Bconversion(key.sensor, N2B_NUM_SPECTRAL_BANDS);
+                n2Bconversion.load();
+                return n2Bconversion;
+            case GAS:
+                final GasLookupTable gasLookupTable = new GasLookupTable(key.sensor);
+                gasLookupTable.load(key.gasValue);
+                return gasLookupTable;
+            default:
+                throw new IllegalArgumentException("Unknown LUT type " + key.type);
+        }
+    }
+
+    /**
+     * The tables of a sensor, as acquired from the registry.
+     */
+    public static class SensorLuts {
+
+        private final Sensor sensor;
+        private final float gasValue;
+        private final Object[] tables;
+
+        private SensorLuts(Sensor sensor, float gasValue, Object[] tables) {
+            this.sensor = sensor;
+            this.gasValue = gasValue;
+            this.tables = tables;
+        }
+
+        private static Key[] getKeys(Sensor sensor, float gasValue) {
+            final LutType[] types = LutType.values();
+            final Key[] keys = new Key[types.length];
+            for (int i = 0; i < types.length; i++) {
+                // only the gas table depends on the gas value
+                keys[i] = new Key(sensor, types[i], types[i] == LutType.GAS ? gasValue : 0.0f);
+            }
+            return keys;
+        }
+
+        public Sensor getSensor() {
+            return sensor;
+        }
+
+        public AotLookupTable getAotLut() {
+            return (AotLookupTable) tables[LutType.AOT.ordinal()];
+        }
+
+        public MultilinearLut getAotKxLut() {
+            return (MultilinearLut) tables[LutType.AOT_KX.ordinal()];
+        }
+
+        public NskyLookupTable getNskyDwLut() {
+            return (NskyLookupTable) tables[LutType.NSKY_DW.ordinal()];
+        }
+
+        public NskyLookupTable getNskyUpLut() {
+            return (NskyLookupTable) tables[LutType.NSKY_UP.ordinal()];
+        }
+
+        public N2Bconversion getN2Bconversion() {
+            return (N2Bconversion) tables[LutType.N2B.ordinal()];
+        }
+
+        public GasLookupTable getGasLookupTable() {
+            return (GasLookupTable) tables[LutType.GAS.ordinal()];
+        }
+    }
+
+    private static class Key {
+
+        private final Sensor sensor;
+        private final LutType type;
+        private final float gasValue;
+
+        private Key(Sensor sensor, LutType type, float gasValue) {
+            this.sensor = sensor;
+            this.type = type;
+            this.gasValue = gasValue;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return sensor == other.sensor && type == other.type &&
+                    Float.floatToIntBits(gasValue) == Float.floatToIntBits(other.gasValue);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * sensor.hashCode() + type.hashCode()) + Float.floatToIntBits(gasValue);
+        }
+    }
+
+    private static class Entry {
+
+        // guarded by the registry lock
+        private int referenceCount;
+
+        // guarded by this entry
+        private Object table;
+        private SoftReference<Object> softTable;
+
+        synchronized Object get(Key key) throws IOException {
+            if (table == null && softTable != null) {
+                table = softTable.get();
+            }
+            if (table == null) {
+                table = load(key);
+                softTable = new SoftReference<Object>(table);
+            }
+            return table;
+        }
+
+        /**
+         * Drops the strong reference to the table.
+         *
+         * @return boolean - true if the table is still softly reachable
+         */
+        synchronized boolean unreference() {
+            table = null;
+            return softTable != null && softTable.get() != null;
+        }
+    }
+}
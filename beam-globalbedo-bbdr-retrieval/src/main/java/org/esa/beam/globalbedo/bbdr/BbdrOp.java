@@ -37,7 +37,7 @@ import org.esa.beam.gpf.operators.standard.BandMathsOp;
 import org.esa.beam.landcover.StatusPostProcessOp;
 import org.esa.beam.landcover.UclCloudDetection;
 import org.esa.beam.util.ProductUtils;
-import org.esa.beam.util.math.FracIndex;
+import org.esa.beam.util.logging.BeamLogManager;
 import org.esa.beam.util.math.LookupTable;
 
 import java.awt.Color;
@@ -106,6 +106,11 @@ public class BbdrOp extends PixelOperator {
     private boolean doUclCloudDetection;
     @Parameter
     private String landExpression;
+    @Parameter(defaultValue = "0.0", interval = "[0.0, 1.0]",
+               description = "Quantization step of the geometry and AOT for reusing interpolated LUT values " +
+                       "between pixels, as fraction of the LUT ranges (0 for exact interpolation per pixel). " +
+                       "The cache is kept per thread across all tiles the thread computes")
+    private double lutCacheTolerance;
 
 
     // Auxdata
@@ -118,10 +123,14 @@ public class BbdrOp extends PixelOperator {
     private double kpp_geo;
 
     private AotLookupTable aotLut;
-    private LookupTable kxAotLut;
+    private MultilinearLut kxAotLut;
     private GasLookupTable gasLookupTable;
     private NskyLookupTable nskyDwLut;
     private NskyLookupTable nskyUpLut;
+    private BbdrLutRegistry.SensorLuts luts;
+    private BbdrLutInterpolator lutInterpolator;
+    private ThreadLocal<BbdrLutInterpolator.Workspace> lutWorkspace;
+    private ThreadLocal<GasLookupTable.Transmittance> gasTransmittance;
 
     private double vzaMin;
     private double vzaMax;
@@ -247,34 +256,48 @@ public class BbdrOp extends PixelOperator {
     }
 
     void readAuxdata() {
-        N2Bconversion n2Bconversion = new N2Bconversion(sensor, 3);
         try {
-            n2Bconversion.load();
-            rmse_arr_all = n2Bconversion.getRmse_arr_all();
-            nb_coef_arr_all = new Matrix(n2Bconversion.getNb_coef_arr_all());
-            double[] nb_intcp_arr_all_data = n2Bconversion.getNb_intcp_arr_all();
-            nb_intcp_arr_all = new Matrix(nb_intcp_arr_all_data, nb_intcp_arr_all_data.length);
-
-            double[][] nb_coef_arr_D = n2Bconversion.getNb_coef_arr_D();
-            nb_coef_arr = new Matrix[n_spc];
-            for (int i_bb = 0; i_bb < n_spc; i_bb++) {
-                nb_coef_arr[i_bb] = new Matrix(nb_coef_arr_D[i_bb], nb_coef_arr_D[i_bb].length).transpose();
-            }
-            nb_intcp_arr_D = n2Bconversion.getNb_intcp_arr_D();
-
-            aotLut = BbdrUtils.getAotLookupTable(sensor);
-            kxAotLut = BbdrUtils.getAotKxLookupTable(sensor);
-            nskyDwLut = BbdrUtils.getNskyLookupTableDw(sensor);
-            nskyUpLut = BbdrUtils.getNskyLookupTableUp(sensor);
-            kpp_geo = nskyDwLut.getKppGeo();
-            kpp_vol = nskyDwLut.getKppVol();
-
-            gasLookupTable = new GasLookupTable(sensor);
-            gasLookupTable.load(sourceProduct);
+            luts = BbdrLutRegistry.acquire(sensor, GasLookupTable.getGasValue(sensor, sourceProduct));
         } catch (IOException e) {
             throw new OperatorException(e.getMessage());
         }
 
+        N2Bconversion n2Bconversion = luts.getN2Bconversion();
+        rmse_arr_all = n2Bconversion.getRmse_arr_all();
+        nb_coef_arr_all = new Matrix(n2Bconversion.getNb_coef_arr_all());
+        double[] nb_intcp_arr_all_data = n2Bconversion.getNb_intcp_arr_all();
+        nb_intcp_arr_all = new Matrix(nb_intcp_arr_all_data, nb_intcp_arr_all_data.length);
+
+        double[][] nb_coef_arr_D = n2Bconversion.getNb_coef_arr_D();
+        nb_coef_arr = new Matrix[n_spc];
+        for (int i_bb = 0; i_bb < n_spc; i_bb++) {
+            nb_coef_arr[i_bb] = new Matrix(nb_coef_arr_D[i_bb], nb_coef_arr_D[i_bb].length).transpose();
+        }
+        nb_intcp_arr_D = n2Bconversion.getNb_intcp_arr_D();
+
+        aotLut = luts.getAotLut();
+        kxAotLut = luts.getAotKxLut();
+        nskyDwLut = luts.getNskyDwLut();
+        nskyUpLut = luts.getNskyUpLut();
+        lutInterpolator = new BbdrLutInterpolator(aotLut, kxAotLut, nskyDwLut, nskyUpLut, sensor.getNumBands(),
+                                                  lutCacheTolerance);
+        lutWorkspace = new ThreadLocal<BbdrLutInterpolator.Workspace>() {
+            @Override
+            protected BbdrLutInterpolator.Workspace initialValue() {
+                return lutInterpolator.createWorkspace();
+            }
+        };
+        kpp_geo = nskyDwLut.getKppGeo();
+        kpp_vol = nskyDwLut.getKppVol();
+
+        gasLookupTable = luts.getGasLookupTable();
+        gasTransmittance = new ThreadLocal<GasLookupTable.Transmittance>() {
+            @Override
+            protected GasLookupTable.Transmittance initialValue() {
+                return gasLookupTable.createTransmittance();
+            }
+        };
+
         LookupTable aotLut = this.aotLut.getLut();
 
         final double[] vzaArray = aotLut.getDimension(5).getSequence();
@@ -303,6 +326,23 @@ public class BbdrOp extends PixelOperator {
         }
     }
 
+    @Override
+    public void dispose() {
+        if (lutInterpolator != null) {
+            if (lutCacheTolerance > 0.0) {
+                BeamLogManager.getSystemLogger().info(String.format("BBDR LUT cache: %d hits, %d misses",
+                                                                    lutInterpolator.getMomoCacheHits(),
+                                                                    lutInterpolator.getMomoCacheMisses()));
+            }
+            lutInterpolator = null;
+        }
+        if (luts != null) {
+            BbdrLutRegistry.release(luts);
+            luts = null;
+        }
+        super.dispose();
+    }
+
     @Override
     protected void configureSourceSamples(SampleConfigurer configurator) {
         String[] toaBandNames;
@@ -649,8 +689,10 @@ public class BbdrOp extends PixelOperator {
             targetSamples[TRG_RAA].set(phi);
         }
 
-        float[] tg = gasLookupTable.getTg((float) amf, (float) gas);
-        float[][][] kx_tg = gasLookupTable.getKxTg((float) amf, (float) gas);
+        final GasLookupTable.Transmittance transmittance = gasTransmittance.get();
+        gasLookupTable.getTransmittance((float) amf, (float) gas, transmittance);
+        float[] tg = transmittance.getTg();
+        float[][][] kx_tg = transmittance.getKxTg();
 
         double[][] f_int_all = interpol_lut_MOMO_kx(vza, sza, phi, hsf, aot);
 
@@ -840,70 +882,16 @@ public class BbdrOp extends PixelOperator {
      * as a function of [vza, sza, phi, hsf, aot] from the interpolation of the MOMO absorption-free LUTs
      */
     private double[][] interpol_lut_MOMO_kx(double vza, double sza, double phi, double hsf, double aot) {
-        final LookupTable lut = aotLut.getLut();
-        final float[] wvl = aotLut.getWvl();
-        final double[] params = aotLut.getLut().getDimension(6).getSequence();
-        final double[] kxParams = kxAotLut.getDimension(6).getSequence();
-        double[][] result = new double[sensor.getNumBands()][7];
-
-        int lutDimensionCount = lut.getDimensionCount();
-        FracIndex[] fracIndexes = FracIndex.createArray(lutDimensionCount);
-        double[] v = new double[1 << lutDimensionCount];
-
-        LookupTable.computeFracIndex(lut.getDimension(1), aot, fracIndexes[1]);
-        LookupTable.computeFracIndex(lut.getDimension(2), hsf, fracIndexes[2]);
-        LookupTable.computeFracIndex(lut.getDimension(3), phi, fracIndexes[3]);
-        LookupTable.computeFracIndex(lut.getDimension(4), sza, fracIndexes[4]);
-        LookupTable.computeFracIndex(lut.getDimension(5), vza, fracIndexes[5]);
-
-        for (int i = 0; i < result.length; i++) {
-            int index = 0;
-            LookupTable.computeFracIndex(lut.getDimension(0), wvl[i], fracIndexes[0]);
-            for (double param : params) {
-                LookupTable.computeFracIndex(lut.getDimension(6), param, fracIndexes[6]);
-                result[i][index++] = lut.getValue(fracIndexes, v);
-            }
-            for (double kxParam : kxParams) {
-                LookupTable.computeFracIndex(lut.getDimension(6), kxParam, fracIndexes[6]);
-                result[i][index++] = kxAotLut.getValue(fracIndexes, v);
-            }
-        }
-        return result;
+        return lutInterpolator.interpolateMomoKx(lutWorkspace.get(), vza, sza, phi, hsf, aot);
     }
 
+    /**
+     * 4-D linear interpolation:
+     * returns broadband array [dw_1, dw_2, up_1, up_2]
+     * as a function of [sza, vza, hsf, aot] from the interpolation of the Nsky LUTs
+     */
     private double[][] interpol_lut_Nsky(double sza, double vza, double hsf, double aot) {
-        final LookupTable lut_dw = nskyDwLut.getLut();
-        final LookupTable lut_up = nskyUpLut.getLut();
-        final double[] broadBandSpecs = lut_dw.getDimension(0).getSequence();
-        final double[] dw_params = lut_dw.getDimension(4).getSequence();
-        final double[] up_params = lut_up.getDimension(4).getSequence();
-
-        double[][] result = new double[broadBandSpecs.length][4];
-
-        int lutDimensionCount = lut_dw.getDimensionCount();
-        FracIndex[] fracIndexes = FracIndex.createArray(lutDimensionCount);
-        double[] v = new double[1 << lutDimensionCount];
-
-        LookupTable.computeFracIndex(lut_dw.getDimension(1), aot, fracIndexes[1]);
-        LookupTable.computeFracIndex(lut_dw.getDimension(2), hsf, fracIndexes[2]);
-
-        for (int i = 0; i < result.length; i++) {
-            int index = 0;
-            LookupTable.computeFracIndex(lut_dw.getDimension(0), broadBandSpecs[i], fracIndexes[0]);
-
-            LookupTable.computeFracIndex(lut_dw.getDimension(3), sza, fracIndexes[3]);
-            for (double param : dw_params) {
-                LookupTable.computeFracIndex(lut_dw.getDimension(4), param, fracIndexes[4]);
-                result[i][index++] = lut_dw.getValue(fracIndexes, v);
-            }
-
-            LookupTable.computeFracIndex(lut_up.getDimension(3), vza, fracIndexes[3]);
-            for (double param : up_params) {
-                LookupTable.computeFracIndex(lut_up.getDimension(4), param, fracIndexes[4]);
-                result[i][index++] = lut_up.getValue(fracIndexes, v);
-            }
-        }
-        return result;
+        return lutInterpolator.interpolateNsky(lutWorkspace.get(), sza, vza, hsf, aot);
     }
 
     static Matrix matrixSquare(double[] doubles) {
@@ -67,25 +67,7 @@ public class BbdrUtils {
             float[] wvl = sensor.getWavelength();
             final int nWvl = wvl.length;
 
-            float[] tgLut = new float[nParameters * nVza * nSza * nAzi * nHsf * nAot * nWvl];
-
-            for (int iWvl = 0; iWvl < nWvl; iWvl++) {
-                for (int iAot = 0; iAot < nAot; iAot++) {
-                    for (int iHsf = 0; iHsf < nHsf; iHsf++) {
-                        for (int iAzi = 0; iAzi < nAzi; iAzi++) {
-                            for (int iSza = 0; iSza < nSza; iSza++) {
-                                for (int iVza = 0; iVza < nVza; iVza++) {
-                                    for (int iParams = 0; iParams < nParameters; iParams++) {
-                                        int iAziTemp = nAzi - iAzi - 1;
-                                        int i = iParams + nParameters * (iVza + nVza * (iSza + nSza * (iAziTemp + nAzi * (iHsf + nHsf * (iAot + nAot * iWvl)))));
-                                        tgLut[i] = iis.readFloat();
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            }
+            float[] tgLut = readAotLutValues(iis, nWvl, nAot, nHsf, nAzi, nSza, nVza, nParameters);
 
             Luts.readDimension(iis, nWvl); // skip wavelengths
             float[] solarIrradiances = Luts.readDimension(iis, nWvl);
@@ -93,6 +75,7 @@ public class BbdrUtils {
             // store in original sequence (see breadboard: loop over bd, jj, ii, k, j, i in GA_read_lut_AOD
             AotLookupTable aotLut = new AotLookupTable();
             aotLut.setLut(new LookupTable(tgLut, wvl, aot, hsf, azi, sza, vza, parameters));
+            aotLut.setMultilinearLut(new MultilinearLut(tgLut, wvl, aot, hsf, azi, sza, vza, parameters));
             aotLut.setWvl(wvl);
             aotLut.setSolarIrradiance(solarIrradiances);
             return aotLut;
@@ -101,6 +84,40 @@ public class BbdrUtils {
         }
     }
 
+    /**
+     * reads the values of an AOT LUT, with the azimuth dimension reversed (see {@link #getAotLookupTable}).
+     * The values of one azimuth (all SZA, VZA and parameters) are contiguous in the file and in the LUT,
+     * so they are read as one block instead of float by float.
+     *
+     * @param iis         - the LUT stream, positioned at the values
+     * @param nWvl        - number of wavelengths
+     * @param nAot        - number of AOTs
+     * @param nHsf        - number of surface heights
+     * @param nAzi        - number of azimuths
+     * @param nSza        - number of SZAs
+     * @param nVza        - number of VZAs
+     * @param nParameters - number of parameters
+     * @return float[] - the LUT values
+     * @throws java.io.IOException when failing to read LUT data
+     */
+    static float[] readAotLutValues(ImageInputStream iis, int nWvl, int nAot, int nHsf, int nAzi, int nSza, int nVza,
+                                    int nParameters) throws IOException {
+        final int blockSize = nParameters * nVza * nSza;
+        float[] lut = new float[blockSize * nAzi * nHsf * nAot * nWvl];
+        for (int iWvl = 0; iWvl < nWvl; iWvl++) {
+            for (int iAot = 0; iAot < nAot; iAot++) {
+                for (int iHsf = 0; iHsf < nHsf; iHsf++) {
+                    for (int iAzi = 0; iAzi < nAzi; iAzi++) {
+                        int iAziTemp = nAzi - iAzi - 1;
+                        int offset = blockSize * (iAziTemp + nAzi * (iHsf + nHsf * (iAot + nAot * iWvl)));
+                        iis.readFully(lut, offset, blockSize);
+                    }
+                }
+            }
+        }
+        return lut;
+    }
+
     /**
      * reads an AOT Kx LUT (BBDR breadboard procedure GA_read_LUT_AOD)
      * <p/>
@@ -112,6 +129,22 @@ public class BbdrUtils {
      * @throws java.io.IOException when failing to real LUT data
      */
     public static LookupTable getAotKxLookupTable(Sensor sensor) throws IOException {
+        final MultilinearLut kxLut = getAotKxMultilinearLut(sensor);
+        final float[][] dimensions = new float[kxLut.getDimensionCount()][];
+        for (int i = 0; i < dimensions.length; i++) {
+            dimensions[i] = kxLut.getDimension(i);
+        }
+        return new LookupTable(kxLut.getValues(), dimensions);
+    }
+
+    /**
+     * reads an AOT Kx LUT as {@link #getAotKxLookupTable}, for interpolation with a {@link MultilinearLut}
+     *
+     * @param sensor The sensor
+     * @return MultilinearLut
+     * @throws java.io.IOException when failing to real LUT data
+     */
+    public static MultilinearLut getAotKxMultilinearLut(Sensor sensor) throws IOException {
         ImageInputStream iis = Luts.getAotKxLutData(sensor.getInstrument());
         try {
             // read LUT dimensions and values
@@ -135,7 +168,7 @@ public class BbdrUtils {
             float[] lut = new float[nKx * nVza * nSza * nAzi * nHsf * nAot * nWvl];
             iis.readFully(lut, 0, lut.length);
 
-            return new LookupTable(lut, wvl, aot, hsf, azi, sza, vza, kx);
+            return new MultilinearLut(lut, wvl, aot, hsf, azi, sza, vza, kx);
         } finally {
             iis.close();
         }
@@ -181,6 +214,7 @@ public class BbdrUtils {
             // store in original sequence (see breadboard: GA_read_LUT_Nsky)
             NskyLookupTable nskyLut = new NskyLookupTable();
             nskyLut.setLut(new LookupTable(lut, spec, aot, hsf, sza, values));
+            nskyLut.setMultilinearLut(new MultilinearLut(lut, spec, aot, hsf, sza, values));
             nskyLut.setKppGeo(kppGeo);
             nskyLut.setKppVol(kppVol);
 
@@ -228,6 +262,7 @@ public class BbdrUtils {
             // store in original sequence (see breadboard: GA_read_LUT_Nsky)
             NskyLookupTable nskyLut = new NskyLookupTable();
             nskyLut.setLut(new LookupTable(lut, spec, aot, hsf, vza, values));
+            nskyLut.setMultilinearLut(new MultilinearLut(lut, spec, aot, hsf, vza, values));
             nskyLut.setKppGeo(kppGeo);
             nskyLut.setKppVol(kppVol);
 
@@ -12,32 +12,61 @@ import java.io.IOException;
  */
 public class GasLookupTable {
 
+    private static final int N_KX_CASE = 2;
+    private static final int N_KX = 2;
+    // relative tolerance of the gas grid spacing for the direct index lookup
+    private static final float UNIFORM_GRID_TOLERANCE = 1.0E-4f;
+
     private float gas2val = 1.5f; // keep variable name from breadboard
     private final Sensor sensor;
 
-    private float[][][] lutGas;
-    private float[][][][][] kxLutGas;
+    // flat tables [gas][amf][wvl] and [gas][amf][wvl][kxcase][kx], not modified after loading
+    private float[] lutGas;
+    private float[] kxLutGas;
+    private int nWvl;
 
     private float[] amfArray;
     private float[] cwvArray;
     private float[] gasArray;
     private float[] ozoArray;
 
+    // direct index lookup in a uniformly spaced gas grid, see getGasIndexBefore
+    private boolean gasArrayUniform;
+    private float gasArrayInverseStep;
+
     public GasLookupTable(Sensor sensor) {
         this.sensor = sensor;
     }
 
     public void load(Product sourceProduct) throws IOException {
-        if (sourceProduct != null && sensor == Sensor.VGT) {
-            float ozoMeanValue = BbdrUtils.getImageMeanValue(sourceProduct.getBand(BbdrConstants.VGT_OZO_BAND_NAME).getGeophysicalImage());
-            setGasVal(ozoMeanValue);
-        } else {
-            setGasVal(BbdrConstants.CWV_CONSTANT_VALUE);
-        }
+        load(getGasValue(sensor, sourceProduct));
+    }
+
+    /**
+     * loads the tables for the given gas value (see {@link #getGasValue}). The table is not modified any more
+     * afterwards, so it can be shared by several operators (see {@link BbdrLutRegistry}).
+     *
+     * @param gasValue - the gas value
+     * @throws IOException when failing to read LUT data
+     */
+    public void load(float gasValue) throws IOException {
+        setGasVal(gasValue);
         loadCwvOzoLookupTableArray(sensor);
         loadCwvOzoKxLookupTableArray(sensor);
     }
 
+    /**
+     * @param sensor        - the sensor
+     * @param sourceProduct - the source product, may be null
+     * @return float - the ozone mean value of the product for VGT, the constant CWV value otherwise
+     */
+    public static float getGasValue(Sensor sensor, Product sourceProduct) {
+        if (sourceProduct != null && sensor == Sensor.VGT) {
+            return BbdrUtils.getImageMeanValue(sourceProduct.getBand(BbdrConstants.VGT_OZO_BAND_NAME).getGeophysicalImage());
+        }
+        return BbdrConstants.CWV_CONSTANT_VALUE;
+    }
+
     void setGasVal(float value) {
         gas2val = value;
     }
@@ -46,11 +75,11 @@ public class GasLookupTable {
         return gas2val;
     }
 
-    float[][][] getLutGas() {
+    float[] getLutGas() {
         return lutGas;
     }
 
-    float[][][][][] getKxLutGas() {
+    float[] getKxLutGas() {
         return kxLutGas;
     }
 
@@ -78,43 +107,39 @@ public class GasLookupTable {
             ozoArray = Luts.readDimension(iis, nOzo);
 
             float[] wvl = sensor.getWavelength();
-            final int nWvl = wvl.length;
-            float[][][][] cwvOzoLutArray = new float[nWvl][nOzo][nCwv][nAng];
-            for (int iAng = 0; iAng < nAng; iAng++) {
-                for (int iCwv = 0; iCwv < nCwv; iCwv++) {
-                    for (int iOzo = 0; iOzo < nOzo; iOzo++) {
-                        for (int iWvl = 0; iWvl < nWvl; iWvl++) {
-                            cwvOzoLutArray[iWvl][iOzo][iCwv][iAng] = iis.readFloat();
-                        }
-                    }
-                }
-            }
-            lutGas = new float[nWvl][nCwv][nAng];
+            nWvl = wvl.length;
+            // [ang][cwv][ozo][wvl]
+            float[] cwvOzoLutArray = Luts.readDimension(iis, nAng * nCwv * nOzo * nWvl);
             amfArray = convertAngArrayToAmfArray(angArr);
 
             if (this.sensor.equals(Sensor.VGT)) {
+                lutGas = new float[nCwv * nAng * nWvl];
                 int iOzo = BbdrUtils.getIndexBefore(gas2val, ozoArray);
                 float term = (gas2val - ozoArray[iOzo]) / (ozoArray[iOzo + 1] - ozoArray[iOzo]);
                 for (int iWvl = 0; iWvl < nWvl; iWvl++) {
                     for (int iCwv = 0; iCwv < nCwv; iCwv++) {
                         for (int iAng = 0; iAng < nAng; iAng++) {
-                            lutGas[iWvl][iCwv][iAng] = cwvOzoLutArray[iWvl][iOzo][iCwv][iAng] + (cwvOzoLutArray[iWvl][iOzo + 1][iCwv][iAng] - cwvOzoLutArray[iWvl][iOzo][iCwv][iAng]) * term;
+                            final int index = iWvl + nWvl * (iOzo + nOzo * (iCwv + nCwv * iAng));
+                            lutGas[iWvl + nWvl * (iAng + nAng * iCwv)] = cwvOzoLutArray[index] + (cwvOzoLutArray[index + nWvl] - cwvOzoLutArray[index]) * term;
                         }
                     }
                 }
                 gasArray = cwvArray;
             } else {
+                lutGas = new float[nOzo * nAng * nWvl];
                 int iCwv = BbdrUtils.getIndexBefore(gas2val, cwvArray);
                 float term = (gas2val - cwvArray[iCwv]) / (cwvArray[iCwv + 1] - cwvArray[iCwv]);
                 for (int iWvl = 0; iWvl < nWvl; iWvl++) {
                     for (int iOzo = 0; iOzo < nOzo; iOzo++) {
                         for (int iAng = 0; iAng < nAng; iAng++) {
-                            lutGas[iWvl][iOzo][iAng] = cwvOzoLutArray[iWvl][iOzo][iCwv][iAng] + (cwvOzoLutArray[iWvl][iOzo][iCwv + 1][iAng] - cwvOzoLutArray[iWvl][iOzo][iCwv][iAng]) * term;
+                            final int index = iWvl + nWvl * (iOzo + nOzo * (iCwv + nCwv * iAng));
+                            lutGas[iWvl + nWvl * (iAng + nAng * iOzo)] = cwvOzoLutArray[index] + (cwvOzoLutArray[index + nWvl * nOzo] - cwvOzoLutArray[index]) * term;
                         }
                     }
                 }
                 gasArray = ozoArray;
             }
+            initGasArrayLookup();
         } finally {
             iis.close();
         }
@@ -131,52 +156,38 @@ public class GasLookupTable {
             int nOzo = iis.readInt();
             Luts.readDimension(iis, nOzo);
 
-            int nKx = 2;
-            int nKxcase = 2;
-
-            float[] wvl = sensor.getWavelength();
-            final int nWvl = wvl.length;
-
-            float[][][][][][] kxArray = new float[nWvl][nOzo][nCwv][nAng][nKxcase][nKx];
-            for (int iWvl = 0; iWvl < nWvl; iWvl++) {
-                for (int iOzo = 0; iOzo < nOzo; iOzo++) {
-                    for (int iCwv = 0; iCwv < nCwv; iCwv++) {
-                        for (int iAng = 0; iAng < nAng; iAng++) {
-                            for (int iKxCase = 0; iKxCase < nKxcase; iKxCase++) {
-                                for (int iKx = 0; iKx < nKx; iKx++) {
-                                    kxArray[iWvl][iOzo][iCwv][iAng][iKxCase][iKx] = iis.readFloat();
-                                }
-                            }
-                        }
-                    }
-                }
-            }
+            // [wvl][ozo][cwv][ang][kxcase][kx]
+            final int nKxValues = N_KX_CASE * N_KX;
+            float[] kxArray = Luts.readDimension(iis, nWvl * nOzo * nCwv * nAng * nKxValues);
 
-            kxLutGas = new float[nWvl][nCwv][nAng][nKxcase][nKx];
             if (sensor.equals(Sensor.VGT)) {
+                kxLutGas = new float[nCwv * nAng * nWvl * nKxValues];
                 int iOzo = BbdrUtils.getIndexBefore(gas2val, ozoArray);
+                float term = (gas2val - ozoArray[iOzo]) / (ozoArray[iOzo + 1] - ozoArray[iOzo]);
                 for (int iWvl = 0; iWvl < nWvl; iWvl++) {
                     for (int iCwv = 0; iCwv < nCwv; iCwv++) {
                         for (int iAng = 0; iAng < nAng; iAng++) {
-                            for (int iKxcase = 0; iKxcase < nKxcase; iKxcase++) {
-                                for (int iKx = 0; iKx < nKx; iKx++) {
-                                    float term = (gas2val - ozoArray[iOzo]) / (ozoArray[iOzo + 1] - ozoArray[iOzo]);
-                                    kxLutGas[iWvl][iCwv][iAng][iKxcase][iKx] = kxArray[iWvl][iOzo][iCwv][iAng][iKxcase][iKx] + (kxArray[iWvl][iOzo + 1][iCwv][iAng][iKxcase][iKx] - kxArray[iWvl][iOzo][iCwv][iAng][iKxcase][iKx]) * term;
-                                }
+                            final int index = nKxValues * (iAng + nAng * (iCwv + nCwv * (iOzo + nOzo * iWvl)));
+                            final int lutIndex = nKxValues * (iWvl + nWvl * (iAng + nAng * iCwv));
+                            final int nextOzo = nKxValues * nAng * nCwv;
+                            for (int i = 0; i < nKxValues; i++) {
+                                kxLutGas[lutIndex + i] = kxArray[index + i] + (kxArray[index + i + nextOzo] - kxArray[index + i]) * term;
                             }
                         }
                     }
                 }
             } else {
+                kxLutGas = new float[nOzo * nAng * nWvl * nKxValues];
                 int iCwv = BbdrUtils.getIndexBefore(gas2val, cwvArray);
+                float term = (gas2val - cwvArray[iCwv]) / (cwvArray[iCwv + 1] - cwvArray[iCwv]);
                 for (int iWvl = 0; iWvl < nWvl; iWvl++) {
                     for (int iOzo = 0; iOzo < nOzo; iOzo++) {
                         for (int iAng = 0; iAng < nAng; iAng++) {
-                            for (int iKxcase = 0; iKxcase < nKxcase; iKxcase++) {
-                                for (int iKx = 0; iKx < nKx; iKx++) {
-                                    float term = (gas2val - cwvArray[iCwv]) / (cwvArray[iCwv + 1] - cwvArray[iCwv]);
-                                    kxLutGas[iWvl][iOzo][iAng][iKxcase][iKx] = kxArray[iWvl][iOzo][iCwv][iAng][iKxcase][iKx] + (kxArray[iWvl][iOzo][iCwv + 1][iAng][iKxcase][iKx] - kxArray[iWvl][iOzo][iCwv][iAng][iKxcase][iKx]) * term;
-                                }
+                            final int index = nKxValues * (iAng + nAng * (iCwv + nCwv * (iOzo + nOzo * iWvl)));
+                            final int lutIndex = nKxValues * (iWvl + nWvl * (iAng + nAng * iOzo));
+                            final int nextCwv = nKxValues * nAng;
+                            for (int i = 0; i < nKxValues; i++) {
+                                kxLutGas[lutIndex + i] = kxArray[index + i] + (kxArray[index + i + nextCwv] - kxArray[index + i]) * term;
                             }
                         }
                     }
@@ -187,47 +198,132 @@ public class GasLookupTable {
         }
     }
 
-    public float[] getTg(float amf, float gas) {
+    /**
+     * @return Transmittance - output buffers for {@link #getTransmittance}, to be reused by a thread for all its pixels
+     */
+    public Transmittance createTransmittance() {
+        return new Transmittance(sensor.getNumBands());
+    }
+
+    /**
+     * computes the gas transmittance and its Kx terms of all bands (see {@link #getTg} and {@link #getKxTg}) into
+     * the given buffers, with one lookup of the AMF and gas grid positions for both.
+     *
+     * @param amf           - the air mass factor
+     * @param gas           - the gas value
+     * @param transmittance - the buffers (output)
+     */
+    public void getTransmittance(float amf, float gas, Transmittance transmittance) {
         int ind_amf = BbdrUtils.getIndexBefore(amf, amfArray);
         float amf_p = (amf - amfArray[ind_amf]) / (amfArray[ind_amf + 1] - amfArray[ind_amf]);
 
-        int ind_gas = BbdrUtils.getIndexBefore(gas, gasArray);
+        int ind_gas = getGasIndexBefore(gas);
         float gas_p = (gas - gasArray[ind_gas]) / (gasArray[ind_gas + 1] - gasArray[ind_gas]);
 
-        float[] tg = new float[sensor.getNumBands()];
-        for (int iWvl = 0; iWvl < tg.length; iWvl++) {
-            tg[iWvl] = (1.0f - amf_p) * (1.0f - gas_p) * lutGas[iWvl][ind_gas][ind_amf] +
-                    gas_p * (1.0f - amf_p) * lutGas[iWvl][ind_gas + 1][ind_amf] +
-                    (1.0f - gas_p) * amf_p * lutGas[iWvl][ind_gas][ind_amf + 1] +
-                    amf_p * gas_p * lutGas[iWvl][ind_gas + 1][ind_amf + 1];
-        }
-        return tg;
+        interpolateTg(ind_amf, amf_p, ind_gas, gas_p, transmittance.tg);
+        interpolateKxTg(ind_amf, amf_p, ind_gas, gas_p, transmittance.kxTg);
     }
 
-//    float[] get2(float amf, float gas) {
-//        LookupTable lookupTable = new LookupTable(lutGas, amfArray, gasArray);
-//        lookupTable.getValue(amf, gas);
-//    }
+    public float[] getTg(float amf, float gas) {
+        final Transmittance transmittance = createTransmittance();
+        getTransmittance(amf, gas, transmittance);
+        return transmittance.tg;
+    }
 
     public float[][][] getKxTg(float amf, float gas) {
-        int ind_amf = BbdrUtils.getIndexBefore(amf, amfArray);
-        float amf_p = (amf - amfArray[ind_amf]) / (amfArray[ind_amf + 1] - amfArray[ind_amf]);
+        final Transmittance transmittance = createTransmittance();
+        getTransmittance(amf, gas, transmittance);
+        return transmittance.kxTg;
+    }
 
-        int ind_gas = BbdrUtils.getIndexBefore(gas, gasArray);
-        float gas_p = (gas - gasArray[ind_gas]) / (gasArray[ind_gas + 1] - gasArray[ind_gas]);
+    private void interpolateTg(int ind_amf, float amf_p, int ind_gas, float gas_p, float[] tg) {
+        final int nAmf = amfArray.length;
+        final int i00 = nWvl * (ind_amf + nAmf * ind_gas);
+        final int i10 = i00 + nWvl * nAmf;
+        final int i01 = i00 + nWvl;
+        final int i11 = i10 + nWvl;
+        final float w00 = (1.0f - amf_p) * (1.0f - gas_p);
+        final float w10 = gas_p * (1.0f - amf_p);
+        final float w01 = (1.0f - gas_p) * amf_p;
+        final float w11 = amf_p * gas_p;
+        for (int iWvl = 0; iWvl < tg.length; iWvl++) {
+            tg[iWvl] = w00 * lutGas[i00 + iWvl] +
+                    w10 * lutGas[i10 + iWvl] +
+                    w01 * lutGas[i01 + iWvl] +
+                    w11 * lutGas[i11 + iWvl];
+        }
+    }
 
-        float[][][] kx_tg = new float[sensor.getNumBands()][2][2];         // todo: introduce constants for 2,2
-        for (int iWvl = 0; iWvl < sensor.getNumBands(); iWvl++) {
-            for (int iKxcase = 0; iKxcase < kx_tg[iWvl].length; iKxcase++) {
-                for (int iKx = 0; iKx < kx_tg[iWvl][iKxcase].length; iKx++) {
-                    kx_tg[iWvl][iKxcase][iKx] = (1.0f - amf_p) * (1.0f - gas_p) * kxLutGas[iWvl][ind_gas][ind_amf][iKxcase][iKx] +
-                            gas_p * (1.0f - amf_p) * kxLutGas[iWvl][ind_gas + 1][ind_amf][iKxcase][iKx] +
-                            (1.0f - gas_p) * amf_p * kxLutGas[iWvl][ind_gas][ind_amf + 1][iKxcase][iKx] +
-                            amf_p * gas_p * kxLutGas[iWvl][ind_gas + 1][ind_amf + 1][iKxcase][iKx];
+    private void interpolateKxTg(int ind_amf, float amf_p, int ind_gas, float gas_p, float[][][] kx_tg) {
+        final int nAmf = amfArray.length;
+        final int nKxValues = N_KX_CASE * N_KX;
+        final int i00 = nKxValues * nWvl * (ind_amf + nAmf * ind_gas);
+        final int i10 = i00 + nKxValues * nWvl * nAmf;
+        final int i01 = i00 + nKxValues * nWvl;
+        final int i11 = i10 + nKxValues * nWvl;
+        final float w00 = (1.0f - amf_p) * (1.0f - gas_p);
+        final float w10 = gas_p * (1.0f - amf_p);
+        final float w01 = (1.0f - gas_p) * amf_p;
+        final float w11 = amf_p * gas_p;
+        for (int iWvl = 0; iWvl < kx_tg.length; iWvl++) {
+            for (int iKxcase = 0; iKxcase < N_KX_CASE; iKxcase++) {
+                for (int iKx = 0; iKx < N_KX; iKx++) {
+                    final int offset = iKx + N_KX * (iKxcase + N_KX_CASE * iWvl);
+                    kx_tg[iWvl][iKxcase][iKx] = w00 * kxLutGas[i00 + offset] +
+                            w10 * kxLutGas[i10 + offset] +
+                            w01 * kxLutGas[i01 + offset] +
+                            w11 * kxLutGas[i11 + offset];
                 }
             }
         }
-        return kx_tg;
+    }
+
+    private void initGasArrayLookup() {
+        final int n = gasArray.length;
+        final float step = (gasArray[n - 1] - gasArray[0]) / (n - 1);
+        gasArrayUniform = step > 0.0f;
+        for (int i = 1; i < n && gasArrayUniform; i++) {
+            gasArrayUniform = Math.abs(gasArray[i] - gasArray[i - 1] - step) <= UNIFORM_GRID_TOLERANCE * step;
+        }
+        gasArrayInverseStep = 1.0f / step;
+    }
+
+    /**
+     * same as {@link BbdrUtils#getIndexBefore} for the gas grid, but with a direct index for uniformly spaced grids.
+     * Values on or close to a grid point may get the interval before it, with the same interpolation result.
+     */
+    int getGasIndexBefore(float gas) {
+        if (!gasArrayUniform) {
+            return BbdrUtils.getIndexBefore(gas, gasArray);
+        }
+        final float position = (gas - gasArray[0]) * gasArrayInverseStep;
+        if (!(position < gasArray.length - 2)) {
+            // also for NaN
+            return gasArray.length - 2;
+        }
+        return position < 0.0f ? 0 : (int) position;
+    }
+
+    /**
+     * Output buffers of the gas transmittance per band: tg[band] and kxTg[band][kxcase][kx].
+     */
+    public static class Transmittance {
+
+        private final float[] tg;
+        private final float[][][] kxTg;
+
+        private Transmittance(int numBands) {
+            tg = new float[numBands];
+            kxTg = new float[numBands][N_KX_CASE][N_KX];
+        }
+
+        public float[] getTg() {
+            return tg;
+        }
+
+        public float[][][] getKxTg() {
+            return kxTg;
+        }
     }
 
     /**
@@ -0,0 +1,219 @@
+package org.esa.beam.globalbedo.bbdr;
+
+import java.util.Arrays;
+
+/**
+ * Lookup table with multilinear interpolation, specialised for the BBDR LUTs: the values are held in one flat
+ * array, and the last dimension (the parameters of the LUT, e.g. rpw, ttot, sab, ...) is not interpolated, but all
+ * its values are returned at once.
+ * <p/>
+ * The point to interpolate at is set in a {@link Workspace}, which holds the weights of the corners of the
+ * enclosing grid cell, so they are computed once for all parameters, and again only for the dimensions whose
+ * coordinates changed. A workspace can be used for LUTs with the same dimension sizes (e.g. the AOT and the
+ * AOT Kx LUT), but not by concurrent threads.
+ * <p/>
+ * The interpolation gives the same values as {@link org.esa.beam.util.math.LookupTable} (up to rounding):
+ * coordinates outside of a dimension are clamped to its first or last value.
+ *
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class MultilinearLut {
+
+    private final float[] values;
+    private final float[][] dimensions;
+    private final int numParameters;
+    private final int[] sizes;
+
+    /**
+     * @param values     - the LUT values, the last dimension varying fastest
+     * @param dimensions - the coordinates of the dimensions, the last one being the parameter dimension
+     */
+    public MultilinearLut(float[] values, float[]... dimensions) {
+        if (dimensions.length < 2) {
+            throw new IllegalArgumentException("LUT needs at least one dimension besides the parameters.");
+        }
+        long size = 1;
+        for (float[] dimension : dimensions) {
+            size *= dimension.length;
+        }
+        if (size != values.length) {
+            throw new IllegalArgumentException("LUT has " + values.length + " values, dimensions give " + size);
+        }
+        this.values = values;
+        this.dimensions = dimensions;
+        numParameters = dimensions[dimensions.length - 1].length;
+        sizes = new int[dimensions.length - 1];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = dimensions[i].length;
+        }
+    }
+
+    public float[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return int - the number of dimensions, including the parameter dimension
+     */
+    public int getDimensionCount() {
+        return dimensions.length;
+    }
+
+    public float[] getDimension(int index) {
+        return dimensions[index];
+    }
+
+    public int getNumParameters() {
+        return numParameters;
+    }
+
+    public Workspace createWorkspace() {
+        return new Workspace(sizes);
+    }
+
+    /**
+     * Sets the coordinate of an interpolated dimension.
+     *
+     * @param workspace  - the workspace (of a LUT with the same dimension sizes)
+     * @param dimension  - the dimension index (not the parameter dimension)
+     * @param coordinate - the coordinate, values outside the dimension are clamped
+     */
+    public void setCoordinate(Workspace workspace, int dimension, double coordinate) {
+        final float[] partition = dimensions[dimension];
+        // as LookupTable.computeFracIndex
+        int lo = 0;
+        int hi = partition.length - 1;
+        while (hi > lo + 1) {
+            final int m = (lo + hi) >> 1;
+            if (coordinate < partition[m]) {
+                hi = m;
+            } else {
+                lo = m;
+            }
+        }
+        double fraction = (coordinate - partition[lo]) / (partition[hi] - partition[lo]);
+        if (fraction < 0.0) {
+            fraction = 0.0;
+        } else if (fraction > 1.0) {
+            fraction = 1.0;
+        }
+        workspace.set(dimension, lo, fraction);
+    }
+
+    /**
+     * Interpolates all parameters at the point set in the workspace.
+     *
+     * @param workspace - the workspace (of a LUT with the same dimension sizes)
+     * @param result    - the parameter values (output)
+     * @param offset    - the index of the first parameter in the result
+     */
+    public void interpolate(Workspace workspace, double[] result, int offset) {
+        if (!Arrays.equals(workspace.sizes, sizes)) {
+            throw new IllegalArgumentException("Workspace belongs to a LUT with different dimensions.");
+        }
+        workspace.updateCorners();
+        final int numCorners = workspace.getNumCorners();
+        final int[] cornerBlocks = workspace.getCornerBlocks();
+        final double[] cornerWeights = workspace.getCornerWeights();
+        for (int p = 0; p < numParameters; p++) {
+            result[offset + p] = 0.0;
+        }
+        for (int c = 0; c < numCorners; c++) {
+            final int base = cornerBlocks[c] * numParameters;
+            final double weight = cornerWeights[c];
+            for (int p = 0; p < numParameters; p++) {
+                result[offset + p] += weight * values[base + p];
+            }
+        }
+    }
+
+    /**
+     * The interpolation point and the weights of the corners of its grid cell. The corners are built dimension by
+     * dimension, from the last one to the first one, and corners of weight 0 are dropped, so a changed coordinate
+     * of the first dimension (e.g. the wavelength) requires only the last expansion step.
+     */
+    public static class Workspace {
+
+        private final int[] sizes;
+        // strides of the interpolated dimensions, in parameter blocks
+        private final int[] strides;
+        private final int[] indexes;
+        private final double[] fractions;
+
+        // corners after expanding the last 'level' dimensions
+        private final int[][] blocks;
+        private final double[][] weights;
+        private final int[] counts;
+        private int numValidLevels;
+
+        private Workspace(int[] sizes) {
+            final int n = sizes.length;
+            this.sizes = sizes.clone();
+            strides = new int[n];
+            int stride = 1;
+            for (int d = n - 1; d >= 0; d--) {
+                strides[d] = stride;
+                stride *= sizes[d];
+            }
+            indexes = new int[n];
+            fractions = new double[n];
+            Arrays.fill(fractions, Double.NaN);
+            blocks = new int[n + 1][];
+            weights = new double[n + 1][];
+            counts = new int[n + 1];
+            for (int level = 0; level <= n; level++) {
+                blocks[level] = new int[1 << level];
+                weights[level] = new double[1 << level];
+            }
+            weights[0][0] = 1.0;
+            counts[0] = 1;
+        }
+
+        private void set(int dimension, int index, double fraction) {
+            if (indexes[dimension] != index || Double.compare(fractions[dimension], fraction) != 0) {
+                indexes[dimension] = index;
+                fractions[dimension] = fraction;
+                numValidLevels = Math.min(numValidLevels, sizes.length - 1 - dimension);
+            }
+        }
+
+        private void updateCorners() {
+            final int n = sizes.length;
+            for (int level = numValidLevels; level < n; level++) {
+                final int d = n - 1 - level;
+                final int base = indexes[d] * strides[d];
+                final double f = fractions[d];
+                final int[] inBlocks = blocks[level];
+                final double[] inWeights = weights[level];
+                final int[] outBlocks = blocks[level + 1];
+                final double[] outWeights = weights[level + 1];
+                int count = 0;
+                for (int c = 0; c < counts[level]; c++) {
+                    if (f != 1.0) {
+                        outBlocks[count] = inBlocks[c] + base;
+                        outWeights[count++] = inWeights[c] * (1.0 - f);
+                    }
+                    if (f != 0.0) {
+                        outBlocks[count] = inBlocks[c] + base + strides[d];
+                        outWeights[count++] = inWeights[c] * f;
+                    }
+                }
+                counts[level + 1] = count;
+            }
+            numValidLevels = n;
+        }
+
+        private int getNumCorners() {
+            return counts[sizes.length];
+        }
+
+        private int[] getCornerBlocks() {
+            return blocks[sizes.length];
+        }
+
+        private double[] getCornerWeights() {
+            return weights[sizes.length];
+        }
+    }
+}
@@ -10,6 +10,7 @@ import org.esa.beam.util.math.LookupTable;
  */
 public class NskyLookupTable {
     private LookupTable lut;
+    private MultilinearLut multilinearLut;
     private double kppVol;
     private double kppGeo;
 
@@ -21,6 +22,17 @@ public class NskyLookupTable {
         this.lut = lut;
     }
 
+    /**
+     * @return MultilinearLut - the LUT values, for interpolation of all parameters at once
+     */
+    public MultilinearLut getMultilinearLut() {
+        return multilinearLut;
+    }
+
+    public void setMultilinearLut(MultilinearLut multilinearLut) {
+        this.multilinearLut = multilinearLut;
+    }
+
     public double getKppVol() {
         return kppVol;
     }
@@ -0,0 +1,275 @@
+package org.esa.beam.globalbedo.bbdr;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class BbdrLutInterpolatorTest {
+
+    private static final float[] WVL = {412.5f, 442.5f, 490.0f};
+    private static final float[] AOT = {0.0f, 0.1f, 0.2f, 0.4f, 0.8f, 1.2f};
+    private static final float[] HSF = {0.0f, 1.5f, 3.0f, 5.0f};
+    private static final float[] AZI = {0.0f, 45.0f, 90.0f, 135.0f, 180.0f};
+    private static final float[] SZA = {0.0f, 20.0f, 40.0f, 60.0f, 75.0f};
+    private static final float[] VZA = {0.0f, 15.0f, 30.0f, 45.0f};
+    private static final float[] PARAMETERS = {1.0f, 2.0f, 3.0f, 4.0f, 5.0f};
+    private static final float[] KX = {1.0f, 2.0f};
+    private static final float[] SPEC = {1.0f, 2.0f, 3.0f};
+    private static final float[] VALUES = {1.0f, 2.0f};
+
+    // slopes of the linear LUT in vza, sza, phi, hsf, aot
+    private static final double[] SLOPES = {0.002, -0.003, 0.001, 0.05, 0.4};
+
+    @Test
+    public void testWithoutCache() {
+        final BbdrLutInterpolator interpolator = createInterpolator(new Random(1), 0.0);
+        final BbdrLutInterpolator.Workspace workspace = interpolator.createWorkspace();
+        final double[][] result = interpolator.interpolateMomoKx(workspace, 10.0, 30.0, 70.0, 1.0, 0.3);
+        final double[][] expected = copy(result);
+        assertSame(result, interpolator.interpolateMomoKx(workspace, 10.0, 30.0, 70.0, 1.0, 0.3));
+        assertArrayEquals(expected, result, 0.0);
+        assertEquals(0, interpolator.getMomoCacheHits());
+        assertEquals(0, interpolator.getMomoCacheMisses());
+    }
+
+    @Test
+    public void testCacheHitsAndMisses() {
+        final BbdrLutInterpolator interpolator = createInterpolator(new Random(2), 0.01);
+        final BbdrLutInterpolator.Workspace workspace = interpolator.createWorkspace();
+        final double[][] first = copy(interpolator.interpolateMomoKx(workspace, 10.0, 30.0, 70.0, 1.0, 0.3));
+        // within the same quantization step of all coordinates
+        final double[][] second = interpolator.interpolateMomoKx(workspace, 10.1, 30.1, 70.1, 1.01, 0.301);
+        assertArrayEquals(first, second, 0.0);
+        assertEquals(1, interpolator.getMomoCacheHits());
+        assertEquals(1, interpolator.getMomoCacheMisses());
+
+        interpolator.interpolateMomoKx(workspace, 20.0, 30.0, 70.0, 1.0, 0.3);
+        assertEquals(1, interpolator.getMomoCacheHits());
+        assertEquals(2, interpolator.getMomoCacheMisses());
+
+        // counts of all workspaces
+        final BbdrLutInterpolator.Workspace otherWorkspace = interpolator.createWorkspace();
+        interpolator.interpolateMomoKx(otherWorkspace, 10.0, 30.0, 70.0, 1.0, 0.3);
+        interpolator.interpolateMomoKx(workspace, 10.0, 30.0, 70.0, 1.0, 0.3);
+        assertEquals(2, interpolator.getMomoCacheHits());
+        assertEquals(3, interpolator.getMomoCacheMisses());
+    }
+
+    @Test
+    public void testCacheErrorOfLinearLut() {
+        final double tolerance = 0.02;
+        final BbdrLutInterpolator exactInterpolator = createLinearInterpolator(0.0);
+        final BbdrLutInterpolator cachedInterpolator = createLinearInterpolator(tolerance);
+        final double[] maxErrors = getMaxErrors(exactInterpolator, cachedInterpolator);
+
+        // a linear function is interpolated exactly, so the error is the change over half a step per coordinate
+        final float[][] dimensions = {VZA, SZA, AZI, HSF, AOT};
+        double bound = 0.0;
+        for (int d = 0; d < dimensions.length; d++) {
+            final float[] dimension = dimensions[d];
+            bound += Math.abs(SLOPES[d]) * 0.5 * tolerance * (dimension[dimension.length - 1] - dimension[0]);
+        }
+        for (int p = 0; p < maxErrors.length; p++) {
+            // plus the rounding of the float LUT values
+            assertTrue(maxErrors[p] <= (bound + 1.0E-6) * (1.0 + p));
+        }
+        assertTrue(maxErrors[0] > 0.0);
+    }
+
+    @Test
+    public void testCacheErrorAtEndOfLutRange() {
+        // 1/tolerance is no integer, so the last step of each coordinate reaches beyond the LUT range
+        final double tolerance = 0.4;
+        final BbdrLutInterpolator exactInterpolator = createLinearInterpolator(0.0);
+        final BbdrLutInterpolator cachedInterpolator = createLinearInterpolator(tolerance);
+        final BbdrLutInterpolator.Workspace exactWorkspace = exactInterpolator.createWorkspace();
+        final BbdrLutInterpolator.Workspace cachedWorkspace = cachedInterpolator.createWorkspace();
+
+        final float[][] dimensions = {VZA, SZA, AZI, HSF, AOT};
+        double bound = 0.0;
+        for (int d = 0; d < dimensions.length; d++) {
+            final float[] dimension = dimensions[d];
+            bound += Math.abs(SLOPES[d]) * 0.5 * tolerance * (dimension[dimension.length - 1] - dimension[0]);
+        }
+        // at and near the maximum vza and sza
+        final double vzaMax = VZA[VZA.length - 1];
+        final double szaMax = SZA[SZA.length - 1];
+        for (int n = 0; n < 10; n++) {
+            final double vza = vzaMax - 0.15 * tolerance * vzaMax * n / 9.0;
+            final double sza = szaMax - 0.15 * tolerance * szaMax * n / 9.0;
+            final double[][] exact = exactInterpolator.interpolateMomoKx(exactWorkspace, vza, sza, 70.0, 1.0, 0.3);
+            final double[][] cached = cachedInterpolator.interpolateMomoKx(cachedWorkspace, vza, sza, 70.0, 1.0,
+                                                                            0.3);
+            for (int i = 0; i < exact.length; i++) {
+                for (int p = 0; p < exact[i].length; p++) {
+                    final int parameter = p < PARAMETERS.length ? p : p - PARAMETERS.length;
+                    assertTrue(Math.abs(exact[i][p] - cached[i][p]) <= (bound + 1.0E-6) * (1.0 + parameter));
+                }
+            }
+        }
+        // with the other coordinates on quantization points, the maximum vza and sza are reproduced exactly
+        final double[][] exact = exactInterpolator.interpolateMomoKx(exactWorkspace, vzaMax, szaMax, 72.0, 2.0, 0.48);
+        final double[][] expected = copy(exact);
+        final double[][] cached = cachedInterpolator.interpolateMomoKx(cachedWorkspace, vzaMax, szaMax, 72.0, 2.0,
+                                                                        0.48);
+        assertArrayEquals(expected, cached, 1.0E-5);
+    }
+
+    @Test
+    public void testCacheErrorOfRandomLut() {
+        final double tolerance = 0.01;
+        final BbdrLutInterpolator exactInterpolator = createInterpolator(new Random(3), 0.0);
+        final BbdrLutInterpolator cachedInterpolator = createInterpolator(new Random(3), tolerance);
+        final double[] maxErrors = getMaxErrors(exactInterpolator, cachedInterpolator);
+
+        // the interpolation has at most the largest slope between neighbouring LUT values in each dimension
+        final Random random = new Random(3);
+        final float[][] aotDimensions = {WVL, AOT, HSF, AZI, SZA, VZA, PARAMETERS};
+        final float[][] kxDimensions = {WVL, AOT, HSF, AZI, SZA, VZA, KX};
+        final double aotBound = getErrorBound(createValues(random, aotDimensions), aotDimensions, tolerance);
+        final double kxBound = getErrorBound(createValues(random, kxDimensions), kxDimensions, tolerance);
+        for (int p = 0; p < maxErrors.length; p++) {
+            assertTrue(maxErrors[p] <= (p < PARAMETERS.length ? aotBound : kxBound) + 1.0E-12);
+        }
+        assertTrue(cachedInterpolator.getMomoCacheHits() > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeTolerance() {
+        createInterpolator(new Random(4), -0.01);
+    }
+
+    // maximum absolute error per parameter of the pixels of a tile with smoothly varying geometry and AOT
+    private static double[] getMaxErrors(BbdrLutInterpolator exactInterpolator,
+                                         BbdrLutInterpolator cachedInterpolator) {
+        final BbdrLutInterpolator.Workspace exactWorkspace = exactInterpolator.createWorkspace();
+        final BbdrLutInterpolator.Workspace cachedWorkspace = cachedInterpolator.createWorkspace();
+        final double[] maxErrors = new double[PARAMETERS.length + KX.length];
+        for (int y = 0; y < 50; y++) {
+            for (int x = 0; x < 50; x++) {
+                final double vza = 12.0 + 0.08 * x;
+                final double sza = 30.0 + 0.09 * y + 0.01 * x;
+                final double phi = 70.0 + 0.2 * x + 0.05 * y;
+                final double hsf = 1.0 + 0.005 * y;
+                final double aot = 0.3 + 0.001 * x + 0.0005 * y;
+                final double[][] exact = exactInterpolator.interpolateMomoKx(exactWorkspace, vza, sza, phi, hsf, aot);
+                final double[][] cached = cachedInterpolator.interpolateMomoKx(cachedWorkspace, vza, sza, phi, hsf,
+                                                                                aot);
+                for (int i = 0; i < exact.length; i++) {
+                    for (int p = 0; p < maxErrors.length; p++) {
+                        maxErrors[p] = Math.max(maxErrors[p], Math.abs(exact[i][p] - cached[i][p]));
+                    }
+                }
+            }
+        }
+        return maxErrors;
+    }
+
+    // sum over vza, sza, phi, hsf, aot of the largest slope times half a step
+    private static double getErrorBound(float[] values, float[][] dimensions, double tolerance) {
+        final int[] cachedDimensions = {5, 4, 3, 2, 1};
+        double bound = 0.0;
+        for (int d : cachedDimensions) {
+            final float[] dimension = dimensions[d];
+            int stride = 1;
+            for (int i = d + 1; i < dimensions.length; i++) {
+                stride *= dimensions[i].length;
+            }
+            double maxSlope = 0.0;
+            for (int i = 0; i < values.length; i++) {
+                final int index = (i / stride) % dimension.length;
+                if (index < dimension.length - 1) {
+                    final double slope = Math.abs(values[i + stride] - values[i]) /
+                            (dimension[index + 1] - dimension[index]);
+                    maxSlope = Math.max(maxSlope, slope);
+                }
+            }
+            bound += maxSlope * 0.5 * tolerance * (dimension[dimension.length - 1] - dimension[0]);
+        }
+        return bound;
+    }
+
+    private static BbdrLutInterpolator createInterpolator(Random random, double tolerance) {
+        final float[] aotValues = createValues(random, WVL, AOT, HSF, AZI, SZA, VZA, PARAMETERS);
+        final float[] kxValues = createValues(random, WVL, AOT, HSF, AZI, SZA, VZA, KX);
+        return createInterpolator(aotValues, kxValues, tolerance);
+    }
+
+    // values of parameter p are (p + 1) * (1 + sum of SLOPES * coordinates)
+    private static BbdrLutInterpolator createLinearInterpolator(double tolerance) {
+        final float[] aotValues = createLinearValues(PARAMETERS.length);
+        final float[] kxValues = createLinearValues(KX.length);
+        return createInterpolator(aotValues, kxValues, tolerance);
+    }
+
+    private static BbdrLutInterpolator createInterpolator(float[] aotValues, float[] kxValues, double tolerance) {
+        final AotLookupTable aotLut = new AotLookupTable();
+        aotLut.setMultilinearLut(new MultilinearLut(aotValues, WVL, AOT, HSF, AZI, SZA, VZA, PARAMETERS));
+        aotLut.setWvl(WVL);
+        final MultilinearLut kxAotLut = new MultilinearLut(kxValues, WVL, AOT, HSF, AZI, SZA, VZA, KX);
+        final NskyLookupTable nskyDwLut = new NskyLookupTable();
+        nskyDwLut.setMultilinearLut(new MultilinearLut(createValues(new Random(5), SPEC, AOT, HSF, SZA, VALUES),
+                                                       SPEC, AOT, HSF, SZA, VALUES));
+        final NskyLookupTable nskyUpLut = new NskyLookupTable();
+        nskyUpLut.setMultilinearLut(new MultilinearLut(createValues(new Random(6), SPEC, AOT, HSF, VZA, VALUES),
+                                                       SPEC, AOT, HSF, VZA, VALUES));
+        return new BbdrLutInterpolator(aotLut, kxAotLut, nskyDwLut, nskyUpLut, WVL.length, tolerance);
+    }
+
+    private static float[] createLinearValues(int numParameters) {
+        final float[] values = new float[WVL.length * AOT.length * HSF.length * AZI.length * SZA.length *
+                VZA.length * numParameters];
+        int i = 0;
+        for (float ignoredWvl : WVL) {
+            for (float aot : AOT) {
+                for (float hsf : HSF) {
+                    for (float azi : AZI) {
+                        for (float sza : SZA) {
+                            for (float vza : VZA) {
+                                final double value = 1.0 + SLOPES[0] * vza + SLOPES[1] * sza + SLOPES[2] * azi +
+                                        SLOPES[3] * hsf + SLOPES[4] * aot;
+                                for (int p = 0; p < numParameters; p++) {
+                                    values[i++] = (float) ((p + 1) * value);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    private static float[] createValues(Random random, float[]... dimensions) {
+        int size = 1;
+        for (float[] dimension : dimensions) {
+            size *= dimension.length;
+        }
+        final float[] values = new float[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = 0.1f + random.nextFloat();
+        }
+        return values;
+    }
+
+    private static double[][] copy(double[][] values) {
+        final double[][] copy = new double[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            copy[i] = values[i].clone();
+        }
+        return copy;
+    }
+
+    private static void assertArrayEquals(double[][] expected, double[][] actual, double delta) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            org.junit.Assert.assertArrayEquals(expected[i], actual[i], delta);
+        }
+    }
+}
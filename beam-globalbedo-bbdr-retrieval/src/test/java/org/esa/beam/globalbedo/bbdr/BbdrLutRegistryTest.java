@@ -0,0 +1,80 @@
+package org.esa.beam.globalbedo.bbdr;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+
+/**
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class BbdrLutRegistryTest extends TestCase {
+
+    public void testTablesAreSharedAndReferenceCounted() throws IOException {
+        final BbdrLutRegistry.SensorLuts luts1 =
+                BbdrLutRegistry.acquire(Sensor.AATSR, BbdrConstants.CWV_CONSTANT_VALUE);
+        final BbdrLutRegistry.SensorLuts luts2 =
+                BbdrLutRegistry.acquire(Sensor.AATSR, BbdrConstants.CWV_CONSTANT_VALUE);
+        assertNotNull(luts1.getAotLut());
+        assertSame(luts1.getAotLut(), luts2.getAotLut());
+        assertSame(luts1.getAotKxLut(), luts2.getAotKxLut());
+        assertSame(luts1.getNskyDwLut(), luts2.getNskyDwLut());
+        assertSame(luts1.getNskyUpLut(), luts2.getNskyUpLut());
+        assertSame(luts1.getN2Bconversion(), luts2.getN2Bconversion());
+        assertSame(luts1.getGasLookupTable(), luts2.getGasLookupTable());
+        assertEquals(2, BbdrLutRegistry.getReferenceCount(Sensor.AATSR, BbdrLutRegistry.LutType.AOT));
+
+        // only the gas table depends on the gas value
+        final BbdrLutRegistry.SensorLuts luts3 = BbdrLutRegistry.acquire(Sensor.AATSR, 0.3f);
+        assertSame(luts1.getAotLut(), luts3.getAotLut());
+        assertNotSame(luts1.getGasLookupTable(), luts3.getGasLookupTable());
+        assertEquals(0.3f, luts3.getGasLookupTable().getGasMeanVal(), 0.0f);
+        assertEquals(3, BbdrLutRegistry.getReferenceCount(Sensor.AATSR, BbdrLutRegistry.LutType.AOT));
+        assertEquals(3, BbdrLutRegistry.getReferenceCount(Sensor.AATSR, BbdrLutRegistry.LutType.GAS));
+
+        BbdrLutRegistry.release(luts3);
+        BbdrLutRegistry.release(luts2);
+        BbdrLutRegistry.release(luts1);
+        assertEquals(0, BbdrLutRegistry.getReferenceCount(Sensor.AATSR, BbdrLutRegistry.LutType.AOT));
+        try {
+            BbdrLutRegistry.release(luts1);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException expected) {
+            // ok
+        }
+    }
+
+    public void testConcurrentAcquireLoadsOnce() throws Exception {
+        final BbdrLutRegistry.SensorLuts[] luts = new BbdrLutRegistry.SensorLuts[4];
+        final Exception[] errors = new Exception[luts.length];
+        final Thread[] threads = new Thread[luts.length];
+        for (int t = 0; t < threads.length; t++) {
+            final int index = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        luts[index] = BbdrLutRegistry.acquire(Sensor.VGT, BbdrConstants.CWV_CONSTANT_VALUE);
+                    } catch (IOException e) {
+                        errors[index] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+            assertNull(errors[t]);
+        }
+        try {
+            for (int t = 1; t < luts.length; t++) {
+                assertSame(luts[0].getAotLut(), luts[t].getAotLut());
+                assertSame(luts[0].getGasLookupTable(), luts[t].getGasLookupTable());
+            }
+        } finally {
+            for (BbdrLutRegistry.SensorLuts sensorLuts : luts) {
+                BbdrLutRegistry.release(sensorLuts);
+            }
+        }
+    }
+}
@@ -3,6 +3,13 @@ package org.esa.beam.globalbedo.bbdr;
 import org.esa.beam.util.math.MathUtils;
 import org.junit.Test;
 
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import static org.junit.Assert.*;
 
 /**
@@ -31,6 +38,43 @@ public class BbdrUtilsTest {
         assertEquals(352, doy);
     }
 
+    @Test
+    public void testReadAotLutValuesIsSameAsFloatByFloat() throws IOException {
+        final int nWvl = 2, nAot = 3, nHsf = 2, nAzi = 4, nSza = 3, nVza = 5, nParameters = 5;
+        final int n = nWvl * nAot * nHsf * nAzi * nSza * nVza * nParameters;
+        // the LUT values, followed by another float
+        final ByteBuffer data = ByteBuffer.allocate((n + 1) * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i <= n; i++) {
+            data.putFloat(0.5f * i - 17.0f);
+        }
+
+        ImageInputStream iis = createLutStream(data.array());
+        final float[] lut = BbdrUtils.readAotLutValues(iis, nWvl, nAot, nHsf, nAzi, nSza, nVza, nParameters);
+        assertEquals(0.5f * n - 17.0f, iis.readFloat(), 0.0f);
+
+        // as formerly in getAotLookupTable
+        iis = createLutStream(data.array());
+        final float[] expected = new float[n];
+        for (int iWvl = 0; iWvl < nWvl; iWvl++) {
+            for (int iAot = 0; iAot < nAot; iAot++) {
+                for (int iHsf = 0; iHsf < nHsf; iHsf++) {
+                    for (int iAzi = 0; iAzi < nAzi; iAzi++) {
+                        for (int iSza = 0; iSza < nSza; iSza++) {
+                            for (int iVza = 0; iVza < nVza; iVza++) {
+                                for (int iParams = 0; iParams < nParameters; iParams++) {
+                                    int iAziTemp = nAzi - iAzi - 1;
+                                    int i = iParams + nParameters * (iVza + nVza * (iSza + nSza * (iAziTemp + nAzi * (iHsf + nHsf * (iAot + nAot * iWvl)))));
+                                    expected[i] = iis.readFloat();
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        assertArrayEquals(expected, lut, 0.0f);
+    }
+
     @Test
     public void testGetSzaFromUt() {
         double ut = 16.0;
@@ -50,4 +94,10 @@ public class BbdrUtilsTest {
 //
 //        assertEquals(31.73, ut, 1.E-2);
 //    }
+
+    private static ImageInputStream createLutStream(byte[] data) {
+        final ImageInputStream iis = new MemoryCacheImageInputStream(new ByteArrayInputStream(data));
+        iis.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+        return iis;
+    }
 }
@@ -81,6 +81,42 @@ public class GasLookupTableTest {
         assertEquals(-4.6359E-8f, kxtg[3][0][1], 1.E-4);
     }
 
+    @Test
+    public void testGetTransmittance() {
+        final GasLookupTable.Transmittance transmittance = gasLookupTable.createTransmittance();
+        final float[] tg = transmittance.getTg();
+        final float[][][] kxTg = transmittance.getKxTg();
+        final float[][] amfGas = {{2.0f, 0.1f}, {4.0f, 0.4f}, {3.3f, 0.45f}, {6.0f, 0.7f}};
+        for (float[] point : amfGas) {
+            gasLookupTable.getTransmittance(point[0], point[1], transmittance);
+            // the buffers are reused
+            assertSame(tg, transmittance.getTg());
+            assertSame(kxTg, transmittance.getKxTg());
+            assertArrayEquals(gasLookupTable.getTg(point[0], point[1]), tg, 0.0f);
+            final float[][][] expectedKxTg = gasLookupTable.getKxTg(point[0], point[1]);
+            for (int i = 0; i < expectedKxTg.length; i++) {
+                for (int j = 0; j < expectedKxTg[i].length; j++) {
+                    assertArrayEquals(expectedKxTg[i][j], kxTg[i][j], 0.0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testGetGasIndexBefore() {
+        final float[] gasArray = gasLookupTable.getGasArray();
+        final int n = gasArray.length;
+        // inside the intervals and outside of the grid
+        for (int i = 0; i < n - 1; i++) {
+            final float gas = 0.5f * (gasArray[i] + gasArray[i + 1]);
+            assertEquals(BbdrUtils.getIndexBefore(gas, gasArray), gasLookupTable.getGasIndexBefore(gas));
+        }
+        assertEquals(0, gasLookupTable.getGasIndexBefore(gasArray[0] - 1.0f));
+        assertEquals(n - 2, gasLookupTable.getGasIndexBefore(gasArray[n - 1]));
+        assertEquals(n - 2, gasLookupTable.getGasIndexBefore(gasArray[n - 1] + 1.0f));
+        assertEquals(n - 2, gasLookupTable.getGasIndexBefore(Float.NaN));
+    }
+
     @Test
     public void testConvertAngArrayToAmfArray() {
         float[] ang = new float[]{0.0f, 20.0f, 40.0f, 50.0f, 60.0f, 65.0f, 70.0f};
@@ -0,0 +1,221 @@
+package org.esa.beam.globalbedo.bbdr;
+
+import org.esa.beam.util.math.FracIndex;
+import org.esa.beam.util.math.LookupTable;
+
+import java.util.Random;
+
+/**
+ * Micro benchmark of the per-pixel LUT interpolation of the BBDR operators: the former interpolation with
+ * {@link LookupTable} against {@link BbdrLutInterpolator}, on synthetic LUTs with 15 bands and random geometries.
+ * The best time of the measured runs is reported.
+ * <p/>
+ * Usage: LutInterpolationBenchmark [numPixels [numRuns]]
+ *
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class LutInterpolationBenchmark {
+
+    private static final int NUM_WARMUP_RUNS = 5;
+
+    private final AotLookupTable aotLut;
+    private final LookupTable kxAotLut;
+    private final NskyLookupTable nskyDwLut;
+    private final NskyLookupTable nskyUpLut;
+    private final BbdrLutInterpolator interpolator;
+    private final int numBands;
+
+    // the result of each run, so that the interpolation is not optimised away
+    private double sink;
+
+    public static void main(String[] args) {
+        final int numPixels = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        final int numRuns = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        final LutInterpolationBenchmark benchmark = new LutInterpolationBenchmark(new Random(42));
+        final double[][] pixels = createPixels(new Random(7), numPixels);
+
+        for (int i = 0; i < NUM_WARMUP_RUNS; i++) {
+            benchmark.runLookupTable(pixels);
+            benchmark.runInterpolator(pixels);
+        }
+        long lookupTableNanos = Long.MAX_VALUE;
+        long interpolatorNanos = Long.MAX_VALUE;
+        for (int i = 0; i < numRuns; i++) {
+            long t0 = System.nanoTime();
+            benchmark.runLookupTable(pixels);
+            lookupTableNanos = Math.min(lookupTableNanos, System.nanoTime() - t0);
+            t0 = System.nanoTime();
+            benchmark.runInterpolator(pixels);
+            interpolatorNanos = Math.min(interpolatorNanos, System.nanoTime() - t0);
+        }
+        System.out.printf("LookupTable:         %8.1f ns/pixel%n", (double) lookupTableNanos / numPixels);
+        System.out.printf("BbdrLutInterpolator: %8.1f ns/pixel%n", (double) interpolatorNanos / numPixels);
+        System.out.println("(sink " + benchmark.sink + ")");
+    }
+
+    private LutInterpolationBenchmark(Random random) {
+        final float[] wvl = new float[15];
+        for (int i = 0; i < wvl.length; i++) {
+            wvl[i] = 412.5f + 25.0f * i;
+        }
+        final float[] aot = {0.0f, 0.05f, 0.1f, 0.15f, 0.2f, 0.3f, 0.4f, 0.6f, 0.8f, 1.0f, 1.5f, 2.0f};
+        final float[] hsf = {0.0f, 1.0f, 2.5f, 5.0f, 7.5f};
+        final float[] azi = createGrid(0.0f, 180.0f, 19);
+        final float[] sza = createGrid(0.0f, 70.0f, 14);
+        final float[] vza = createGrid(0.0f, 45.0f, 10);
+        final float[] parameters = {1.0f, 2.0f, 3.0f, 4.0f, 5.0f};
+        final float[] kx = {1.0f, 2.0f};
+
+        final float[] aotValues = createValues(random, wvl, aot, hsf, azi, sza, vza, parameters);
+        aotLut = new AotLookupTable();
+        aotLut.setLut(new LookupTable(aotValues, wvl, aot, hsf, azi, sza, vza, parameters));
+        aotLut.setMultilinearLut(new MultilinearLut(aotValues, wvl, aot, hsf, azi, sza, vza, parameters));
+        aotLut.setWvl(wvl);
+        final float[] kxValues = createValues(random, wvl, aot, hsf, azi, sza, vza, kx);
+        kxAotLut = new LookupTable(kxValues, wvl, aot, hsf, azi, sza, vza, kx);
+        final MultilinearLut kxMultilinearLut = new MultilinearLut(kxValues, wvl, aot, hsf, azi, sza, vza, kx);
+
+        final float[] spec = {1.0f, 2.0f, 3.0f};
+        final float[] values = {1.0f, 2.0f};
+        nskyDwLut = createNskyLut(random, spec, aot, hsf, sza, values);
+        nskyUpLut = createNskyLut(random, spec, aot, hsf, vza, values);
+
+        numBands = wvl.length;
+        interpolator = new BbdrLutInterpolator(aotLut, kxMultilinearLut, nskyDwLut, nskyUpLut, numBands);
+    }
+
+    private void runLookupTable(double[][] pixels) {
+        double sum = 0.0;
+        for (double[] pixel : pixels) {
+            final double[][] momo = interpol_lut_MOMO_kx(pixel[0], pixel[1], pixel[2], pixel[3], pixel[4]);
+            final double[][] nsky = interpol_lut_Nsky(pixel[1], pixel[0], pixel[3], pixel[4]);
+            sum += momo[numBands - 1][6] + nsky[2][3];
+        }
+        sink += sum;
+    }
+
+    private void runInterpolator(double[][] pixels) {
+        final BbdrLutInterpolator.Workspace workspace = interpolator.createWorkspace();
+        double sum = 0.0;
+        for (double[] pixel : pixels) {
+            final double[][] momo = interpolator.interpolateMomoKx(workspace, pixel[0], pixel[1], pixel[2],
+                                                                   pixel[3], pixel[4]);
+            final double[][] nsky = interpolator.interpolateNsky(workspace, pixel[1], pixel[0], pixel[3], pixel[4]);
+            sum += momo[numBands - 1][6] + nsky[2][3];
+        }
+        sink += sum;
+    }
+
+    // as formerly in BbdrOp
+    private double[][] interpol_lut_MOMO_kx(double vza, double sza, double phi, double hsf, double aot) {
+        final LookupTable lut = aotLut.getLut();
+        final float[] wvl = aotLut.getWvl();
+        final double[] params = aotLut.getLut().getDimension(6).getSequence();
+        final double[] kxParams = kxAotLut.getDimension(6).getSequence();
+        double[][] result = new double[numBands][7];
+
+        int lutDimensionCount = lut.getDimensionCount();
+        FracIndex[] fracIndexes = FracIndex.createArray(lutDimensionCount);
+        double[] v = new double[1 << lutDimensionCount];
+
+        LookupTable.computeFracIndex(lut.getDimension(1), aot, fracIndexes[1]);
+        LookupTable.computeFracIndex(lut.getDimension(2), hsf, fracIndexes[2]);
+        LookupTable.computeFracIndex(lut.getDimension(3), phi, fracIndexes[3]);
+        LookupTable.computeFracIndex(lut.getDimension(4), sza, fracIndexes[4]);
+        LookupTable.computeFracIndex(lut.getDimension(5), vza, fracIndexes[5]);
+
+        for (int i = 0; i < result.length; i++) {
+            int index = 0;
+            LookupTable.computeFracIndex(lut.getDimension(0), wvl[i], fracIndexes[0]);
+            for (double param : params) {
+                LookupTable.computeFracIndex(lut.getDimension(6), param, fracIndexes[6]);
+                result[i][index++] = lut.getValue(fracIndexes, v);
+            }
+            for (double kxParam : kxParams) {
+                LookupTable.computeFracIndex(lut.getDimension(6), kxParam, fracIndexes[6]);
+                result[i][index++] = kxAotLut.getValue(fracIndexes, v);
+            }
+        }
+        return result;
+    }
+
+    // as formerly in BbdrOp
+    private double[][] interpol_lut_Nsky(double sza, double vza, double hsf, double aot) {
+        final LookupTable lut_dw = nskyDwLut.getLut();
+        final LookupTable lut_up = nskyUpLut.getLut();
+        final double[] broadBandSpecs = lut_dw.getDimension(0).getSequence();
+        final double[] dw_params = lut_dw.getDimension(4).getSequence();
+        final double[] up_params = lut_up.getDimension(4).getSequence();
+
+        double[][] result = new double[broadBandSpecs.length][4];
+
+        int lutDimensionCount = lut_dw.getDimensionCount();
+        FracIndex[] fracIndexes = FracIndex.createArray(lutDimensionCount);
+        double[] v = new double[1 << lutDimensionCount];
+
+        LookupTable.computeFracIndex(lut_dw.getDimension(1), aot, fracIndexes[1]);
+        LookupTable.computeFracIndex(lut_dw.getDimension(2), hsf, fracIndexes[2]);
+
+        for (int i = 0; i < result.length; i++) {
+            int index = 0;
+            LookupTable.computeFracIndex(lut_dw.getDimension(0), broadBandSpecs[i], fracIndexes[0]);
+
+            LookupTable.computeFracIndex(lut_dw.getDimension(3), sza, fracIndexes[3]);
+            for (double param : dw_params) {
+                LookupTable.computeFracIndex(lut_dw.getDimension(4), param, fracIndexes[4]);
+                result[i][index++] = lut_dw.getValue(fracIndexes, v);
+            }
+
+            LookupTable.computeFracIndex(lut_up.getDimension(3), vza, fracIndexes[3]);
+            for (double param : up_params) {
+                LookupTable.computeFracIndex(lut_up.getDimension(4), param, fracIndexes[4]);
+                result[i][index++] = lut_up.getValue(fracIndexes, v);
+            }
+        }
+        return result;
+    }
+
+    // vza, sza, phi, hsf, aot
+    private static double[][] createPixels(Random random, int numPixels) {
+        final double[][] pixels = new double[numPixels][];
+        for (int i = 0; i < numPixels; i++) {
+            pixels[i] = new double[]{
+                    45.0 * random.nextDouble(),
+                    70.0 * random.nextDouble(),
+                    180.0 * random.nextDouble(),
+                    2.0 * random.nextDouble(),
+                    random.nextDouble()
+            };
+        }
+        return pixels;
+    }
+
+    private static NskyLookupTable createNskyLut(Random random, float[]... dimensions) {
+        final float[] values = createValues(random, dimensions);
+        final NskyLookupTable nskyLut = new NskyLookupTable();
+        nskyLut.setLut(new LookupTable(values, dimensions));
+        nskyLut.setMultilinearLut(new MultilinearLut(values, dimensions));
+        return nskyLut;
+    }
+
+    private static float[] createGrid(float min, float max, int n) {
+        final float[] grid = new float[n];
+        for (int i = 0; i < n; i++) {
+            grid[i] = min + (max - min) * i / (n - 1);
+        }
+        return grid;
+    }
+
+    private static float[] createValues(Random random, float[]... dimensions) {
+        int size = 1;
+        for (float[] dimension : dimensions) {
+            size *= dimension.length;
+        }
+        final float[] values = new float[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = random.nextFloat();
+        }
+        return values;
+    }
+}
@@ -0,0 +1,154 @@
+package org.esa.beam.globalbedo.bbdr;
+
+import org.esa.beam.util.math.LookupTable;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Olaf Danne
+ * @version $Revision: $ $Date:  $
+ */
+public class MultilinearLutTest {
+
+    @Test
+    public void testInterpolateIsSameAsLookupTable() {
+        final Random random = new Random(11);
+        final float[][] dimensions = {
+                {412.5f, 442.5f, 490.0f, 510.0f},
+                {0.0f, 0.1f, 0.2f, 0.4f, 0.8f},
+                {0.0f, 1.5f, 3.0f},
+                {0.0f, 30.0f, 60.0f, 90.0f, 120.0f, 150.0f, 180.0f},
+                {0.0f, 20.0f, 40.0f, 60.0f, 70.0f},
+                {0.0f, 15.0f, 30.0f, 45.0f},
+                {1.0f, 2.0f, 3.0f, 4.0f, 5.0f}
+        };
+        final float[] values = createValues(random, dimensions);
+        final MultilinearLut multilinearLut = new MultilinearLut(values, dimensions);
+        final LookupTable lut = new LookupTable(values, dimensions);
+        final MultilinearLut.Workspace workspace = multilinearLut.createWorkspace();
+
+        final double[] result = new double[5];
+        final double[] coordinates = new double[7];
+        for (int n = 0; n < 200; n++) {
+            // also outside of the dimensions, and on the grid points
+            for (int d = 0; d < 6; d++) {
+                final float[] dimension = dimensions[d];
+                final float min = dimension[0];
+                final float max = dimension[dimension.length - 1];
+                if (n % 10 == 0) {
+                    coordinates[d] = dimension[random.nextInt(dimension.length)];
+                } else {
+                    coordinates[d] = min - 0.1 * (max - min) + 1.2 * (max - min) * random.nextDouble();
+                }
+                multilinearLut.setCoordinate(workspace, d, coordinates[d]);
+            }
+            multilinearLut.interpolate(workspace, result, 0);
+            for (int p = 0; p < 5; p++) {
+                coordinates[6] = p + 1.0;
+                final double expected = lut.getValue(coordinates);
+                assertEquals(expected, result[p], 1.0E-6 * Math.abs(expected));
+            }
+        }
+    }
+
+    @Test
+    public void testChangedCoordinates() {
+        final Random random = new Random(5);
+        final float[][] dimensions = {
+                {1.0f, 2.0f, 3.0f},
+                {0.0f, 0.5f, 1.0f, 2.0f},
+                {10.0f, 20.0f, 40.0f},
+                {1.0f, 2.0f}
+        };
+        final float[] values = createValues(random, dimensions);
+        final MultilinearLut multilinearLut = new MultilinearLut(values, dimensions);
+        final LookupTable lut = new LookupTable(values, dimensions);
+        final MultilinearLut.Workspace workspace = multilinearLut.createWorkspace();
+
+        final double[] coordinates = {1.3, 0.7, 25.0, 0.0};
+        for (int d = 0; d < 3; d++) {
+            multilinearLut.setCoordinate(workspace, d, coordinates[d]);
+        }
+        final double[] result = new double[3];
+        multilinearLut.interpolate(workspace, result, 1);
+        assertValues(lut, coordinates, result, 1);
+
+        // only the first, only the last and then the middle dimension changes
+        coordinates[0] = 2.0;
+        multilinearLut.setCoordinate(workspace, 0, coordinates[0]);
+        multilinearLut.interpolate(workspace, result, 1);
+        assertValues(lut, coordinates, result, 1);
+
+        coordinates[2] = 50.0;
+        multilinearLut.setCoordinate(workspace, 2, coordinates[2]);
+        multilinearLut.interpolate(workspace, result, 1);
+        assertValues(lut, coordinates, result, 1);
+
+        coordinates[1] = -1.0;
+        multilinearLut.setCoordinate(workspace, 1, coordinates[1]);
+        multilinearLut.interpolate(workspace, result, 1);
+        assertValues(lut, coordinates, result, 1);
+    }
+
+    @Test
+    public void testSharedWorkspace() {
+        final Random random = new Random(3);
+        final float[][] aotDimensions = {{1.0f, 2.0f}, {0.0f, 1.0f, 2.0f}, {1.0f, 2.0f, 3.0f}};
+        final float[][] kxDimensions = {{1.0f, 2.0f}, {0.0f, 1.0f, 2.0f}, {1.0f, 2.0f}};
+        final float[] aotValues = createValues(random, aotDimensions);
+        final float[] kxValues = createValues(random, kxDimensions);
+        final MultilinearLut aotLut = new MultilinearLut(aotValues, aotDimensions);
+        final MultilinearLut kxLut = new MultilinearLut(kxValues, kxDimensions);
+
+        final MultilinearLut.Workspace workspace = aotLut.createWorkspace();
+        aotLut.setCoordinate(workspace, 0, 1.25);
+        aotLut.setCoordinate(workspace, 1, 0.6);
+        final double[] result = new double[5];
+        aotLut.interpolate(workspace, result, 0);
+        kxLut.interpolate(workspace, result, 3);
+
+        final double[] coordinates = {1.25, 0.6, 0.0};
+        assertValues(new LookupTable(aotValues, aotDimensions), coordinates, result, 0);
+        assertValues(new LookupTable(kxValues, kxDimensions), coordinates, result, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWorkspaceOfOtherDimensions() {
+        final MultilinearLut lut = new MultilinearLut(new float[6],
+                                                      new float[]{1.0f, 2.0f}, new float[]{1.0f, 2.0f, 3.0f});
+        final MultilinearLut otherLut = new MultilinearLut(new float[6],
+                                                           new float[]{1.0f, 2.0f, 3.0f}, new float[]{1.0f, 2.0f});
+        final MultilinearLut.Workspace workspace = otherLut.createWorkspace();
+        otherLut.setCoordinate(workspace, 0, 1.5);
+        lut.interpolate(workspace, new double[3], 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongNumberOfValues() {
+        new MultilinearLut(new float[5], new float[]{1.0f, 2.0f}, new float[]{1.0f, 2.0f, 3.0f});
+    }
+
+    private static void assertValues(LookupTable lut, double[] coordinates, double[] result, int offset) {
+        final int numParameters = lut.getDimension(lut.getDimensionCount() - 1).getSequence().length;
+        for (int p = 0; p < numParameters; p++) {
+            coordinates[coordinates.length - 1] = p + 1.0;
+            final double expected = lut.getValue(coordinates);
+            assertEquals(expected, result[offset + p], 1.0E-6 * Math.abs(expected));
+        }
+    }
+
+    private static float[] createValues(Random random, float[][] dimensions) {
+        int size = 1;
+        for (float[] dimension : dimensions) {
+            size *= dimension.length;
+        }
+        final float[] values = new float[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = 0.1f + random.nextFloat();
+        }
+        return values;
+    }
+}
@@ -27,14 +27,13 @@ import org.esa.beam.framework.gpf.Tile;
 import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
 import org.esa.beam.framework.gpf.annotations.Parameter;
 import org.esa.beam.framework.gpf.annotations.TargetProduct;
-import org.esa.beam.globalbedo.inversion.util.IOUtils;
+import org.esa.beam.globalbedo.inversion.util.PriorIndex;
 import org.esa.beam.globalbedo.mosaic.GlobAlbedoMosaicProductReader;
 import org.esa.beam.globalbedo.mosaic.MosaicConstants;
 import org.esa.beam.util.ProductUtils;
 
 import java.awt.*;
 import java.io.File;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.Map;
 
@@ -179,53 +178,29 @@ public class GlobalbedoLevel3UpscaleNewModisPriors extends GlobalbedoLevel3Upsca
     }
 
     private File findRefTile() {
-        FilenameFilter priorFilter = null;
         File[] priorFiles;
         if (isPriors) {
-            if (priorStage == 1) {
-                // e.g. <priorRootDir>/<tile>/stage1prior/processed/Kernels.001.005.h18v04.SnowAndNoSnow.hdr
-                priorFilter = new FilenameFilter() {
-                    public boolean accept(File dir, String name) {
-                        String expectedFilenamePrefix = "Kernels." + IOUtils.getDoyString(doy);
-                        String expectedFilenameSuffix = "." + snowMode + ".hdr";
-                        return name.startsWith(expectedFilenamePrefix) && name.endsWith(expectedFilenameSuffix);
-                    }
-                };
-            } else if (priorStage == 2) {
-                // e.g. <priorRootDir>/<tile>/stage2prior/background/processed/Kernels.001.005.h18v04.backGround.SnowAndNoSnow.hdr
-                priorFilter = new FilenameFilter() {
-                    public boolean accept(File dir, String name) {
-                        String expectedFilenamePrefix = "Kernels." + IOUtils.getDoyString(doy);
-                        String expectedFilenameSuffix = "backGround." + snowMode + ".hdr";
-                        return name.startsWith(expectedFilenamePrefix) && name.endsWith(expectedFilenameSuffix);
-                    }
-                };
-            } else if (priorStage == 3) {
-                // e.g. <priorRootDir>/<tile>/background/processed/Kernels.001.005.h18v04.background.SnowAndNoSnow.nc
-                priorFilter = new FilenameFilter() {
-                    public boolean accept(File dir, String name) {
-                        String expectedFilenamePrefix = "Kernels." + IOUtils.getDoyString(doy);
-                        String expectedFilenameSuffix = "." + snowMode + ".nc";
-                        return name.startsWith(expectedFilenamePrefix) && name.endsWith(expectedFilenameSuffix);
-                    }
-                };
-            }
+            // e.g. <priorRootDir>/<tile>/stage1prior/processed/Kernels.001.005.h18v04.SnowAndNoSnow.hdr
+            //      <priorRootDir>/<tile>/stage2prior/background/processed/Kernels.001.005.h18v04.backGround.SnowAndNoSnow.hdr
+            //      <priorRootDir>/<tile>/background/processed/Kernels.001.005.h18v04.background.SnowAndNoSnow.nc
             priorFiles = GlobAlbedoMosaicProductReader.getPriorTileDirectories(priorRootDir, priorStage);
         } else {
-            priorFilter = new FilenameFilter() {
-                public boolean accept(File dir, String name) {
-                    // Adam.nr.yyyyMM.hXXvYY.dim
-                    String expectedFilename = "Adam.nr." + year + IOUtils.getMonthString(monthIndex) + "." + dir.getName() + ".dim";
-                    return name.equalsIgnoreCase(expectedFilename);
-                }
-            };
+            // Adam.nr.yyyyMM.hXXvYY.dim
             priorFiles = GlobAlbedoMosaicProductReader.getAdamTileDirectories(priorRootDir);
         }
 
+        final String expectedExtension = priorStage == 3 ? ".nc" : ".hdr";
         for (File priorFile : priorFiles) {
-            File[] priorTileFiles = priorFile.listFiles(priorFilter);
-            for (File priorTileFile : priorTileFiles) {
-                if (priorTileFile.exists()) {
+            final PriorIndex priorIndex = PriorIndex.getInstance(priorFile);
+            if (isPriors) {
+                for (File priorTileFile : priorIndex.findPriors("Kernels", null, doy, snowMode)) {
+                    if (priorTileFile.getName().endsWith(expectedExtension) && priorTileFile.exists()) {
+                        return priorTileFile;
+                    }
+                }
+            } else {
+                final File priorTileFile = priorIndex.findAdamPrior(priorFile.getName(), year, monthIndex);
+                if (priorTileFile != null && priorTileFile.exists()) {
                     return priorTileFile;
                 }
             }